@@ -53,11 +53,30 @@ public final class CodedInputStreamRAF {
    * Create a new CodedInputStream wrapping the given InputStream.
    */
   public static CodedInputStreamRAF newInstance(RandomAccessFile raf) {
-    return new CodedInputStreamRAF(raf, BUFFER_SIZE_DEF);
+    return new CodedInputStreamRAF(raf, null, BUFFER_SIZE_DEF);
   }
   
   public static CodedInputStreamRAF newInstance(RandomAccessFile raf, int bufferSize) {
-	return new CodedInputStreamRAF(raf, bufferSize);
+	return new CodedInputStreamRAF(raf, null, bufferSize);
+  }
+
+  /**
+   * Create a new stream reading from shared input (every stream keeps its own position).
+   */
+  public static CodedInputStreamRAF newInstance(PositionalInput input, int bufferSize) {
+	return new CodedInputStreamRAF(null, input, bufferSize);
+  }
+
+  /**
+   * File which could be read at any position by several streams.
+   */
+  public static interface PositionalInput {
+    /**
+     * @return number of bytes read or -1 if position is at the end of file
+     */
+    public int read(long position, byte[] b, int off, int len) throws IOException;
+
+    public long length() throws IOException;
   }
 
 
@@ -425,6 +444,9 @@ public final class CodedInputStreamRAF {
   private int bufferSizeAfterLimit;
   private int bufferPos;
   private final RandomAccessFile raf;
+  private final PositionalInput input;
+  // position of shared input
+  private long inputPosition;
   private int lastTag;
 
   /**
@@ -452,13 +474,35 @@ public final class CodedInputStreamRAF {
   private int BUFFER_SIZE = BUFFER_SIZE_DEF;
 
 
-  private CodedInputStreamRAF(final RandomAccessFile raf, int bufferSize) {
+  private CodedInputStreamRAF(final RandomAccessFile raf, final PositionalInput input, int bufferSize) {
 	BUFFER_SIZE = bufferSize;
     buffer = new byte[BUFFER_SIZE];
     this.bufferSize = 0;
     bufferPos = 0;
     totalBytesRetired = 0;
     this.raf = raf;
+    this.input = input;
+  }
+
+  private int readFile(byte[] b, int off, int len) throws IOException {
+    if (input == null) {
+      return raf.read(b, off, len);
+    }
+    int n = input.read(inputPosition, b, off, len);
+    if (n > 0) {
+      inputPosition += n;
+    }
+    return n;
+  }
+
+  private int skipFile(int n) throws IOException {
+    if (input == null) {
+      return raf.skipBytes(n);
+    }
+    // stop at the end of file (like RandomAccessFile.skipBytes)
+    int skipped = (int) Math.max(0, Math.min(n, input.length() - inputPosition));
+    inputPosition += skipped;
+    return skipped;
   }
 
   /**
@@ -619,7 +663,7 @@ public final class CodedInputStreamRAF {
     totalBytesRetired += bufferSize;
 
     bufferPos = 0;
-    bufferSize = raf.read(buffer);
+    bufferSize = readFile(buffer, 0, buffer.length);
     if (bufferSize == 0 || bufferSize < -1) {
       throw new IllegalStateException(
           "InputStream#read(byte[]) returned invalid result: " + bufferSize +
@@ -733,7 +777,7 @@ public final class CodedInputStreamRAF {
         final byte[] chunk = new byte[Math.min(sizeLeft, BUFFER_SIZE)];
         int pos = 0;
         while (pos < chunk.length) {
-          final int n = raf.read(chunk, pos, chunk.length - pos);
+          final int n = readFile(chunk, pos, chunk.length - pos);
           if (n == -1) {
             throw InvalidProtocolBufferException.truncatedMessage();
           }
@@ -792,7 +836,7 @@ public final class CodedInputStreamRAF {
 
       // Then skip directly from the InputStream for the rest.
       while (pos < size) {
-        final int n = raf.skipBytes(size - pos);
+        final int n = skipFile(size - pos);
         if (n <= 0) {
           throw InvalidProtocolBufferException.truncatedMessage();
         }
@@ -812,7 +856,11 @@ public final class CodedInputStreamRAF {
 	  } else {
 		  totalBytesRetired = (int) pointer;
 		  bufferSizeAfterLimit = 0;
-		  raf.seek(pointer);
+		  if (input == null) {
+			  raf.seek(pointer);
+		  } else {
+			  inputPosition = pointer;
+		  }
 		  bufferPos = 0;
 		  bufferSize = 0;
 	  }
@@ -0,0 +1,1158 @@
+package net.osmand;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.io.IOException;
+import java.io.PipedReader;
+import java.io.PipedWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Streaming gpx reading and writing without building object tree (see GPXUtilities).
+ * Reader parses points directly from characters : lat/lon as int (degrees * 10^7), time as long, elevation as float,
+ * extensions are kept as raw xml and parsed only when they are requested.
+ * Writer formats numbers into its own buffer so writing of a point doesn't allocate objects.
+ * Only jdk classes are used so it could be used (and tested) outside of android.
+ */
+public class GPXStreamUtilities {
+
+	public static final int TRACK_POINT = 1;
+	public static final int ROUTE_POINT = 2;
+	public static final int WAY_POINT = 3;
+
+	private static final double E7 = 1e7;
+	private static final long MILLIS_IN_DAY = 24 * 60 * 60 * 1000l;
+	private static final double[] POWERS_OF_TEN = new double[19];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	public static int toE7(double coordinate) {
+		return (int) Math.round(coordinate * E7);
+	}
+
+	public static double fromE7(int coordinate) {
+		return coordinate / E7;
+	}
+
+	/**
+	 * Track points stored in primitive arrays (about 24 bytes per point)
+	 */
+	public static class TrackColumns {
+		private int size = 0;
+		private int[] latE7 = new int[16];
+		private int[] lonE7 = new int[16];
+		private long[] time = new long[16];
+		private float[] ele = new float[16];
+		private final TIntArrayList segmentStarts = new TIntArrayList();
+		// raw extensions only for points that have them
+		private TIntObjectHashMap<String> extensions = null;
+
+		public void startSegment() {
+			if (segmentStarts.isEmpty() || segmentStarts.get(segmentStarts.size() - 1) != size) {
+				segmentStarts.add(size);
+			}
+		}
+
+		public void add(int lat, int lon, long t, float e, String rawExtensions) {
+			if (segmentStarts.isEmpty()) {
+				segmentStarts.add(0);
+			}
+			if (size == latE7.length) {
+				int capacity = size * 2;
+				latE7 = grow(latE7, capacity);
+				lonE7 = grow(lonE7, capacity);
+				long[] nt = new long[capacity];
+				System.arraycopy(time, 0, nt, 0, size);
+				time = nt;
+				float[] ne = new float[capacity];
+				System.arraycopy(ele, 0, ne, 0, size);
+				ele = ne;
+			}
+			latE7[size] = lat;
+			lonE7[size] = lon;
+			time[size] = t;
+			ele[size] = e;
+			if (rawExtensions != null) {
+				if (extensions == null) {
+					extensions = new TIntObjectHashMap<String>();
+				}
+				extensions.put(size, rawExtensions);
+			}
+			size++;
+		}
+
+		private static int[] grow(int[] a, int capacity) {
+			int[] n = new int[capacity];
+			System.arraycopy(a, 0, n, 0, a.length);
+			return n;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int getLatE7(int i) {
+			return latE7[i];
+		}
+
+		public int getLonE7(int i) {
+			return lonE7[i];
+		}
+
+		public double getLatitude(int i) {
+			return fromE7(latE7[i]);
+		}
+
+		public double getLongitude(int i) {
+			return fromE7(lonE7[i]);
+		}
+
+		public long getTime(int i) {
+			return time[i];
+		}
+
+		/**
+		 * @return NaN if point doesn't have elevation
+		 */
+		public float getElevation(int i) {
+			return ele[i];
+		}
+
+		public String getRawExtensions(int i) {
+			return extensions == null ? null : extensions.get(i);
+		}
+
+		public Map<String, String> getExtensions(int i) {
+			return parseExtensions(getRawExtensions(i));
+		}
+
+		public int getSegmentsCount() {
+			return size == 0 ? 0 : segmentStarts.size();
+		}
+
+		public int getSegmentStart(int segment) {
+			return segmentStarts.get(segment);
+		}
+
+		/**
+		 * @return index after the last point of segment
+		 */
+		public int getSegmentEnd(int segment) {
+			return segment + 1 < segmentStarts.size() ? segmentStarts.get(segment + 1) : size;
+		}
+	}
+
+	/**
+	 * Parses extensions xml the same way as GPXUtilities (text of every tag by tag name)
+	 */
+	public static Map<String, String> parseExtensions(String raw) {
+		if (raw == null) {
+			return Collections.emptyMap();
+		}
+		Map<String, String> map = new LinkedHashMap<String, String>();
+		int i = 0;
+		String tag = null;
+		StringBuilder text = new StringBuilder();
+		while (i < raw.length()) {
+			char c = raw.charAt(i);
+			if (c == '<') {
+				int end = raw.indexOf('>', i);
+				if (end == -1) {
+					break;
+				}
+				if (raw.charAt(i + 1) == '/') {
+					if (tag != null) {
+						map.put(tag, decodeEntities(text.toString()));
+						tag = null;
+					}
+				} else if (raw.charAt(i + 1) != '!' && raw.charAt(i + 1) != '?' && raw.charAt(end - 1) != '/') {
+					int nameEnd = i + 1;
+					while (nameEnd < end && !Character.isWhitespace(raw.charAt(nameEnd))) {
+						nameEnd++;
+					}
+					tag = raw.substring(i + 1, nameEnd);
+					text.setLength(0);
+				}
+				i = end + 1;
+			} else {
+				if (tag != null) {
+					text.append(c);
+				}
+				i++;
+			}
+		}
+		return map;
+	}
+
+	private static String decodeEntities(String s) {
+		if (s.indexOf('&') == -1) {
+			return s;
+		}
+		return s.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+				.replace("&apos;", "'").replace("&amp;", "&"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	}
+
+	/**
+	 * Reads all track and route points into columns (way points are skipped)
+	 */
+	public static TrackColumns readTrack(Reader reader, boolean readExtensions) throws IOException {
+		GPXStreamReader r = new GPXStreamReader(reader);
+		r.setReadExtensions(readExtensions);
+		TrackColumns columns = new TrackColumns();
+		int segment = -1;
+		while (r.nextPoint()) {
+			if (r.getPointType() == WAY_POINT) {
+				continue;
+			}
+			if (r.getSegmentIndex() != segment) {
+				segment = r.getSegmentIndex();
+				columns.startSegment();
+			}
+			columns.add(r.getLatE7(), r.getLonE7(), r.getTime(), r.getElevation(), r.getRawExtensions());
+		}
+		return columns;
+	}
+
+	public static void writeTrack(Writer writer, String creator, String name, TrackColumns columns) throws IOException {
+		GPXStreamWriter w = new GPXStreamWriter(writer, creator);
+		w.startTrack(name);
+		for (int s = 0; s < columns.getSegmentsCount(); s++) {
+			w.startSegment();
+			for (int i = columns.getSegmentStart(s); i < columns.getSegmentEnd(s); i++) {
+				w.writeTrackPoint(columns.getLatE7(i), columns.getLonE7(i), columns.getTime(i), columns.getElevation(i),
+						columns.getRawExtensions(i));
+			}
+		}
+		w.close();
+	}
+
+	/**
+	 * Pull reader of gpx points. It is not a complete xml parser : only structure of gpx
+	 * (trk, trkseg, rte, trkpt, rtept, wpt, ele, time, extensions) is recognized,
+	 * other tags, comments and processing instructions are skipped.
+	 */
+	public static class GPXStreamReader {
+		private final Reader in;
+		private final char[] buf = new char[8192];
+		private int pos = 0;
+		private int limit = 0;
+		private char[] name = new char[32];
+		private int nameLength;
+		private char[] value = new char[64];
+		private int valueLength;
+		private boolean readExtensions = true;
+		private final StringBuilder extensionsBuilder = new StringBuilder();
+
+		private int trackIndex = -1;
+		private int segmentIndex = -1;
+		private int pointType;
+		private int latE7;
+		private int lonE7;
+		private long time;
+		private float ele;
+		private String rawExtensions;
+
+		public GPXStreamReader(Reader in) {
+			this.in = in;
+		}
+
+		/**
+		 * If false extensions are skipped (they are not needed for most of track processing)
+		 */
+		public void setReadExtensions(boolean readExtensions) {
+			this.readExtensions = readExtensions;
+		}
+
+		public int getPointType() {
+			return pointType;
+		}
+
+		/**
+		 * Index of track (trk or rte) of current point
+		 */
+		public int getTrackIndex() {
+			return trackIndex;
+		}
+
+		/**
+		 * Index of segment (trkseg or rte) in the whole file
+		 */
+		public int getSegmentIndex() {
+			return segmentIndex;
+		}
+
+		public int getLatE7() {
+			return latE7;
+		}
+
+		public int getLonE7() {
+			return lonE7;
+		}
+
+		public double getLatitude() {
+			return fromE7(latE7);
+		}
+
+		public double getLongitude() {
+			return fromE7(lonE7);
+		}
+
+		/**
+		 * @return 0 if time is not specified
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * @return NaN if elevation is not specified
+		 */
+		public float getElevation() {
+			return ele;
+		}
+
+		public String getRawExtensions() {
+			return rawExtensions;
+		}
+
+		public Map<String, String> getExtensions() {
+			return parseExtensions(rawExtensions);
+		}
+
+		/**
+		 * Reads next point
+		 * @return false if end of file is reached
+		 */
+		public boolean nextPoint() throws IOException {
+			while (skipTo('<')) {
+				int c = read();
+				if (c == -1) {
+					return false;
+				} else if (c == '?' || c == '!' || c == '/') {
+					skipSpecial(c);
+				} else {
+					readName(c);
+					if (nameEquals("trk")) { //$NON-NLS-1$
+						trackIndex++;
+					} else if (nameEquals("trkseg")) { //$NON-NLS-1$
+						segmentIndex++;
+					} else if (nameEquals("rte")) { //$NON-NLS-1$
+						trackIndex++;
+						segmentIndex++;
+					} else if (nameEquals("trkpt")) { //$NON-NLS-1$
+						readPoint(TRACK_POINT);
+						return true;
+					} else if (nameEquals("rtept")) { //$NON-NLS-1$
+						readPoint(ROUTE_POINT);
+						return true;
+					} else if (nameEquals("wpt")) { //$NON-NLS-1$
+						readPoint(WAY_POINT);
+						return true;
+					}
+					skipTo('>');
+				}
+			}
+			return false;
+		}
+
+		private void readPoint(int type) throws IOException {
+			pointType = type;
+			latE7 = 0;
+			lonE7 = 0;
+			time = 0;
+			ele = Float.NaN;
+			rawExtensions = null;
+			if (segmentIndex == -1 && type != WAY_POINT) {
+				segmentIndex = 0;
+			}
+			if (!readPointAttributes()) {
+				// empty tag
+				return;
+			}
+			while (skipTo('<')) {
+				int c = read();
+				if (c == '/') {
+					readName(read());
+					skipTo('>');
+					if (isPointTag()) {
+						return;
+					}
+				} else if (c == '?' || c == '!') {
+					skipSpecial(c);
+				} else if (c != -1) {
+					readName(c);
+					boolean empty = skipAttributes();
+					if (empty) {
+						continue;
+					}
+					if (nameEquals("ele")) { //$NON-NLS-1$
+						readValue('<');
+						ele = (float) parseDecimal(value, valueLength, Double.NaN);
+					} else if (nameEquals("time")) { //$NON-NLS-1$
+						readValue('<');
+						time = parseTime(value, valueLength);
+					} else if (nameEquals("extensions")) { //$NON-NLS-1$
+						readExtensions();
+					}
+				}
+			}
+		}
+
+		private boolean isPointTag() {
+			return (pointType == TRACK_POINT && nameEquals("trkpt")) || (pointType == ROUTE_POINT && nameEquals("rtept")) //$NON-NLS-1$ //$NON-NLS-2$
+					|| (pointType == WAY_POINT && nameEquals("wpt")); //$NON-NLS-1$
+		}
+
+		/**
+		 * @return false if tag is empty (ends with '/>')
+		 */
+		private boolean readPointAttributes() throws IOException {
+			while (true) {
+				int c = skipWhitespaces();
+				if (c == -1 || c == '>') {
+					return c == '>';
+				} else if (c == '/') {
+					skipTo('>');
+					return false;
+				}
+				readName(c);
+				boolean lat = nameEquals("lat"); //$NON-NLS-1$
+				boolean lon = nameEquals("lon"); //$NON-NLS-1$
+				c = skipWhitespaces();
+				if (c != '=') {
+					continue;
+				}
+				int quote = skipWhitespaces();
+				readValue((char) quote);
+				read();
+				if (lat) {
+					latE7 = parseE7(value, valueLength);
+				} else if (lon) {
+					lonE7 = parseE7(value, valueLength);
+				}
+			}
+		}
+
+		/**
+		 * Skips attributes of the current tag
+		 * @return true if tag is empty
+		 */
+		private boolean skipAttributes() throws IOException {
+			int prev = 0;
+			int c;
+			int quote = 0;
+			while ((c = read()) != -1) {
+				if (quote != 0) {
+					if (c == quote) {
+						quote = 0;
+					}
+				} else if (c == '"' || c == '\'') {
+					quote = c;
+				} else if (c == '>') {
+					return prev == '/';
+				}
+				prev = c;
+			}
+			return true;
+		}
+
+		private void readExtensions() throws IOException {
+			StringBuilder b = readExtensions ? extensionsBuilder : null;
+			if (b != null) {
+				b.setLength(0);
+			}
+			int depth = 0;
+			int prev = 0;
+			boolean inStartTag = false;
+			int c;
+			while ((c = read()) != -1) {
+				if (c == '<') {
+					int n = read();
+					if (n == '/' && depth == 0) {
+						// end of extensions
+						skipTo('>');
+						break;
+					} else if (n == '/') {
+						depth--;
+					} else if (n != '!' && n != '?') {
+						depth++;
+						inStartTag = true;
+					}
+					if (b != null) {
+						b.append('<');
+						if (n != -1) {
+							b.append((char) n);
+						}
+					}
+					prev = n;
+					continue;
+				}
+				if (c == '>' && inStartTag) {
+					inStartTag = false;
+					if (prev == '/') {
+						depth--;
+					}
+				}
+				if (b != null) {
+					b.append((char) c);
+				}
+				prev = c;
+			}
+			if (b != null && b.length() > 0) {
+				rawExtensions = b.toString().trim();
+			}
+		}
+
+		private int read() throws IOException {
+			if (pos == limit) {
+				limit = in.read(buf, 0, buf.length);
+				pos = 0;
+				if (limit <= 0) {
+					limit = 0;
+					return -1;
+				}
+			}
+			return buf[pos++];
+		}
+
+		private void unread() {
+			pos--;
+		}
+
+		private boolean skipTo(char ch) throws IOException {
+			while (true) {
+				while (pos < limit) {
+					if (buf[pos++] == ch) {
+						return true;
+					}
+				}
+				if (read() == -1) {
+					return false;
+				}
+				unread();
+			}
+		}
+
+		private int skipWhitespaces() throws IOException {
+			int c;
+			while ((c = read()) != -1 && Character.isWhitespace(c)) {
+			}
+			return c;
+		}
+
+		/**
+		 * Skips end tag, comment, cdata or processing instruction (first character after '<' is read)
+		 */
+		private void skipSpecial(int c) throws IOException {
+			if (c == '!') {
+				int c1 = read();
+				if (c1 == '-') {
+					skipToSequence("-->"); //$NON-NLS-1$
+					return;
+				} else if (c1 == '[') {
+					skipToSequence("]]>"); //$NON-NLS-1$
+					return;
+				}
+			} else if (c == '?') {
+				skipToSequence("?>"); //$NON-NLS-1$
+				return;
+			}
+			skipTo('>');
+		}
+
+		private void skipToSequence(String s) throws IOException {
+			int matched = 0;
+			int c;
+			while ((c = read()) != -1) {
+				if (c == s.charAt(matched)) {
+					matched++;
+					if (matched == s.length()) {
+						return;
+					}
+				} else {
+					matched = c == s.charAt(0) ? 1 : 0;
+				}
+			}
+		}
+
+		/**
+		 * Reads tag or attribute name without namespace prefix, the first character is passed.
+		 * The character after the name is not consumed.
+		 */
+		private void readName(int c) throws IOException {
+			nameLength = 0;
+			while (c != -1 && !Character.isWhitespace(c) && c != '>' && c != '/' && c != '=') {
+				if (c == ':') {
+					nameLength = 0;
+				} else {
+					if (nameLength == name.length) {
+						char[] n = new char[name.length * 2];
+						System.arraycopy(name, 0, n, 0, nameLength);
+						name = n;
+					}
+					name[nameLength++] = (char) c;
+				}
+				c = read();
+			}
+			if (c != -1) {
+				unread();
+			}
+		}
+
+		private boolean nameEquals(String s) {
+			if (s.length() != nameLength) {
+				return false;
+			}
+			for (int i = 0; i < nameLength; i++) {
+				if (name[i] != s.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Reads characters to value buffer till the terminator (it is not consumed)
+		 */
+		private void readValue(char terminator) throws IOException {
+			valueLength = 0;
+			int c;
+			while ((c = read()) != -1) {
+				if (c == terminator) {
+					unread();
+					break;
+				}
+				if (valueLength == value.length) {
+					char[] n = new char[value.length * 2];
+					System.arraycopy(value, 0, n, 0, valueLength);
+					value = n;
+				}
+				value[valueLength++] = (char) c;
+			}
+		}
+	}
+
+	/**
+	 * Parses decimal degrees to int (degrees * 10^7) without creating strings
+	 */
+	public static int parseE7(char[] s, int length) {
+		double d = parseDecimal(s, length, 0);
+		return toE7(d);
+	}
+
+	/**
+	 * Parses decimal number (exponent notation is parsed with Double.parseDouble)
+	 */
+	public static double parseDecimal(char[] s, int length, double defValue) {
+		int i = 0;
+		while (i < length && Character.isWhitespace(s[i])) {
+			i++;
+		}
+		while (length > i && Character.isWhitespace(s[length - 1])) {
+			length--;
+		}
+		if (i == length) {
+			return defValue;
+		}
+		int start = i;
+		boolean negative = false;
+		if (s[i] == '-' || s[i] == '+') {
+			negative = s[i] == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int fraction = -1;
+		for (; i < length; i++) {
+			char c = s[i];
+			if (c >= '0' && c <= '9') {
+				if (digits < 18) {
+					mantissa = mantissa * 10 + (c - '0');
+					if (mantissa > 0) {
+						digits++;
+					}
+					if (fraction >= 0) {
+						fraction++;
+					}
+				} else if (fraction < 0) {
+					// too long number
+					return parseDouble(s, start, length, defValue);
+				}
+			} else if (c == '.' && fraction < 0) {
+				fraction = 0;
+			} else {
+				return parseDouble(s, start, length, defValue);
+			}
+		}
+		if (fraction >= POWERS_OF_TEN.length) {
+			return parseDouble(s, start, length, defValue);
+		}
+		double r = fraction > 0 ? mantissa / POWERS_OF_TEN[fraction] : mantissa;
+		return negative ? -r : r;
+	}
+
+	private static double parseDouble(char[] s, int start, int end, double defValue) {
+		try {
+			return Double.parseDouble(new String(s, start, end - start));
+		} catch (NumberFormatException e) {
+			return defValue;
+		}
+	}
+
+	/**
+	 * Parses xml schema date time (yyyy-MM-ddTHH:mm:ss[.SSS][Z|+hh:mm]).
+	 * @return 0 if time couldn't be parsed
+	 */
+	public static long parseTime(char[] s, int length) {
+		int i = 0;
+		while (i < length && Character.isWhitespace(s[i])) {
+			i++;
+		}
+		if (length - i < 19 || s[i + 4] != '-' || s[i + 7] != '-' || (s[i + 10] != 'T' && s[i + 10] != ' ') || s[i + 13] != ':'
+				|| s[i + 16] != ':') {
+			return 0;
+		}
+		int year = parseDigits(s, i, 4);
+		int month = parseDigits(s, i + 5, 2);
+		int day = parseDigits(s, i + 8, 2);
+		int hour = parseDigits(s, i + 11, 2);
+		int minute = parseDigits(s, i + 14, 2);
+		int second = parseDigits(s, i + 17, 2);
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || minute < 0 || second < 0) {
+			return 0;
+		}
+		i += 19;
+		int millis = 0;
+		if (i < length && s[i] == '.') {
+			i++;
+			int scale = 100;
+			while (i < length && s[i] >= '0' && s[i] <= '9') {
+				millis += (s[i] - '0') * scale;
+				scale /= 10;
+				i++;
+			}
+		}
+		long offset = 0;
+		if (i < length && (s[i] == '+' || s[i] == '-') && length - i >= 3) {
+			int h = parseDigits(s, i + 1, 2);
+			int m = 0;
+			if (length - i >= 6 && s[i + 3] == ':') {
+				m = parseDigits(s, i + 4, 2);
+			} else if (length - i >= 5) {
+				m = parseDigits(s, i + 3, 2);
+			}
+			if (h >= 0 && m >= 0) {
+				offset = (h * 60 + m) * 60000l;
+				if (s[i] == '-') {
+					offset = -offset;
+				}
+			}
+		}
+		long days = daysFromCivil(year, month, day);
+		return days * MILLIS_IN_DAY + ((hour * 60 + minute) * 60 + second) * 1000l + millis - offset;
+	}
+
+	private static int parseDigits(char[] s, int start, int count) {
+		int r = 0;
+		for (int i = start; i < start + count; i++) {
+			if (s[i] < '0' || s[i] > '9') {
+				return -1;
+			}
+			r = r * 10 + (s[i] - '0');
+		}
+		return r;
+	}
+
+	// days since 1970-01-01 in proleptic gregorian calendar
+	private static long daysFromCivil(int y, int m, int d) {
+		if (m <= 2) {
+			y--;
+		}
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yoe = y - era * 400;
+		long doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+		long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+
+	/**
+	 * Streaming gpx writer. Tracks, segments and gpx itself are closed automatically.
+	 */
+	public static class GPXStreamWriter {
+		private final Writer out;
+		private final char[] buf = new char[8192];
+		private int length = 0;
+		private boolean trackOpened = false;
+		private boolean segmentOpened = false;
+		// temporary buffer for digits
+		private final char[] digits = new char[20];
+
+		public GPXStreamWriter(Writer out, String creator) throws IOException {
+			this.out = out;
+			append("<?xml version='1.0' encoding='UTF-8' standalone='yes' ?>\n"); //$NON-NLS-1$
+			append("<gpx version=\"1.1\" creator=\""); //$NON-NLS-1$
+			appendEscaped(creator == null ? "OsmAnd" : creator); //$NON-NLS-1$
+			append("\" xmlns=\"http://www.topografix.com/GPX/1/1\"" //$NON-NLS-1$
+					+ " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"" //$NON-NLS-1$
+					+ " xsi:schemaLocation=\"http://www.topografix.com/GPX/1/1 http://www.topografix.com/GPX/1/1/gpx.xsd\">\n"); //$NON-NLS-1$
+		}
+
+		public void startTrack(String name) throws IOException {
+			closeTrack();
+			append("  <trk>\n"); //$NON-NLS-1$
+			if (name != null) {
+				append("    <name>"); //$NON-NLS-1$
+				appendEscaped(name);
+				append("</name>\n"); //$NON-NLS-1$
+			}
+			trackOpened = true;
+		}
+
+		public void startSegment() throws IOException {
+			if (!trackOpened) {
+				startTrack(null);
+			}
+			closeSegment();
+			append("    <trkseg>\n"); //$NON-NLS-1$
+			segmentOpened = true;
+		}
+
+		/**
+		 * @param time - 0 if not specified
+		 * @param ele - NaN if not specified
+		 * @param rawExtensions - extensions xml (content of extensions tag) or null
+		 */
+		public void writeTrackPoint(int latE7, int lonE7, long time, float ele, String rawExtensions) throws IOException {
+			if (!segmentOpened) {
+				startSegment();
+			}
+			writePoint("      <trkpt", "</trkpt>\n", latE7, lonE7, time, ele, null, rawExtensions); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		public void writeWayPoint(int latE7, int lonE7, long time, float ele, String name, String rawExtensions) throws IOException {
+			closeTrack();
+			writePoint("  <wpt", "</wpt>\n", latE7, lonE7, time, ele, name, rawExtensions); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		private void writePoint(String start, String end, int latE7, int lonE7, long time, float ele, String name, String rawExtensions)
+				throws IOException {
+			append(start);
+			append(" lat=\""); //$NON-NLS-1$
+			appendE7(latE7);
+			append("\" lon=\""); //$NON-NLS-1$
+			appendE7(lonE7);
+			append("\">"); //$NON-NLS-1$
+			if (!Float.isNaN(ele)) {
+				append("<ele>"); //$NON-NLS-1$
+				appendElevation(ele);
+				append("</ele>"); //$NON-NLS-1$
+			}
+			if (time != 0) {
+				append("<time>"); //$NON-NLS-1$
+				appendTime(time);
+				append("</time>"); //$NON-NLS-1$
+			}
+			if (name != null) {
+				append("<name>"); //$NON-NLS-1$
+				appendEscaped(name);
+				append("</name>"); //$NON-NLS-1$
+			}
+			if (rawExtensions != null) {
+				append("<extensions>"); //$NON-NLS-1$
+				append(rawExtensions);
+				append("</extensions>"); //$NON-NLS-1$
+			}
+			append(end);
+		}
+
+		private void closeSegment() throws IOException {
+			if (segmentOpened) {
+				append("    </trkseg>\n"); //$NON-NLS-1$
+				segmentOpened = false;
+			}
+		}
+
+		private void closeTrack() throws IOException {
+			closeSegment();
+			if (trackOpened) {
+				append("  </trk>\n"); //$NON-NLS-1$
+				trackOpened = false;
+			}
+		}
+
+		/**
+		 * Closes gpx and flushes output (writer itself is not closed)
+		 */
+		public void close() throws IOException {
+			closeTrack();
+			append("</gpx>\n"); //$NON-NLS-1$
+			flush();
+			out.flush();
+		}
+
+		private void flush() throws IOException {
+			out.write(buf, 0, length);
+			length = 0;
+		}
+
+		private void append(String s) throws IOException {
+			int l = s.length();
+			int i = 0;
+			while (i < l) {
+				if (length == buf.length) {
+					flush();
+				}
+				int n = Math.min(l - i, buf.length - length);
+				s.getChars(i, i + n, buf, length);
+				length += n;
+				i += n;
+			}
+		}
+
+		private void appendChar(char c) throws IOException {
+			if (length == buf.length) {
+				flush();
+			}
+			buf[length++] = c;
+		}
+
+		private void appendEscaped(String s) throws IOException {
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (c == '<') {
+					append("&lt;"); //$NON-NLS-1$
+				} else if (c == '>') {
+					append("&gt;"); //$NON-NLS-1$
+				} else if (c == '&') {
+					append("&amp;"); //$NON-NLS-1$
+				} else if (c == '"') {
+					append("&quot;"); //$NON-NLS-1$
+				} else {
+					appendChar(c);
+				}
+			}
+		}
+
+		private void appendLong(long v) throws IOException {
+			if (v < 0) {
+				appendChar('-');
+				v = -v;
+			}
+			int n = 0;
+			do {
+				digits[n++] = (char) ('0' + (v % 10));
+				v /= 10;
+			} while (v > 0);
+			while (n > 0) {
+				appendChar(digits[--n]);
+			}
+		}
+
+		/**
+		 * Appends fraction part with the given number of digits, trailing zeros after minDigits are removed
+		 */
+		private void appendFraction(long fraction, int maxDigits, int minDigits) throws IOException {
+			int n = maxDigits;
+			while (n > minDigits && fraction % 10 == 0) {
+				fraction /= 10;
+				n--;
+			}
+			for (int i = n - 1; i >= 0; i--) {
+				digits[i] = (char) ('0' + (fraction % 10));
+				fraction /= 10;
+			}
+			appendChar('.');
+			for (int i = 0; i < n; i++) {
+				appendChar(digits[i]);
+			}
+		}
+
+		// the same as "0.00#####" format of GPXUtilities
+		private void appendE7(int v) throws IOException {
+			long l = v;
+			if (l < 0) {
+				appendChar('-');
+				l = -l;
+			}
+			appendLong(l / 10000000);
+			appendFraction(l % 10000000, 7, 2);
+		}
+
+		// elevation with centimeter precision
+		private void appendElevation(float ele) throws IOException {
+			long cm = Math.round(ele * 100d);
+			if (cm < 0) {
+				appendChar('-');
+				cm = -cm;
+			}
+			appendLong(cm / 100);
+			appendFraction(cm % 100, 2, 1);
+		}
+
+		private void appendTime(long time) throws IOException {
+			long days = time / MILLIS_IN_DAY;
+			long millisOfDay = time % MILLIS_IN_DAY;
+			if (millisOfDay < 0) {
+				millisOfDay += MILLIS_IN_DAY;
+				days--;
+			}
+			// civil from days
+			long z = days + 719468;
+			long era = (z >= 0 ? z : z - 146096) / 146097;
+			long doe = z - era * 146097;
+			long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+			long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+			long mp = (5 * doy + 2) / 153;
+			long day = doy - (153 * mp + 2) / 5 + 1;
+			long month = mp < 10 ? mp + 3 : mp - 9;
+			long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+			appendPadded(year, 4);
+			appendChar('-');
+			appendPadded(month, 2);
+			appendChar('-');
+			appendPadded(day, 2);
+			appendChar('T');
+			long seconds = millisOfDay / 1000;
+			appendPadded(seconds / 3600, 2);
+			appendChar(':');
+			appendPadded((seconds / 60) % 60, 2);
+			appendChar(':');
+			appendPadded(seconds % 60, 2);
+			if (millisOfDay % 1000 != 0) {
+				appendChar('.');
+				appendPadded(millisOfDay % 1000, 3);
+			}
+			appendChar('Z');
+		}
+
+		private void appendPadded(long v, int width) throws IOException {
+			for (int i = width - 1; i >= 0; i--) {
+				digits[i] = (char) ('0' + (v % 10));
+				v /= 10;
+			}
+			for (int i = 0; i < width; i++) {
+				appendChar(digits[i]);
+			}
+		}
+	}
+
+	/**
+	 * Checks that writer and reader work as a stream : points generated by writer thread are read through a pipe
+	 * and memory doesn't grow with number of points. Also checks parsing of hand written gpx.
+	 */
+	public static void main(String[] args) throws Exception {
+		final int points = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		final PipedWriter pipeOut = new PipedWriter();
+		PipedReader pipeIn = new PipedReader(pipeOut, 64 * 1024);
+		final Throwable[] writeError = new Throwable[1];
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					GPXStreamWriter w = new GPXStreamWriter(pipeOut, "check & test"); //$NON-NLS-1$
+					w.startTrack("t<1>"); //$NON-NLS-1$
+					for (int i = 0; i < points; i++) {
+						if (i % 100000 == 0) {
+							w.startSegment();
+						}
+						w.writeTrackPoint(checkLat(i), checkLon(i), checkTime(i), checkEle(i), checkExtensions(i));
+					}
+					w.writeWayPoint(toE7(1.5), toE7(-2.25), 0, Float.NaN, "w", null); //$NON-NLS-1$
+					w.close();
+					pipeOut.close();
+				} catch (Throwable e) {
+					writeError[0] = e;
+				}
+			}
+		}, "Gpx writer"); //$NON-NLS-1$
+		Runtime rt = Runtime.getRuntime();
+		System.gc();
+		long usedBefore = rt.totalMemory() - rt.freeMemory();
+		long maxUsed = 0;
+		long time = System.currentTimeMillis();
+		writer.start();
+
+		GPXStreamReader r = new GPXStreamReader(pipeIn);
+		int read = 0;
+		int errors = 0;
+		int wayPoints = 0;
+		while (r.nextPoint()) {
+			if (r.getPointType() == WAY_POINT) {
+				wayPoints++;
+				continue;
+			}
+			int i = read++;
+			float ele = checkEle(i);
+			if (r.getLatE7() != checkLat(i) || r.getLonE7() != checkLon(i) || r.getTime() != checkTime(i)
+					|| r.getSegmentIndex() != i / 100000 || r.getTrackIndex() != 0
+					|| (Float.isNaN(ele) ? !Float.isNaN(r.getElevation()) : Math.abs(r.getElevation() - ele) > 0.006)
+					|| !String.valueOf(checkExtensions(i)).equals(String.valueOf(r.getRawExtensions()))) {
+				if (errors++ < 10) {
+					System.out.println("Point " + i + " : " + r.getLatE7() + " " + r.getLonE7() + " " + r.getTime() + " " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+							+ r.getElevation() + " " + r.getRawExtensions()); //$NON-NLS-1$
+				}
+			}
+			if (i % 250000 == 0) {
+				System.gc();
+				maxUsed = Math.max(maxUsed, rt.totalMemory() - rt.freeMemory() - usedBefore);
+			}
+		}
+		writer.join();
+		time = System.currentTimeMillis() - time;
+		boolean ok = errors == 0 && writeError[0] == null && read == points && wayPoints == 1;
+		// reader and writer use fixed buffers
+		ok &= maxUsed < 4 * 1024 * 1024;
+		System.out.println("Points " + read + " streamed in " + time + " ms, errors " + errors + ", memory growth " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+				+ maxUsed / 1024 + " KB" + (writeError[0] != null ? ", write error " + writeError[0] : "")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+		String gpx = "<?xml version='1.0'?>\n<!-- comment <trkpt> -->\n<gpx xmlns:g='x'>" //$NON-NLS-1$
+				+ "<wpt lat='1.5' lon=\"-2.25\"><name>a</name></wpt><trk><name>x</name><trkseg>" //$NON-NLS-1$
+				+ "<g:trkpt lat=\"52.1234567\" lon=\"4.1\"><ele> 12.5 </ele><time>2012-02-29T23:59:58.5+01:00</time>" //$NON-NLS-1$
+				+ "<extensions><osmand:speed>3</osmand:speed></extensions></g:trkpt>" //$NON-NLS-1$
+				+ "<trkpt lat=\"1e-3\" lon=\"0.00000005\"/></trkseg></trk></gpx>"; //$NON-NLS-1$
+		TrackColumns c = readTrack(new StringReader(gpx), true);
+		ok &= check("sample size", c.size() == 2 && c.getSegmentsCount() == 1); //$NON-NLS-1$
+		ok &= check("sample point", c.getLatE7(0) == 521234567 && c.getLonE7(0) == 41000000 && c.getElevation(0) == 12.5f //$NON-NLS-1$
+				&& c.getTime(0) == 1330556398500l && "3".equals(c.getExtensions(0).get("osmand:speed"))); //$NON-NLS-1$ //$NON-NLS-2$
+		ok &= check("sample empty point", c.getLatE7(1) == 10000 && c.getLonE7(1) == 1 && c.getTime(1) == 0 //$NON-NLS-1$
+				&& Float.isNaN(c.getElevation(1)) && c.getRawExtensions(1) == null);
+		System.out.println(ok ? "OK" : "FAILED"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private static int checkLat(int i) {
+		return (int) ((i * 7919l) % 1800000000l) - 900000000;
+	}
+
+	private static int checkLon(int i) {
+		return (int) ((i * 104729l) % 3600000000l) - 1800000000;
+	}
+
+	private static long checkTime(int i) {
+		return i % 7 == 0 ? 0 : 1330000000000l + i * 1000l + (i % 3 == 0 ? 123 : 0);
+	}
+
+	private static float checkEle(int i) {
+		return i % 5 == 0 ? Float.NaN : (i % 100000 - 1000) / 100f;
+	}
+
+	private static String checkExtensions(int i) {
+		return i % 1000 == 0 ? "<speed>1.5</speed><course>" + i + "</course>" : null; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private static boolean check(String name, boolean ok) {
+		if (!ok) {
+			System.out.println("Failed : " + name); //$NON-NLS-1$
+		}
+		return ok;
+	}
+}
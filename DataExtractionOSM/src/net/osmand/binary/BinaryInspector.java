@@ -23,6 +23,7 @@ import net.osmand.binary.BinaryMapIndexReader.MapRoot;
 import net.osmand.binary.BinaryMapIndexReader.SearchFilter;
 import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
 import net.osmand.binary.BinaryMapPoiReaderAdapter.PoiRegion;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
 import net.osmand.binary.BinaryMapTransportReaderAdapter.TransportIndex;
 import net.osmand.data.Building;
 import net.osmand.data.City;
@@ -318,6 +319,9 @@ public class BinaryInspector {
 					} else if (part instanceof PoiRegion) {
 						ous.writeTag(OsmandOdb.OsmAndStructure.POIINDEX_FIELD_NUMBER, WireFormat.WIRETYPE_FIXED32_LENGTH_DELIMITED);
 						map = "POI";
+					} else if (part instanceof RouteRegion) {
+						ous.writeTag(BinaryMapRouteReaderAdapter.ROUTING_INDEX_FIELD_NUMBER, WireFormat.WIRETYPE_FIXED32_LENGTH_DELIMITED);
+						map = "Routing";
 					} else {
 						throw new UnsupportedOperationException();
 					}
@@ -408,6 +412,8 @@ public class BinaryInspector {
 					partname = "Poi";
 				} else if(p instanceof AddressRegion){
 					partname = "Address";
+				} else if(p instanceof RouteRegion){
+					partname = "Routing";
 				}
 				String name = p.getName() == null ? "" : p.getName(); 
 				println(MessageFormat.format("{0}. {1} data {3} - {2} bytes", i, partname, p.getLength(), name));
@@ -416,6 +422,9 @@ public class BinaryInspector {
 					int sh = (31 - BinaryMapIndexReader.TRANSPORT_STOP_ZOOM);
 					println("\t Bounds " + formatBounds(ti.getLeft() << sh, ti.getRight() << sh, 
 							ti.getTop() << sh, ti.getBottom() << sh));
+				} else if(p instanceof RouteRegion){
+					RouteRegion rr = ((RouteRegion) p);
+					println("\t Bounds " + formatBounds(rr.getLeft(), rr.getRight(), rr.getTop(), rr.getBottom()));
 				} else if(p instanceof MapIndex){
 					MapIndex m = ((MapIndex) p);
 					int j = 1;
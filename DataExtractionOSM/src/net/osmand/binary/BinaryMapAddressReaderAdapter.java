@@ -26,6 +26,7 @@ public class BinaryMapAddressReaderAdapter {
 		int postcodesOffset = -1;
 		int villagesOffset = -1;
 		int citiesOffset = -1;
+		int villagesKeyTableOffset = -1;
 		
 		LatLon calculatedCenter = null;
 	}
@@ -78,6 +79,11 @@ public class BinaryMapAddressReaderAdapter {
 				length = readInt();
 				codedIS.seek(region.postcodesOffset + length + 4);
 				break;
+			case NameKeyIndex.ADDRESS_VILLAGES_KEY_TABLE_FIELD_NUMBER :
+				region.villagesKeyTableOffset = codedIS.getTotalBytesRead();
+				length = readInt();
+				codedIS.seek(region.villagesKeyTableOffset + length + 4);
+				break;
 			default:
 				skipUnknownField(t);
 				break;
@@ -25,6 +25,7 @@ import net.osmand.StringMatcher;
 import net.osmand.CollatorStringMatcher.StringMatcherMode;
 import net.osmand.binary.BinaryMapAddressReaderAdapter.AddressRegion;
 import net.osmand.binary.BinaryMapPoiReaderAdapter.PoiRegion;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
 import net.osmand.binary.BinaryMapTransportReaderAdapter.TransportIndex;
 import net.osmand.data.Amenity;
 import net.osmand.data.AmenityType;
@@ -52,12 +53,15 @@ public class BinaryMapIndexReader {
 	private final static Log log = LogUtil.getLog(BinaryMapIndexReader.class);
 	
 	private final RandomAccessFile raf;
+	// file shared with other readers (could be null)
+	private final SharedObfFile sharedFile;
 	private int version;
 	// keep them immutable inside
 	private List<MapIndex> mapIndexes = new ArrayList<MapIndex>();
 	private List<PoiRegion> poiIndexes = new ArrayList<PoiRegion>();
 	private List<AddressRegion> addressIndexes = new ArrayList<AddressRegion>();
 	private List<TransportIndex> transportIndexes = new ArrayList<TransportIndex>();
+	private List<RouteRegion> routeIndexes = new ArrayList<RouteRegion>();
 	private List<BinaryIndexPart> indexes = new ArrayList<BinaryIndexPart>();
 	
 	protected CodedInputStreamRAF codedIS;
@@ -65,28 +69,76 @@ public class BinaryMapIndexReader {
 	private final BinaryMapTransportReaderAdapter transportAdapter;
 	private final BinaryMapPoiReaderAdapter poiAdapter;
 	private final BinaryMapAddressReaderAdapter addressAdapter;
+	private final BinaryMapRouteReaderAdapter routeAdapter;
 	
 	public BinaryMapIndexReader(final RandomAccessFile raf) throws IOException {
 		this(raf, false);
 	}
 	
 	public BinaryMapIndexReader(final RandomAccessFile raf, BinaryMapIndexReader referenceToSameFile) throws IOException {
+		this(raf, null, CodedInputStreamRAF.newInstance(raf, 1024 * 5));
+		copySections(referenceToSameFile);
+	}
+	
+	/**
+	 * Reader of shared file (see {@link SharedObfFile#open()}), sections are read from file if reference is null
+	 */
+	BinaryMapIndexReader(SharedObfFile file, BinaryMapIndexReader referenceToSameFile) throws IOException {
+		this(file.getRaf(), file, CodedInputStreamRAF.newInstance(file, SharedObfFile.CURSOR_BUFFER_SIZE));
+		if (referenceToSameFile == null) {
+			init();
+		} else {
+			copySections(referenceToSameFile);
+		}
+	}
+	
+	/**
+	 * Reader of shared file with sections restored from cache (see {@link ObfSectionsCache})
+	 */
+	BinaryMapIndexReader(SharedObfFile file, int version, List<BinaryIndexPart> sections) throws IOException {
+		this(file.getRaf(), file, CodedInputStreamRAF.newInstance(file, SharedObfFile.CURSOR_BUFFER_SIZE));
+		this.version = version;
+		for (BinaryIndexPart p : sections) {
+			if (p instanceof MapIndex) {
+				mapIndexes.add((MapIndex) p);
+			} else if (p instanceof AddressRegion) {
+				addressIndexes.add((AddressRegion) p);
+			} else if (p instanceof TransportIndex) {
+				transportIndexes.add((TransportIndex) p);
+			} else if (p instanceof PoiRegion) {
+				poiIndexes.add((PoiRegion) p);
+			} else if (p instanceof RouteRegion) {
+				routeIndexes.add((RouteRegion) p);
+			}
+			indexes.add(p);
+		}
+		calculateCenterPointForRegions();
+	}
+	
+	private BinaryMapIndexReader(RandomAccessFile raf, SharedObfFile sharedFile, CodedInputStreamRAF codedIS) {
 		this.raf = raf;
-		codedIS = CodedInputStreamRAF.newInstance(raf, 1024 * 5);
+		this.sharedFile = sharedFile;
+		this.codedIS = codedIS;
 		codedIS.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
-		version = referenceToSameFile.version;
 		transportAdapter = new BinaryMapTransportReaderAdapter(this);
 		addressAdapter = new BinaryMapAddressReaderAdapter(this);
 		poiAdapter = new BinaryMapPoiReaderAdapter(this);
+		routeAdapter = new BinaryMapRouteReaderAdapter(this);
+	}
+	
+	private void copySections(BinaryMapIndexReader referenceToSameFile) {
+		version = referenceToSameFile.version;
 		mapIndexes = new ArrayList<BinaryMapIndexReader.MapIndex>(referenceToSameFile.mapIndexes);
 		poiIndexes = new ArrayList<PoiRegion>(referenceToSameFile.poiIndexes);
 		addressIndexes = new ArrayList<AddressRegion>(referenceToSameFile.addressIndexes);
 		transportIndexes = new ArrayList<TransportIndex>(referenceToSameFile.transportIndexes);
+		routeIndexes = new ArrayList<RouteRegion>(referenceToSameFile.routeIndexes);
 		indexes = new ArrayList<BinaryIndexPart>(referenceToSameFile.indexes);
 	}
 	
 	public BinaryMapIndexReader(final RandomAccessFile raf, boolean readOnlyMapData) throws IOException {
 		this.raf = raf;
+		this.sharedFile = null;
 		codedIS = CodedInputStreamRAF.newInstance(raf, 1024 * 5);
 		codedIS.setSizeLimit(Integer.MAX_VALUE); // 2048 MB
 		if(!readOnlyMapData){
@@ -98,6 +150,7 @@ public class BinaryMapIndexReader {
 			addressAdapter = null;
 			poiAdapter = null;
 		}
+		routeAdapter = new BinaryMapRouteReaderAdapter(this);
 		init();
 	}
 	
@@ -168,6 +221,17 @@ public class BinaryMapIndexReader {
 				}
 				codedIS.seek(poiInd.filePointer + poiInd.length);
 				break;
+			case BinaryMapRouteReaderAdapter.ROUTING_INDEX_FIELD_NUMBER:
+				RouteRegion routeReg = new RouteRegion();
+				routeReg.length = readInt();
+				routeReg.filePointer = codedIS.getTotalBytesRead();
+				oldLimit = codedIS.pushLimit(routeReg.length);
+				routeAdapter.readRouteIndex(routeReg);
+				codedIS.popLimit(oldLimit);
+				codedIS.seek(routeReg.filePointer + routeReg.length);
+				routeIndexes.add(routeReg);
+				indexes.add(routeReg);
+				break;
 			case OsmandOdb.OsmAndStructure.VERSIONCONFIRM_FIELD_NUMBER :
 				int cversion = codedIS.readUInt32();
 				calculateCenterPointForRegions();
@@ -259,6 +323,19 @@ public class BinaryMapIndexReader {
 		return addressIndexes.size() > 0;
 	}
 	
+	public boolean containsRouteData(){
+		return routeIndexes.size() > 0;
+	}
+	
+	public boolean containsRouteData(int left31x, int top31y, int right31x, int bottom31y) {
+		for (RouteRegion r : routeIndexes) {
+			if (right31x >= r.left && left31x <= r.right && r.top <= bottom31y && r.bottom >= top31y) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	public boolean hasTransportData(){
 		return transportIndexes.size() > 0;
 	}
@@ -269,6 +346,13 @@ public class BinaryMapIndexReader {
 		return raf;
 	}
 	
+	/**
+	 * @return file shared with other readers or null
+	 */
+	public SharedObfFile getSharedFile() {
+		return sharedFile;
+	}
+	
 	public int readByte() throws IOException{
 		byte b = codedIS.readRawByte();
 		if(b < 0){
@@ -506,6 +590,45 @@ public class BinaryMapIndexReader {
 		}
 		return cities;
 	}
+	
+	/**
+	 * Searches villages which name has word starting with nameQuery.
+	 * Uses index of normalized names when it is present in file.
+	 */
+	public List<City> searchVillagesByName(String region, SearchRequest<MapObject> resultMatcher, String nameQuery, boolean useEn) throws IOException {
+		AddressRegion r = getRegionByName(region);
+		StringMatcher matcher = new NameKeyIndex.WordStartMatcher(nameQuery);
+		List<String> words = NameKeyIndex.getWords(NameKeyIndex.normalize(nameQuery));
+		if (r.villagesKeyTableOffset == -1 || words.isEmpty()) {
+			return getVillages(region, resultMatcher, matcher, useEn);
+		}
+		List<City> cities = new ArrayList<City>();
+		TIntArrayList offsets = new TIntArrayList();
+		codedIS.seek(r.villagesKeyTableOffset);
+		int len = readInt();
+		int old = codedIS.pushLimit(len);
+		NameKeyIndex.searchPrefix(codedIS, NameKeyIndex.getKey(words.get(0)), offsets);
+		codedIS.popLimit(old);
+		offsets.sort();
+		for (int i = 0; i < offsets.size(); i++) {
+			int offset = offsets.get(i);
+			if (i > 0 && offsets.get(i - 1) == offset) {
+				continue;
+			}
+			codedIS.seek(offset);
+			int size = codedIS.readRawVarint32();
+			old = codedIS.pushLimit(size);
+			City c = addressAdapter.readCity(null, offset, false, null, matcher, useEn);
+			codedIS.popLimit(old);
+			if (c != null && (resultMatcher == null || resultMatcher.publish(c))) {
+				cities.add(c);
+			}
+			if (resultMatcher != null && resultMatcher.isCancelled()) {
+				break;
+			}
+		}
+		return cities;
+	}
 
 	
 	public void preloadStreets(City c, SearchRequest<Street> resultMatcher) throws IOException {
@@ -598,7 +721,7 @@ public class BinaryMapIndexReader {
 				int length = readInt();
 				int filePointer = codedIS.getTotalBytesRead();
 				oldLimit = codedIS.pushLimit(length);
-				MapRoot mapRoot = readMapLevel(new MapRoot());
+				MapRoot mapRoot = readMapLevel(new MapRoot(), null);
 				mapRoot.length = length;
 				mapRoot.filePointer = filePointer;
 				index.getRoots().add(mapRoot);
@@ -613,14 +736,7 @@ public class BinaryMapIndexReader {
 	}
 	
 	private void initMapEncodingRule(MapIndex index, int type, int subtype, String tag, String val) {
-		int ind = ((subtype << 5) | type);
-		if(!index.encodingRules.containsKey(tag)){
-			index.encodingRules.put(tag, new LinkedHashMap<String, Integer>());
-		}
-		index.encodingRules.get(tag).put(val, ind);
-		if(!index.decodingRules.containsKey(ind)){
-			index.decodingRules.put(ind, new TagValuePair(tag, val));
-		}
+		index.addEncodingRule((subtype << 5) | type, tag, val);
 	}
 	
 	private void readMapEncodingRule(MapIndex index) throws IOException {
@@ -655,7 +771,23 @@ public class BinaryMapIndexReader {
 	}
 
 
-	private MapRoot readMapLevel(MapRoot root) throws IOException {
+	/**
+	 * Roots could be shared by several readers of the same file so trees are published when they are read
+	 */
+	private void initMapTrees(MapRoot index) throws IOException {
+		synchronized (index) {
+			if (index.trees == null) {
+				List<MapTree> trees = new ArrayList<MapTree>();
+				codedIS.seek(index.filePointer);
+				int oldLimit = codedIS.pushLimit(index.length);
+				readMapLevel(index, trees);
+				codedIS.popLimit(oldLimit);
+				index.trees = trees;
+			}
+		}
+	}
+	
+	private MapRoot readMapLevel(MapRoot root, List<MapTree> trees) throws IOException {
 		while(true){
 			int t = codedIS.readTag();
 			int tag = WireFormat.getTagFieldNumber(t);
@@ -683,14 +815,14 @@ public class BinaryMapIndexReader {
 			case OsmandOdb.MapRootLevel.ROOT_FIELD_NUMBER :
 				int length = readInt();
 				int filePointer = codedIS.getTotalBytesRead();
-				if (root.trees != null) {
+				if (trees != null) {
 					MapTree r = new MapTree();
 					// left, ... already initialized
 					r.length = length;
 					r.filePointer = filePointer;
 					int oldLimit = codedIS.pushLimit(r.length);
 					readMapTreeBounds(r, root.left, root.right, root.top, root.bottom);
-					root.trees.add(r);
+					trees.add(r);
 					codedIS.popLimit(oldLimit);
 				}
 				codedIS.seek(filePointer + length);
@@ -753,11 +885,7 @@ public class BinaryMapIndexReader {
 					}
 					// lazy initializing trees
 					if(index.trees == null){
-						index.trees = new ArrayList<MapTree>();
-						codedIS.seek(index.filePointer);
-						int oldLimit = codedIS.pushLimit(index.length);
-						readMapLevel(index);
-						codedIS.popLimit(oldLimit);
+						initMapTrees(index);
 					}
 					
 					for (MapTree tree : index.trees) {
@@ -1004,11 +1132,32 @@ public class BinaryMapIndexReader {
 		
 	}
 	
+	/**
+	 * Searches routing objects (roads and obstacles) in routing sections, zoom of request is not used
+	 */
+	public List<BinaryMapDataObject> searchRouteIndex(SearchRequest<BinaryMapDataObject> req) throws IOException {
+		req.numberOfVisitedObjects = 0;
+		req.numberOfAcceptedObjects = 0;
+		req.numberOfAcceptedSubtrees = 0;
+		req.numberOfReadSubtrees = 0;
+		for (RouteRegion r : routeIndexes) {
+			if (r.right < req.left || r.left > req.right || r.top > req.bottom || r.bottom < req.top) {
+				continue;
+			}
+			routeAdapter.searchRouteRegion(r, req);
+		}
+		log.info("Route search is done. Visit " + req.numberOfVisitedObjects + " objects. Read " + req.numberOfAcceptedObjects + " objects."); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		return req.getSearchResults();
+	}
+	
 	public List<Amenity> searchPoiByName(SearchRequest<Amenity> req) throws IOException {
 		if (req.nameQuery == null || req.nameQuery.length() == 0) {
 			throw new IllegalArgumentException();
 		}
 		for (PoiRegion poiIndex : poiIndexes) {
+			if (req.limit != -1 && req.getSearchResults().size() >= req.limit) {
+				break;
+			}
 			codedIS.seek(poiIndex.filePointer);
 			int old = codedIS.pushLimit(poiIndex.length);
 			poiAdapter.searchPoiByName(poiIndex, req);
@@ -1139,9 +1288,17 @@ public class BinaryMapIndexReader {
 	}
 	
 	public static SearchRequest<Amenity> buildSearchPoiRequest(int x, int y, String nameFilter, ResultMatcher<Amenity> resultMatcher){
+		return buildSearchPoiRequest(x, y, nameFilter, -1, resultMatcher);
+	}
+	
+	/**
+	 * @param limit - search by name is stopped when limit is reached (the nearest objects are read first), -1 - no limit
+	 */
+	public static SearchRequest<Amenity> buildSearchPoiRequest(int x, int y, String nameFilter, int limit, ResultMatcher<Amenity> resultMatcher){
 		SearchRequest<Amenity> request = new SearchRequest<Amenity>();
 		request.x = x;
 		request.y = y;
+		request.limit = limit;
 		request.resultMatcher = resultMatcher;
 		request.nameQuery = nameFilter;
 		return request;
@@ -1164,11 +1321,16 @@ public class BinaryMapIndexReader {
 	
 	public void close() throws IOException{
 		if(codedIS != null){
-			raf.close();
+			if (sharedFile != null) {
+				sharedFile.release();
+			} else {
+				raf.close();
+			}
 			codedIS = null;
 			mapIndexes.clear();
 			addressIndexes.clear();
 			transportIndexes.clear();
+			routeIndexes.clear();
 		}
 	}
 	
@@ -1279,12 +1441,34 @@ public class BinaryMapIndexReader {
 		}
 		
 		public TagValuePair decodeType(int wholeType){
-			if((wholeType & 3) != MapRenderingTypes.POINT_TYPE ){
-				wholeType = (wholeType >> 2) & MapRenderingTypes.MASK_10;
-			} else {
-				wholeType >>= 2;
+			return decodingRules.get(getRuleKey(wholeType));
+		}
+		
+		/**
+		 * @return decoding rules by key of rule (see {@link #getRuleKey(int)})
+		 */
+		public TIntObjectMap<TagValuePair> getDecodingRules() {
+			return decodingRules;
+		}
+		
+		/**
+		 * @return key of encoding rule ((subtype << 5) | type) for whole type of object
+		 */
+		public static int getRuleKey(int wholeType) {
+			if ((wholeType & 3) != MapRenderingTypes.POINT_TYPE) {
+				return (wholeType >> 2) & MapRenderingTypes.MASK_10;
+			}
+			return wholeType >> 2;
+		}
+		
+		void addEncodingRule(int ind, String tag, String val) {
+			if(!encodingRules.containsKey(tag)){
+				encodingRules.put(tag, new LinkedHashMap<String, Integer>());
+			}
+			encodingRules.get(tag).put(val, ind);
+			if(!decodingRules.containsKey(ind)){
+				decodingRules.put(ind, new TagValuePair(tag, val));
 			}
-			return decodingRules.get(wholeType);
 		}
 		
 	}
@@ -1377,7 +1561,7 @@ public class BinaryMapIndexReader {
 			return bottom;
 		}
 		
-		private List<MapTree> trees = null;
+		private volatile List<MapTree> trees = null;
 	}
 	
 	private static class MapTree {
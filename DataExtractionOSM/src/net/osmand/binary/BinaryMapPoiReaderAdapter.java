@@ -2,13 +2,13 @@ package net.osmand.binary;
 
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TIntLongHashMap;
+import gnu.trove.set.hash.TIntHashSet;
 import gnu.trove.set.hash.TLongHashSet;
 
 import java.io.IOException;
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
@@ -16,6 +16,7 @@ import org.apache.commons.logging.Log;
 import net.osmand.Algoritms;
 import net.osmand.CollatorStringMatcher;
 import net.osmand.LogUtil;
+import net.osmand.StringMatcher;
 import net.osmand.CollatorStringMatcher.StringMatcherMode;
 import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
 import net.osmand.data.Amenity;
@@ -33,7 +34,6 @@ public class BinaryMapPoiReaderAdapter {
 	public static final int SHIFT_BITS_CATEGORY = 7;
 	private static final int CATEGORY_MASK = (1 << SHIFT_BITS_CATEGORY) - 1 ;
 	private static final int ZOOM_TO_SKIP_FILTER = 3;
-	private static final int BUCKET_SEARCH_BY_NAME = 5;
 	
 	public static class PoiRegion extends BinaryIndexPart {
 
@@ -162,12 +162,82 @@ public class BinaryMapPoiReaderAdapter {
 		}
 	}
 	
+	/**
+	 * Binary min heap of (distance, box offset) pairs (primitive to avoid boxing of all found offsets)
+	 */
+	private static class BoxOffsetsHeap {
+		private long[] distances = new long[64];
+		private int[] offsets = new int[64];
+		private int size = 0;
+		
+		public void push(long distance, int offset) {
+			if (size == offsets.length) {
+				long[] nd = new long[size * 2];
+				int[] no = new int[size * 2];
+				System.arraycopy(distances, 0, nd, 0, size);
+				System.arraycopy(offsets, 0, no, 0, size);
+				distances = nd;
+				offsets = no;
+			}
+			int i = size++;
+			while (i > 0) {
+				int parent = (i - 1) >> 1;
+				if (distances[parent] <= distance) {
+					break;
+				}
+				distances[i] = distances[parent];
+				offsets[i] = offsets[parent];
+				i = parent;
+			}
+			distances[i] = distance;
+			offsets[i] = offset;
+		}
+		
+		/**
+		 * @return offset with minimal distance
+		 */
+		public int pop() {
+			int result = offsets[0];
+			size--;
+			long d = distances[size];
+			int o = offsets[size];
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size && distances[child + 1] < distances[child]) {
+					child++;
+				}
+				if (d <= distances[child]) {
+					break;
+				}
+				distances[i] = distances[child];
+				offsets[i] = offsets[child];
+				i = child;
+			}
+			distances[i] = d;
+			offsets[i] = o;
+			return result;
+		}
+		
+		public boolean isEmpty() {
+			return size == 0;
+		}
+		
+		public int size() {
+			return size;
+		}
+	}
+	
+	private static boolean isLimitReached(SearchRequest<Amenity> req) {
+		return req.limit != -1 && req.getSearchResults().size() >= req.limit;
+	}
+	
 	protected void searchPoiByName( PoiRegion region, SearchRequest<Amenity> req) throws IOException {
-		TIntLongHashMap offsets = new TIntLongHashMap();
-		Collator instance = Collator.getInstance();
-		instance.setStrength(Collator.PRIMARY);
-		CollatorStringMatcher matcher = new CollatorStringMatcher(instance, req.nameQuery, 
-				StringMatcherMode.CHECK_STARTS_FROM_SPACE);
+		BoxOffsetsHeap offsets = new BoxOffsetsHeap();
+		StringMatcher matcher = new NameKeyIndex.WordStartMatcher(req.nameQuery);
 		long time = System.currentTimeMillis();
 		int indexOffset = codedIS.getTotalBytesRead();
 		while(true){
@@ -182,49 +252,26 @@ public class BinaryMapPoiReaderAdapter {
 			case OsmandOdb.OsmAndPoiIndex.NAMEINDEX_FIELD_NUMBER :
 				int length = readInt();
 				int oldLimit = codedIS.pushLimit(length);
-				// here offsets are sorted by distance
-				offsets = readPoiNameIndex(instance, req.nameQuery, req);
+				offsets = readPoiNameIndex(req.nameQuery, req);
 				codedIS.popLimit(oldLimit);
 				break;
 			case OsmandOdb.OsmAndPoiIndex.POIDATA_FIELD_NUMBER :
-				// also offsets can be randomly skipped by limit
-				Integer[] offKeys = new Integer[offsets.size()];
-				if (offsets.size() > 0) {
-					int[] keys = offsets.keys();
-					for (int i = 0; i < keys.length; i++) {
-						offKeys[i] = keys[i];
-					}
-					final TIntLongHashMap foffsets = offsets;
-					Arrays.sort(offKeys, new Comparator<Integer>() {
-						@Override
-						public int compare(Integer object1, Integer object2) {
-							return Double.compare(foffsets.get(object1), foffsets.get(object2));
-						}
-					});
-					int p = BUCKET_SEARCH_BY_NAME * 3 ;
-					if (p < offKeys.length) {
-						for (int i = p + BUCKET_SEARCH_BY_NAME;; i += BUCKET_SEARCH_BY_NAME) {
-							if (i > offKeys.length) {
-								Arrays.sort(offKeys, p, offKeys.length);
-								break;
-							} else {
-								Arrays.sort(offKeys, p, i);
-							}
-							p = i;
-						}
-					}
-				}
-				
-				
 				LOG.info("Searched poi structure in "+(System.currentTimeMillis() - time) + 
-						"ms. Found " + offKeys.length +" subtress");
-				for (int j = 0; j < offKeys.length; j++) {
-					codedIS.seek(offKeys[j] + indexOffset);
+						"ms. Found " + offsets.size() +" subtress");
+				// the nearest boxes are read first, so results are published ordered (by box) 
+				// and reading could be stopped when limit is reached
+				TIntHashSet visited = new TIntHashSet();
+				while (!offsets.isEmpty()) {
+					int offset = offsets.pop();
+					if (!visited.add(offset)) {
+						continue;
+					}
+					codedIS.seek(offset + indexOffset);
 					int len = readInt();
 					int oldLim = codedIS.pushLimit(len);
 					readPoiData(matcher, req, region);
 					codedIS.popLimit(oldLim);
-					if(req.isCancelled()){
+					if(req.isCancelled() || isLimitReached(req)){
 						return;
 					}
 				}
@@ -239,19 +286,40 @@ public class BinaryMapPoiReaderAdapter {
 		}
 	}
 	
-	private TIntLongHashMap readPoiNameIndex(Collator instance, String query, SearchRequest<Amenity> req) throws IOException {
-		TIntLongHashMap offsets = new TIntLongHashMap();
+	private BoxOffsetsHeap readPoiNameIndex(String query, SearchRequest<Amenity> req) throws IOException {
+		BoxOffsetsHeap offsets = new BoxOffsetsHeap();
+		// collator is used only for old files without normalized keys table
+		Collator instance = null;
 		TIntArrayList dataOffsets = null;
+		boolean keyTableRead = false;
 		while(true){
 			int t = codedIS.readTag();
 			int tag = WireFormat.getTagFieldNumber(t);
 			switch (tag) {
 			case 0:
 				return offsets;
+			case NameKeyIndex.POI_NAME_KEY_TABLE_FIELD_NUMBER : {
+				int length = readInt();
+				int start = codedIS.getTotalBytesRead();
+				int oldLimit = codedIS.pushLimit(length);
+				dataOffsets = new TIntArrayList();
+				NameKeyIndex.searchPrefixOrLongestKey(codedIS, NameKeyIndex.normalize(query), dataOffsets);
+				codedIS.seek(start + length);
+				codedIS.popLimit(oldLimit);
+				keyTableRead = true;
+				break; }
 			case OsmandOdb.OsmAndPoiNameIndex.TABLE_FIELD_NUMBER : {
 				int length = readInt();
+				if (keyTableRead) {
+					codedIS.skipRawBytes(length);
+					break;
+				}
 				int oldLimit = codedIS.pushLimit(length);
 				dataOffsets = new TIntArrayList();
+				if (instance == null) {
+					instance = Collator.getInstance();
+					instance.setStrength(Collator.PRIMARY);
+				}
 				readIndexedStringTable(instance, query, "", dataOffsets, 0);
 				codedIS.popLimit(oldLimit);
 				break; }
@@ -281,7 +349,7 @@ public class BinaryMapPoiReaderAdapter {
 		
 	}
 
-	private void readPoiNameIndexData(TIntLongHashMap offsets, SearchRequest<Amenity> req) throws IOException {
+	private void readPoiNameIndexData(BoxOffsetsHeap offsets, SearchRequest<Amenity> req) throws IOException {
 		while(true){
 			int t = codedIS.readTag();
 			int tag = WireFormat.getTagFieldNumber(t);
@@ -302,13 +370,13 @@ public class BinaryMapPoiReaderAdapter {
 		
 	}
 
-	private void readPoiNameIndexDataAtom(TIntLongHashMap offsets, SearchRequest<Amenity> req) throws IOException {
+	private void readPoiNameIndexDataAtom(BoxOffsetsHeap offsets, SearchRequest<Amenity> req) throws IOException {
+		int x = 0;
+		int y = 0;
+		int zoom = 15;
 		while(true){
 			int t = codedIS.readTag();
 			int tag = WireFormat.getTagFieldNumber(t);
-			int x = 0;
-			int y = 0;
-			int zoom = 15;
 			switch (tag) {
 			case 0:
 				return;
@@ -323,7 +391,7 @@ public class BinaryMapPoiReaderAdapter {
 				break;
 			case OsmandOdb.OsmAndPoiNameIndexDataAtom.SHIFTTO_FIELD_NUMBER :
 				long d = Math.abs(req.x - (x << (31 - zoom))) + Math.abs(req.y - (y << (31 - zoom))); 
-				offsets.put(readInt(), d);
+				offsets.push(d, readInt());
 				break;
 			default:
 				skipUnknownField(t);
@@ -448,7 +516,7 @@ public class BinaryMapPoiReaderAdapter {
 		}
 	}
 	
-	private void readPoiData(CollatorStringMatcher matcher, SearchRequest<Amenity> req, PoiRegion region) throws IOException {
+	private void readPoiData(StringMatcher matcher, SearchRequest<Amenity> req, PoiRegion region) throws IOException {
 		int x = 0;
 		int y = 0;
 		int zoom = 0;
@@ -478,6 +546,9 @@ public class BinaryMapPoiReaderAdapter {
 				if (am != null) {
 					if(matcher.matches(am.getName(false)) || matcher.matches(am.getName(true))) {
 						req.publish(am);
+						if (isLimitReached(req)) {
+							return;
+						}
 					}
 				}
 				break;
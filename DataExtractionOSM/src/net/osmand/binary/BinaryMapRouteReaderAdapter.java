@@ -0,0 +1,370 @@
+package net.osmand.binary;
+
+import gnu.trove.list.array.TLongArrayList;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+
+import com.google.protobuf.CodedInputStreamRAF;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Reads routing section of obf file (see OsmAndRoutingIndex in osmand_odb.proto).
+ * Section contains only roads and obstacles of the most detailed map level with their routing types,
+ * so routing doesn't read and decode objects which are used only for rendering.
+ * Objects are read as {@link BinaryMapDataObject} with the same ids, types, highway attributes
+ * and restrictions as in map section.
+ */
+public class BinaryMapRouteReaderAdapter {
+
+	// field numbers (messages are not generated by protoc)
+	public static final int ROUTING_INDEX_FIELD_NUMBER = 9;
+
+	public static final int ROUTE_INDEX_NAME_FIELD_NUMBER = 1;
+	public static final int ROUTE_INDEX_RULES_FIELD_NUMBER = 2;
+	public static final int ROUTE_INDEX_ROOT_BOXES_FIELD_NUMBER = 3;
+
+	public static final int RULE_TAG_FIELD_NUMBER = 3;
+	public static final int RULE_VALUE_FIELD_NUMBER = 5;
+	public static final int RULE_ID_FIELD_NUMBER = 7;
+
+	public static final int BOX_LEFT_FIELD_NUMBER = 1;
+	public static final int BOX_RIGHT_FIELD_NUMBER = 2;
+	public static final int BOX_TOP_FIELD_NUMBER = 3;
+	public static final int BOX_BOTTOM_FIELD_NUMBER = 4;
+	public static final int BOX_BASEID_FIELD_NUMBER = 5;
+	public static final int BOX_BOXES_FIELD_NUMBER = 6;
+	public static final int BOX_DATA_FIELD_NUMBER = 7;
+
+	public static final int DATA_POINTS_FIELD_NUMBER = 1;
+	public static final int DATA_TYPES_FIELD_NUMBER = 2;
+	public static final int DATA_ID_FIELD_NUMBER = 3;
+	public static final int DATA_HIGHWAYMETA_FIELD_NUMBER = 4;
+	public static final int DATA_RESTRICTIONS_FIELD_NUMBER = 5;
+
+	private static final int MASK_TO_READ = ~((1 << BinaryMapIndexReader.SHIFT_COORDINATES) - 1);
+
+	private CodedInputStreamRAF codedIS;
+	private final BinaryMapIndexReader map;
+
+	protected BinaryMapRouteReaderAdapter(BinaryMapIndexReader map) {
+		this.codedIS = map.codedIS;
+		this.map = map;
+	}
+
+	private void skipUnknownField(int t) throws IOException {
+		map.skipUnknownField(t);
+	}
+
+	private int readInt() throws IOException {
+		return map.readInt();
+	}
+
+	/**
+	 * @return true if object of that type is stored in routing section
+	 */
+	public static boolean isRoutingType(String tag, String value, boolean point) {
+		if (tag.equals("highway")) { //$NON-NLS-1$
+			return true;
+		}
+		if (point) {
+			return tag.equals("traffic_calming") || tag.equals("barrier") //$NON-NLS-1$ //$NON-NLS-2$
+					|| (tag.equals("railway") && ("crossing".equals(value) || "level_crossing".equals(value))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+		return false;
+	}
+
+	public static class RouteRegion extends BinaryIndexPart {
+		int left = Integer.MAX_VALUE;
+		int right = Integer.MIN_VALUE;
+		int top = Integer.MAX_VALUE;
+		int bottom = Integer.MIN_VALUE;
+
+		// decodes types of routing objects
+		MapIndex rules = new MapIndex();
+		List<RouteBox> roots = new ArrayList<RouteBox>();
+
+		public int getLeft() {
+			return left;
+		}
+
+		public int getRight() {
+			return right;
+		}
+
+		public int getTop() {
+			return top;
+		}
+
+		public int getBottom() {
+			return bottom;
+		}
+
+		public MapIndex getRules() {
+			return rules;
+		}
+
+		public List<RouteBox> getRoots() {
+			return roots;
+		}
+	}
+
+	public static class RouteBox {
+		int left;
+		int right;
+		int top;
+		int bottom;
+		int filePointer;
+		int length;
+
+		public int getLength() {
+			return length;
+		}
+
+		public int getFilePointer() {
+			return filePointer;
+		}
+	}
+
+	protected void readRouteIndex(RouteRegion region) throws IOException {
+		while (true) {
+			int t = codedIS.readTag();
+			int tag = WireFormat.getTagFieldNumber(t);
+			switch (tag) {
+			case 0:
+				return;
+			case ROUTE_INDEX_NAME_FIELD_NUMBER:
+				region.name = codedIS.readString();
+				region.rules.setName(region.name);
+				break;
+			case ROUTE_INDEX_RULES_FIELD_NUMBER:
+				int len = codedIS.readInt32();
+				int oldLimit = codedIS.pushLimit(len);
+				readRouteEncodingRule(region);
+				codedIS.popLimit(oldLimit);
+				break;
+			case ROUTE_INDEX_ROOT_BOXES_FIELD_NUMBER:
+				RouteBox box = new RouteBox();
+				box.length = readInt();
+				box.filePointer = codedIS.getTotalBytesRead();
+				oldLimit = codedIS.pushLimit(box.length);
+				readRouteBoxBounds(box, 0, 0, 0, 0);
+				codedIS.popLimit(oldLimit);
+				codedIS.seek(box.filePointer + box.length);
+				region.roots.add(box);
+				region.left = Math.min(region.left, box.left);
+				region.right = Math.max(region.right, box.right);
+				region.top = Math.min(region.top, box.top);
+				region.bottom = Math.max(region.bottom, box.bottom);
+				break;
+			default:
+				skipUnknownField(t);
+				break;
+			}
+		}
+	}
+
+	private void readRouteEncodingRule(RouteRegion region) throws IOException {
+		String tags = null;
+		String val = null;
+		int id = 0;
+		while (true) {
+			int t = codedIS.readTag();
+			int tag = WireFormat.getTagFieldNumber(t);
+			switch (tag) {
+			case 0:
+				region.rules.addEncodingRule(id, tags, val);
+				return;
+			case RULE_TAG_FIELD_NUMBER:
+				tags = codedIS.readString().intern();
+				break;
+			case RULE_VALUE_FIELD_NUMBER:
+				val = codedIS.readString().intern();
+				break;
+			case RULE_ID_FIELD_NUMBER:
+				id = codedIS.readUInt32();
+				break;
+			default:
+				skipUnknownField(t);
+				break;
+			}
+		}
+	}
+
+	private void readRouteBoxBounds(RouteBox box, int aleft, int aright, int atop, int abottom) throws IOException {
+		int init = 0;
+		while (init != 0xf) {
+			int t = codedIS.readTag();
+			int tag = WireFormat.getTagFieldNumber(t);
+			switch (tag) {
+			case 0:
+				return;
+			case BOX_LEFT_FIELD_NUMBER:
+				box.left = codedIS.readSInt32() + aleft;
+				init |= 1;
+				break;
+			case BOX_RIGHT_FIELD_NUMBER:
+				box.right = codedIS.readSInt32() + aright;
+				init |= 2;
+				break;
+			case BOX_TOP_FIELD_NUMBER:
+				box.top = codedIS.readSInt32() + atop;
+				init |= 4;
+				break;
+			case BOX_BOTTOM_FIELD_NUMBER:
+				box.bottom = codedIS.readSInt32() + abottom;
+				init |= 8;
+				break;
+			default:
+				skipUnknownField(t);
+				break;
+			}
+		}
+	}
+
+	protected void searchRouteRegion(RouteRegion region, SearchRequest<BinaryMapDataObject> req) throws IOException {
+		for (RouteBox box : region.roots) {
+			if (box.right < req.left || box.left > req.right || box.top > req.bottom || box.bottom < req.top) {
+				continue;
+			}
+			codedIS.seek(box.filePointer);
+			int oldLimit = codedIS.pushLimit(box.length);
+			searchRouteBox(0, 0, 0, 0, req, region);
+			codedIS.popLimit(oldLimit);
+		}
+	}
+
+	private void searchRouteBox(int pleft, int pright, int ptop, int pbottom, SearchRequest<BinaryMapDataObject> req,
+			RouteRegion region) throws IOException {
+		RouteBox box = new RouteBox();
+		readRouteBoxBounds(box, pleft, pright, ptop, pbottom);
+		req.numberOfReadSubtrees++;
+		if (box.right < req.left || box.left > req.right || box.top > req.bottom || box.bottom < req.top) {
+			return;
+		}
+		req.numberOfAcceptedSubtrees++;
+		long baseId = 0;
+		while (true) {
+			if (req.isCancelled()) {
+				return;
+			}
+			int t = codedIS.readTag();
+			int tag = WireFormat.getTagFieldNumber(t);
+			switch (tag) {
+			case 0:
+				return;
+			case BOX_BASEID_FIELD_NUMBER:
+				baseId = codedIS.readUInt64();
+				break;
+			case BOX_BOXES_FIELD_NUMBER:
+				int length = readInt();
+				int filePointer = codedIS.getTotalBytesRead();
+				int oldLimit = codedIS.pushLimit(length);
+				searchRouteBox(box.left, box.right, box.top, box.bottom, req, region);
+				codedIS.popLimit(oldLimit);
+				codedIS.seek(filePointer + length);
+				break;
+			case BOX_DATA_FIELD_NUMBER:
+				length = codedIS.readRawVarint32();
+				oldLimit = codedIS.pushLimit(length);
+				BinaryMapDataObject o = readRouteData(box.left, box.top, baseId, req, region);
+				if (o != null) {
+					req.publish(o);
+				}
+				codedIS.popLimit(oldLimit);
+				break;
+			default:
+				skipUnknownField(t);
+				break;
+			}
+		}
+	}
+
+	private BinaryMapDataObject readRouteData(int left, int top, long baseId, SearchRequest<BinaryMapDataObject> req,
+			RouteRegion region) throws IOException {
+		int tag = WireFormat.getTagFieldNumber(codedIS.readTag());
+		if (DATA_POINTS_FIELD_NUMBER != tag) {
+			throw new IllegalArgumentException();
+		}
+		req.numberOfVisitedObjects++;
+		req.cacheCoordinates.clear();
+		int size = codedIS.readRawVarint32();
+		int old = codedIS.pushLimit(size);
+		int px = left & MASK_TO_READ;
+		int py = top & MASK_TO_READ;
+		int minX = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE;
+		int minY = Integer.MAX_VALUE;
+		int maxY = Integer.MIN_VALUE;
+		while (codedIS.getBytesUntilLimit() > 0) {
+			int x = (codedIS.readSInt32() << BinaryMapIndexReader.SHIFT_COORDINATES) + px;
+			int y = (codedIS.readSInt32() << BinaryMapIndexReader.SHIFT_COORDINATES) + py;
+			req.cacheCoordinates.add(x);
+			req.cacheCoordinates.add(y);
+			px = x;
+			py = y;
+			minX = Math.min(minX, x);
+			maxX = Math.max(maxX, x);
+			minY = Math.min(minY, y);
+			maxY = Math.max(maxY, y);
+		}
+		codedIS.popLimit(old);
+		if (maxX < req.left || minX > req.right || minY > req.bottom || maxY < req.top) {
+			codedIS.skipRawBytes(codedIS.getBytesUntilLimit());
+			return null;
+		}
+
+		tag = WireFormat.getTagFieldNumber(codedIS.readTag());
+		if (DATA_TYPES_FIELD_NUMBER != tag) {
+			throw new IllegalArgumentException();
+		}
+		req.cacheTypes.clear();
+		size = codedIS.readRawVarint32();
+		old = codedIS.pushLimit(size);
+		while (codedIS.getBytesUntilLimit() > 0) {
+			req.cacheTypes.add(codedIS.readRawVarint32());
+		}
+		codedIS.popLimit(old);
+		if (req.searchFilter != null && !req.searchFilter.accept(req.cacheTypes, region.rules)) {
+			codedIS.skipRawBytes(codedIS.getBytesUntilLimit());
+			return null;
+		}
+		req.numberOfAcceptedObjects++;
+
+		BinaryMapDataObject dataObject = new BinaryMapDataObject();
+		dataObject.coordinates = req.cacheCoordinates.toArray();
+		dataObject.types = req.cacheTypes.toArray();
+		dataObject.mapIndex = region.rules;
+		while (true) {
+			int t = codedIS.readTag();
+			tag = WireFormat.getTagFieldNumber(t);
+			switch (tag) {
+			case 0:
+				return dataObject;
+			case DATA_ID_FIELD_NUMBER:
+				dataObject.id = codedIS.readSInt64() + baseId;
+				break;
+			case DATA_HIGHWAYMETA_FIELD_NUMBER:
+				dataObject.highwayAttributes = codedIS.readUInt32();
+				break;
+			case DATA_RESTRICTIONS_FIELD_NUMBER:
+				size = codedIS.readRawVarint32();
+				TLongArrayList list = new TLongArrayList();
+				old = codedIS.pushLimit(size);
+				while (codedIS.getBytesUntilLimit() > 0) {
+					list.add(codedIS.readSInt64() + baseId);
+				}
+				codedIS.popLimit(old);
+				dataObject.restrictions = list.toArray();
+				break;
+			default:
+				skipUnknownField(t);
+				break;
+			}
+		}
+	}
+}
@@ -0,0 +1,288 @@
+package net.osmand.binary;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.osmand.StringMatcher;
+
+import com.google.protobuf.CodedInputStreamRAF;
+
+/**
+ * Name index based on precomputed (normalized) keys.
+ * Keys are normalized names (lower case, accents removed) so they could be compared
+ * as raw bytes (unsigned) without collator.
+ * Table format (fixed32 length delimited field) :
+ * int count, count * int (offset of entry from the entries start), entries sorted by key bytes.
+ * Entry : varint key length, key bytes (utf-8), varint values count, values as varints.
+ * All ints are big endian as other fixed32 lengths.
+ */
+public class NameKeyIndex {
+
+	// see osmand_odb.proto
+	public static final int POI_NAME_KEY_TABLE_FIELD_NUMBER = 3;
+	public static final int ADDRESS_VILLAGES_KEY_TABLE_FIELD_NUMBER = 8;
+
+	private static final char[] FOLD_TABLE = new char[0x500];
+	private static final String[] FOLD_EXPANSIONS = new String[] {
+		"ß", "ss", "æ", "ae", "œ", "oe", "þ", "th", "ĳ", "ij"
+	};
+	static {
+		String[] fold = new String[] {
+			"àáâãäåāăąǎ", "a",
+			"çćĉċč", "c",
+			"ðďđ", "d",
+			"èéêëēĕėęě", "e",
+			"ĝğġģ", "g",
+			"ĥħ", "h",
+			"ìíîïĩīĭįıǐ", "i",
+			"ĵ", "j",
+			"ķ", "k",
+			"ĺļľŀł", "l",
+			"ñńņňŉŋ", "n",
+			"òóôõöøōŏőǒ", "o",
+			"ŕŗř", "r",
+			"śŝşšș", "s",
+			"ţťŧț", "t",
+			"ùúûüũūŭůűųǔ", "u",
+			"ŵ", "w",
+			"ýÿŷ", "y",
+			"źżž", "z",
+			// greek
+			"ά", "α", "έ", "ε", "ή", "η", "ίϊΐ", "ι",
+			"ό", "ο", "ύϋΰ", "υ", "ώ", "ω", "ς", "σ",
+			// cyrillic
+			"ё", "е", "й", "и", "ї", "і", "ў", "у"
+		};
+		for (int i = 0; i < fold.length; i += 2) {
+			for (int j = 0; j < fold[i].length(); j++) {
+				FOLD_TABLE[fold[i].charAt(j)] = fold[i + 1].charAt(0);
+			}
+		}
+	}
+
+	/**
+	 * Primary strength normalization (analog of collator primary strength) :
+	 * lower case and remove accents. Other characters are kept as is.
+	 */
+	public static String normalize(String s) {
+		StringBuilder b = null;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			char l = Character.toLowerCase(c);
+			String exp = null;
+			if (l < FOLD_TABLE.length) {
+				if (FOLD_TABLE[l] != 0) {
+					l = FOLD_TABLE[l];
+				} else if (l > 0x7f) {
+					for (int k = 0; k < FOLD_EXPANSIONS.length; k += 2) {
+						if (FOLD_EXPANSIONS[k].charAt(0) == l) {
+							exp = FOLD_EXPANSIONS[k + 1];
+							break;
+						}
+					}
+				}
+			}
+			if (b == null && (l != c || exp != null)) {
+				b = new StringBuilder(s.length() + 4);
+				b.append(s, 0, i);
+			}
+			if (b != null) {
+				if (exp != null) {
+					b.append(exp);
+				} else {
+					b.append(l);
+				}
+			}
+		}
+		return b == null ? s : b.toString();
+	}
+
+	public static byte[] getKey(String normalized) {
+		try {
+			return normalized.getBytes("UTF-8"); //$NON-NLS-1$
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Splits normalized name into words (the same way as poi name index is built)
+	 */
+	public static List<String> getWords(String normalized) {
+		List<String> words = new ArrayList<String>();
+		int prev = -1;
+		for (int i = 0; i <= normalized.length(); i++) {
+			if (i == normalized.length() || isSpace(normalized.charAt(i))) {
+				if (prev != -1) {
+					words.add(normalized.substring(prev, i));
+					prev = -1;
+				}
+			} else if (prev == -1) {
+				prev = i;
+			}
+		}
+		return words;
+	}
+
+	public static int compareKeys(byte[] k1, byte[] k2) {
+		int l = Math.min(k1.length, k2.length);
+		for (int i = 0; i < l; i++) {
+			int c = (k1[i] & 0xff) - (k2[i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return k1.length - k2.length;
+	}
+
+	private static boolean startsWith(byte[] key, byte[] prefix) {
+		if (key.length < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (key[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isSpace(char c) {
+		return !Character.isLetter(c) && !Character.isDigit(c);
+	}
+
+	/**
+	 * Matcher equivalent to collator matcher with CHECK_STARTS_FROM_SPACE mode
+	 * but based on normalized strings.
+	 */
+	public static class WordStartMatcher implements StringMatcher {
+		private final String part;
+
+		public WordStartMatcher(String query) {
+			this.part = normalize(query);
+		}
+
+		@Override
+		public boolean matches(String name) {
+			if (part.length() == 0) {
+				return true;
+			}
+			if (name == null) {
+				return false;
+			}
+			String n = normalize(name);
+			if (n.startsWith(part)) {
+				return true;
+			}
+			for (int i = 1; i <= n.length() - part.length(); i++) {
+				if (isSpace(n.charAt(i - 1)) && !isSpace(n.charAt(i)) && n.startsWith(part, i)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Reads values of keys starting with the prefix. Stream should be positioned
+	 * at the table start (after the length), position after method is undefined.
+	 * @return number of found keys
+	 */
+	public static int searchPrefix(CodedInputStreamRAF codedIS, byte[] prefix, TIntArrayList values) throws IOException {
+		int start = codedIS.getTotalBytesRead();
+		int count = readInt(codedIS);
+		int entries = start + 4 + count * 4;
+		int lo = lowerBound(codedIS, start, entries, count, prefix);
+		if (lo == count) {
+			return 0;
+		}
+		int found = 0;
+		codedIS.seek(start + 4 + lo * 4);
+		codedIS.seek(entries + readInt(codedIS));
+		// entries are stored sequentially, so range is read without seeks
+		for (int i = lo; i < count; i++) {
+			byte[] key = codedIS.readRawBytes(codedIS.readRawVarint32());
+			if (!startsWith(key, prefix)) {
+				break;
+			}
+			found++;
+			readValues(codedIS, values);
+		}
+		return found;
+	}
+
+	/**
+	 * Reads values of key that is equal to the given one.
+	 * @return true if key was found
+	 */
+	public static boolean searchExact(CodedInputStreamRAF codedIS, byte[] key, TIntArrayList values) throws IOException {
+		int start = codedIS.getTotalBytesRead();
+		int count = readInt(codedIS);
+		int entries = start + 4 + count * 4;
+		int lo = lowerBound(codedIS, start, entries, count, key);
+		if (lo == count) {
+			return false;
+		}
+		codedIS.seek(start + 4 + lo * 4);
+		codedIS.seek(entries + readInt(codedIS));
+		byte[] k = codedIS.readRawBytes(codedIS.readRawVarint32());
+		if (compareKeys(k, key) != 0) {
+			return false;
+		}
+		readValues(codedIS, values);
+		return true;
+	}
+
+	/**
+	 * Search used by poi name index (keys are word prefixes limited by length) :
+	 * keys starting with query or if there are no such keys the longest key that is a prefix of query.
+	 */
+	public static void searchPrefixOrLongestKey(CodedInputStreamRAF codedIS, String normalizedQuery, TIntArrayList values) throws IOException {
+		int start = codedIS.getTotalBytesRead();
+		if (searchPrefix(codedIS, getKey(normalizedQuery), values) > 0) {
+			return;
+		}
+		for (int l = normalizedQuery.length() - 1; l > 0; l--) {
+			codedIS.seek(start);
+			if (searchExact(codedIS, getKey(normalizedQuery.substring(0, l)), values)) {
+				return;
+			}
+		}
+	}
+
+	private static int lowerBound(CodedInputStreamRAF codedIS, int start, int entries, int count, byte[] key) throws IOException {
+		int lo = 0;
+		int hi = count;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			codedIS.seek(start + 4 + mid * 4);
+			codedIS.seek(entries + readInt(codedIS));
+			byte[] k = codedIS.readRawBytes(codedIS.readRawVarint32());
+			if (compareKeys(k, key) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private static void readValues(CodedInputStreamRAF codedIS, TIntArrayList values) throws IOException {
+		int size = codedIS.readRawVarint32();
+		for (int j = 0; j < size; j++) {
+			values.add(codedIS.readRawVarint32());
+		}
+	}
+
+	private static int readInt(CodedInputStreamRAF codedIS) throws IOException {
+		int ch1 = codedIS.readRawByte() & 0xff;
+		int ch2 = codedIS.readRawByte() & 0xff;
+		int ch3 = codedIS.readRawByte() & 0xff;
+		int ch4 = codedIS.readRawByte() & 0xff;
+		return ((ch1 << 24) + (ch2 << 16) + (ch3 << 8) + ch4);
+	}
+}
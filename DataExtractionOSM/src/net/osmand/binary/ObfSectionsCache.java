@@ -0,0 +1,470 @@
+package net.osmand.binary;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import net.osmand.Algoritms;
+import net.osmand.LogUtil;
+import net.osmand.binary.BinaryMapAddressReaderAdapter.AddressRegion;
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+import net.osmand.binary.BinaryMapIndexReader.MapRoot;
+import net.osmand.binary.BinaryMapIndexReader.TagValuePair;
+import net.osmand.binary.BinaryMapPoiReaderAdapter.PoiRegion;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteBox;
+import net.osmand.binary.BinaryMapRouteReaderAdapter.RouteRegion;
+import net.osmand.binary.BinaryMapTransportReaderAdapter.IndexStringTable;
+import net.osmand.binary.BinaryMapTransportReaderAdapter.TransportIndex;
+import net.osmand.data.AmenityType;
+import net.osmand.osm.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Cache of decoded sections of obf files (map encoding rules and levels, address, poi categories,
+ * transport bounds and string tables) kept in one file next to obf files.
+ * Entry of file is valid while path, size and modification time of file are the same,
+ * otherwise reader scans file and entry is replaced. Map trees and other data are still read lazily from file.
+ */
+public class ObfSectionsCache {
+	private static final Log log = LogUtil.getLog(ObfSectionsCache.class);
+
+	private static final int CACHE_VERSION = 3;
+	private static final int MAP_INDEX = 1;
+	private static final int ADDRESS_INDEX = 2;
+	private static final int TRANSPORT_INDEX = 3;
+	private static final int POI_INDEX = 4;
+	private static final int ROUTE_INDEX = 5;
+
+	private final File cacheFile;
+	private final Map<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>();
+	private boolean changed = false;
+
+	private static class CacheEntry {
+		long size;
+		long modified;
+		// bounds of map and poi data
+		int left = Integer.MAX_VALUE;
+		int top = Integer.MAX_VALUE;
+		int right = Integer.MIN_VALUE;
+		int bottom = Integer.MIN_VALUE;
+		byte[] data;
+
+		void extend(int l, int t, int r, int b) {
+			left = Math.min(left, l);
+			top = Math.min(top, t);
+			right = Math.max(right, r);
+			bottom = Math.max(bottom, b);
+		}
+	}
+
+	public ObfSectionsCache(File cacheFile) {
+		this.cacheFile = cacheFile;
+	}
+
+	/**
+	 * Reads cache file (broken or old cache is ignored)
+	 */
+	public synchronized void load() {
+		entries.clear();
+		changed = false;
+		if (!cacheFile.exists()) {
+			return;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+			if (in.readInt() != CACHE_VERSION) {
+				return;
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String path = in.readUTF();
+				CacheEntry e = new CacheEntry();
+				e.size = in.readLong();
+				e.modified = in.readLong();
+				e.left = in.readInt();
+				e.top = in.readInt();
+				e.right = in.readInt();
+				e.bottom = in.readInt();
+				e.data = new byte[in.readInt()];
+				in.readFully(e.data);
+				entries.put(path, e);
+			}
+		} catch (IOException e) {
+			log.warn("Cache of sections is not read " + cacheFile.getAbsolutePath(), e); //$NON-NLS-1$
+			entries.clear();
+		} finally {
+			Algoritms.closeStream(in);
+		}
+	}
+
+	/**
+	 * Writes cache file if it was changed
+	 */
+	public synchronized void save() {
+		if (!changed) {
+			return;
+		}
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile)));
+			out.writeInt(CACHE_VERSION);
+			out.writeInt(entries.size());
+			for (Entry<String, CacheEntry> e : entries.entrySet()) {
+				out.writeUTF(e.getKey());
+				out.writeLong(e.getValue().size);
+				out.writeLong(e.getValue().modified);
+				out.writeInt(e.getValue().left);
+				out.writeInt(e.getValue().top);
+				out.writeInt(e.getValue().right);
+				out.writeInt(e.getValue().bottom);
+				out.writeInt(e.getValue().data.length);
+				out.write(e.getValue().data);
+			}
+			changed = false;
+		} catch (IOException e) {
+			log.warn("Cache of sections is not written " + cacheFile.getAbsolutePath(), e); //$NON-NLS-1$
+		} finally {
+			Algoritms.closeStream(out);
+		}
+	}
+
+	/**
+	 * Removes entries of files which don't exist anymore
+	 */
+	public synchronized void removeMissingFiles() {
+		Iterator<String> it = entries.keySet().iterator();
+		while (it.hasNext()) {
+			if (!new File(it.next()).exists()) {
+				it.remove();
+				changed = true;
+			}
+		}
+	}
+
+	/**
+	 * @return true if valid entry of file has map or poi data around point (file is not opened)
+	 */
+	public synchronized boolean covers(File f, int x31, int y31) {
+		CacheEntry e = getValidEntry(f);
+		return e != null && e.left <= x31 && x31 <= e.right && e.top <= y31 && y31 <= e.bottom;
+	}
+
+	private CacheEntry getValidEntry(File f) {
+		CacheEntry e = entries.get(f.getAbsolutePath());
+		if (e == null || e.size != f.length() || e.modified != f.lastModified()) {
+			return null;
+		}
+		return e;
+	}
+
+	/**
+	 * @return reader with sections from cache or null if there is no valid entry
+	 */
+	synchronized BinaryMapIndexReader createReader(SharedObfFile file) {
+		File f = file.getFile();
+		CacheEntry e = getValidEntry(f);
+		if (e == null) {
+			return null;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(e.data));
+			int version = in.readInt();
+			int count = in.readInt();
+			List<BinaryIndexPart> parts = new ArrayList<BinaryIndexPart>(count);
+			for (int i = 0; i < count; i++) {
+				parts.add(readPart(in));
+			}
+			return new BinaryMapIndexReader(file, version, parts);
+		} catch (IOException ex) {
+			log.warn("Cache entry is broken " + f.getAbsolutePath(), ex); //$NON-NLS-1$
+			entries.remove(f.getAbsolutePath());
+			changed = true;
+			return null;
+		}
+	}
+
+	/**
+	 * Stores sections of reader which has just read them from file
+	 */
+	synchronized void put(SharedObfFile file, BinaryMapIndexReader reader) {
+		File f = file.getFile();
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(reader.getVersion());
+			List<BinaryIndexPart> parts = reader.getIndexes();
+			out.writeInt(parts.size());
+			for (BinaryIndexPart p : parts) {
+				writePart(out, p);
+			}
+			out.flush();
+			CacheEntry e = new CacheEntry();
+			for (BinaryIndexPart p : parts) {
+				if (p instanceof MapIndex) {
+					for (MapRoot r : ((MapIndex) p).roots) {
+						e.extend(r.left, r.top, r.right, r.bottom);
+					}
+				} else if (p instanceof PoiRegion) {
+					PoiRegion r = (PoiRegion) p;
+					e.extend(MapUtils.get31TileNumberX(r.leftLongitude), MapUtils.get31TileNumberY(r.topLatitude),
+							MapUtils.get31TileNumberX(r.rightLongitude), MapUtils.get31TileNumberY(r.bottomLatitude));
+				}
+			}
+			e.size = f.length();
+			e.modified = f.lastModified();
+			e.data = bytes.toByteArray();
+			entries.put(f.getAbsolutePath(), e);
+			changed = true;
+		} catch (IOException ex) {
+			log.warn("Sections are not cached " + f.getAbsolutePath(), ex); //$NON-NLS-1$
+		}
+	}
+
+	private static void writePart(DataOutputStream out, BinaryIndexPart p) throws IOException {
+		if (p instanceof MapIndex) {
+			out.writeByte(MAP_INDEX);
+		} else if (p instanceof AddressRegion) {
+			out.writeByte(ADDRESS_INDEX);
+		} else if (p instanceof TransportIndex) {
+			out.writeByte(TRANSPORT_INDEX);
+		} else if (p instanceof PoiRegion) {
+			out.writeByte(POI_INDEX);
+		} else if (p instanceof RouteRegion) {
+			out.writeByte(ROUTE_INDEX);
+		} else {
+			throw new IOException("Unknown section " + p.getClass()); //$NON-NLS-1$
+		}
+		writeString(out, p.name);
+		out.writeInt(p.length);
+		out.writeInt(p.filePointer);
+		if (p instanceof MapIndex) {
+			MapIndex m = (MapIndex) p;
+			out.writeInt(m.roots.size());
+			for (MapRoot r : m.roots) {
+				out.writeInt(r.length);
+				out.writeInt(r.filePointer);
+				out.writeInt(r.minZoom);
+				out.writeInt(r.maxZoom);
+				out.writeInt(r.left);
+				out.writeInt(r.right);
+				out.writeInt(r.top);
+				out.writeInt(r.bottom);
+			}
+			writeRules(out, m);
+		} else if (p instanceof AddressRegion) {
+			AddressRegion a = (AddressRegion) p;
+			writeString(out, a.enName);
+			out.writeInt(a.postcodesOffset);
+			out.writeInt(a.villagesOffset);
+			out.writeInt(a.citiesOffset);
+			out.writeInt(a.villagesKeyTableOffset);
+		} else if (p instanceof TransportIndex) {
+			TransportIndex t = (TransportIndex) p;
+			out.writeInt(t.left);
+			out.writeInt(t.right);
+			out.writeInt(t.top);
+			out.writeInt(t.bottom);
+			out.writeInt(t.stopsFileOffset);
+			out.writeInt(t.stopsFileLength);
+			out.writeBoolean(t.stringTable != null);
+			if (t.stringTable != null) {
+				out.writeInt(t.stringTable.fileOffset);
+				out.writeInt(t.stringTable.length);
+			}
+		} else if (p instanceof PoiRegion) {
+			PoiRegion r = (PoiRegion) p;
+			out.writeDouble(r.leftLongitude);
+			out.writeDouble(r.rightLongitude);
+			out.writeDouble(r.topLatitude);
+			out.writeDouble(r.bottomLatitude);
+			out.writeInt(r.categories.size());
+			for (int i = 0; i < r.categories.size(); i++) {
+				writeString(out, r.categories.get(i));
+				List<String> subcategories = r.subcategories.get(i);
+				out.writeInt(subcategories.size());
+				for (String s : subcategories) {
+					writeString(out, s);
+				}
+			}
+		} else if (p instanceof RouteRegion) {
+			RouteRegion r = (RouteRegion) p;
+			out.writeInt(r.left);
+			out.writeInt(r.right);
+			out.writeInt(r.top);
+			out.writeInt(r.bottom);
+			out.writeInt(r.roots.size());
+			for (RouteBox b : r.roots) {
+				out.writeInt(b.left);
+				out.writeInt(b.right);
+				out.writeInt(b.top);
+				out.writeInt(b.bottom);
+				out.writeInt(b.filePointer);
+				out.writeInt(b.length);
+			}
+			writeRules(out, r.rules);
+		}
+	}
+
+	private static void writeRules(DataOutputStream out, MapIndex m) throws IOException {
+		int rules = 0;
+		for (Map<String, Integer> values : m.encodingRules.values()) {
+			rules += values.size();
+		}
+		out.writeInt(rules);
+		for (Entry<String, Map<String, Integer>> tag : m.encodingRules.entrySet()) {
+			for (Entry<String, Integer> value : tag.getValue().entrySet()) {
+				writeString(out, tag.getKey());
+				writeString(out, value.getKey());
+				out.writeInt(value.getValue());
+			}
+		}
+	}
+
+	private static void readRules(DataInputStream in, MapIndex m) throws IOException {
+		int rules = in.readInt();
+		TIntObjectHashMap<TagValuePair> decodingRules = new TIntObjectHashMap<TagValuePair>();
+		for (int i = 0; i < rules; i++) {
+			String tag = readString(in).intern();
+			String value = readString(in);
+			if (value != null) {
+				value = value.intern();
+			}
+			int ind = in.readInt();
+			Map<String, Integer> values = m.encodingRules.get(tag);
+			if (values == null) {
+				values = new LinkedHashMap<String, Integer>();
+				m.encodingRules.put(tag, values);
+			}
+			values.put(value, ind);
+			// the same order as rules are read from file
+			if (!decodingRules.containsKey(ind)) {
+				decodingRules.put(ind, new TagValuePair(tag, value));
+			}
+		}
+		m.decodingRules = decodingRules;
+	}
+
+	private static BinaryIndexPart readPart(DataInputStream in) throws IOException {
+		int type = in.readByte();
+		BinaryIndexPart p;
+		if (type == MAP_INDEX) {
+			p = new MapIndex();
+		} else if (type == ADDRESS_INDEX) {
+			p = new AddressRegion();
+		} else if (type == TRANSPORT_INDEX) {
+			p = new TransportIndex();
+		} else if (type == POI_INDEX) {
+			p = new PoiRegion();
+		} else if (type == ROUTE_INDEX) {
+			p = new RouteRegion();
+		} else {
+			throw new IOException("Unknown section " + type); //$NON-NLS-1$
+		}
+		p.name = readString(in);
+		p.length = in.readInt();
+		p.filePointer = in.readInt();
+		if (p instanceof MapIndex) {
+			MapIndex m = (MapIndex) p;
+			int roots = in.readInt();
+			for (int i = 0; i < roots; i++) {
+				MapRoot r = new MapRoot();
+				r.length = in.readInt();
+				r.filePointer = in.readInt();
+				r.minZoom = in.readInt();
+				r.maxZoom = in.readInt();
+				r.left = in.readInt();
+				r.right = in.readInt();
+				r.top = in.readInt();
+				r.bottom = in.readInt();
+				m.roots.add(r);
+			}
+			readRules(in, m);
+		} else if (p instanceof AddressRegion) {
+			AddressRegion a = (AddressRegion) p;
+			a.enName = readString(in);
+			a.postcodesOffset = in.readInt();
+			a.villagesOffset = in.readInt();
+			a.citiesOffset = in.readInt();
+			a.villagesKeyTableOffset = in.readInt();
+		} else if (p instanceof TransportIndex) {
+			TransportIndex t = (TransportIndex) p;
+			t.left = in.readInt();
+			t.right = in.readInt();
+			t.top = in.readInt();
+			t.bottom = in.readInt();
+			t.stopsFileOffset = in.readInt();
+			t.stopsFileLength = in.readInt();
+			if (in.readBoolean()) {
+				t.stringTable = new IndexStringTable();
+				t.stringTable.fileOffset = in.readInt();
+				t.stringTable.length = in.readInt();
+			}
+		} else if (p instanceof RouteRegion) {
+			RouteRegion r = (RouteRegion) p;
+			r.left = in.readInt();
+			r.right = in.readInt();
+			r.top = in.readInt();
+			r.bottom = in.readInt();
+			int roots = in.readInt();
+			for (int i = 0; i < roots; i++) {
+				RouteBox b = new RouteBox();
+				b.left = in.readInt();
+				b.right = in.readInt();
+				b.top = in.readInt();
+				b.bottom = in.readInt();
+				b.filePointer = in.readInt();
+				b.length = in.readInt();
+				r.roots.add(b);
+			}
+			r.rules.setName(r.name);
+			readRules(in, r.rules);
+		} else {
+			PoiRegion r = (PoiRegion) p;
+			r.leftLongitude = in.readDouble();
+			r.rightLongitude = in.readDouble();
+			r.topLatitude = in.readDouble();
+			r.bottomLatitude = in.readDouble();
+			int categories = in.readInt();
+			for (int i = 0; i < categories; i++) {
+				String cat = readString(in).intern();
+				r.categories.add(cat);
+				r.categoriesType.add(AmenityType.fromString(cat));
+				List<String> subcategories = new ArrayList<String>();
+				int size = in.readInt();
+				for (int j = 0; j < size; j++) {
+					subcategories.add(readString(in).intern());
+				}
+				r.subcategories.add(subcategories);
+			}
+		}
+		return p;
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null) {
+			out.writeUTF(s);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
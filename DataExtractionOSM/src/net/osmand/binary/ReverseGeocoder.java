@@ -0,0 +1,430 @@
+package net.osmand.binary;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.osmand.LogUtil;
+import net.osmand.data.Building;
+import net.osmand.data.City;
+import net.osmand.data.Street;
+import net.osmand.osm.LatLon;
+import net.osmand.osm.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Batch reverse geocoding (point to city, street, building) over address data of binary files.
+ * Cities of all files are loaded once and indexed by tiles. Input points are sorted by tiles
+ * and split between worker threads (every worker uses own file handles), streets and buildings
+ * are loaded by cities when they are needed and kept in LRU cache limited by number of objects
+ * (so memory is bounded independently of number of points).
+ */
+public class ReverseGeocoder {
+	private static final Log log = LogUtil.getLog(ReverseGeocoder.class);
+
+	// zoom to group input points
+	private static final int POINTS_TILE_ZOOM = 14;
+	// zoom of cities index (tile should be bigger than the largest city radius)
+	private static final int CITIES_TILE_ZOOM = 9;
+	// streets and buildings could be a bit outside of city radius
+	private static final double CITY_RADIUS_FACTOR = 1.5;
+
+	private final File[] files;
+	private final BinaryMapIndexReader[] readers;
+	private final TLongObjectHashMap<List<CityEntry>> citiesIndex = new TLongObjectHashMap<List<CityEntry>>();
+	private double maxDistance = 1000;
+
+	public static class ReverseGeocodingResult {
+		private final City city;
+		private final Street street;
+		private final Building building;
+		private final double distance;
+
+		public ReverseGeocodingResult(City city, Street street, Building building, double distance) {
+			this.city = city;
+			this.street = street;
+			this.building = building;
+			this.distance = distance;
+		}
+
+		public City getCity() {
+			return city;
+		}
+
+		public Street getStreet() {
+			return street;
+		}
+
+		public Building getBuilding() {
+			return building;
+		}
+
+		/**
+		 * @return distance to the found building or street (or to city center if nothing else is found)
+		 */
+		public double getDistance() {
+			return distance;
+		}
+
+		@Override
+		public String toString() {
+			return (city == null ? "" : city.getName()) + ", " + (street == null ? "" : street.getName()) + //$NON-NLS-1$ //$NON-NLS-2$
+					" " + (building == null ? "" : building.getName()) + " (" + ((int) distance) + " m)"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		}
+	}
+
+	private static class CityEntry {
+		final City city;
+		final int file;
+		final int x31;
+		final int y31;
+
+		CityEntry(City city, int file) {
+			this.city = city;
+			this.file = file;
+			this.x31 = MapUtils.get31TileNumberX(city.getLocation().getLongitude());
+			this.y31 = MapUtils.get31TileNumberY(city.getLocation().getLatitude());
+		}
+	}
+
+	/**
+	 * Streets and buildings of one city sorted by x (31 tile numbers)
+	 */
+	private static class CityObjects {
+		City city;
+		int[] xs;
+		int[] ys;
+		Street[] streets;
+		Building[] buildings;
+
+		int size() {
+			return xs.length;
+		}
+	}
+
+	public ReverseGeocoder(File... files) throws IOException {
+		this.files = files;
+		this.readers = new BinaryMapIndexReader[files.length];
+		for (int i = 0; i < files.length; i++) {
+			readers[i] = new BinaryMapIndexReader(new RandomAccessFile(files[i], "r")); //$NON-NLS-1$
+			for (String region : readers[i].getRegionNames()) {
+				for (City c : readers[i].getCities(region, null)) {
+					indexCity(new CityEntry(c, i));
+				}
+				for (City c : readers[i].getVillages(region, null, null, false)) {
+					indexCity(new CityEntry(c, i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Objects further than max distance are not returned (only city is returned)
+	 */
+	public void setMaxDistance(double maxDistance) {
+		this.maxDistance = maxDistance;
+	}
+
+	public void close() throws IOException {
+		for (BinaryMapIndexReader r : readers) {
+			r.close();
+		}
+	}
+
+	private void indexCity(CityEntry e) {
+		long key = tileKey(CITIES_TILE_ZOOM, e.x31, e.y31);
+		List<CityEntry> list = citiesIndex.get(key);
+		if (list == null) {
+			list = new ArrayList<CityEntry>();
+			citiesIndex.put(key, list);
+		}
+		list.add(e);
+	}
+
+	private static long tileKey(int zoom, int x31, int y31) {
+		return (((long) (x31 >>> (31 - zoom))) << 32) | (y31 >>> (31 - zoom));
+	}
+
+	/**
+	 * @param threads - number of threads (and opened file handles per file)
+	 * @param maxCachedObjects - maximum number of loaded streets and buildings (for all threads)
+	 * @return result for every point (in the same order)
+	 */
+	public ReverseGeocodingResult[] geocode(double[] lats, double[] lons, int threads, int maxCachedObjects) throws IOException {
+		long time = System.currentTimeMillis();
+		final int n = lats.length;
+		final ReverseGeocodingResult[] results = new ReverseGeocodingResult[n];
+		// sort points by tiles : key contains tile number and point index
+		final long[] order = new long[n];
+		final int shift = 31 - POINTS_TILE_ZOOM;
+		for (int i = 0; i < n; i++) {
+			long tx = MapUtils.get31TileNumberX(lons[i]) >>> shift;
+			long ty = MapUtils.get31TileNumberY(lats[i]) >>> shift;
+			order[i] = (((tx << POINTS_TILE_ZOOM) | ty) << 32) | i;
+		}
+		Arrays.sort(order);
+		threads = Math.max(1, Math.min(threads, n / 1000 + 1));
+		final int objectsPerThread = Math.max(1, maxCachedObjects / threads);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			int start = 0;
+			for (int t = 0; t < threads; t++) {
+				int end = t == threads - 1 ? n : Math.max(start, (int) ((long) n * (t + 1) / threads));
+				// do not split tile between threads
+				while (end < n && end > 0 && (order[end] >>> 32) == (order[end - 1] >>> 32)) {
+					end++;
+				}
+				final int s = start;
+				final int e = end;
+				final double[] flats = lats;
+				final double[] flons = lons;
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						new Worker(objectsPerThread).geocode(order, s, e, flats, flons, results);
+						return null;
+					}
+				}));
+				start = end;
+			}
+			for (Future<Void> f : futures) {
+				try {
+					f.get();
+				} catch (InterruptedException e) {
+					throw new IOException(e.getMessage());
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		log.info("Reverse geocoding of " + n + " points is done in " + (System.currentTimeMillis() - time) + " ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		return results;
+	}
+
+	/**
+	 * Uses own file handles and cache of city objects
+	 */
+	private class Worker {
+		private final BinaryMapIndexReader[] workerReaders = new BinaryMapIndexReader[files.length];
+		private final LinkedHashMap<CityEntry, CityObjects> cache = new LinkedHashMap<CityEntry, CityObjects>(16, 0.75f, true);
+		private final int maxObjects;
+		private int cachedObjects = 0;
+
+		Worker(int maxObjects) {
+			this.maxObjects = maxObjects;
+		}
+
+		void geocode(long[] order, int start, int end, double[] lats, double[] lons, ReverseGeocodingResult[] results) throws IOException {
+			try {
+				int i = start;
+				List<CityEntry> candidates = new ArrayList<CityEntry>();
+				while (i < end) {
+					long tile = order[i] >>> 32;
+					int tileEnd = i;
+					while (tileEnd < end && (order[tileEnd] >>> 32) == tile) {
+						tileEnd++;
+					}
+					int firstPoint = (int) order[i];
+					findCandidateCities(lats[firstPoint], lons[firstPoint], candidates);
+					for (int j = i; j < tileEnd; j++) {
+						int p = (int) order[j];
+						results[p] = geocode(lats[p], lons[p], candidates);
+					}
+					i = tileEnd;
+				}
+			} finally {
+				for (BinaryMapIndexReader r : workerReaders) {
+					if (r != null) {
+						r.close();
+					}
+				}
+			}
+		}
+
+		private void findCandidateCities(double lat, double lon, List<CityEntry> candidates) {
+			candidates.clear();
+			int x31 = MapUtils.get31TileNumberX(lon);
+			int y31 = MapUtils.get31TileNumberY(lat);
+			long tx = x31 >>> (31 - CITIES_TILE_ZOOM);
+			long ty = y31 >>> (31 - CITIES_TILE_ZOOM);
+			// city radius is less than tile size, so neighbour tiles are enough
+			for (long x = tx - 1; x <= tx + 1; x++) {
+				for (long y = ty - 1; y <= ty + 1; y++) {
+					List<CityEntry> list = citiesIndex.get((x << 32) | y);
+					if (list != null) {
+						for (CityEntry e : list) {
+							double d = MapUtils.getDistance(e.city.getLocation(), lat, lon);
+							// points of the tile are near, so extend radius by tile size
+							if (d <= e.city.getType().getRadius() * CITY_RADIUS_FACTOR + 2 * maxDistance + 5000) {
+								candidates.add(e);
+							}
+						}
+					}
+				}
+			}
+		}
+
+		private ReverseGeocodingResult geocode(double lat, double lon, List<CityEntry> candidates) throws IOException {
+			CityEntry nearestCity = null;
+			double cityDist = Double.POSITIVE_INFINITY;
+			CityObjects bestObjects = null;
+			int best = -1;
+			double bestDist = maxDistance;
+			int x31 = MapUtils.get31TileNumberX(lon);
+			int y31 = MapUtils.get31TileNumberY(lat);
+			// approximate size of meter in 31 tile numbers
+			double metersPer31 = MapUtils.getDistance(lat, lon, lat, MapUtils.get31LongitudeX(x31 + 1024)) / 1024;
+			int dx = (int) (maxDistance / Math.max(metersPer31, 1e-6)) + 1;
+			for (CityEntry e : candidates) {
+				double d = MapUtils.getDistance(e.city.getLocation(), lat, lon);
+				if (d > e.city.getType().getRadius() * CITY_RADIUS_FACTOR + maxDistance) {
+					continue;
+				}
+				if (d / e.city.getType().getRadius() < cityDist) {
+					cityDist = d / e.city.getType().getRadius();
+					nearestCity = e;
+				}
+				CityObjects objects = getCityObjects(e);
+				int k = lowerBound(objects.xs, x31 - dx);
+				for (; k < objects.size() && objects.xs[k] <= x31 + dx; k++) {
+					if (Math.abs(objects.ys[k] - y31) > dx) {
+						continue;
+					}
+					double od = MapUtils.getDistance(lat, lon, MapUtils.get31LatitudeY(objects.ys[k]), MapUtils.get31LongitudeX(objects.xs[k]));
+					// prefer buildings to streets at the same distance
+					if (od < bestDist || (od == bestDist && objects.buildings[k] != null)) {
+						bestDist = od;
+						best = k;
+						bestObjects = objects;
+					}
+				}
+			}
+			if (bestObjects != null) {
+				return new ReverseGeocodingResult(bestObjects.city, bestObjects.streets[best], bestObjects.buildings[best], bestDist);
+			} else if (nearestCity != null) {
+				return new ReverseGeocodingResult(nearestCity.city, null, null, MapUtils.getDistance(nearestCity.city.getLocation(), lat, lon));
+			}
+			return null;
+		}
+
+		private int lowerBound(int[] xs, int x) {
+			int lo = 0;
+			int hi = xs.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (xs[mid] < x) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+
+		private CityObjects getCityObjects(CityEntry e) throws IOException {
+			CityObjects objects = cache.get(e);
+			if (objects != null) {
+				return objects;
+			}
+			objects = loadCityObjects(e);
+			cache.put(e, objects);
+			cachedObjects += objects.size();
+			Iterator<CityObjects> it = cache.values().iterator();
+			// the last loaded city is not evicted
+			while (cachedObjects > maxObjects && cache.size() > 1) {
+				cachedObjects -= it.next().size();
+				it.remove();
+			}
+			return objects;
+		}
+
+		private CityObjects loadCityObjects(CityEntry e) throws IOException {
+			BinaryMapIndexReader reader = workerReaders[e.file];
+			if (reader == null) {
+				reader = new BinaryMapIndexReader(new RandomAccessFile(files[e.file], "r"), readers[e.file]); //$NON-NLS-1$
+				workerReaders[e.file] = reader;
+			}
+			// city is read again, because loaded streets are registered in the city object
+			City c = new City(e.city.getType());
+			c.setFileOffset(e.city.getFileOffset());
+			reader.preloadStreets(c, null);
+			List<long[]> points = new ArrayList<long[]>();
+			List<Street> streets = new ArrayList<Street>();
+			List<Building> buildings = new ArrayList<Building>();
+			for (Street s : c.getStreets()) {
+				reader.preloadBuildings(s, null);
+				addObject(s.getLocation(), s, null, points, streets, buildings);
+				for (Building b : s.getBuildings()) {
+					addObject(b.getLocation(), s, b, points, streets, buildings);
+				}
+			}
+			long[] sorted = new long[points.size()];
+			for (int i = 0; i < sorted.length; i++) {
+				sorted[i] = (points.get(i)[0] << 32) | i;
+			}
+			Arrays.sort(sorted);
+			CityObjects objects = new CityObjects();
+			objects.city = c;
+			objects.xs = new int[sorted.length];
+			objects.ys = new int[sorted.length];
+			objects.streets = new Street[sorted.length];
+			objects.buildings = new Building[sorted.length];
+			for (int i = 0; i < sorted.length; i++) {
+				int ind = (int) sorted[i];
+				objects.xs[i] = (int) points.get(ind)[0];
+				objects.ys[i] = (int) points.get(ind)[1];
+				objects.streets[i] = streets.get(ind);
+				objects.buildings[i] = buildings.get(ind);
+			}
+			return objects;
+		}
+
+		private void addObject(LatLon l, Street s, Building b, List<long[]> points, List<Street> streets, List<Building> buildings) {
+			if (l != null) {
+				points.add(new long[] { MapUtils.get31TileNumberX(l.getLongitude()), MapUtils.get31TileNumberY(l.getLatitude()) });
+				streets.add(s);
+				buildings.add(b);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Usage : ReverseGeocoder file.obf [lat lon]*"); //$NON-NLS-1$
+			return;
+		}
+		ReverseGeocoder geocoder = new ReverseGeocoder(new File(args[0]));
+		int n = (args.length - 1) / 2;
+		double[] lats = new double[n];
+		double[] lons = new double[n];
+		for (int i = 0; i < n; i++) {
+			lats[i] = Double.parseDouble(args[1 + 2 * i]);
+			lons[i] = Double.parseDouble(args[2 + 2 * i]);
+		}
+		ReverseGeocodingResult[] res = geocoder.geocode(lats, lons, Runtime.getRuntime().availableProcessors(), 200000);
+		for (int i = 0; i < n; i++) {
+			System.out.println(lats[i] + " " + lons[i] + " : " + res[i]); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		geocoder.close();
+	}
+}
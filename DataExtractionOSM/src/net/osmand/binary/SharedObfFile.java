@@ -0,0 +1,102 @@
+package net.osmand.binary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import com.google.protobuf.CodedInputStreamRAF.PositionalInput;
+
+/**
+ * One opened obf file shared by all readers of that file (rendering, routing, transport, poi...).
+ * The first reader parses sections of file, next readers are cheap cursors referencing
+ * the same sections (and the same lazily read map trees), each cursor keeps its own position
+ * and its own buffer (the same size as buffer of not shared reader), so readers don't evict data of each other.
+ * Sections could be restored from {@link ObfSectionsCache} without scanning the file.
+ * File is closed when all readers are closed.
+ */
+public class SharedObfFile implements PositionalInput {
+	// buffer of every reader
+	static final int CURSOR_BUFFER_SIZE = 1024 * 5;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final long length;
+	private final ObfSectionsCache cache;
+	private BinaryMapIndexReader sections;
+	private int readers;
+
+	public SharedObfFile(File file) throws IOException {
+		this(file, null);
+	}
+
+	/**
+	 * @param cache - cache of sections or null
+	 */
+	public SharedObfFile(File file, ObfSectionsCache cache) throws IOException {
+		this.file = file;
+		this.cache = cache;
+		this.raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+		this.length = raf.length();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return new reader of file (the first reader reads sections of file)
+	 */
+	public synchronized BinaryMapIndexReader open() throws IOException {
+		BinaryMapIndexReader r;
+		if (sections == null) {
+			r = cache == null ? null : cache.createReader(this);
+			if (r == null) {
+				r = new BinaryMapIndexReader(this, (BinaryMapIndexReader) null);
+				if (cache != null) {
+					cache.put(this, r);
+				}
+			}
+			sections = r;
+		} else {
+			r = new BinaryMapIndexReader(this, sections);
+		}
+		readers++;
+		return r;
+	}
+
+	RandomAccessFile getRaf() {
+		return raf;
+	}
+
+	/**
+	 * Called when reader is closed
+	 */
+	synchronized void release() throws IOException {
+		readers--;
+		if (readers <= 0) {
+			close();
+		}
+	}
+
+	/**
+	 * Closes file for all readers
+	 */
+	public synchronized void close() throws IOException {
+		sections = null;
+		raf.close();
+	}
+
+	@Override
+	public long length() {
+		return length;
+	}
+
+	@Override
+	public synchronized int read(long position, byte[] b, int off, int len) throws IOException {
+		if (position >= length) {
+			return -1;
+		}
+		raf.seek(position);
+		return raf.read(b, off, (int) Math.min(len, length - position));
+	}
+}
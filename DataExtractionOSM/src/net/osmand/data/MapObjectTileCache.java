@@ -0,0 +1,226 @@
+package net.osmand.data;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.osmand.Algoritms;
+import net.osmand.osm.LatLon;
+import net.osmand.osm.MapUtils;
+
+/**
+ * LRU cache of map objects loaded by tiles. Tile is identified by (zoom, x, y) and filter id
+ * (objects of the same tile could be loaded with different filters).
+ * Cache is limited by approximate memory consumed by objects.
+ * @param <T> - cached object
+ */
+public class MapObjectTileCache<T extends MapObject> {
+
+	private final LinkedHashMap<TileKey, List<T>> tiles = new LinkedHashMap<TileKey, List<T>>(32, 0.75f, true);
+	private final int bytesPerObject;
+	private long budget;
+	private long size = 0;
+
+	// statistics
+	private int hits = 0;
+	private int misses = 0;
+
+	/**
+	 * @param budget - memory that could be used by objects in bytes
+	 * @param bytesPerObject - approximate size of one object
+	 */
+	public MapObjectTileCache(long budget, int bytesPerObject) {
+		this.budget = budget;
+		this.bytesPerObject = bytesPerObject;
+	}
+
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+		evict(0);
+	}
+
+	public synchronized long getBudget() {
+		return budget;
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized int getTilesCount() {
+		return tiles.size();
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	public synchronized boolean containsTile(int zoom, int x, int y, String filterId) {
+		return tiles.containsKey(new TileKey(zoom, x, y, filterId));
+	}
+
+	public synchronized void putTile(int zoom, int x, int y, String filterId, List<T> objects) {
+		TileKey key = new TileKey(zoom, x, y, filterId);
+		List<T> prev = tiles.put(key, new ArrayList<T>(objects));
+		if (prev != null) {
+			size -= estimateSize(prev);
+		}
+		size += estimateSize(objects);
+		evict(0);
+	}
+
+	/**
+	 * Marks cached tiles of the rectangle as recently used
+	 * @return number of cached tiles in the rectangle
+	 */
+	public synchronized int touchTiles(int zoom, int left, int top, int right, int bottom, String filterId) {
+		int count = 0;
+		TileKey key = new TileKey(zoom, 0, 0, filterId);
+		for (int y = top; y <= bottom; y++) {
+			for (int x = left; x <= right; x++) {
+				key.x = x;
+				key.y = y;
+				if (tiles.get(key) != null) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Puts all tiles of the rectangle loaded by one search, objects are distributed to tiles by location.
+	 * Tiles of the rectangle are not evicted even if they exceed budget (they are used by current request).
+	 * @param keepRecent - number of the most recently used tiles that are not evicted too (other tiles of the request)
+	 * @return number of put tiles
+	 */
+	public synchronized int putTiles(int zoom, int left, int top, int right, int bottom, String filterId, List<T> objects,
+			int keepRecent) {
+		int width = right - left + 1;
+		int count = width * (bottom - top + 1);
+		List<List<T>> lists = new ArrayList<List<T>>(count);
+		for (int i = 0; i < count; i++) {
+			lists.add(new ArrayList<T>());
+		}
+		int shift = 31 - zoom;
+		for (T o : objects) {
+			LatLon l = o.getLocation();
+			int x = Math.max(left, Math.min(right, MapUtils.get31TileNumberX(l.getLongitude()) >> shift));
+			int y = Math.max(top, Math.min(bottom, MapUtils.get31TileNumberY(l.getLatitude()) >> shift));
+			lists.get((y - top) * width + x - left).add(o);
+		}
+		for (int y = top; y <= bottom; y++) {
+			for (int x = left; x <= right; x++) {
+				List<T> list = lists.get((y - top) * width + x - left);
+				List<T> prev = tiles.put(new TileKey(zoom, x, y, filterId), list);
+				if (prev != null) {
+					size -= estimateSize(prev);
+				}
+				size += estimateSize(list);
+			}
+		}
+		evict(count + keepRecent);
+		return count;
+	}
+
+	/**
+	 * Fills objects from cached tiles that are in the box.
+	 * @return true if all tiles covering the box are cached (so search is not needed)
+	 */
+	public synchronized boolean fill(double topLatitude, double leftLongitude, double bottomLatitude, double rightLongitude,
+			int zoom, String filterId, List<T> toFill) {
+		int left = (int) MapUtils.getTileNumberX(zoom, leftLongitude);
+		int right = (int) MapUtils.getTileNumberX(zoom, rightLongitude);
+		int top = (int) MapUtils.getTileNumberY(zoom, topLatitude);
+		int bottom = (int) MapUtils.getTileNumberY(zoom, bottomLatitude);
+		boolean covered = true;
+		TileKey key = new TileKey(zoom, 0, 0, filterId);
+		for (int x = left; x <= right; x++) {
+			for (int y = top; y <= bottom; y++) {
+				key.x = x;
+				key.y = y;
+				List<T> objects = tiles.get(key);
+				if (objects == null) {
+					covered = false;
+					continue;
+				}
+				if (toFill != null) {
+					for (T o : objects) {
+						LatLon l = o.getLocation();
+						if (l.getLatitude() <= topLatitude && l.getLongitude() >= leftLongitude && l.getLongitude() <= rightLongitude
+								&& l.getLatitude() >= bottomLatitude) {
+							toFill.add(o);
+						}
+					}
+				}
+			}
+		}
+		if (covered) {
+			hits++;
+		} else {
+			misses++;
+		}
+		return covered;
+	}
+
+	public synchronized void clear() {
+		tiles.clear();
+		size = 0;
+	}
+
+	private long estimateSize(List<T> objects) {
+		// tile itself also consumes memory
+		return (long) (objects.size() + 1) * bytesPerObject;
+	}
+
+	/**
+	 * Evicts least recently used tiles
+	 * @param keep - number of the most recently used tiles that are not evicted
+	 */
+	private void evict(int keep) {
+		Iterator<Map.Entry<TileKey, List<T>>> it = tiles.entrySet().iterator();
+		while (size > budget && tiles.size() > keep && it.hasNext()) {
+			size -= estimateSize(it.next().getValue());
+			it.remove();
+		}
+	}
+
+	private static class TileKey {
+		private final int zoom;
+		private int x;
+		private int y;
+		private final String filterId;
+
+		public TileKey(int zoom, int x, int y, String filterId) {
+			this.zoom = zoom;
+			this.x = x;
+			this.y = y;
+			this.filterId = filterId;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = 31 * zoom + x;
+			result = 31 * result + y;
+			return 31 * result + (filterId == null ? 0 : filterId.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj == null || getClass() != obj.getClass()) {
+				return false;
+			}
+			TileKey other = (TileKey) obj;
+			return zoom == other.zoom && x == other.x && y == other.y && Algoritms.objectEquals(filterId, other.filterId);
+		}
+	}
+}
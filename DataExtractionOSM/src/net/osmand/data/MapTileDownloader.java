@@ -1,18 +1,25 @@
 package net.osmand.data;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -28,6 +35,12 @@ public class MapTileDownloader {
 	public static int TILE_DOWNLOAD_SECONDS_TO_WORK = 25;
 	public static final long TIMEOUT_AFTER_EXCEEDING_LIMIT_ERRORS = 20000;
 	public static final int TILE_DOWNLOAD_MAX_ERRORS_PER_TIMEOUT = 25;
+	// tiles around visible area that are still worth to download (in tiles of current zoom)
+	public static int TILE_PREFETCH_RING = 1;
+	// how far zoom of requested tile could be from the current zoom to keep it in queue
+	public static int TILE_PREFETCH_ZOOM_DELTA = 2;
+	// penalty (in tiles) for 1 zoom level difference used to order requests
+	private static final double ZOOM_PRIORITY_PENALTY = 4;
 	
 	
 	private static MapTileDownloader downloader = null;
@@ -40,10 +53,28 @@ public class MapTileDownloader {
 	private List<IMapDownloaderCallback> callbacks = new ArrayList<IMapDownloaderCallback>();
 	
 	private Set<File> currentlyDownloaded;
+	// urls that are queued or being downloaded
+	private Set<String> pendingUrls;
 	
 	private int currentErrors = 0;
 	private long timeForErrorCounter = 0;
 	
+	// current view (could be not set then requests are processed in FIFO order)
+	private int viewZoom = -1;
+	private double viewXTile;
+	private double viewYTile;
+	private double viewHalfWidth;
+	private double viewHalfHeight;
+	private long requestCounter = 0;
+	
+	// statistics
+	private int statRequested = 0;
+	private int statDownloaded = 0;
+	private int statDuplicated = 0;
+	private int statCancelled = 0;
+	private long statQueueTime = 0;
+	private long statDownloadTime = 0;
+	
 	
 	public static MapTileDownloader getInstance(String userAgent){
 		if(downloader == null){
@@ -105,11 +136,13 @@ public class MapTileDownloader {
 	
 	public MapTileDownloader(int numberOfThreads){
 		threadPoolExecutor = new ThreadPoolExecutor(numberOfThreads, numberOfThreads, TILE_DOWNLOAD_SECONDS_TO_WORK, 
-				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+				TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>());
 		// 1.6 method but very useful to kill non-running threads
 //		threadPoolExecutor.allowCoreThreadTimeOut(true);
+		// all requests should go through priority queue (otherwise first requests are executed directly)
+		threadPoolExecutor.prestartAllCoreThreads();
 		currentlyDownloaded = Collections.synchronizedSet(new HashSet<File>());
-		
+		pendingUrls = new HashSet<String>();
 	}
 	
 	public void addDownloaderCallback(IMapDownloaderCallback callback){
@@ -136,12 +169,132 @@ public class MapTileDownloader {
 		return (int) (threadPoolExecutor.getTaskCount());
 	}
 	
+	public int getQueueDepth(){
+		return threadPoolExecutor.getQueue().size();
+	}
+	
+	public synchronized int getStatRequested() {
+		return statRequested;
+	}
+	
+	public synchronized int getStatDownloaded() {
+		return statDownloaded;
+	}
+	
+	public synchronized int getStatDuplicated() {
+		return statDuplicated;
+	}
+	
+	public synchronized int getStatCancelled() {
+		return statCancelled;
+	}
+	
+	/**
+	 * @return average time (ms) that downloaded request spent in queue 
+	 */
+	public synchronized long getAverageQueueTime() {
+		return statDownloaded == 0 ? 0 : statQueueTime / statDownloaded;
+	}
+	
+	/**
+	 * @return average time (ms) of tile download
+	 */
+	public synchronized long getAverageDownloadTime() {
+		return statDownloaded == 0 ? 0 : statDownloadTime / statDownloaded;
+	}
+	
+	public synchronized void resetStatistics() {
+		statRequested = 0;
+		statDownloaded = 0;
+		statDuplicated = 0;
+		statCancelled = 0;
+		statQueueTime = 0;
+		statDownloadTime = 0;
+	}
+	
 	public void refuseAllPreviousRequests(){
 		//FIXME it could cause NPE in android implementation think about different style
 		// That's very strange because exception in impl of queue (possibly wrong impl)
 //		threadPoolExecutor.getQueue().clear();
-		while(!threadPoolExecutor.getQueue().isEmpty()){
-			threadPoolExecutor.getQueue().poll();
+		Runnable r;
+		while((r = threadPoolExecutor.getQueue().poll()) != null){
+			requestCancelled(((DownloadMapWorker) r).request);
+		}
+	}
+	
+	/**
+	 * Sets currently visible area. Queued requests are reordered by distance to the view center
+	 * and requests that are not in prefetch ring around the view anymore are cancelled.  
+	 * @param zoom current zoom
+	 * @param xTile x tile number of view center (at current zoom)
+	 * @param yTile y tile number of view center (at current zoom)
+	 * @param halfWidth half of view width in tiles
+	 * @param halfHeight half of view height in tiles
+	 */
+	public void setCurrentView(int zoom, double xTile, double yTile, double halfWidth, double halfHeight) {
+		synchronized (this) {
+			if (viewZoom == zoom && viewXTile == xTile && viewYTile == yTile && viewHalfWidth == halfWidth
+					&& viewHalfHeight == halfHeight) {
+				return;
+			}
+			viewZoom = zoom;
+			viewXTile = xTile;
+			viewYTile = yTile;
+			viewHalfWidth = halfWidth;
+			viewHalfHeight = halfHeight;
+		}
+		// priority queue should be rebuilt because priorities are changed
+		List<Runnable> queued = new ArrayList<Runnable>();
+		threadPoolExecutor.getQueue().drainTo(queued);
+		for (Runnable r : queued) {
+			DownloadMapWorker w = (DownloadMapWorker) r;
+			w.priority = calculatePriority(w.request);
+			if (w.priority < 0) {
+				requestCancelled(w.request);
+			} else {
+				threadPoolExecutor.getQueue().offer(w);
+			}
+		}
+	}
+	
+	public synchronized void clearCurrentView() {
+		viewZoom = -1;
+	}
+	
+	/**
+	 * @return priority of request (the smaller the more important) or -1 if request is out of prefetch area
+	 */
+	private synchronized double calculatePriority(DownloadRequest request) {
+		if (viewZoom < 0 || request.zoom < 0) {
+			return 0;
+		}
+		int dz = request.zoom - viewZoom;
+		if (Math.abs(dz) > TILE_PREFETCH_ZOOM_DELTA) {
+			return -1;
+		}
+		// measure distance in tiles of current zoom
+		double scale = dz >= 0 ? 1d / (1 << dz) : (1 << -dz);
+		double dx = Math.abs((request.xTile + 0.5d) * scale - viewXTile);
+		double dy = Math.abs((request.yTile + 0.5d) * scale - viewYTile);
+		// tile could be partially visible so take into account tile size 
+		double tileHalf = scale / 2;
+		if (dx - tileHalf > viewHalfWidth + TILE_PREFETCH_RING || dy - tileHalf > viewHalfHeight + TILE_PREFETCH_RING) {
+			return -1;
+		}
+		return Math.max(dx, dy) + Math.abs(dz) * ZOOM_PRIORITY_PENALTY;
+	}
+	
+	private synchronized void requestCancelled(DownloadRequest request) {
+		pendingUrls.remove(request.url);
+		statCancelled++;
+	}
+	
+	private synchronized void requestFinished(DownloadRequest request, long queueTime, long downloadTime) {
+		pendingUrls.remove(request.url);
+		if (!request.error) {
+			statDownloaded++;
+			statQueueTime += queueTime;
+			statDownloadTime += downloadTime;
 		}
 	}
 	
@@ -158,7 +311,21 @@ public class MapTileDownloader {
 		}
 		
 		if (!isFileCurrentlyDownloaded(request.fileToSave)) {
-			threadPoolExecutor.execute(new DownloadMapWorker(request));
+			DownloadMapWorker worker;
+			synchronized (this) {
+				statRequested++;
+				if (!pendingUrls.add(request.url)) {
+					statDuplicated++;
+					return;
+				}
+				worker = new DownloadMapWorker(request, requestCounter++);
+			}
+			worker.priority = calculatePriority(request);
+			if (worker.priority < 0) {
+				requestCancelled(request);
+				return;
+			}
+			threadPoolExecutor.execute(worker);
 		}
 	}
 	
@@ -166,15 +333,26 @@ public class MapTileDownloader {
 	private class DownloadMapWorker implements Runnable, Comparable<DownloadMapWorker> {
 		
 		private DownloadRequest request;
+		private final long order;
+		private final long created;
+		private double priority;
 		
-		private DownloadMapWorker(DownloadRequest request){
+		private DownloadMapWorker(DownloadRequest request, long order){
 			this.request = request;
+			this.order = order;
+			this.created = System.currentTimeMillis();
 		}
 		
 		@Override
 		public void run() {
 			if (request != null && request.fileToSave != null && request.url != null) {
 				if(currentlyDownloaded.contains(request.fileToSave)){
+					requestCancelled(request);
+					return;
+				}
+				// view could be changed while request waited in queue
+				if(calculatePriority(request) < 0){
+					requestCancelled(request);
 					return;
 				}
 				
@@ -212,6 +390,7 @@ public class MapTileDownloader {
 					log.warn("Cannot download tile : " + request.url, e); //$NON-NLS-1$
 				} finally {
 					currentlyDownloaded.remove(request.fileToSave);
+					requestFinished(request, time - created, System.currentTimeMillis() - time);
 				}
 				if (!request.error) {
 					for (IMapDownloaderCallback c : new ArrayList<IMapDownloaderCallback>(callbacks)) {
@@ -224,8 +403,140 @@ public class MapTileDownloader {
 		
 		@Override
 		public int compareTo(DownloadMapWorker o) {
-			return 0; //(int) (time - o.time);
+			if (priority != o.priority) {
+				return priority < o.priority ? -1 : 1;
+			}
+			return order < o.order ? -1 : (order == o.order ? 0 : 1);
 		}
 		
 	}
+	
+	/**
+	 * Checks order of downloads with local http server : tiles closer to the view are downloaded first,
+	 * tiles out of view, duplicates and tiles left by view change are not downloaded.
+	 */
+	public static void main(String[] args) throws Exception {
+		final ServerSocket server = new ServerSocket(0);
+		final List<String> served = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch blockerStarted = new CountDownLatch(1);
+		final CountDownLatch releaseBlocker = new CountDownLatch(1);
+		final CountDownLatch blocker2Started = new CountDownLatch(1);
+		final CountDownLatch releaseBlocker2 = new CountDownLatch(1);
+		final String blocker = "/10/500/500.png"; //$NON-NLS-1$
+		final String blocker2 = "/10/500/501.png"; //$NON-NLS-1$
+		Thread serverThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						Socket s = server.accept();
+						try {
+							BufferedReader r = new BufferedReader(new InputStreamReader(s.getInputStream()));
+							String path = r.readLine().split(" ")[1]; //$NON-NLS-1$
+							String line;
+							while ((line = r.readLine()) != null && line.length() > 0) {
+								// skip headers
+							}
+							if (path.equals(blocker)) {
+								// worker is busy till all requests are queued
+								blockerStarted.countDown();
+								releaseBlocker.await();
+							} else if (path.equals(blocker2)) {
+								blocker2Started.countDown();
+								releaseBlocker2.await();
+							}
+							served.add(path);
+							OutputStream out = s.getOutputStream();
+							out.write("HTTP/1.0 200 OK\r\nContent-Length: 4\r\n\r\ntile".getBytes()); //$NON-NLS-1$
+							out.flush();
+						} finally {
+							s.close();
+						}
+					}
+				} catch (Exception e) {
+					// server is closed
+				}
+			}
+		});
+		serverThread.setDaemon(true);
+		serverThread.start();
+
+		File dir = new File(System.getProperty("java.io.tmpdir"), "tiles_check"); //$NON-NLS-1$ //$NON-NLS-2$
+		String base = "http://127.0.0.1:" + server.getLocalPort(); //$NON-NLS-1$
+		MapTileDownloader d = new MapTileDownloader(1);
+		final CountDownLatch downloaded = new CountDownLatch(5);
+		d.addDownloaderCallback(new IMapDownloaderCallback() {
+			@Override
+			public void tileDownloaded(DownloadRequest request) {
+				downloaded.countDown();
+			}
+		});
+		// view of 3x3 tiles (+1 ring) around tile 500, 500 of zoom 10
+		d.setCurrentView(10, 500.5, 500.5, 1, 1);
+		d.requestToDownload(checkRequest(base, dir, 10, 500, 500));
+		blockerStarted.await();
+		int[][] tiles = new int[][] { { 10, 502, 500 }, { 10, 501, 500 }, { 10, 499, 499 },
+				// out of prefetch ring
+				{ 10, 503, 500 },
+				// next zoom (penalty)
+				{ 11, 1000, 1000 },
+				// duplicate
+				{ 10, 501, 500 },
+				// too far zoom
+				{ 14, 8000, 8000 } };
+		for (int[] t : tiles) {
+			d.requestToDownload(checkRequest(base, dir, t[0], t[1], t[2]));
+		}
+		int queued = d.getQueueDepth();
+		releaseBlocker.countDown();
+		downloaded.await(10, TimeUnit.SECONDS);
+
+		List<String> expected = Arrays.asList(blocker, "/10/501/500.png", "/10/499/499.png", "/10/502/500.png", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				"/11/1000/1000.png"); //$NON-NLS-1$
+		boolean ok = check("order", served, expected); //$NON-NLS-1$
+		ok &= check("queued", queued, 4); //$NON-NLS-1$
+		ok &= check("requested", d.getStatRequested(), 8); //$NON-NLS-1$
+		ok &= check("duplicated", d.getStatDuplicated(), 1); //$NON-NLS-1$
+		ok &= check("cancelled", d.getStatCancelled(), 2); //$NON-NLS-1$
+		ok &= check("downloaded", d.getStatDownloaded(), 5); //$NON-NLS-1$
+
+		// requests left by view change are cancelled in queue
+		served.clear();
+		d.resetStatistics();
+		final CountDownLatch downloaded2 = new CountDownLatch(2);
+		d.addDownloaderCallback(new IMapDownloaderCallback() {
+			@Override
+			public void tileDownloaded(DownloadRequest request) {
+				downloaded2.countDown();
+			}
+		});
+		d.requestToDownload(checkRequest(base, dir, 10, 500, 501));
+		blocker2Started.await();
+		d.requestToDownload(checkRequest(base, dir, 10, 501, 501));
+		d.requestToDownload(checkRequest(base, dir, 10, 499, 500));
+		d.setCurrentView(10, 600.5, 600.5, 1, 1);
+		d.requestToDownload(checkRequest(base, dir, 10, 600, 600));
+		releaseBlocker2.countDown();
+		downloaded2.await(10, TimeUnit.SECONDS);
+		ok &= check("order after view change", served, Arrays.asList(blocker2, "/10/600/600.png")); //$NON-NLS-1$ //$NON-NLS-2$
+		ok &= check("cancelled after view change", d.getStatCancelled(), 2); //$NON-NLS-1$
+
+		d.threadPoolExecutor.shutdown();
+		server.close();
+		Algoritms.removeAllFiles(dir);
+		System.out.println(ok ? "OK" : "FAILED"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+	
+	private static DownloadRequest checkRequest(String base, File dir, int zoom, int x, int y) {
+		String path = "/" + zoom + "/" + x + "/" + y + ".png"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		return new DownloadRequest(base + path, new File(dir, path), x, y, zoom);
+	}
+	
+	private static boolean check(String name, Object value, Object expected) {
+		if (!expected.equals(value)) {
+			System.out.println(name + " : " + value + " != " + expected); //$NON-NLS-1$ //$NON-NLS-2$
+			return false;
+		}
+		return true;
+	}
 }
@@ -0,0 +1,359 @@
+package net.osmand.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Two level cache of tile images limited by memory (in bytes) :
+ * 1st level keeps decoded images (platform dependent),
+ * 2nd level keeps compressed (png/jpg) bytes of tiles so they could be decoded again without disk access.
+ * Both levels are LRU. Tiles pinned by owners (for example tiles of the current view) are not evicted from the 1st level.
+ */
+public abstract class TileImageCache<T> {
+
+	private final LinkedHashMap<String, T> images = new LinkedHashMap<String, T>(64, 0.75f, true);
+	private final Map<String, Integer> imageSizes = new HashMap<String, Integer>();
+	private final LinkedHashMap<String, byte[]> compressed = new LinkedHashMap<String, byte[]>(64, 0.75f, true);
+	private final Map<Object, Set<String>> pinned = new LinkedHashMap<Object, Set<String>>();
+
+	private long imagesBudget;
+	private long compressedBudget;
+	private long imagesBytes = 0;
+	private long compressedBytes = 0;
+
+	// statistics
+	private int imageHits = 0;
+	private int compressedHits = 0;
+	private int misses = 0;
+	private int evicted = 0;
+
+	public TileImageCache(long imagesBudget, long compressedBudget) {
+		this.imagesBudget = imagesBudget;
+		this.compressedBudget = compressedBudget;
+	}
+
+	/**
+	 * @return memory consumed by decoded image in bytes
+	 */
+	protected abstract int getImageSize(T image);
+
+	/**
+	 * Called when image is removed from the cache (image is not referenced by cache anymore)
+	 */
+	protected void imageEvicted(String key, T image) {
+	}
+
+	public synchronized void setBudget(long imagesBudget, long compressedBudget) {
+		this.imagesBudget = imagesBudget;
+		this.compressedBudget = compressedBudget;
+		evictImages();
+		evictCompressed();
+	}
+
+	public synchronized long getImagesBudget() {
+		return imagesBudget;
+	}
+
+	public synchronized long getCompressedBudget() {
+		return compressedBudget;
+	}
+
+	public synchronized long getImagesBytes() {
+		return imagesBytes;
+	}
+
+	public synchronized long getCompressedBytes() {
+		return compressedBytes;
+	}
+
+	public synchronized int getImagesCount() {
+		return images.size();
+	}
+
+	public synchronized int getCompressedCount() {
+		return compressed.size();
+	}
+
+	/**
+	 * @return decoded image (updates LRU order and hit/miss counters)
+	 */
+	public synchronized T getImage(String key) {
+		T img = images.get(key);
+		if (img != null) {
+			imageHits++;
+		}
+		return img;
+	}
+
+	/**
+	 * Should be called when decoded image is not found
+	 * @return compressed bytes of tile (it is supposed that they will be decoded and put back with putImage)
+	 */
+	public synchronized byte[] getCompressed(String key) {
+		byte[] b = compressed.get(key);
+		if (b != null) {
+			compressedHits++;
+		} else {
+			misses++;
+		}
+		return b;
+	}
+
+	public synchronized void putImage(String key, T image) {
+		if (image == null) {
+			return;
+		}
+		removeImage(key);
+		int size = getImageSize(image);
+		images.put(key, image);
+		imageSizes.put(key, size);
+		imagesBytes += size;
+		evictImages();
+	}
+
+	public synchronized void putCompressed(String key, byte[] data) {
+		if (data == null || data.length > compressedBudget) {
+			return;
+		}
+		byte[] prev = compressed.put(key, data);
+		if (prev != null) {
+			compressedBytes -= prev.length;
+		}
+		compressedBytes += data.length;
+		evictCompressed();
+	}
+
+	public synchronized void remove(String key) {
+		removeImage(key);
+		byte[] prev = compressed.remove(key);
+		if (prev != null) {
+			compressedBytes -= prev.length;
+		}
+	}
+
+	/**
+	 * Sets tiles that are currently used by owner (replaces previously pinned tiles of that owner).
+	 * Pinned tiles are not evicted from the decoded images level.
+	 */
+	public synchronized void setPinned(Object owner, Collection<String> keys) {
+		if (keys == null || keys.isEmpty()) {
+			pinned.remove(owner);
+		} else {
+			Set<String> set = pinned.get(owner);
+			if (set == null) {
+				set = new HashSet<String>();
+				pinned.put(owner, set);
+			}
+			set.clear();
+			set.addAll(keys);
+		}
+		evictImages();
+	}
+
+	public synchronized boolean isPinned(String key) {
+		for (Set<String> s : pinned.values()) {
+			if (s.contains(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Frees part of memory (for example on low memory). Pinned images are kept.
+	 * @param keepPercent percent of budget that could be still used after trim
+	 */
+	public synchronized void trim(int keepPercent) {
+		long b = imagesBudget;
+		long c = compressedBudget;
+		imagesBudget = b * keepPercent / 100;
+		compressedBudget = c * keepPercent / 100;
+		evictImages();
+		evictCompressed();
+		imagesBudget = b;
+		compressedBudget = c;
+	}
+
+	public synchronized void clear() {
+		for (String key : new ArrayList<String>(images.keySet())) {
+			removeImage(key);
+		}
+		compressed.clear();
+		compressedBytes = 0;
+	}
+
+	public synchronized int getImageHits() {
+		return imageHits;
+	}
+
+	public synchronized int getCompressedHits() {
+		return compressedHits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	public synchronized int getEvicted() {
+		return evicted;
+	}
+
+	public synchronized float getHitRate() {
+		int total = imageHits + compressedHits + misses;
+		return total == 0 ? 0 : ((float) (imageHits + compressedHits)) / total;
+	}
+
+	public synchronized void resetStatistics() {
+		imageHits = 0;
+		compressedHits = 0;
+		misses = 0;
+		evicted = 0;
+	}
+
+	private void removeImage(String key) {
+		T img = images.remove(key);
+		if (img != null) {
+			imagesBytes -= imageSizes.remove(key);
+			imageEvicted(key, img);
+		}
+	}
+
+	private void evictImages() {
+		if (imagesBytes <= imagesBudget) {
+			return;
+		}
+		List<String> toRemove = new ArrayList<String>();
+		long bytes = imagesBytes;
+		// iteration goes from the least recently used
+		Iterator<String> it = images.keySet().iterator();
+		while (it.hasNext() && bytes > imagesBudget) {
+			String key = it.next();
+			if (!isPinned(key)) {
+				toRemove.add(key);
+				bytes -= imageSizes.get(key);
+			}
+		}
+		for (String key : toRemove) {
+			removeImage(key);
+			evicted++;
+		}
+	}
+
+	private void evictCompressed() {
+		Iterator<Map.Entry<String, byte[]>> it = compressed.entrySet().iterator();
+		while (it.hasNext() && compressedBytes > compressedBudget) {
+			compressedBytes -= it.next().getValue().length;
+			it.remove();
+		}
+	}
+
+	/**
+	 * Checks hits and eviction of both levels and prints hit rate of map that is moved forth and back
+	 */
+	public static void main(String[] args) {
+		final List<String> evictedKeys = new ArrayList<String>();
+		// image is int array (4 bytes per pixel)
+		TileImageCache<int[]> c = new TileImageCache<int[]>(1000, 300) {
+			@Override
+			protected int getImageSize(int[] image) {
+				return image.length * 4;
+			}
+
+			@Override
+			protected void imageEvicted(String key, int[] image) {
+				evictedKeys.add(key);
+			}
+		};
+		boolean ok = true;
+		for (int i = 0; i < 10; i++) {
+			c.putImage("t" + i, new int[25]); //$NON-NLS-1$
+		}
+		ok &= check("all images fit", c.getImagesCount() == 10 && c.getImagesBytes() == 1000 && c.getEvicted() == 0); //$NON-NLS-1$
+		// t0 is used recently so t1 is the least recently used
+		ok &= check("image hit", c.getImage("t0") != null && c.getImageHits() == 1); //$NON-NLS-1$ //$NON-NLS-2$
+		c.putImage("t10", new int[25]); //$NON-NLS-1$
+		ok &= check("LRU eviction", c.getImage("t1") == null && c.getImage("t0") != null && c.getEvicted() == 1 //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				&& evictedKeys.equals(Arrays.asList("t1")) && c.getImagesBytes() == 1000); //$NON-NLS-1$
+		// bigger image evicts t2
+		c.putImage("t10", new int[50]); //$NON-NLS-1$
+		ok &= check("replace", c.getImagesBytes() == 1000 && c.getEvicted() == 2 && c.getImagesCount() == 9 //$NON-NLS-1$
+				&& c.getImage("t2") == null); //$NON-NLS-1$
+
+		// pinned tiles stay even if budget is exceeded
+		c.setPinned(c, Arrays.asList("t3", "t4")); //$NON-NLS-1$ //$NON-NLS-2$
+		for (int i = 11; i < 30; i++) {
+			c.putImage("t" + i, new int[25]); //$NON-NLS-1$
+		}
+		ok &= check("pinned", c.getImage("t3") != null && c.getImage("t4") != null && c.getImage("t5") == null); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		c.setPinned(c, Arrays.asList("t3", "t4", "t27", "t28", "t29")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+		c.trim(30);
+		ok &= check("trim keeps pinned", c.getImagesCount() == 5 && c.getImagesBytes() == 500); //$NON-NLS-1$
+		c.setPinned(c, null);
+		c.trim(30);
+		ok &= check("trim", c.getImagesBytes() <= 300 && c.getImagesBudget() == 1000); //$NON-NLS-1$
+
+		// compressed level
+		c.putCompressed("t2", new byte[100]); //$NON-NLS-1$
+		c.putCompressed("t3", new byte[100]); //$NON-NLS-1$
+		c.putCompressed("t4", new byte[100]); //$NON-NLS-1$
+		c.putCompressed("big", new byte[301]); //$NON-NLS-1$
+		ok &= check("compressed hit", c.getCompressed("t2") != null && c.getCompressedHits() == 1); //$NON-NLS-1$ //$NON-NLS-2$
+		ok &= check("compressed miss", c.getCompressed("big") == null && c.getMisses() == 1); //$NON-NLS-1$ //$NON-NLS-2$
+		c.putCompressed("t5", new byte[100]); //$NON-NLS-1$
+		ok &= check("compressed LRU eviction", c.getCompressed("t3") == null && c.getCompressed("t2") != null //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				&& c.getCompressedBytes() == 300 && c.getCompressedCount() == 3);
+		c.remove("t2"); //$NON-NLS-1$
+		ok &= check("remove", c.getCompressedBytes() == 200 && c.getImage("t2") == null); //$NON-NLS-1$ //$NON-NLS-2$
+		c.clear();
+		ok &= check("clear", c.getImagesBytes() == 0 && c.getCompressedBytes() == 0 && c.getImagesCount() == 0); //$NON-NLS-1$
+		System.out.println(ok ? "OK" : "FAILED"); //$NON-NLS-1$ //$NON-NLS-2$
+
+		// 3x3 view is moved by 1 tile 20 times to the right and back,
+		// decoded level keeps 2 screens, compressed level keeps 6 screens
+		for (int compressedScreens = 0; compressedScreens <= 6; compressedScreens += 6) {
+			TileImageCache<int[]> m = new TileImageCache<int[]>(18 * 256 * 256 * 4, compressedScreens * 9 * 20000) {
+				@Override
+				protected int getImageSize(int[] image) {
+					return image.length * 4;
+				}
+			};
+			int decoded = 0;
+			for (int step = 0; step < 40; step++) {
+				int x = step < 20 ? step : 40 - step;
+				List<String> view = new ArrayList<String>();
+				for (int i = x; i < x + 3; i++) {
+					for (int j = 0; j < 3; j++) {
+						view.add(i + "/" + j); //$NON-NLS-1$
+					}
+				}
+				m.setPinned(m, view);
+				for (String key : view) {
+					if (m.getImage(key) == null) {
+						if (m.getCompressed(key) == null) {
+							m.putCompressed(key, new byte[20000]);
+						}
+						decoded++;
+						m.putImage(key, new int[256 * 256]);
+					}
+				}
+			}
+			System.out.println("Compressed level " + compressedScreens + " screens : hit rate " + m.getHitRate() //$NON-NLS-1$ //$NON-NLS-2$
+					+ ", loaded from disk " + m.getMisses() + ", decoded " + decoded + ", evicted " + m.getEvicted()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+	}
+
+	private static boolean check(String name, boolean ok) {
+		if (!ok) {
+			System.out.println("Failed : " + name); //$NON-NLS-1$
+		}
+		return ok;
+	}
+}
@@ -9,6 +9,9 @@ import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -21,6 +24,9 @@ import org.apache.commons.logging.LogFactory;
 
 import net.osmand.Algoritms;
 import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapRouteReaderAdapter;
+import net.osmand.binary.BinaryMapIndexReader.TagValuePair;
+import net.osmand.binary.NameKeyIndex;
 import net.osmand.binary.OsmandOdb;
 import net.osmand.binary.OsmandOdb.CityIndex;
 import net.osmand.binary.OsmandOdb.InteresectedStreets;
@@ -102,6 +108,12 @@ public class BinaryMapIndexWriter {
 	private final static int POI_INDEX_INIT = 12;
 	private final static int POI_BOX = 13;
 	private final static int POI_DATA = 14;
+	
+	private final static int ROUTE_INDEX_INIT = 15;
+	private final static int ROUTE_TREE = 16;
+	
+	// WireFormat.WIRETYPE_LENGTH_DELIMITED is not visible outside of protobuf package
+	private final static int WIRETYPE_LENGTH_DELIMITED = WireFormat.FieldType.BYTES.getWireType();
 
 	public BinaryMapIndexWriter(final RandomAccessFile raf) throws IOException{
 		this.raf = raf;
@@ -416,6 +428,149 @@ public class BinaryMapIndexWriter {
 		}
 	}
 	
+	public void startWriteRouteIndex(String name) throws IOException {
+		pushState(ROUTE_INDEX_INIT, OSMAND_STRUCTURE_INIT);
+		codedOutStream.writeTag(BinaryMapRouteReaderAdapter.ROUTING_INDEX_FIELD_NUMBER, WireFormat.WIRETYPE_FIXED32_LENGTH_DELIMITED);
+		preserveInt32Size();
+		if (name != null) {
+			codedOutStream.writeString(BinaryMapRouteReaderAdapter.ROUTE_INDEX_NAME_FIELD_NUMBER, name);
+		}
+		stackBounds.push(new Bounds(0, 0, 0, 0));
+	}
+	
+	public void endWriteRouteIndex() throws IOException {
+		popState(ROUTE_INDEX_INIT);
+		stackBounds.pop();
+		int len = writeInt32Size();
+		log.info("ROUTE INDEX SIZE : " + len);
+	}
+	
+	/**
+	 * @param rules - key of rule ((subtype << 5) | type) and tag/value of rule 
+	 */
+	public void writeRouteEncodingRules(Map<Integer, TagValuePair> rules) throws IOException {
+		checkPeekState(ROUTE_INDEX_INIT);
+		for (Map.Entry<Integer, TagValuePair> e : rules.entrySet()) {
+			TagValuePair pair = e.getValue();
+			int size = CodedOutputStream.computeStringSize(BinaryMapRouteReaderAdapter.RULE_TAG_FIELD_NUMBER, pair.tag)
+					+ CodedOutputStream.computeUInt32Size(BinaryMapRouteReaderAdapter.RULE_ID_FIELD_NUMBER, e.getKey());
+			if (pair.value != null) {
+				size += CodedOutputStream.computeStringSize(BinaryMapRouteReaderAdapter.RULE_VALUE_FIELD_NUMBER, pair.value);
+			}
+			codedOutStream.writeTag(BinaryMapRouteReaderAdapter.ROUTE_INDEX_RULES_FIELD_NUMBER, WIRETYPE_LENGTH_DELIMITED);
+			codedOutStream.writeRawVarint32(size);
+			codedOutStream.writeString(BinaryMapRouteReaderAdapter.RULE_TAG_FIELD_NUMBER, pair.tag);
+			if (pair.value != null) {
+				codedOutStream.writeString(BinaryMapRouteReaderAdapter.RULE_VALUE_FIELD_NUMBER, pair.value);
+			}
+			codedOutStream.writeUInt32(BinaryMapRouteReaderAdapter.RULE_ID_FIELD_NUMBER, e.getKey());
+		}
+	}
+	
+	/**
+	 * @param baseId - id to encode ids of objects or -1 if box doesn't have objects
+	 */
+	public void startRouteTreeElement(long baseId, int leftX, int rightX, int topY, int bottomY) throws IOException {
+		checkPeekState(ROUTE_INDEX_INIT, ROUTE_TREE);
+		if (state.peek() == ROUTE_INDEX_INIT) {
+			codedOutStream.writeTag(BinaryMapRouteReaderAdapter.ROUTE_INDEX_ROOT_BOXES_FIELD_NUMBER, WireFormat.WIRETYPE_FIXED32_LENGTH_DELIMITED);
+		} else {
+			codedOutStream.writeTag(BinaryMapRouteReaderAdapter.BOX_BOXES_FIELD_NUMBER, WireFormat.WIRETYPE_FIXED32_LENGTH_DELIMITED);
+		}
+		state.push(ROUTE_TREE);
+		preserveInt32Size();
+		Bounds bounds = stackBounds.peek();
+		codedOutStream.writeSInt32(BinaryMapRouteReaderAdapter.BOX_LEFT_FIELD_NUMBER, leftX - bounds.leftX);
+		codedOutStream.writeSInt32(BinaryMapRouteReaderAdapter.BOX_RIGHT_FIELD_NUMBER, rightX - bounds.rightX);
+		codedOutStream.writeSInt32(BinaryMapRouteReaderAdapter.BOX_TOP_FIELD_NUMBER, topY - bounds.topY);
+		codedOutStream.writeSInt32(BinaryMapRouteReaderAdapter.BOX_BOTTOM_FIELD_NUMBER, bottomY - bounds.bottomY);
+		if (baseId != -1) {
+			codedOutStream.writeUInt64(BinaryMapRouteReaderAdapter.BOX_BASEID_FIELD_NUMBER, baseId);
+		}
+		stackBounds.push(new Bounds(leftX, rightX, topY, bottomY));
+		stackBaseIds.push(baseId);
+	}
+	
+	public void endRouteTreeElement() throws IOException {
+		popState(ROUTE_TREE);
+		stackBounds.pop();
+		stackBaseIds.pop();
+		writeInt32Size();
+	}
+	
+	/**
+	 * Writes object of routing section (the same nodes and restrictions format as for {@link #writeMapData})
+	 * @param types - routing types of object (main type is the first)
+	 */
+	public void writeRouteData(long id, byte[] nodes, TIntArrayList types, int highwayAttributes, byte[] restrictions) throws IOException {
+		checkPeekState(ROUTE_TREE);
+		Bounds bounds = stackBounds.peek();
+		long baseId = stackBaseIds.peek();
+		int sizeCoordinates = 0;
+		int px = bounds.leftX;
+		int py = bounds.topY;
+		for (int i = 0; i < nodes.length / 8; i++) {
+			int x = Algoritms.parseIntFromBytes(nodes, i * 8);
+			int y = Algoritms.parseIntFromBytes(nodes, i * 8 + 4);
+			sizeCoordinates += CodedOutputStream.computeSInt32SizeNoTag(codeCoordinateDifference(x, px));
+			sizeCoordinates += CodedOutputStream.computeSInt32SizeNoTag(codeCoordinateDifference(y, py));
+			px = x;
+			py = y;
+		}
+		int sizeTypes = 0;
+		for (int i = 0; i < types.size(); i++) {
+			sizeTypes += CodedOutputStream.computeRawVarint32Size(types.get(i));
+		}
+		int sizeRestrictions = 0;
+		int restrictionsCount = restrictions == null ? 0 : restrictions.length / 8;
+		for (int i = 0; i < restrictionsCount; i++) {
+			sizeRestrictions += CodedOutputStream.computeSInt64SizeNoTag(Algoritms.parseLongFromBytes(restrictions, i * 8) - baseId);
+		}
+		int allSize = CodedOutputStream.computeTagSize(BinaryMapRouteReaderAdapter.DATA_POINTS_FIELD_NUMBER)
+				+ CodedOutputStream.computeRawVarint32Size(sizeCoordinates) + sizeCoordinates;
+		allSize += CodedOutputStream.computeTagSize(BinaryMapRouteReaderAdapter.DATA_TYPES_FIELD_NUMBER)
+				+ CodedOutputStream.computeRawVarint32Size(sizeTypes) + sizeTypes;
+		allSize += CodedOutputStream.computeSInt64Size(BinaryMapRouteReaderAdapter.DATA_ID_FIELD_NUMBER, id - baseId);
+		if (highwayAttributes != 0) {
+			allSize += CodedOutputStream.computeUInt32Size(BinaryMapRouteReaderAdapter.DATA_HIGHWAYMETA_FIELD_NUMBER, highwayAttributes);
+		}
+		if (restrictionsCount > 0) {
+			allSize += CodedOutputStream.computeTagSize(BinaryMapRouteReaderAdapter.DATA_RESTRICTIONS_FIELD_NUMBER)
+					+ CodedOutputStream.computeRawVarint32Size(sizeRestrictions) + sizeRestrictions;
+		}
+
+		codedOutStream.writeTag(BinaryMapRouteReaderAdapter.BOX_DATA_FIELD_NUMBER, WIRETYPE_LENGTH_DELIMITED);
+		codedOutStream.writeRawVarint32(allSize);
+		codedOutStream.writeTag(BinaryMapRouteReaderAdapter.DATA_POINTS_FIELD_NUMBER, WIRETYPE_LENGTH_DELIMITED);
+		codedOutStream.writeRawVarint32(sizeCoordinates);
+		px = bounds.leftX;
+		py = bounds.topY;
+		for (int i = 0; i < nodes.length / 8; i++) {
+			int x = Algoritms.parseIntFromBytes(nodes, i * 8);
+			int y = Algoritms.parseIntFromBytes(nodes, i * 8 + 4);
+			codedOutStream.writeSInt32NoTag(codeCoordinateDifference(x, px));
+			codedOutStream.writeSInt32NoTag(codeCoordinateDifference(y, py));
+			px = x;
+			py = y;
+		}
+		codedOutStream.writeTag(BinaryMapRouteReaderAdapter.DATA_TYPES_FIELD_NUMBER, WIRETYPE_LENGTH_DELIMITED);
+		codedOutStream.writeRawVarint32(sizeTypes);
+		for (int i = 0; i < types.size(); i++) {
+			codedOutStream.writeRawVarint32(types.get(i));
+		}
+		codedOutStream.writeSInt64(BinaryMapRouteReaderAdapter.DATA_ID_FIELD_NUMBER, id - baseId);
+		if (highwayAttributes != 0) {
+			codedOutStream.writeUInt32(BinaryMapRouteReaderAdapter.DATA_HIGHWAYMETA_FIELD_NUMBER, highwayAttributes);
+		}
+		if (restrictionsCount > 0) {
+			codedOutStream.writeTag(BinaryMapRouteReaderAdapter.DATA_RESTRICTIONS_FIELD_NUMBER, WIRETYPE_LENGTH_DELIMITED);
+			codedOutStream.writeRawVarint32(sizeRestrictions);
+			for (int i = 0; i < restrictionsCount; i++) {
+				codedOutStream.writeSInt64NoTag(Algoritms.parseLongFromBytes(restrictions, i * 8) - baseId);
+			}
+		}
+	}
+	
 	public void startWriteAddressIndex(String name) throws IOException {
 		pushState(ADDRESS_INDEX_INIT, OSMAND_STRUCTURE_INIT);
 		codedOutStream.writeTag(OsmandOdb.OsmAndStructure.ADDRESSINDEX_FIELD_NUMBER, WireFormat.WIRETYPE_FIXED32_LENGTH_DELIMITED);
@@ -438,7 +593,10 @@ public class BinaryMapIndexWriter {
 		return !obj.getEnName().equals(Junidecode.unidecode(obj.getName()));
 	}
 	
-	public void writeCityIndex(City city, List<Street> streets, Map<Street, List<Node>> wayNodes) throws IOException {
+	/**
+	 * @return file offset of written city (the same as read by BinaryMapIndexReader)
+	 */
+	public long writeCityIndex(City city, List<Street> streets, Map<Street, List<Node>> wayNodes) throws IOException {
 		if(city.getType() == City.CityType.CITY || city.getType() == City.CityType.TOWN){
 			checkPeekState(CITY_INDEX_INIT);
 		} else {
@@ -497,7 +655,19 @@ public class BinaryMapIndexWriter {
 			StreetIndex streetInd = createStreetAndBuildings(s, cx, cy, null);
 			cityInd.addStreets(streetInd);
 		}
-		codedOutStream.writeMessage(OsmandOdb.CitiesIndex.CITIES_FIELD_NUMBER, cityInd.build());
+		codedOutStream.writeTag(OsmandOdb.CitiesIndex.CITIES_FIELD_NUMBER, WireFormat.FieldType.MESSAGE.getWireType());
+		codedOutStream.flush();
+		long offset = raf.getFilePointer();
+		codedOutStream.writeMessageNoTag(cityInd.build());
+		return offset;
+	}
+	
+	/**
+	 * Writes index of normalized village names (key is a word of name, value is offset of village)
+	 */
+	public void writeVillagesNameIndex(Map<String, TIntArrayList> keys) throws IOException {
+		checkPeekState(ADDRESS_INDEX_INIT);
+		writeNameKeyTable(NameKeyIndex.ADDRESS_VILLAGES_KEY_TABLE_FIELD_NUMBER, keys);
 	}
 	
 	public void startCityIndexes(boolean villages) throws IOException {
@@ -861,6 +1031,16 @@ public class BinaryMapIndexWriter {
 
 			}
 		}
+		// normalized keys are used by new readers, indexed table is kept for old ones
+		Map<String, TIntArrayList> keyTable = new LinkedHashMap<String, TIntArrayList>();
+		for (Map.Entry<String, Integer> e : indexedTable.entrySet()) {
+			String key = NameKeyIndex.normalize(e.getKey());
+			if (!keyTable.containsKey(key)) {
+				keyTable.put(key, new TIntArrayList());
+			}
+			keyTable.get(key).add(e.getValue());
+		}
+		writeNameKeyTable(NameKeyIndex.POI_NAME_KEY_TABLE_FIELD_NUMBER, keyTable);
 		writeIndexedTable(OsmandOdb.OsmAndPoiNameIndex.TABLE_FIELD_NUMBER, indexedTable);
 		codedOutStream.flush();
 		long l = raf.getFilePointer();
@@ -882,6 +1062,56 @@ public class BinaryMapIndexWriter {
 	
 	
 
+	/**
+	 * Writes table of normalized keys (see {@link NameKeyIndex})
+	 */
+	private void writeNameKeyTable(int tag, Map<String, TIntArrayList> keys) throws IOException {
+		List<byte[]> sortedKeys = new ArrayList<byte[]>(keys.size());
+		final Map<byte[], TIntArrayList> values = new HashMap<byte[], TIntArrayList>();
+		for (Map.Entry<String, TIntArrayList> e : keys.entrySet()) {
+			byte[] k = NameKeyIndex.getKey(e.getKey());
+			sortedKeys.add(k);
+			values.put(k, e.getValue());
+		}
+		Collections.sort(sortedKeys, new Comparator<byte[]>() {
+			@Override
+			public int compare(byte[] o1, byte[] o2) {
+				return NameKeyIndex.compareKeys(o1, o2);
+			}
+		});
+		codedOutStream.writeTag(tag, WireFormat.WIRETYPE_FIXED32_LENGTH_DELIMITED);
+		preserveInt32Size();
+		writeRawInt(sortedKeys.size());
+		int offset = 0;
+		for (byte[] k : sortedKeys) {
+			writeRawInt(offset);
+			TIntArrayList vals = values.get(k);
+			offset += CodedOutputStream.computeRawVarint32Size(k.length) + k.length;
+			offset += CodedOutputStream.computeRawVarint32Size(vals.size());
+			for (int i = 0; i < vals.size(); i++) {
+				offset += CodedOutputStream.computeRawVarint32Size(vals.get(i));
+			}
+		}
+		for (byte[] k : sortedKeys) {
+			TIntArrayList vals = values.get(k);
+			codedOutStream.writeRawVarint32(k.length);
+			codedOutStream.writeRawBytes(k);
+			codedOutStream.writeRawVarint32(vals.size());
+			for (int i = 0; i < vals.size(); i++) {
+				codedOutStream.writeRawVarint32(vals.get(i));
+			}
+		}
+		writeInt32Size();
+	}
+
+	private void writeRawInt(int v) throws IOException {
+		// big endian as sizes written by raf
+		codedOutStream.writeRawByte((v >>> 24) & 0xff);
+		codedOutStream.writeRawByte((v >>> 16) & 0xff);
+		codedOutStream.writeRawByte((v >>> 8) & 0xff);
+		codedOutStream.writeRawByte(v & 0xff);
+	}
+
 	private void writeIndexedTable(int tag, Map<String, Integer> indexedTable) throws IOException {
 		codedOutStream.writeTag(tag, WireFormat.WIRETYPE_FIXED32_LENGTH_DELIMITED);
 		preserveInt32Size();
@@ -1,5 +1,6 @@
 package net.osmand.data.preparation;
 
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.set.hash.TLongHashSet;
 
@@ -26,6 +27,7 @@ import java.util.TreeSet;
 
 import net.osmand.Algoritms;
 import net.osmand.IProgress;
+import net.osmand.binary.NameKeyIndex;
 import net.osmand.data.Boundary;
 import net.osmand.data.Building;
 import net.osmand.data.City;
@@ -739,6 +741,19 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 	}
 
 
+	private void addToNameIndex(Map<String, TIntArrayList> nameIndex, String name, int offset) {
+		for (String w : NameKeyIndex.getWords(NameKeyIndex.normalize(name))) {
+			TIntArrayList list = nameIndex.get(w);
+			if (list == null) {
+				list = new TIntArrayList();
+				nameIndex.put(w, list);
+			}
+			if (list.isEmpty() || list.get(list.size() - 1) != offset) {
+				list.add(offset);
+			}
+		}
+	}
+
 	public void writeBinaryAddressIndex(BinaryMapIndexWriter writer, String regionName, IProgress progress) throws IOException, SQLException {
 		streetDAO.close();
 		closePreparedStatements(addressCityStat);
@@ -780,6 +795,7 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 		progress.startTask(Messages.getString("IndexCreator.SERIALIZING_ADRESS"), j + ((csize - j) / 100 + 1)); //$NON-NLS-1$
 
 		Map<String, Set<Street>> postcodes = new TreeMap<String, Set<Street>>();
+		Map<String, TIntArrayList> villagesNameIndex = new HashMap<String, TIntArrayList>();
 		boolean writeCities = true;
 		
 		// collect suburbs with is in value
@@ -821,7 +837,12 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 			long time = System.currentTimeMillis();
 			List<Street> streets = readStreetsBuildings(streetstat, c, waynodesStat, streetNodes, listSuburbs);
 			long f = System.currentTimeMillis() - time;
-			writer.writeCityIndex(c, streets, streetNodes);
+			long offset = writer.writeCityIndex(c, streets, streetNodes);
+			if (!writeCities) {
+				addToNameIndex(villagesNameIndex, c.getName(), (int) offset);
+				String enName = c.getEnName();
+				addToNameIndex(villagesNameIndex, Algoritms.isEmpty(enName) ? Junidecode.unidecode(c.getName()) : enName, (int) offset);
+			}
 			int bCount = 0;
 			for (Street s : streets) {
 				bCount++;
@@ -851,6 +872,9 @@ public class IndexAddressCreator extends AbstractIndexPartCreator{
 			writer.writePostcode(s, postcodes.get(s));
 		}
 		writer.endPostcodes();
+		if (!villagesNameIndex.isEmpty()) {
+			writer.writeVillagesNameIndex(villagesNameIndex);
+		}
 
 		progress.finishTask();
 
@@ -538,6 +538,8 @@ public class IndexCreator {
 					progress.setGeneralProgress("[95 of 100]");
 					progress.startTask("Writing map index to binary file...", -1);
 					indexMapCreator.writeBinaryMapIndex(writer, regionName);
+					progress.startTask("Writing route index to binary file...", -1);
+					indexMapCreator.writeBinaryRouteIndex(writer, regionName);
 				}
 
 				if (indexAddress) {
@@ -1,5 +1,7 @@
 package net.osmand.data.preparation;
 
+import gnu.trove.list.array.TIntArrayList;
+
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
@@ -17,14 +19,19 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import net.osmand.Algoritms;
 import net.osmand.IProgress;
+import net.osmand.binary.BinaryMapRouteReaderAdapter;
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+import net.osmand.binary.BinaryMapIndexReader.TagValuePair;
 import net.osmand.data.Boundary;
 import net.osmand.data.MapAlgorithms;
 import net.osmand.osm.Entity;
 import net.osmand.osm.LatLon;
 import net.osmand.osm.MapRenderingTypes;
+import net.osmand.osm.MapRenderingTypes.MapRulType;
 import net.osmand.osm.MapUtils;
 import net.osmand.osm.Node;
 import net.osmand.osm.Relation;
@@ -689,6 +696,142 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
 		}
 	}
 	
+	/**
+	 * Writes routing section : objects of the most detailed level with routing types only
+	 * (the same coordinates and ids as in map section, so roads are connected by identical points).
+	 */
+	public void writeBinaryRouteIndex(BinaryMapIndexWriter writer, String regionName) throws IOException, SQLException {
+		closePreparedStatements(mapBinaryStat, mapLowLevelBinaryStat);
+		mapConnection.commit();
+		try {
+			Map<Integer, TagValuePair> decodingRules = getDecodingRules();
+			Map<Integer, TagValuePair> usedRules = new TreeMap<Integer, TagValuePair>();
+			PreparedStatement selectTypes = mapConnection.prepareStatement("SELECT types FROM binary_map_objects WHERE id = ?"); //$NON-NLS-1$
+			RTree rtree = mapTree[0];
+			RouteTreeNode root = collectRouteTree(rtree.getReadNode(rtree.getFileHdr().getRootIndex()), rtree, selectTypes,
+					decodingRules, usedRules);
+			selectTypes.close();
+			if (root == null) {
+				return;
+			}
+
+			PreparedStatement selectData = mapConnection.prepareStatement("SELECT nodes, types, highway, restrictions FROM binary_map_objects WHERE id = ?"); //$NON-NLS-1$
+			writer.startWriteRouteIndex(regionName);
+			writer.writeRouteEncodingRules(usedRules);
+			writeBinaryRouteTree(root, writer, selectData, decodingRules);
+			writer.endWriteRouteIndex();
+			writer.flush();
+			selectData.close();
+		} catch (RTreeException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static class RouteTreeNode {
+		int left = Integer.MAX_VALUE;
+		int right = Integer.MIN_VALUE;
+		int top = Integer.MAX_VALUE;
+		int bottom = Integer.MIN_VALUE;
+		List<Long> ids = new ArrayList<Long>();
+		List<RouteTreeNode> children = new ArrayList<RouteTreeNode>();
+
+		void expand(int minX, int maxX, int minY, int maxY) {
+			left = Math.min(left, minX);
+			right = Math.max(right, maxX);
+			top = Math.min(top, minY);
+			bottom = Math.max(bottom, maxY);
+		}
+	}
+
+	private Map<Integer, TagValuePair> getDecodingRules() {
+		Map<Integer, TagValuePair> rules = new LinkedHashMap<Integer, TagValuePair>();
+		Map<String, MapRulType> types = renderingTypes.getEncodingRuleTypes();
+		for (String tag : types.keySet()) {
+			MapRulType rule = types.get(tag);
+			int type = rule.getType(null);
+			int subType = rule.getSubType(null);
+			if (type != 0 && subType != 0 && rule.getValuesSet().isEmpty()) {
+				rules.put((subType << 5) | type, new TagValuePair(tag, "")); //$NON-NLS-1$
+			}
+			for (String val : rule.getValuesSet()) {
+				rules.put((rule.getSubType(val) << 5) | rule.getType(val), new TagValuePair(tag, val));
+			}
+		}
+		return rules;
+	}
+
+	private TIntArrayList getRouteTypes(byte[] types, Map<Integer, TagValuePair> decodingRules) {
+		TIntArrayList routeTypes = new TIntArrayList();
+		for (int j = 0; j < types.length / 2; j++) {
+			int wholeType = Algoritms.parseSmallIntFromBytes(types, j * 2);
+			TagValuePair pair = decodingRules.get(MapIndex.getRuleKey(wholeType));
+			if (pair != null
+					&& BinaryMapRouteReaderAdapter.isRoutingType(pair.tag, pair.value, (wholeType & 3) == MapRenderingTypes.POINT_TYPE)) {
+				routeTypes.add(wholeType);
+			}
+		}
+		return routeTypes;
+	}
+
+	private RouteTreeNode collectRouteTree(rtree.Node parent, RTree r, PreparedStatement selectTypes,
+			Map<Integer, TagValuePair> decodingRules, Map<Integer, TagValuePair> usedRules) throws IOException, RTreeException, SQLException {
+		RouteTreeNode node = new RouteTreeNode();
+		Element[] e = parent.getAllElements();
+		for (int i = 0; i < parent.getTotalElements(); i++) {
+			Rect re = e[i].getRect();
+			if (e[i].getElementType() == rtree.Node.LEAF_NODE) {
+				long id = ((LeafElement) e[i]).getPtr();
+				selectTypes.setLong(1, id);
+				ResultSet rs = selectTypes.executeQuery();
+				if (rs.next()) {
+					TIntArrayList routeTypes = getRouteTypes(rs.getBytes(1), decodingRules);
+					if (!routeTypes.isEmpty()) {
+						for (int j = 0; j < routeTypes.size(); j++) {
+							int key = MapIndex.getRuleKey(routeTypes.get(j));
+							usedRules.put(key, decodingRules.get(key));
+						}
+						node.ids.add(id);
+						node.expand(re.getMinX(), re.getMaxX(), re.getMinY(), re.getMaxY());
+					}
+				}
+				rs.close();
+			} else {
+				RouteTreeNode child = collectRouteTree(r.getReadNode(((NonLeafElement) e[i]).getPtr()), r, selectTypes, decodingRules,
+						usedRules);
+				if (child != null) {
+					node.children.add(child);
+					node.expand(child.left, child.right, child.top, child.bottom);
+				}
+			}
+		}
+		if (node.ids.isEmpty() && node.children.isEmpty()) {
+			return null;
+		}
+		return node;
+	}
+
+	private void writeBinaryRouteTree(RouteTreeNode node, BinaryMapIndexWriter writer, PreparedStatement selectData,
+			Map<Integer, TagValuePair> decodingRules) throws IOException, SQLException {
+		long baseId = node.ids.isEmpty() ? -1 : convertGeneratedIdToObfWrite(node.ids.get(0));
+		writer.startRouteTreeElement(baseId, node.left, node.right, node.top, node.bottom);
+		for (Long id : node.ids) {
+			selectData.setLong(1, id);
+			ResultSet rs = selectData.executeQuery();
+			if (rs.next()) {
+				// "SELECT nodes, types, highway, restrictions FROM binary_map_objects WHERE id = ?"
+				writer.writeRouteData(convertGeneratedIdToObfWrite(id), rs.getBytes(1), getRouteTypes(rs.getBytes(2), decodingRules),
+						rs.getInt(3), rs.getBytes(4));
+			} else {
+				logMapDataWarn.error("Something goes wrong with id = " + id); //$NON-NLS-1$
+			}
+			rs.close();
+		}
+		for (RouteTreeNode child : node.children) {
+			writeBinaryRouteTree(child, writer, selectData, decodingRules);
+		}
+		writer.endRouteTreeElement();
+	}
+	
 	private long convertBaseIdToGeneratedId(long baseId, int level) {
 		if(level >= MAP_LEVELS_MAX){
 			throw new IllegalArgumentException("Number of zoom levels " + level + " exceeds allowed maximum : " + MAP_LEVELS_MAX);
@@ -0,0 +1,305 @@
+package net.osmand.osm;
+
+import java.util.Random;
+
+/**
+ * Fast projection of many points between lat/lon, 31 tile numbers and pixels of rotated map view.
+ * Mercator is calculated by lookup tables with linear interpolation instead of log/tan/atan/sinh for every point
+ * (error is less than {@link #MAX_ERROR_METERS}, see {@link #main(String[])}), zoom constants are cached.
+ * Instance keeps view (origin tile, origin pixel, rotation, tile size) and converts arrays of points,
+ * static methods convert single points and could replace {@link MapUtils} methods where such error is acceptable.
+ */
+public class MapProjection {
+
+	// tables take 512 KB, it is loaded with the first use
+	public static final double MAX_ERROR_METERS = 0.1;
+
+	// latitude of Mercator square bounds
+	private static final double MAX_LATITUDE = 85.0511287798066;
+
+	// latitude by 31 tile y (table step is 2^LAT_SHIFT tiles 31)
+	private static final int LAT_SHIFT = 16;
+	private static final double LAT_STEP = 1d / (1 << LAT_SHIFT);
+	private static final double[] LAT_TABLE = new double[(1 << (31 - LAT_SHIFT)) + 1];
+
+	// Mercator y (part of the world 0..1) by latitude
+	private static final int Y_TABLE_SIZE = 1 << 15;
+	private static final double Y_STEP = 2 * MAX_LATITUDE / Y_TABLE_SIZE;
+	private static final double[] Y_TABLE = new double[Y_TABLE_SIZE + 1];
+
+	private static final double[] POW_ZOOM = new double[32];
+	private static final double TILES_31 = 1l << 31;
+
+	static {
+		for (int i = 0; i < LAT_TABLE.length; i++) {
+			LAT_TABLE[i] = Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * ((double) i / (LAT_TABLE.length - 1))))));
+		}
+		for (int i = 0; i < Y_TABLE.length; i++) {
+			double lat = Math.toRadians(-MAX_LATITUDE + i * Y_STEP);
+			Y_TABLE[i] = (1 - Math.log(Math.tan(lat) + 1 / Math.cos(lat)) / Math.PI) / 2;
+		}
+		for (int i = 0; i < POW_ZOOM.length; i++) {
+			POW_ZOOM[i] = 1l << i;
+		}
+	}
+
+	private static double getPowZoom(int zoom) {
+		return zoom >= 0 && zoom < POW_ZOOM.length ? POW_ZOOM[zoom] : Math.pow(2, zoom);
+	}
+
+	/**
+	 * @return Mercator y (0 - north, 1 - south) or NaN if latitude is out of bounds (exact calculation is needed)
+	 */
+	private static double getMercatorY(double latitude) {
+		double p = (latitude + MAX_LATITUDE) / Y_STEP;
+		if (!(p >= 0 && p < Y_TABLE_SIZE)) {
+			return Double.NaN;
+		}
+		int i = (int) p;
+		double f = p - i;
+		return Y_TABLE[i] + (Y_TABLE[i + 1] - Y_TABLE[i]) * f;
+	}
+
+	/**
+	 * @see MapUtils#get31LatitudeY(int)
+	 */
+	public static double get31LatitudeY(int tileY) {
+		if (tileY < 0) {
+			return MapUtils.get31LatitudeY(tileY);
+		}
+		int i = tileY >>> LAT_SHIFT;
+		double f = (tileY & ((1 << LAT_SHIFT) - 1)) * LAT_STEP;
+		return LAT_TABLE[i] + (LAT_TABLE[i + 1] - LAT_TABLE[i]) * f;
+	}
+
+	/**
+	 * @see MapUtils#get31LongitudeX(int)
+	 */
+	public static double get31LongitudeX(int tileX) {
+		return tileX / TILES_31 * 360 - 180;
+	}
+
+	/**
+	 * @see MapUtils#get31TileNumberY(double)
+	 */
+	public static int get31TileNumberY(double latitude) {
+		double y = getMercatorY(latitude);
+		if (Double.isNaN(y)) {
+			return MapUtils.get31TileNumberY(latitude);
+		}
+		return (int) (y * TILES_31);
+	}
+
+	/**
+	 * @see MapUtils#get31TileNumberX(double)
+	 */
+	public static int get31TileNumberX(double longitude) {
+		if (longitude < -180 || longitude > 180) {
+			return MapUtils.get31TileNumberX(longitude);
+		}
+		return (int) ((longitude + 180d) / 360d * TILES_31);
+	}
+
+	/**
+	 * @see MapUtils#getTileNumberY(float, double)
+	 */
+	public static double getTileNumberY(int zoom, double latitude) {
+		double y = getMercatorY(latitude);
+		if (Double.isNaN(y)) {
+			return MapUtils.getTileNumberY(zoom, latitude);
+		}
+		return y * getPowZoom(zoom);
+	}
+
+	/**
+	 * @see MapUtils#getTileNumberX(float, double)
+	 */
+	public static double getTileNumberX(int zoom, double longitude) {
+		if (longitude < -180 || longitude > 180) {
+			return MapUtils.getTileNumberX(zoom, longitude);
+		}
+		return (longitude + 180d) / 360d * getPowZoom(zoom);
+	}
+
+	/**
+	 * Converts count points of arrays (the same array could be used for input and output)
+	 */
+	public static void get31TileNumbers(double[] lat, double[] lon, int[] tileX, int[] tileY, int count) {
+		for (int i = 0; i < count; i++) {
+			tileX[i] = get31TileNumberX(lon[i]);
+			tileY[i] = get31TileNumberY(lat[i]);
+		}
+	}
+
+	public static void get31LatLon(int[] tileX, int[] tileY, double[] lat, double[] lon, int count) {
+		for (int i = 0; i < count; i++) {
+			lon[i] = get31LongitudeX(tileX[i]);
+			lat[i] = get31LatitudeY(tileY[i]);
+		}
+	}
+
+
+	private int zoom;
+	private double tileDivisor;
+	private double originTileX;
+	private double originTileY;
+	private float originPixelX;
+	private float originPixelY;
+	private float tileSize;
+	// rotation multiplied by tile size
+	private double cosTileSize;
+	private double sinTileSize;
+
+	/**
+	 * @see #set(int, double, double, float, float, float, float)
+	 */
+	public MapProjection(int zoom, double originTileX, double originTileY, float originPixelX, float originPixelY,
+			float rotate, float tileSize) {
+		set(zoom, originTileX, originTileY, originPixelX, originPixelY, rotate, tileSize);
+	}
+
+	/**
+	 * @param originTileX - tile x (of zoom) that is shown at originPixelX
+	 * @param originTileY - tile y (of zoom) that is shown at originPixelY
+	 * @param rotate - rotation of map in degrees
+	 */
+	public void set(int zoom, double originTileX, double originTileY, float originPixelX, float originPixelY,
+			float rotate, float tileSize) {
+		this.zoom = zoom;
+		this.tileDivisor = getPowZoom(31 - zoom);
+		this.originTileX = originTileX;
+		this.originTileY = originTileY;
+		this.originPixelX = originPixelX;
+		this.originPixelY = originPixelY;
+		this.tileSize = tileSize;
+		double rad = Math.toRadians(rotate);
+		cosTileSize = Math.cos(rad) * tileSize;
+		sinTileSize = Math.sin(rad) * tileSize;
+	}
+
+	public int getZoom() {
+		return zoom;
+	}
+
+	private void tileToPixel(double tx, double ty, float[] pixelX, float[] pixelY, int i) {
+		double dx = tx - originTileX;
+		double dy = ty - originTileY;
+		pixelX[i] = (float) (cosTileSize * dx - sinTileSize * dy) + originPixelX;
+		pixelY[i] = (float) (sinTileSize * dx + cosTileSize * dy) + originPixelY;
+	}
+
+	public void get31Pixels(int[] tileX, int[] tileY, float[] pixelX, float[] pixelY, int count) {
+		for (int i = 0; i < count; i++) {
+			tileToPixel(tileX[i] / tileDivisor, tileY[i] / tileDivisor, pixelX, pixelY, i);
+		}
+	}
+
+	public void getPixels(double[] lat, double[] lon, float[] pixelX, float[] pixelY, int count) {
+		for (int i = 0; i < count; i++) {
+			tileToPixel(getTileNumberX(zoom, lon[i]), getTileNumberY(zoom, lat[i]), pixelX, pixelY, i);
+		}
+	}
+
+	public float getPixelX(double lat, double lon) {
+		double dx = getTileNumberX(zoom, lon) - originTileX;
+		double dy = getTileNumberY(zoom, lat) - originTileY;
+		return (float) (cosTileSize * dx - sinTileSize * dy) + originPixelX;
+	}
+
+	public float getPixelY(double lat, double lon) {
+		double dx = getTileNumberX(zoom, lon) - originTileX;
+		double dy = getTileNumberY(zoom, lat) - originTileY;
+		return (float) (sinTileSize * dx + cosTileSize * dy) + originPixelY;
+	}
+
+	public void getLatLon(float[] pixelX, float[] pixelY, double[] lat, double[] lon, int count) {
+		double scale = 1 / (tileSize * tileSize);
+		for (int i = 0; i < count; i++) {
+			double px = pixelX[i] - originPixelX;
+			double py = pixelY[i] - originPixelY;
+			double tx = (cosTileSize * px + sinTileSize * py) * scale + originTileX;
+			double ty = (-sinTileSize * px + cosTileSize * py) * scale + originTileY;
+			lon[i] = get31LongitudeX((int) (tx * tileDivisor));
+			lat[i] = get31LatitudeY((int) (ty * tileDivisor));
+		}
+	}
+
+
+	/**
+	 * Checks error against exact calculation and compares speed with {@link MapUtils}
+	 */
+	public static void main(String[] args) {
+		Random rnd = new Random(1);
+		int n = 1 << 20;
+		double[] lat = new double[n];
+		double[] lon = new double[n];
+		int[] tx = new int[n];
+		int[] ty = new int[n];
+		for (int i = 0; i < n; i++) {
+			lat[i] = (rnd.nextDouble() * 2 - 1) * MAX_LATITUDE;
+			lon[i] = rnd.nextDouble() * 360 - 180;
+			tx[i] = rnd.nextInt(Integer.MAX_VALUE);
+			ty[i] = rnd.nextInt(Integer.MAX_VALUE);
+		}
+
+		// accuracy : error of latitude and tile number in meters (at that latitude)
+		double maxLatError = 0;
+		double maxTileError = 0;
+		double maxMapUtilsDiff = 0;
+		for (int i = 0; i < n; i++) {
+			double exact = Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * (ty[i] / TILES_31)))));
+			double l = get31LatitudeY(ty[i]);
+			maxLatError = Math.max(maxLatError, MapUtils.getDistance(exact, 0, l, 0));
+			maxMapUtilsDiff = Math.max(maxMapUtilsDiff, MapUtils.getDistance(MapUtils.get31LatitudeY(ty[i]), 0, l, 0));
+
+			int y = get31TileNumberY(lat[i]);
+			int ey = MapUtils.get31TileNumberY(lat[i]);
+			double metersInTile = MapUtils.getDistance(lat[i], 0, MapUtils.get31LatitudeY(ey + 1024), 0) / 1024;
+			maxTileError = Math.max(maxTileError, Math.abs(y - ey) * metersInTile);
+			if (get31TileNumberX(lon[i]) != MapUtils.get31TileNumberX(lon[i])) {
+				System.out.println("Wrong tile x " + lon[i]); //$NON-NLS-1$
+			}
+		}
+		System.out.println("Max error of latitude by tile y : " + maxLatError + " m (" + maxMapUtilsDiff //$NON-NLS-1$ //$NON-NLS-2$
+				+ " m from MapUtils that calculates in float)"); //$NON-NLS-1$
+		System.out.println("Max error of tile y by latitude : " + maxTileError + " m"); //$NON-NLS-1$ //$NON-NLS-2$
+		if (maxLatError > MAX_ERROR_METERS || maxTileError > MAX_ERROR_METERS) {
+			System.out.println("Error is greater than " + MAX_ERROR_METERS + " m"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		MapProjection p = new MapProjection(15, 17000, 11000, 240, 400, 30, 256);
+		float[] px = new float[n];
+		float[] py = new float[n];
+		p.getPixels(lat, lon, px, py, 1000);
+		double maxPixelError = 0;
+		for (int i = 0; i < 1000; i++) {
+			double dx = MapUtils.getTileNumberX(15, lon[i]) - 17000;
+			double dy = MapUtils.getTileNumberY(15, lat[i]) - 11000;
+			double a = Math.toRadians(30);
+			double ex = (Math.cos(a) * dx - Math.sin(a) * dy) * 256 + 240;
+			double ey = (Math.sin(a) * dx + Math.cos(a) * dy) * 256 + 400;
+			// float precision of pixels is relative to distance from origin
+			maxPixelError = Math.max(maxPixelError, Math.max(Math.abs(ex - px[i]), Math.abs(ey - py[i])) / Math.max(1, Math.abs(ex) + Math.abs(ey)));
+		}
+		System.out.println("Max relative pixel error : " + maxPixelError); //$NON-NLS-1$
+
+		// benchmark (several rounds to warm up)
+		for (int round = 0; round < 5; round++) {
+			long t = System.nanoTime();
+			double s = 0;
+			for (int i = 0; i < n; i++) {
+				s += MapUtils.get31TileNumberY(lat[i]) + MapUtils.get31LatitudeY(ty[i]);
+			}
+			long mapUtils = System.nanoTime() - t;
+			t = System.nanoTime();
+			get31TileNumbers(lat, lon, tx, ty, n);
+			get31LatLon(tx, ty, lat, lon, n);
+			long batch = System.nanoTime() - t;
+			t = System.nanoTime();
+			p.getPixels(lat, lon, px, py, n);
+			long pixels = System.nanoTime() - t;
+			System.out.println(String.format("MapUtils lat->y31->lat %.1f ns, batch %.1f ns, lat/lon->pixels %.1f ns per point (%s)", //$NON-NLS-1$
+					(double) mapUtils / n, (double) batch / n, (double) pixels / n, s > 0));
+		}
+	}
+
+}
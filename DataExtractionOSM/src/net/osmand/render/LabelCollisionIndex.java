@@ -0,0 +1,402 @@
+package net.osmand.render;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Collision index used to place map labels (platform independent).
+ * Label consists of one or several oriented boxes (text along path is covered by box per path segment).
+ * Labels are offered in the order of priority and placed only if they don't intersect already placed labels.
+ * Index is a packed uniform grid : every cell keeps ids of labels which bounding boxes touch the cell.
+ */
+public class LabelCollisionIndex {
+
+	// box is stored as : center x, center y, half width, half height, cos, sin
+	private static final int BOX_SIZE = 6;
+
+	public static class Label {
+		private float[] boxes = new float[BOX_SIZE];
+		private int boxesCount = 0;
+		private float left = Float.MAX_VALUE;
+		private float top = Float.MAX_VALUE;
+		private float right = -Float.MAX_VALUE;
+		private float bottom = -Float.MAX_VALUE;
+
+		final String text;
+		final int order;
+		// labels with the same text should be at least at that distance (along & across text)
+		float minDistanceAlong = 0;
+		float minDistanceAcross = 0;
+		Object data;
+
+		public Label(String text, int order) {
+			this.text = text;
+			this.order = order;
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		public int getOrder() {
+			return order;
+		}
+
+		public Object getData() {
+			return data;
+		}
+
+		public void setData(Object data) {
+			this.data = data;
+		}
+
+		public void setMinDistance(float along, float across) {
+			this.minDistanceAlong = along;
+			this.minDistanceAcross = across;
+		}
+
+		public int getBoxesCount() {
+			return boxesCount;
+		}
+
+		/**
+		 * @param angle rotation of box in radians
+		 */
+		public void addBox(float centerX, float centerY, float halfWidth, float halfHeight, float angle) {
+			float cos = (float) Math.cos(angle);
+			float sin = (float) Math.sin(angle);
+			if ((boxesCount + 1) * BOX_SIZE > boxes.length) {
+				float[] n = new float[boxes.length * 2];
+				System.arraycopy(boxes, 0, n, 0, boxes.length);
+				boxes = n;
+			}
+			int p = boxesCount * BOX_SIZE;
+			boxes[p] = centerX;
+			boxes[p + 1] = centerY;
+			boxes[p + 2] = halfWidth;
+			boxes[p + 3] = halfHeight;
+			boxes[p + 4] = cos;
+			boxes[p + 5] = sin;
+			boxesCount++;
+			// extent of rotated box
+			float ex = Math.abs(cos) * halfWidth + Math.abs(sin) * halfHeight;
+			float ey = Math.abs(sin) * halfWidth + Math.abs(cos) * halfHeight;
+			left = Math.min(left, centerX - ex);
+			right = Math.max(right, centerX + ex);
+			top = Math.min(top, centerY - ey);
+			bottom = Math.max(bottom, centerY + ey);
+		}
+
+		/**
+		 * Covers text drawn along polyline with boxes (one box per segment).
+		 * Text is supposed to be centered on the polyline (as text drawn on path with center alignment).
+		 * @param normalOffset offset of box centers along the normal (-dy, dx) of the path direction
+		 */
+		public void addPathBoxes(float[] xs, float[] ys, int length, float textWidth, float halfHeight, float normalOffset) {
+			float total = 0;
+			for (int i = 1; i < length; i++) {
+				total += (float) Math.hypot(xs[i] - xs[i - 1], ys[i] - ys[i - 1]);
+			}
+			float start = (total - textWidth) / 2;
+			float end = start + textWidth;
+			float passed = 0;
+			for (int i = 1; i < length && passed < end; i++) {
+				float dx = xs[i] - xs[i - 1];
+				float dy = ys[i] - ys[i - 1];
+				float d = (float) Math.hypot(dx, dy);
+				float s = Math.max(start, passed);
+				float e = Math.min(end, passed + d);
+				if (d > 0 && e > s) {
+					float mid = ((s + e) / 2 - passed) / d;
+					float nx = -dy / d * normalOffset;
+					float ny = dx / d * normalOffset;
+					addBox(xs[i - 1] + dx * mid + nx, ys[i - 1] + dy * mid + ny, (e - s) / 2, halfHeight,
+							(float) Math.atan2(dy, dx));
+				}
+				passed += d;
+			}
+		}
+	}
+
+	private final float left;
+	private final float top;
+	private final float cellSize;
+	private final int columns;
+	private final int rows;
+	private final int[][] cells;
+	private final int[] cellSizes;
+	private final List<Label> placed = new ArrayList<Label>();
+	// stamp of the last query which tested placed label (to test label once when it is in several cells)
+	private int[] stamps = new int[64];
+	private int currentStamp = 0;
+
+	// statistics
+	private int boxTests = 0;
+
+	public LabelCollisionIndex(float left, float top, float right, float bottom, float cellSize) {
+		this.left = left;
+		this.top = top;
+		this.cellSize = cellSize;
+		this.columns = Math.max(1, (int) Math.ceil((right - left) / cellSize));
+		this.rows = Math.max(1, (int) Math.ceil((bottom - top) / cellSize));
+		this.cells = new int[columns * rows][];
+		this.cellSizes = new int[columns * rows];
+	}
+
+	public void clear() {
+		for (int i = 0; i < cellSizes.length; i++) {
+			cellSizes[i] = 0;
+		}
+		placed.clear();
+		currentStamp = 0;
+		boxTests = 0;
+	}
+
+	public List<Label> getPlacedLabels() {
+		return placed;
+	}
+
+	public int getBoxTests() {
+		return boxTests;
+	}
+
+	/**
+	 * Places labels in the order of priority (lower order first).
+	 * @return placed labels
+	 */
+	public List<Label> placeAll(List<Label> labels) {
+		List<Label> sorted = new ArrayList<Label>(labels);
+		Collections.sort(sorted, new Comparator<Label>() {
+			@Override
+			public int compare(Label object1, Label object2) {
+				return object1.order - object2.order;
+			}
+		});
+		List<Label> result = new ArrayList<Label>();
+		for (Label l : sorted) {
+			if (tryPlace(l)) {
+				result.add(l);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Labels should be offered in the order of priority.
+	 * @return true if label doesn't intersect placed labels (then it is also placed)
+	 */
+	public boolean tryPlace(Label label) {
+		if (label.boxesCount == 0) {
+			return false;
+		}
+		if (intersectsPlaced(label, label.left, label.top, label.right, label.bottom, false)) {
+			return false;
+		}
+		if (label.text != null && (label.minDistanceAlong > 0 || label.minDistanceAcross > 0)) {
+			float ext = Math.max(label.minDistanceAlong, label.minDistanceAcross);
+			if (intersectsPlaced(label, label.left - ext, label.top - ext, label.right + ext, label.bottom + ext, true)) {
+				return false;
+			}
+		}
+		insert(label);
+		return true;
+	}
+
+	private boolean intersectsPlaced(Label label, float l, float t, float r, float b, boolean sameText) {
+		int c1 = column(l);
+		int c2 = column(r);
+		int r1 = row(t);
+		int r2 = row(b);
+		currentStamp++;
+		for (int y = r1; y <= r2; y++) {
+			for (int x = c1; x <= c2; x++) {
+				int cell = y * columns + x;
+				int[] ids = cells[cell];
+				for (int i = 0; i < cellSizes[cell]; i++) {
+					if (stamps[ids[i]] == currentStamp) {
+						continue;
+					}
+					stamps[ids[i]] = currentStamp;
+					Label p = placed.get(ids[i]);
+					if (p.right < l || p.left > r || p.bottom < t || p.top > b) {
+						continue;
+					}
+					if (sameText) {
+						if ((p.minDistanceAlong > 0 || p.minDistanceAcross > 0) && label.text.equals(p.text)
+								&& intersects(label, label.minDistanceAlong, label.minDistanceAcross, p)) {
+							return true;
+						}
+					} else if (intersects(label, 0, 0, p)) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	private void insert(Label label) {
+		int id = placed.size();
+		placed.add(label);
+		if (id == stamps.length) {
+			int[] n = new int[stamps.length * 2];
+			System.arraycopy(stamps, 0, n, 0, stamps.length);
+			stamps = n;
+		}
+		stamps[id] = 0;
+		int c1 = column(label.left);
+		int c2 = column(label.right);
+		int r1 = row(label.top);
+		int r2 = row(label.bottom);
+		for (int y = r1; y <= r2; y++) {
+			for (int x = c1; x <= c2; x++) {
+				int cell = y * columns + x;
+				int[] ids = cells[cell];
+				if (ids == null) {
+					ids = new int[4];
+					cells[cell] = ids;
+				} else if (cellSizes[cell] == ids.length) {
+					int[] n = new int[ids.length * 2];
+					System.arraycopy(ids, 0, n, 0, ids.length);
+					ids = n;
+					cells[cell] = ids;
+				}
+				ids[cellSizes[cell]++] = id;
+			}
+		}
+	}
+
+	private int column(float x) {
+		int c = (int) ((x - left) / cellSize);
+		return c < 0 ? 0 : (c >= columns ? columns - 1 : c);
+	}
+
+	private int row(float y) {
+		int r = (int) ((y - top) / cellSize);
+		return r < 0 ? 0 : (r >= rows ? rows - 1 : r);
+	}
+
+	/**
+	 * Boxes of label a are extended by (extAlong, extAcross) before test
+	 */
+	private boolean intersects(Label a, float extAlong, float extAcross, Label b) {
+		for (int i = 0; i < a.boxesCount; i++) {
+			for (int j = 0; j < b.boxesCount; j++) {
+				boxTests++;
+				if (intersects(a.boxes, i * BOX_SIZE, extAlong, extAcross, b.boxes, j * BOX_SIZE)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Separating axis test of 2 oriented boxes
+	 */
+	static boolean intersects(float[] a, int pa, float extAlong, float extAcross, float[] b, int pb) {
+		float dx = b[pb] - a[pa];
+		float dy = b[pb + 1] - a[pa + 1];
+		float aw = a[pa + 2] + extAlong;
+		float ah = a[pa + 3] + extAcross;
+		float ac = a[pa + 4];
+		float as = a[pa + 5];
+		float bw = b[pb + 2];
+		float bh = b[pb + 3];
+		float bc = b[pb + 4];
+		float bs = b[pb + 5];
+		// |cos| & |sin| of angle between boxes axes
+		float c = Math.abs(ac * bc + as * bs);
+		float s = Math.abs(ac * bs - as * bc);
+		// axes of a
+		if (Math.abs(dx * ac + dy * as) > aw + bw * c + bh * s) {
+			return false;
+		}
+		if (Math.abs(-dx * as + dy * ac) > ah + bw * s + bh * c) {
+			return false;
+		}
+		// axes of b
+		if (Math.abs(dx * bc + dy * bs) > bw + aw * c + ah * s) {
+			return false;
+		}
+		if (Math.abs(-dx * bs + dy * bc) > bh + aw * s + ah * c) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Benchmark on dense random label set : compares index with brute force test of all placed labels
+	 */
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int width = 1024;
+		int height = 1024;
+		Random rnd = new Random(17);
+		String[] names = new String[count / 20];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = "Street " + i;
+		}
+		List<Label> labels = new ArrayList<Label>();
+		for (int i = 0; i < count; i++) {
+			Label l = new Label(names[rnd.nextInt(names.length)], rnd.nextInt(100));
+			float tw = 30 + rnd.nextInt(90);
+			float th = 12 + rnd.nextInt(12);
+			if (rnd.nextBoolean()) {
+				l.addBox(rnd.nextFloat() * width, rnd.nextFloat() * height, tw / 2, th / 2, 0);
+			} else {
+				// road label along polyline
+				int n = 2 + rnd.nextInt(5);
+				float[] xs = new float[n];
+				float[] ys = new float[n];
+				xs[0] = rnd.nextFloat() * width;
+				ys[0] = rnd.nextFloat() * height;
+				double dir = rnd.nextDouble() * Math.PI * 2;
+				for (int k = 1; k < n; k++) {
+					dir += (rnd.nextDouble() - 0.5) * 0.8;
+					float d = 20 + rnd.nextInt(60);
+					xs[k] = xs[k - 1] + (float) (Math.cos(dir) * d);
+					ys[k] = ys[k - 1] + (float) (Math.sin(dir) * d);
+				}
+				l.addPathBoxes(xs, ys, n, tw, th / 2, th / 2);
+				l.setMinDistance(80, 15);
+			}
+			labels.add(l);
+		}
+		LabelCollisionIndex index = new LabelCollisionIndex(-100, -100, width + 100, height + 100, 64);
+		int warmUp = 5;
+		int runs = 20;
+		List<Label> result = null;
+		for (int i = 0; i < warmUp; i++) {
+			index.clear();
+			index.placeAll(labels);
+		}
+		long time = System.nanoTime();
+		for (int i = 0; i < runs; i++) {
+			index.clear();
+			result = index.placeAll(labels);
+		}
+		double indexMs = (System.nanoTime() - time) / 1e6 / runs;
+		int tests = index.getBoxTests();
+
+		// brute force with single cell
+		LabelCollisionIndex brute = new LabelCollisionIndex(-100, -100, width + 100, height + 100, width + 200);
+		List<Label> bruteResult = null;
+		for (int i = 0; i < warmUp; i++) {
+			brute.clear();
+			brute.placeAll(labels);
+		}
+		time = System.nanoTime();
+		for (int i = 0; i < runs; i++) {
+			brute.clear();
+			bruteResult = brute.placeAll(labels);
+		}
+		double bruteMs = (System.nanoTime() - time) / 1e6 / runs;
+		System.out.println("Labels " + count + ", placed " + result.size() + ", same result " + result.equals(bruteResult));
+		System.out.println("Grid index " + indexMs + " ms (" + tests + " box tests), brute force " + bruteMs + " ms ("
+				+ brute.getBoxTests() + " box tests)");
+	}
+}
@@ -30,6 +30,19 @@ public class RenderingRuleSearchRequest {
 		saveState();
 	}
 
+	/**
+	 * Creates independent copy of request (with the same filters and saved state) that could be used in other thread
+	 */
+	public RenderingRuleSearchRequest(RenderingRuleSearchRequest searchRequest) {
+		this.storage = searchRequest.storage;
+		this.ALL = searchRequest.ALL;
+		this.props = searchRequest.props;
+		this.values = searchRequest.values.clone();
+		this.fvalues = searchRequest.fvalues.clone();
+		this.savedValues = searchRequest.savedValues.clone();
+		this.savedFvalues = searchRequest.savedFvalues.clone();
+	}
+
 	public void setStringFilter(RenderingRuleProperty p, String filter) {
 		assert p.isInputProperty();
 		values[p.getId()] = storage.getDictionaryValue(filter);
@@ -0,0 +1,244 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import net.osmand.LogUtil;
+import net.osmand.osm.LatLon;
+import net.osmand.osm.MapUtils;
+import net.osmand.router.RoutingGraph.GraphPoint;
+import net.osmand.router.RoutingGraph.Search;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Calculates several different routes between two points (plateau method).
+ * Forward search tree from start and reverse search tree from end are built once, plateau is
+ * a chain of nodes where both trees go the same way. Every plateau defines route
+ * (start -> plateau by forward tree, plateau, plateau -> end by reverse tree), the best route is
+ * a plateau itself. Alternatives are chosen among plateaus by time, plateau length and
+ * sharing with already chosen routes, all alternatives are taken from the same two trees.
+ */
+public class AlternativeRoutesCalculator {
+	private static final Log log = LogUtil.getLog(AlternativeRoutesCalculator.class);
+
+	// alternative could be longer than the best route at most by that factor
+	private double maxStretch = 1.4;
+	// minimal plateau time relative to the best route time
+	private double minPlateau = 0.2;
+	// maximum time shared with already chosen routes relative to alternative time
+	private double maxSharing = 0.6;
+
+	private final RoutingGraph graph;
+	private final Search forward;
+	private final Search reverse;
+
+	public static class AlternativeRoute {
+		private final int[] nodes;
+		// time from start at every node
+		private final double[] nodeTimes;
+		private final double time;
+		private final double distance;
+		private final double plateauTime;
+
+		AlternativeRoute(int[] nodes, double[] nodeTimes, double time, double distance, double plateauTime) {
+			this.nodes = nodes;
+			this.nodeTimes = nodeTimes;
+			this.time = time;
+			this.distance = distance;
+			this.plateauTime = plateauTime;
+		}
+
+		/**
+		 * Graph nodes of route
+		 */
+		public int[] getNodes() {
+			return nodes;
+		}
+
+		public double getTime() {
+			return time;
+		}
+
+		public double getDistance() {
+			return distance;
+		}
+
+		public double getPlateauTime() {
+			return plateauTime;
+		}
+	}
+
+	public AlternativeRoutesCalculator(RoutingGraph graph) {
+		this.graph = graph;
+		this.forward = graph.new Search(false);
+		this.reverse = graph.new Search(true);
+	}
+
+	public void setMaxStretch(double maxStretch) {
+		this.maxStretch = maxStretch;
+	}
+
+	public void setMinPlateau(double minPlateau) {
+		this.minPlateau = minPlateau;
+	}
+
+	public void setMaxSharing(double maxSharing) {
+		this.maxSharing = maxSharing;
+	}
+
+	public List<AlternativeRoute> calculate(LatLon start, LatLon end, int maxRoutes) {
+		GraphPoint s = graph.findNearest(MapUtils.get31TileNumberX(start.getLongitude()), MapUtils.get31TileNumberY(start.getLatitude()));
+		GraphPoint e = graph.findNearest(MapUtils.get31TileNumberX(end.getLongitude()), MapUtils.get31TileNumberY(end.getLatitude()));
+		if (s == null || e == null) {
+			return Collections.emptyList();
+		}
+		return calculate(s, e, maxRoutes);
+	}
+
+	/**
+	 * @return the best route and up to maxRoutes - 1 alternatives (empty if end is not reachable)
+	 */
+	public List<AlternativeRoute> calculate(GraphPoint start, GraphPoint end, int maxRoutes) {
+		long now = System.currentTimeMillis();
+		forward.reset();
+		forward.addStart(start, 0, 0);
+		forward.run(new int[] { end.node, end.node + 1 }, Double.POSITIVE_INFINITY);
+		double best = forward.getTime(end);
+		if (Double.isInfinite(best)) {
+			return Collections.emptyList();
+		}
+		double limit = best * maxStretch;
+		// continue forward tree and build reverse tree within limit
+		forward.run(null, limit);
+		reverse.reset();
+		reverse.addStart(end, 0, 0);
+		reverse.run(null, limit);
+
+		List<AlternativeRoute> candidates = findPlateaus(limit, minPlateau * best);
+		Collections.sort(candidates, new Comparator<AlternativeRoute>() {
+			@Override
+			public int compare(AlternativeRoute o1, AlternativeRoute o2) {
+				// the best route has the whole route as plateau
+				return Double.compare(o1.time - o1.plateauTime, o2.time - o2.plateauTime);
+			}
+		});
+		List<AlternativeRoute> result = new ArrayList<AlternativeRoute>();
+		TLongHashSet chosenPoints = new TLongHashSet();
+		for (AlternativeRoute r : candidates) {
+			if (result.size() >= maxRoutes) {
+				break;
+			}
+			if (!result.isEmpty()) {
+				if (sharedTime(r, chosenPoints) > maxSharing * r.time) {
+					continue;
+				}
+			}
+			result.add(r);
+			for (int n : r.nodes) {
+				chosenPoints.add(pointKey(n));
+			}
+		}
+		log.info("Routes " + result.size() + " of " + candidates.size() + " plateaus are calculated in " //$NON-NLS-1$ //$NON-NLS-2$
+				+ (System.currentTimeMillis() - now) + " ms"); //$NON-NLS-1$
+		return result;
+	}
+
+	private List<AlternativeRoute> findPlateaus(double limit, double minPlateauTime) {
+		List<AlternativeRoute> plateaus = new ArrayList<AlternativeRoute>();
+		TIntArrayList reached = forward.getReachedNodes();
+		for (int i = 0; i < reached.size(); i++) {
+			int u = reached.get(i);
+			if (!isPlateauNode(u, limit) || isPlateauEdge(forward.getParent(u), u)) {
+				continue;
+			}
+			// u is the first node of plateau : go by reverse tree while it is the same as forward tree
+			int w = u;
+			int next = reverse.getParent(w);
+			while (next != -1 && isPlateauEdge(w, next)) {
+				w = next;
+				next = reverse.getParent(w);
+			}
+			double plateauTime = forward.getTime(w) - forward.getTime(u);
+			double time = forward.getTime(w) + reverse.getTime(w);
+			if (time > limit || plateauTime < minPlateauTime) {
+				continue;
+			}
+			plateaus.add(buildRoute(u, w, time, forward.getDistance(w) + reverse.getDistance(w), plateauTime));
+		}
+		return plateaus;
+	}
+
+	private boolean isPlateauNode(int n, double limit) {
+		return forward.isSettled(n) && reverse.isSettled(n) && forward.getTime(n) + reverse.getTime(n) <= limit;
+	}
+
+	private boolean isPlateauEdge(int from, int to) {
+		return from != -1 && to != -1 && forward.isSettled(to) && reverse.isSettled(from) && forward.getParent(to) == from
+				&& reverse.getParent(from) == to;
+	}
+
+	private AlternativeRoute buildRoute(int u, int w, double time, double distance, double plateauTime) {
+		TIntArrayList path = new TIntArrayList();
+		for (int n = u; n != -1; n = forward.getParent(n)) {
+			path.add(n);
+		}
+		path.reverse();
+		int forwardPart = path.size();
+		for (int n = reverse.getParent(u); n != -1; n = reverse.getParent(n)) {
+			path.add(n);
+		}
+		double[] times = new double[path.size()];
+		for (int i = 0; i < times.length; i++) {
+			times[i] = i < forwardPart ? forward.getTime(path.get(i)) : time - reverse.getTime(path.get(i));
+		}
+		return new AlternativeRoute(path.toArray(), times, time, distance, plateauTime);
+	}
+
+	// junction has one node for every road, so routes are compared by locations
+	private long pointKey(int node) {
+		return (((long) graph.getX(node)) << 31) + graph.getY(node);
+	}
+
+	private double sharedTime(AlternativeRoute r, TLongHashSet chosenPoints) {
+		double shared = 0;
+		for (int i = 1; i < r.nodes.length; i++) {
+			if (chosenPoints.contains(pointKey(r.nodes[i - 1])) && chosenPoints.contains(pointKey(r.nodes[i]))) {
+				shared += r.nodeTimes[i] - r.nodeTimes[i - 1];
+			}
+		}
+		return shared;
+	}
+
+	/**
+	 * Converts route to segments of roads (the same form as result of BinaryRoutePlanner)
+	 */
+	public List<RouteSegmentResult> toSegmentResults(AlternativeRoute route) {
+		List<RouteSegmentResult> res = new ArrayList<RouteSegmentResult>();
+		int[] nodes = route.nodes;
+		int i = 0;
+		while (i < nodes.length) {
+			int j = i;
+			while (j + 1 < nodes.length && graph.getRoad(nodes[j + 1]) == graph.getRoad(nodes[i])
+					&& Math.abs(graph.getPointIndex(nodes[j + 1]) - graph.getPointIndex(nodes[j])) == 1) {
+				j++;
+			}
+			if (j > i) {
+				RouteSegmentResult r = new RouteSegmentResult();
+				r.object = graph.getRoad(nodes[i]);
+				r.startPointIndex = graph.getPointIndex(nodes[i]);
+				r.endPointIndex = graph.getPointIndex(nodes[j]);
+				r.startPoint = new LatLon(MapUtils.get31LatitudeY(graph.getY(nodes[i])), MapUtils.get31LongitudeX(graph.getX(nodes[i])));
+				r.endPoint = new LatLon(MapUtils.get31LatitudeY(graph.getY(nodes[j])), MapUtils.get31LongitudeX(graph.getX(nodes[j])));
+				res.add(r);
+			}
+			i = j + 1;
+		}
+		return res;
+	}
+}
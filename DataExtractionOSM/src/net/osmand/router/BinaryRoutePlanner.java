@@ -9,8 +9,11 @@ import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.Random;
 
 import net.osmand.LogUtil;
 import net.osmand.binary.BinaryMapDataObject;
@@ -40,7 +43,7 @@ public class BinaryRoutePlanner {
 	}
 	
 	
-	private static double squareRootDist(int x1, int y1, int x2, int y2) {
+	static double squareRootDist(int x1, int y1, int x2, int y2) {
 		// translate into meters 
 		double dy = convert31YToMeters(y1, y2);
 		double dx = convert31XToMeters(x1, x2);
@@ -79,19 +82,8 @@ public class BinaryRoutePlanner {
 			@Override
 			public boolean accept(TIntArrayList types, MapIndex index) {
 				for (int j = 0; j < types.size(); j++) {
-					int wholeType = types.get(j);
-					TagValuePair pair = index.decodeType(wholeType);
-					if (pair != null) {
-						int t = wholeType & 3;
-						if(t == MapRenderingTypes.POINT_TYPE){
-							if(ctx.getRouter().acceptPoint(pair)){
-								return true;
-							}
-						} else if(t == MapRenderingTypes.POLYLINE_TYPE){
-							if(ctx.getRouter().acceptLine(pair)){
-								return true;
-							}
-						}
+					if (ctx.getRouter().acceptType(index, types.get(j))) {
+						return true;
 					}
 				}
 				return false;
@@ -101,7 +93,11 @@ public class BinaryRoutePlanner {
 				(tileX + 1) << zoomToLoad, tileY << zoomToLoad, 
 				(tileY + 1) << zoomToLoad, 15, searchFilter);
 		for (BinaryMapIndexReader r : map) {
-			r.searchMapIndex(request);
+			if (r.containsRouteData()) {
+				r.searchRouteIndex(request);
+			} else {
+				r.searchMapIndex(request);
+			}
 			for (BinaryMapDataObject o : request.getSearchResults()) {
 				BinaryMapDataObject old = ctx.idObjects.get(o.getId());
 				// sometimes way are presented only partially in one index
@@ -223,9 +219,16 @@ public class BinaryRoutePlanner {
 		PriorityQueue<RouteSegment> graphDirectSegments = new PriorityQueue<RouteSegment>(50, segmentsComparator);
 		PriorityQueue<RouteSegment> graphReverseSegments = new PriorityQueue<RouteSegment>(50, segmentsComparator);
 		
+		// rerouting to the same target : only forward search till backward tree of previous search
+		long targetKey = (end.road.getId() << 8l) + end.segmentStart;
+		boolean reuseTargetTree = ctx.isIncrementalRerouting() && ctx.targetTree != null && ctx.targetKey == targetKey;
+		if (ctx.isIncrementalRerouting()) {
+			ctx.resetSearchState();
+		}
+		
 		// Set to not visit one segment twice (stores road.id << X + segmentStart)
 		TLongObjectHashMap<RouteSegment> visitedDirectSegments = new TLongObjectHashMap<RouteSegment>();
-		TLongObjectHashMap<RouteSegment> visitedOppositeSegments = new TLongObjectHashMap<RouteSegment>();
+		TLongObjectHashMap<RouteSegment> visitedOppositeSegments = reuseTargetTree ? ctx.targetTree : new TLongObjectHashMap<RouteSegment>();
 		
 		int targetEndX = end.road.getPoint31XTile(end.segmentStart);
 		int targetEndY = end.road.getPoint31YTile(end.segmentStart);
@@ -239,11 +242,16 @@ public class BinaryRoutePlanner {
 		// it matters when start point is intersection of different roads
 		// add start segment to priority queue
 		visitAllStartSegments(ctx, start, graphDirectSegments, visitedDirectSegments, startX, startY);
-		visitAllStartSegments(ctx, end, graphReverseSegments, visitedOppositeSegments, targetEndX, targetEndY);
+		if (!reuseTargetTree) {
+			visitAllStartSegments(ctx, end, graphReverseSegments, visitedOppositeSegments, targetEndX, targetEndY);
+		}
 		
 		// final segment before end
 		RouteSegment finalDirectRoute = null;
 		RouteSegment finalReverseRoute = null;
+		// the best meeting point with the stored tree (first contact is often not the best one)
+		TreeContact contact = reuseTargetTree ? new TreeContact() : null;
+		boolean treeBoundExceeded = false;
 		
 		// Extract & analyze segment with min(f(x)) from queue while final segment is not found
 		boolean inverse = false;
@@ -259,7 +267,7 @@ public class BinaryRoutePlanner {
 			}
 			if (!inverse) {
 				RoutePair pair = processRouteSegment(ctx, end, false, graphDirectSegments, visitedDirectSegments, targetEndX,
-						targetEndY, segment, visitedOppositeSegments);
+						targetEndY, segment, visitedOppositeSegments, contact);
 				if (pair != null) {
 					finalDirectRoute = pair.a;
 					finalReverseRoute = pair.b;
@@ -267,17 +275,32 @@ public class BinaryRoutePlanner {
 				}
 			} else {
 				RoutePair pair = processRouteSegment(ctx, start, true, graphReverseSegments, visitedOppositeSegments, startX,
-						startY, segment, visitedDirectSegments);
+						startY, segment, visitedDirectSegments, null);
 				if (pair != null) {
 					finalReverseRoute = pair.a;
 					finalDirectRoute = pair.b;
 					break;
 				}
 			}
-			if(graphReverseSegments.isEmpty() || graphDirectSegments.isEmpty()){
+			if(reuseTargetTree){
+				// backward tree is complete
+				if(graphDirectSegments.isEmpty()){
+					break;
+				}
+				// route through any queued segment is not faster than f(x) of that segment
+				RouteSegment top = graphDirectSegments.peek();
+				if (contact.direct != null && ctx.roadPriorityComparator(top.distanceFromStart, top.distanceToEnd, contact.cost, 0) >= 0) {
+					break;
+				}
+				// rerouting costs more than twice the search that built the tree
+				if (ctx.visitedSegments > 2 * ctx.targetTreeVisitedSegments) {
+					treeBoundExceeded = true;
+					break;
+				}
+				inverse = false;
+			} else if(graphReverseSegments.isEmpty() || graphDirectSegments.isEmpty()){
 				break;
-			}
-			if(ctx.planRouteIn2Directions()){
+			} else if(ctx.planRouteIn2Directions()){
 				inverse = nonHeuristicSegmentsComparator.compare(graphDirectSegments.peek(), graphReverseSegments.peek()) > 0;
 				if (graphDirectSegments.size() * 1.3 > graphReverseSegments.size()) {
 					inverse = true;
@@ -294,12 +317,142 @@ public class BinaryRoutePlanner {
 		}
 		
 		
+		if (reuseTargetTree) {
+			if (contact.direct == null || treeBoundExceeded) {
+				// previous tree is not reachable from new start (or the best meeting point is too far)
+				log.info("Incremental rerouting failed, calculate whole route"); //$NON-NLS-1$
+				ctx.clearTargetTree();
+				int visitedSegments = ctx.visitedSegments;
+				List<RouteSegmentResult> result = searchRoute(ctx, start, end);
+				ctx.visitedSegments += visitedSegments;
+				return result;
+			}
+			finalDirectRoute = contact.direct;
+			finalDirectRoute.segmentEnd = contact.directEnd;
+			finalReverseRoute = contact.reverse;
+			finalReverseRoute.segmentEnd = contact.reverseEnd;
+		}
+		if (ctx.isIncrementalRerouting()) {
+			saveTargetTree(ctx, targetKey, finalDirectRoute, finalReverseRoute, visitedOppositeSegments, reuseTargetTree);
+		}
+		
 		// 4. Route is found : collect all segments and prepare result
 		return prepareResult(ctx, start, end, startNanoTime, finalDirectRoute, finalReverseRoute);
 		
 	}
 
 
+	/**
+	 * Saves backward tree to the target as copies of segments : all segments of backward search 
+	 * and found route (direct part is turned to lead to the target).
+	 * Every segment keeps time to the target from its segmentStart in distanceFromStart.
+	 */
+	private void saveTargetTree(RoutingContext ctx, long targetKey, RouteSegment finalDirectRoute, RouteSegment finalReverseRoute,
+			TLongObjectHashMap<RouteSegment> visitedOppositeSegments, boolean reused) {
+		if (finalDirectRoute == null || finalReverseRoute == null) {
+			ctx.clearTargetTree();
+			return;
+		}
+		TLongObjectHashMap<RouteSegment> tree;
+		Map<RouteSegment, RouteSegment> copies = new IdentityHashMap<RouteSegment, RouteSegment>();
+		RouteSegment parent;
+		if (reused) {
+			// segments are already copies
+			tree = visitedOppositeSegments;
+			parent = finalReverseRoute;
+		} else {
+			tree = new TLongObjectHashMap<RouteSegment>();
+			for (long key : visitedOppositeSegments.keys()) {
+				RouteSegment s = visitedOppositeSegments.get(key);
+				if (s != null) {
+					tree.put(key, copyTreeSegment(s, copies));
+				}
+			}
+			parent = copyTreeSegment(finalReverseRoute, copies);
+			ctx.targetTreeVisitedSegments = ctx.visitedSegments;
+		}
+		int parentEntry = finalReverseRoute.segmentEnd;
+		RouteSegment segment = finalDirectRoute;
+		int exit = segment.segmentEnd;
+		while (segment != null) {
+			RouteSegment n = new RouteSegment();
+			n.road = segment.road;
+			n.segmentStart = exit;
+			n.segmentEnd = exit;
+			n.parentRoute = parent;
+			n.parentSegmentEnd = parentEntry;
+			n.distanceFromStart = timeToTarget(ctx, parent, parentEntry);
+			int d = segment.segmentStart <= exit ? 1 : -1;
+			for (int i = segment.segmentStart; ; i += d) {
+				tree.put((segment.road.getId() << 8l) + i, n);
+				if (i == exit) {
+					break;
+				}
+			}
+			parent = n;
+			parentEntry = segment.segmentStart;
+			exit = segment.parentSegmentEnd;
+			segment = segment.parentRoute;
+		}
+		ctx.targetTree = tree;
+		ctx.targetKey = targetKey;
+	}
+	
+	/**
+	 * @return time from point of tree segment to the target 
+	 */
+	private double timeToTarget(RoutingContext ctx, RouteSegment treeSegment, int point) {
+		BinaryMapDataObject road = treeSegment.road;
+		double dist = squareRootDist(road.getPoint31XTile(point), road.getPoint31YTile(point),
+				road.getPoint31XTile(treeSegment.segmentStart), road.getPoint31YTile(treeSegment.segmentStart));
+		// speed of backward search
+		return treeSegment.distanceFromStart + dist / defineSpeed(ctx, road, 0);
+	}
+	
+	private double defineSpeed(RoutingContext ctx, BinaryMapDataObject road, double time) {
+		double speed = ctx.getRouter().defineSpeed(road, time);
+		if (speed == 0) {
+			speed = ctx.getRouter().getMinDefaultSpeed();
+		}
+		return speed;
+	}
+	
+	private static boolean isAncestor(RouteSegment ancestor, RouteSegment s) {
+		for (RouteSegment p = s.parentRoute; p != null; p = p.parentRoute) {
+			if (p == ancestor) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private RouteSegment copyTreeSegment(RouteSegment s, Map<RouteSegment, RouteSegment> copies) {
+		// copy chain of parents till already copied segment
+		List<RouteSegment> chain = new ArrayList<RouteSegment>();
+		RouteSegment p = s;
+		while (p != null && !copies.containsKey(p)) {
+			// search could leave cycle in parents
+			copies.put(p, null);
+			chain.add(p);
+			p = p.parentRoute;
+		}
+		RouteSegment parent = p == null ? null : copies.get(p);
+		for (int i = chain.size() - 1; i >= 0; i--) {
+			RouteSegment o = chain.get(i);
+			RouteSegment c = new RouteSegment();
+			c.road = o.road;
+			c.segmentStart = o.segmentStart;
+			c.segmentEnd = o.segmentEnd;
+			c.parentSegmentEnd = o.parentSegmentEnd;
+			c.distanceFromStart = o.distanceFromStart;
+			c.timeFromStart = o.timeFromStart;
+			c.parentRoute = parent;
+			copies.put(o, c);
+			parent = c;
+		}
+		return copies.get(s);
+	}
+
 	private double h(final RoutingContext ctx, int targetEndX, int targetEndY,
 			int startX, int startY) {
 		double distance = squareRootDist(startX, startY, targetEndX, targetEndY);
@@ -328,6 +481,18 @@ public class BinaryRoutePlanner {
 		return result;
 	}
 
+	/**
+	 * Real time of g(x) : speed without priority of road
+	 */
+	private double time(RoutingContext ctx, double distOnRoadToPass,
+			RouteSegment segment, int segmentEnd, double obstaclesTime,
+			RouteSegment next, double speed) {
+		double priority = ctx.getRouter().defineSpeedPriority(segment.road);
+		double realSpeed = priority > 0 ? speed / priority : speed;
+		return segment.timeFromStart + distOnRoadToPass / realSpeed
+				+ ctx.getRouter().calculateTurnTime(segment, next, segmentEnd) + obstaclesTime;
+	}
+	
 	private void visitAllStartSegments(final RoutingContext ctx, RouteSegment start, PriorityQueue<RouteSegment> graphDirectSegments,
 			TLongObjectHashMap<RouteSegment> visitedSegments, int startX, int startY) throws IOException {
 		// mark as visited code seems to be duplicated
@@ -355,7 +520,7 @@ public class BinaryRoutePlanner {
 
 	private RoutePair processRouteSegment(final RoutingContext ctx, RouteSegment end, boolean reverseWaySearch,
 			PriorityQueue<RouteSegment> graphSegments, TLongObjectHashMap<RouteSegment> visitedSegments, int targetEndX, int targetEndY,
-            RouteSegment segment, TLongObjectHashMap<RouteSegment> oppositeSegments) throws IOException {
+            RouteSegment segment, TLongObjectHashMap<RouteSegment> oppositeSegments, TreeContact contact) throws IOException {
 		// Always start from segmentStart (!), not from segmentEnd
 		// It makes difference only for the first start segment
 		// Middle point will always be skipped from observation considering already visited
@@ -368,7 +533,12 @@ public class BinaryRoutePlanner {
 		long nt = (road.getId() << 8l) + middle;
 		// avoid empty segments to connect but mark the point as visited
 		visitedSegments.put(nt, null);
-		if (oppositeSegments.contains(nt) && oppositeSegments.get(nt) != null) {
+		if (contact != null) {
+			RouteSegment opposite = oppositeSegments.get(nt);
+			if (opposite != null) {
+				contact.offer(segment, middle, segment.distanceFromStart, opposite, middle, timeToTarget(ctx, opposite, middle));
+			}
+		} else if (oppositeSegments.contains(nt) && oppositeSegments.get(nt) != null) {
 			segment.segmentEnd = middle;
 			RouteSegment opposite = oppositeSegments.get(nt);
 			opposite.segmentEnd = middle;
@@ -409,7 +579,16 @@ public class BinaryRoutePlanner {
 
 			// if we found end point break cycle
 			long nts = (road.getId() << 8l) + segmentEnd;
-			if (oppositeSegments.contains(nts) && oppositeSegments.get(nt) != null) {
+			int x = road.getPoint31XTile(segmentEnd);
+			int y = road.getPoint31YTile(segmentEnd);
+			if (contact != null) {
+				RouteSegment opposite = oppositeSegments.get(nts);
+				if (opposite != null) {
+					double time = segment.distanceFromStart + squareRootDist(x, y, middlex, middley)
+							/ defineSpeed(ctx, road, segment.timeFromStart);
+					contact.offer(segment, segmentEnd, time, opposite, segmentEnd, timeToTarget(ctx, opposite, segmentEnd));
+				}
+			} else if (oppositeSegments.contains(nts) && oppositeSegments.get(nt) != null) {
 				segment.segmentEnd = segmentEnd;
 				RouteSegment opposite = oppositeSegments.get(nts);
 				opposite.segmentEnd = segmentEnd;
@@ -418,8 +597,6 @@ public class BinaryRoutePlanner {
 			visitedSegments.put(nts, segment);
 
 			// 2. calculate point and try to load neighbor ways if they are not loaded
-			int x = road.getPoint31XTile(segmentEnd);
-			int y = road.getPoint31YTile(segmentEnd);
 			loadRoutes(ctx, (x >> (31 - ctx.getZoomToLoadTileWithRoads())), (y >> (31 - ctx.getZoomToLoadTileWithRoads())));
 			long l = (((long) x) << 31) + (long) y;
 			RouteSegment next = ctx.routes.get(l);
@@ -430,7 +607,7 @@ public class BinaryRoutePlanner {
 				double distToFinalPoint = squareRootDist(x, y, targetEndX, targetEndY);
 				RouteSegment foundIntersection = processIntersectionsWithWays(ctx, graphSegments, visitedSegments, oppositeSegments,
 						distOnRoadToPass, distToFinalPoint, segment, road,
-						d == 0, segmentEnd, next, reverseWaySearch);
+						d == 0, segmentEnd, next, reverseWaySearch, contact);
 				if(foundIntersection != null){
 					segment.segmentEnd = segmentEnd;
 					return new RoutePair(segment, foundIntersection);
@@ -446,7 +623,7 @@ public class BinaryRoutePlanner {
 			TLongObjectHashMap<RouteSegment> visitedSegments, TLongObjectHashMap<RouteSegment> oppositeSegments,  
 			double distOnRoadToPass, double distToFinalPoint, 
 			RouteSegment segment, BinaryMapDataObject road, boolean firstOfSegment, int segmentEnd, RouteSegment inputNext,
-			boolean reverseWay) {
+			boolean reverseWay, TreeContact contact) {
 
 		// This variables can be in routing context
 		// initialize temporary lists to calculate not forbidden ways at way intersections
@@ -484,7 +661,8 @@ public class BinaryRoutePlanner {
 			/* next.road.getId() >> 1 (3) != road.getId() >> 1 (3) - used that line for debug with osm map */
 			// road.id could be equal on roundabout, but we should accept them
 			boolean alreadyVisited = visitedSegments.contains(nts);
-			if ((!alreadyVisited && processRoad) || oppositeConnectionFound) {
+			boolean expand = !alreadyVisited && processRoad;
+			if (expand || oppositeConnectionFound) {
 				int type = -1;
 				if (!reverseWay) {
 					for (int i = 0; i < road.getRestrictionCount(); i++) {
@@ -523,7 +701,7 @@ public class BinaryRoutePlanner {
 					// next = next.next; continue;
 				} else {
 					// no restriction can go out
-					if(oppositeConnectionFound){
+					if(oppositeConnectionFound && contact == null){
 						RouteSegment oppSegment = oppositeSegments.get(nts);
 						oppSegment.segmentEnd = next.segmentStart;
 						return oppSegment;
@@ -533,18 +711,27 @@ public class BinaryRoutePlanner {
 
 					// Using A* routing algorithm
 					// g(x) - calculate distance to that point and calculate time
-					double speed = ctx.getRouter().defineSpeed(road);
+					// departure time is used for reverse search (arrival time is not known)
+					double speed = ctx.getRouter().defineSpeed(road, reverseWay ? 0 : segment.timeFromStart);
 					if (speed == 0) {
 						speed = ctx.getRouter().getMinDefaultSpeed();
 					}
 
 					double distanceFromStart = g(ctx, distOnRoadToPass, segment, segmentEnd, obstaclesTime, next, speed);
+					double timeFromStart = time(ctx, distOnRoadToPass, segment, segmentEnd, obstaclesTime, next, speed);
+					if (oppositeConnectionFound) {
+						// search continues to find better meeting point
+						RouteSegment oppSegment = oppositeSegments.get(nts);
+						contact.offer(segment, segmentEnd, distanceFromStart, oppSegment, next.segmentStart,
+								timeToTarget(ctx, oppSegment, next.segmentStart));
+					}
 
 					// segment.getRoad().getId() >> 1
-					if (next.parentRoute == null
-							|| ctx.roadPriorityComparator(next.distanceFromStart, next.distanceToEnd, distanceFromStart, distanceToEnd) > 0) {
+					if (expand && (next.parentRoute == null
+							|| ctx.roadPriorityComparator(next.distanceFromStart, next.distanceToEnd, distanceFromStart, distanceToEnd) > 0)) {
 						next.distanceFromStart = distanceFromStart;
 						next.distanceToEnd = distanceToEnd;
+						next.timeFromStart = timeFromStart;
 						if (next.parentRoute != null) {
 							// already in queue remove it
 							graphSegments.remove(next);
@@ -576,31 +763,38 @@ public class BinaryRoutePlanner {
 				if (segment.distanceFromStart < next.distanceFromStart) {
 					// Using A* routing algorithm
 					// g(x) - calculate distance to that point and calculate time
-					double speed = ctx.getRouter().defineSpeed(road);
+					double speed = ctx.getRouter().defineSpeed(road, reverseWay ? 0 : segment.timeFromStart);
 					if (speed == 0) {
 						speed = ctx.getRouter().getMinDefaultSpeed();
 					}
-					next.distanceFromStart = g(ctx, distOnRoadToPass, segment, segmentEnd, obstaclesTime, next, speed);
-					//TODO calculate also the H heuristic, if this segment is in priority queue
-					final RouteSegment findAndReplace = next.parentRoute;
-					final RouteSegment actual = segment;
-					final int theend = next.parentSegmentEnd;
-					next.parentRoute = segment;
-					next.parentSegmentEnd = segment.road.getPointsLength()-1; //TODO I don't understand yet the segments correctly, this might be not correct
-					//REPLACE all that are branches of the next.parentRoute, because better way was found.
-					//TODO check which segments are in priority queue and update it. Probably, it can currently confuse the queue implementation!
-					//TODO all leaves of branches that exists from the updateSegment should be updated and leaves also updated in the priority queue
-					// --- this will speed up a little because the branches should be 'faster'
-					visitedSegments.forEachValue(new TObjectProcedure<BinaryRoutePlanner.RouteSegment>() {
-						@Override
-						public boolean execute(RouteSegment updateSegment) {
-							if (updateSegment != null && updateSegment.parentRoute == findAndReplace && updateSegment.parentSegmentEnd == theend && updateSegment != actual) {
-								updateSegment.parentRoute = actual;
-								updateSegment.parentSegmentEnd = actual.road.getPointsLength()-1; //TODO I don't understand yet the segments correctly, this might be not correct
+					double distanceFromStart = g(ctx, distOnRoadToPass, segment, segmentEnd, obstaclesTime, next, speed);
+					// only decrease of time : otherwise segment could be descendant of next (cycle of parents)
+					if (distanceFromStart < next.distanceFromStart) {
+						next.distanceFromStart = distanceFromStart;
+						next.timeFromStart = time(ctx, distOnRoadToPass, segment, segmentEnd, obstaclesTime, next, speed);
+						//TODO calculate also the H heuristic, if this segment is in priority queue
+						final RouteSegment findAndReplace = next.parentRoute;
+						final RouteSegment actual = segment;
+						final int theend = next.parentSegmentEnd;
+						final int actualEnd = segmentEnd;
+						next.parentRoute = segment;
+						next.parentSegmentEnd = segmentEnd;
+						//REPLACE all that are branches of the next.parentRoute, because better way was found.
+						//TODO check which segments are in priority queue and update it. Probably, it can currently confuse the queue implementation!
+						//TODO all leaves of branches that exists from the updateSegment should be updated and leaves also updated in the priority queue
+						// --- this will speed up a little because the branches should be 'faster'
+						visitedSegments.forEachValue(new TObjectProcedure<BinaryRoutePlanner.RouteSegment>() {
+							@Override
+							public boolean execute(RouteSegment updateSegment) {
+								if (updateSegment != null && updateSegment.parentRoute == findAndReplace && updateSegment.parentSegmentEnd == theend
+										&& updateSegment != actual && !isAncestor(updateSegment, actual)) {
+									updateSegment.parentRoute = actual;
+									updateSegment.parentSegmentEnd = actualEnd;
+								}
+								return false;
 							}
-							return false;
-						}
-					});
+						});
+					}
 				}
 			}
 			next = next.next;
@@ -621,21 +815,23 @@ public class BinaryRoutePlanner {
 	private List<RouteSegmentResult> prepareResult(RoutingContext ctx, RouteSegment start, RouteSegment end, long startNanoTime,
 			RouteSegment finalDirectRoute, RouteSegment finalReverseRoute) {
 		List<RouteSegmentResult> result = new ArrayList<RouteSegmentResult>();
+		RouteResultPipeline pipeline = ctx.getResultPipeline();
 		
-		RouteSegment segment = finalReverseRoute;
-		int parentSegmentStart = segment == null ? 0 : segment.segmentEnd; 
+		// direct part is backtracked from the end so it is pushed when it is collected 
+		RouteSegment segment = finalDirectRoute;
+		int parentSegmentEnd = segment == null ? 0 : segment.segmentEnd;
 		while(segment != null){
 			RouteSegmentResult res = new RouteSegmentResult();
 			res.object = segment.road;
-			res.endPointIndex = segment.segmentStart;
-			res.startPointIndex = parentSegmentStart;
-			parentSegmentStart = segment.parentSegmentEnd;
+			res.endPointIndex = parentSegmentEnd;
+			res.startPointIndex = segment.segmentStart;
+			parentSegmentEnd = segment.parentSegmentEnd;
+			
 			segment = segment.parentRoute;
 			// reverse start and end point for start if needed
 			// rely that point.segmentStart <= point.segmentEnd for end, start
-			if(segment == null && res.startPointIndex >= res.endPointIndex && 
-					res.endPointIndex < res.object.getPointsLength() - 1){
-				res.endPointIndex ++;
+			if(segment == null && res.startPointIndex < res.endPointIndex){
+				res.startPointIndex ++;
 			}
 			// do not add segments consists from 1 point
 			if(res.startPointIndex != res.endPointIndex) {
@@ -645,30 +841,41 @@ public class BinaryRoutePlanner {
 			res.endPoint = convertPoint(res.object, res.endPointIndex);
 		}
 		Collections.reverse(result);
+		if (pipeline != null) {
+			for (RouteSegmentResult res : result) {
+				pipeline.addSegment(res);
+			}
+		}
 		
-		segment = finalDirectRoute;
-		int parentSegmentEnd = segment == null ? 0 : segment.segmentEnd;
+		// reverse part is backtracked in route order
+		segment = finalReverseRoute;
+		int parentSegmentStart = segment == null ? 0 : segment.segmentEnd; 
 		while(segment != null){
 			RouteSegmentResult res = new RouteSegmentResult();
 			res.object = segment.road;
-			res.endPointIndex = parentSegmentEnd;
-			res.startPointIndex = segment.segmentStart;
-			parentSegmentEnd = segment.parentSegmentEnd;
-			
+			res.endPointIndex = segment.segmentStart;
+			res.startPointIndex = parentSegmentStart;
+			parentSegmentStart = segment.parentSegmentEnd;
 			segment = segment.parentRoute;
 			// reverse start and end point for start if needed
 			// rely that point.segmentStart <= point.segmentEnd for end, start
-			if(segment == null && res.startPointIndex < res.endPointIndex){
-				res.startPointIndex ++;
+			if(segment == null && res.startPointIndex >= res.endPointIndex && 
+					res.endPointIndex < res.object.getPointsLength() - 1){
+				res.endPointIndex ++;
 			}
 			// do not add segments consists from 1 point
+			res.startPoint = convertPoint(res.object, res.startPointIndex);
+			res.endPoint = convertPoint(res.object, res.endPointIndex);
 			if(res.startPointIndex != res.endPointIndex) {
 				result.add(res);
+				if (pipeline != null) {
+					pipeline.addSegment(res);
+				}
 			}
-			res.startPoint = convertPoint(res.object, res.startPointIndex);
-			res.endPoint = convertPoint(res.object, res.endPointIndex);
 		}
-		Collections.reverse(result);
+		if (pipeline != null) {
+			pipeline.finish();
+		}
 		
 		
 		if (PRINT_TO_CONSOLE_ROUTE_INFORMATION_TO_TEST) {
@@ -729,6 +936,8 @@ public class BinaryRoutePlanner {
 		// distance measured in time (seconds)
 		double distanceFromStart = 0;
 		double distanceToEnd = 0;
+		// real time (seconds) from start without priorities (to get observed speed of time)
+		double timeFromStart = 0;
 		
 		public RouteSegment getNext() {
 			return next;
@@ -743,6 +952,173 @@ public class BinaryRoutePlanner {
 		}
 	}
 
+	/**
+	 * Compares incremental rerouting with fresh search on a synthetic grid of roads :
+	 * start moves a few blocks after every route, target stays the same.
+	 * Prints how many reroutes are longer (by time) than route of fresh search.
+	 */
+	public static void main(String[] args) throws IOException {
+		int size = 30;
+		int step = 5000;
+		int x0 = 1100000000;
+		int y0 = 700000000;
+		BinaryRoutePlanner planner = new BinaryRoutePlanner();
+		Random rnd = new Random(7);
+		int reroutes = 0;
+		int longer = 0;
+		int muchLonger = 0;
+		int shorter = 0;
+		long visitedIncremental = 0;
+		long visitedFull = 0;
+		for (int t = 0; t < 20; t++) {
+			RoutingContext ctx = createTestGrid(size, step, x0, y0);
+			ctx.setIncrementalRerouting(true);
+			int ex = x0 + rnd.nextInt(size) * step;
+			int ey = y0 + rnd.nextInt(size) * step + 10;
+			int sx = rnd.nextInt(size);
+			int sy = rnd.nextInt(size);
+			for (int k = 0; k < 4; k++) {
+				if (k > 0) {
+					sx = Math.max(0, Math.min(size - 1, sx + rnd.nextInt(7) - 3));
+					sy = Math.max(0, Math.min(size - 1, sy + rnd.nextInt(7) - 3));
+				}
+				double lat = MapUtils.get31LatitudeY(y0 + sy * step + 10);
+				double lon = MapUtils.get31LongitudeX(x0 + sx * step);
+				List<RouteSegmentResult> incremental = planner.searchRoute(ctx, planner.findRouteSegment(lat, lon, ctx),
+						planner.findRouteSegment(MapUtils.get31LatitudeY(ey), MapUtils.get31LongitudeX(ex), ctx));
+				RoutingContext fresh = createTestGrid(size, step, x0, y0);
+				List<RouteSegmentResult> full = planner.searchRoute(fresh, planner.findRouteSegment(lat, lon, fresh),
+						planner.findRouteSegment(MapUtils.get31LatitudeY(ey), MapUtils.get31LongitudeX(ex), fresh));
+				if (k == 0) {
+					continue;
+				}
+				double ti = calculateTestTime(incremental, ctx.getRouter());
+				double tf = calculateTestTime(full, fresh.getRouter());
+				reroutes++;
+				visitedIncremental += ctx.visitedSegments;
+				visitedFull += fresh.visitedSegments;
+				if (ti > tf * 1.05) {
+					longer++;
+				}
+				if (ti > tf * 1.5) {
+					muchLonger++;
+				}
+				if (tf > ti * 1.05) {
+					shorter++;
+				}
+			}
+		}
+		System.out.println("Reroutes " + reroutes + ", longer by 5% " + longer + ", longer by 50% " + muchLonger + //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				", shorter by 5% " + shorter + ", visited segments " + visitedIncremental + " (fresh search " + visitedFull + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	}
+
+	private static class TestRoad extends BinaryMapDataObject {
+		TestRoad(long id, int[] coordinates) {
+			this.id = id;
+			this.coordinates = coordinates;
+		}
+	}
+
+	private static RoutingContext createTestGrid(int size, int step, int x0, int y0) {
+		RoutingContext ctx = new RoutingContext();
+		ctx.setRouter(new VehicleRouter() {
+			@Override
+			public boolean acceptLine(TagValuePair pair) {
+				return true;
+			}
+
+			@Override
+			public boolean acceptPoint(TagValuePair pair) {
+				return true;
+			}
+
+			@Override
+			public double defineSpeed(BinaryMapDataObject road) {
+				return road.getId() % 7 == 0 ? 20 : 10;
+			}
+
+			@Override
+			public double getMinDefaultSpeed() {
+				return 5;
+			}
+
+			@Override
+			public double getMaxDefaultSpeed() {
+				return 20;
+			}
+
+			@Override
+			public double calculateTurnTime(RouteSegment segment, RouteSegment next, int segmentEnd) {
+				return 2;
+			}
+
+			@Override
+			public boolean isOneWay(BinaryMapDataObject road) {
+				return false;
+			}
+		});
+		long id = 1;
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				int x = x0 + i * step;
+				int y = y0 + j * step;
+				if (i < size - 1) {
+					addTestRoad(ctx, new TestRoad(id++, new int[] { x, y, x + step / 2, y + 3, x + step, y }));
+				}
+				if (j < size - 1) {
+					addTestRoad(ctx, new TestRoad(id++, new int[] { x, y, x + 3, y + step / 2, x, y + step }));
+				}
+			}
+		}
+		return ctx;
+	}
+
+	private static void addTestRoad(RoutingContext ctx, BinaryMapDataObject road) {
+		ctx.idObjects.put(road.getId(), road);
+		for (int k = 0; k < road.getPointsLength(); k++) {
+			long l = (((long) road.getPoint31XTile(k)) << 31) + road.getPoint31YTile(k);
+			RouteSegment segment = new RouteSegment();
+			segment.road = road;
+			segment.segmentStart = k;
+			segment.segmentEnd = k;
+			segment.next = ctx.routes.get(l);
+			ctx.routes.put(l, segment);
+		}
+	}
+
+	private static double calculateTestTime(List<RouteSegmentResult> route, VehicleRouter router) {
+		double time = 0;
+		for (RouteSegmentResult s : route) {
+			int d = s.startPointIndex < s.endPointIndex ? 1 : -1;
+			for (int i = s.startPointIndex; i != s.endPointIndex; i += d) {
+				time += squareRootDist(s.object.getPoint31XTile(i), s.object.getPoint31YTile(i), s.object.getPoint31XTile(i + d),
+						s.object.getPoint31YTile(i + d)) / router.defineSpeed(s.object);
+			}
+		}
+		return time;
+	}
+
+	/**
+	 * The best found meeting point of forward search and stored tree to the target
+	 */
+	private static class TreeContact {
+		RouteSegment direct;
+		int directEnd;
+		RouteSegment reverse;
+		int reverseEnd;
+		double cost = Double.POSITIVE_INFINITY;
+
+		void offer(RouteSegment direct, int directEnd, double timeFromStart, RouteSegment reverse, int reverseEnd, double timeToTarget) {
+			if (timeFromStart + timeToTarget < cost) {
+				cost = timeFromStart + timeToTarget;
+				this.direct = direct;
+				this.directEnd = directEnd;
+				this.reverse = reverse;
+				this.reverseEnd = reverseEnd;
+			}
+		}
+	}
+
 	private static class RoutePair {
 		RouteSegment a;
 		RouteSegment b;
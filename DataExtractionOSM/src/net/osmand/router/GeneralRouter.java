@@ -0,0 +1,206 @@
+package net.osmand.router;
+
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+import net.osmand.binary.BinaryMapIndexReader.TagValuePair;
+import net.osmand.osm.MapRenderingTypes;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+import net.osmand.router.RoutingProfile.CompiledRules;
+import net.osmand.router.RoutingProfile.RoadRule;
+
+/**
+ * Router of xml routing profile (see {@link RoutingConfiguration}), it uses rules compiled by profile
+ * for map index of road, so values are looked up by type of road without decoding it.
+ * Router is light and could be created for every routing context, profile is shared.
+ */
+public class GeneralRouter extends VehicleRouter {
+
+	private final RoutingProfile profile;
+	// the last used rules (router is not thread safe : it is used by one thread, routing graph copies speeds)
+	private MapIndex lastIndex;
+	private CompiledRules lastRules;
+
+	public GeneralRouter(RoutingProfile profile) {
+		this.profile = profile;
+	}
+
+	public RoutingProfile getProfile() {
+		return profile;
+	}
+
+	private CompiledRules getRules(MapIndex index) {
+		if (index != lastIndex) {
+			lastRules = profile.getCompiledRules(index);
+			lastIndex = index;
+		}
+		return lastRules;
+	}
+
+	/**
+	 * @return key of rule of the first type of road or -1 if rules are not known
+	 */
+	private int getRoadKey(BinaryMapDataObject road, CompiledRules rules) {
+		int key = MapIndex.getRuleKey(road.getTypes()[0]);
+		return key < rules.accept.length ? key : -1;
+	}
+
+	@Override
+	public boolean acceptLine(TagValuePair pair) {
+		return profile.getRoadRule(pair) != null;
+	}
+
+	@Override
+	public boolean acceptPoint(TagValuePair pair) {
+		return profile.getPointRule(pair) != null;
+	}
+
+	@Override
+	public boolean acceptType(MapIndex index, int wholeType) {
+		CompiledRules rules = getRules(index);
+		int key = MapIndex.getRuleKey(wholeType);
+		if (key >= rules.accept.length) {
+			return false;
+		}
+		int t = wholeType & 3;
+		if (t == MapRenderingTypes.POINT_TYPE) {
+			return (rules.accept[key] & RoutingProfile.ACCEPT_POINT) != 0;
+		} else if (t == MapRenderingTypes.POLYLINE_TYPE) {
+			return (rules.accept[key] & RoutingProfile.ACCEPT_LINE) != 0;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean isOneWay(BinaryMapDataObject road) {
+		return profile.oneway && super.isOneWay(road);
+	}
+
+	private double getPriority(BinaryMapDataObject road) {
+		if (road.getMapIndex() == null) {
+			return profile.defaultPriority;
+		}
+		CompiledRules rules = getRules(road.getMapIndex());
+		int key = getRoadKey(road, rules);
+		return key < 0 ? profile.defaultPriority : rules.priority[key];
+	}
+
+	@Override
+	public double getRoadPriorityHeuristicToIncrease(BinaryMapDataObject road) {
+		float[] levels = profile.priorityLevels;
+		if (levels.length == 0) {
+			return 1;
+		}
+		double priority = getPriority(road);
+		for (float l : levels) {
+			if (priority >= l) {
+				return l;
+			}
+		}
+		return levels[levels.length - 1];
+	}
+
+	@Override
+	public double getRoadPriorityToCalculateRoute(BinaryMapDataObject road) {
+		// keep it in boundaries otherwise
+		// (it will use first founded exit for trunk even if it in another city and make Uturn there)
+		return Math.max(profile.minPriority, Math.min(profile.maxPriority, getPriority(road)));
+	}
+
+	@Override
+	public double defineObstacle(BinaryMapDataObject road, int point) {
+		if ((road.getTypes()[0] & 3) != MapRenderingTypes.POINT_TYPE || road.getMapIndex() == null) {
+			return 0;
+		}
+		CompiledRules rules = getRules(road.getMapIndex());
+		int key = getRoadKey(road, rules);
+		return key < 0 ? 0 : rules.obstacleTime[key];
+	}
+
+	@Override
+	public double defineSpeedPriority(BinaryMapDataObject road) {
+		return getPriority(road);
+	}
+
+	@Override
+	public double defineSpeed(BinaryMapDataObject road) {
+		double speed = 0;
+		if (profile.useMaxspeed) {
+			speed = MapRenderingTypes.getMaxSpeedIfDefined(road.getHighwayAttributes()) / 3.6d;
+		}
+		double priority = profile.defaultPriority;
+		if (road.getMapIndex() != null) {
+			CompiledRules rules = getRules(road.getMapIndex());
+			int key = getRoadKey(road, rules);
+			if (key >= 0) {
+				priority = rules.priority[key];
+				if (speed == 0) {
+					speed = rules.speed[key];
+				}
+			}
+		}
+		if (speed == 0) {
+			speed = profile.defaultSpeed;
+		}
+		return speed * priority;
+	}
+
+	@Override
+	public double getMinDefaultSpeed() {
+		return profile.minDefaultSpeed;
+	}
+
+	@Override
+	public double getMaxDefaultSpeed() {
+		return profile.maxDefaultSpeed;
+	}
+
+	@Override
+	public double calculateTurnTime(RouteSegment segment, RouteSegment next, int segmentEnd) {
+		boolean end = (segmentEnd == segment.road.getPointsLength() - 1 || segmentEnd == 0);
+		boolean start = next.segmentStart == 0
+				|| (!profile.freeTurnOnlyAtRoadStart && next.segmentStart == next.getRoad().getPointsLength() - 1);
+		if (end && start) {
+			// roads are connected by ends, count only sharp turns
+			if (profile.sharpTurnTime > 0 && next.road.getPointsLength() > 1) {
+				double a1 = directionRoute(segment, segmentEnd, false);
+				double a2 = directionRoute(next, next.segmentStart, true);
+				double diff = Math.abs(a1 - a2);
+				if (diff > Math.PI / 2 && diff < 3 * Math.PI / 2) {
+					return profile.sharpTurnTime;
+				}
+			}
+			return 0;
+		}
+		return profile.turnTime;
+	}
+
+	private double directionRoute(RouteSegment segment, int segmentEnd, boolean opp) {
+		boolean plus = segmentEnd == 0;
+		int x = segment.road.getPoint31XTile(segmentEnd);
+		int y = segment.road.getPoint31YTile(segmentEnd);
+		int nx = segmentEnd;
+		int px = x;
+		int py = y;
+		do {
+			if (plus) {
+				nx++;
+				if (nx >= segment.road.getPointsLength()) {
+					break;
+				}
+			} else {
+				nx--;
+				if (nx < 0) {
+					break;
+				}
+			}
+			px = segment.road.getPoint31XTile(nx);
+			py = segment.road.getPoint31YTile(nx);
+		} while (Math.abs(px - x) + Math.abs(py - y) < 100);
+
+		if (opp) {
+			return Math.atan2(py - y, px - x);
+		} else {
+			return Math.atan2(y - py, x - px);
+		}
+	}
+}
@@ -0,0 +1,421 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import net.osmand.LogUtil;
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.osm.LatLon;
+import net.osmand.osm.MapUtils;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Calculates areas reachable within given times (isochrones).
+ * Dijkstra search goes from start segment over roads loaded on demand (tiles are loaded only when
+ * search reaches them), costs are calculated by vehicle router of routing context.
+ * Search stops at the largest time so tiles that are not reachable are not loaded.
+ * Reachable parts of roads are rasterized into grid and contours of grid cells are returned
+ * as polygons for every time threshold (all thresholds are calculated from one search).
+ */
+public class IsochroneCalculator {
+	private static final Log log = LogUtil.getLog(IsochroneCalculator.class);
+
+	private final BinaryRoutePlanner planner;
+	// size of grid cell in meters (resolution of polygons)
+	private double cellSize = 150;
+
+	public static class Isochrone {
+		private final double time;
+		// rings of polygon (x31, y31 interleaved), holes have opposite orientation
+		private final List<int[]> rings = new ArrayList<int[]>();
+		private int reachedCells;
+
+		Isochrone(double time) {
+			this.time = time;
+		}
+
+		/**
+		 * @return time threshold in seconds
+		 */
+		public double getTime() {
+			return time;
+		}
+
+		public List<int[]> getRings() {
+			return rings;
+		}
+
+		public int getReachedCells() {
+			return reachedCells;
+		}
+
+		public List<LatLon> getRing(int i) {
+			int[] r = rings.get(i);
+			List<LatLon> res = new ArrayList<LatLon>(r.length / 2);
+			for (int k = 0; k < r.length; k += 2) {
+				res.add(new LatLon(MapUtils.get31LatitudeY(r[k + 1]), MapUtils.get31LongitudeX(r[k])));
+			}
+			return res;
+		}
+	}
+
+	private static class Label implements Comparable<Label> {
+		final RouteSegment segment;
+		final double time;
+		boolean settled;
+
+		Label(RouteSegment segment, double time) {
+			this.segment = segment;
+			this.time = time;
+		}
+
+		@Override
+		public int compareTo(Label o) {
+			return Double.compare(time, o.time);
+		}
+	}
+
+	public IsochroneCalculator(BinaryRoutePlanner planner) {
+		this.planner = planner;
+	}
+
+	public void setCellSize(double cellSize) {
+		this.cellSize = cellSize;
+	}
+
+	/**
+	 * Calculates isochrones from the nearest road to the point
+	 * @return isochrones in the same order as thresholds or null if there are no roads near
+	 */
+	public List<Isochrone> calculate(RoutingContext ctx, double lat, double lon, double... times) throws IOException {
+		RouteSegment start = planner.findRouteSegment(lat, lon, ctx);
+		if (start == null) {
+			return null;
+		}
+		return calculate(ctx, start, MapUtils.get31TileNumberX(lon), MapUtils.get31TileNumberY(lat), times);
+	}
+
+	/**
+	 * @param start - start segment (see BinaryRoutePlanner.findRouteSegment)
+	 * @param x31 - start point (it is projected on start segment)
+	 * @param times - thresholds in seconds
+	 * @return isochrones in the same order as thresholds
+	 */
+	public List<Isochrone> calculate(RoutingContext ctx, RouteSegment start, int x31, int y31, double... times) throws IOException {
+		long now = System.currentTimeMillis();
+		ctx.timeToLoad = 0;
+		double maxTime = 0;
+		for (double t : times) {
+			maxTime = Math.max(maxTime, t);
+		}
+		Map<RouteSegment, Label> labels = new HashMap<RouteSegment, Label>();
+		PriorityQueue<Label> queue = new PriorityQueue<Label>();
+		List<Label> settled = new ArrayList<Label>();
+		VehicleRouter router = ctx.getRouter();
+		// start point goes along segment to its ends (only forward for one way road)
+		BinaryMapDataObject startRoad = start.road;
+		int first = Math.min(start.segmentStart, start.segmentEnd);
+		int last = Math.max(start.segmentStart, start.segmentEnd);
+		int[] startPoint = project(startRoad, first, last, x31, y31);
+		boolean startOneway = router.isOneWay(startRoad);
+		double speed = getSpeed(router, startRoad);
+		addStart(ctx, startRoad, last, partDistance(startRoad, last, startPoint) / speed, labels, queue);
+		if (!startOneway) {
+			addStart(ctx, startRoad, first, partDistance(startRoad, first, startPoint) / speed, labels, queue);
+		}
+		while (!queue.isEmpty()) {
+			Label l = queue.poll();
+			if (l.settled || labels.get(l.segment) != l) {
+				continue;
+			}
+			if (l.time > maxTime) {
+				break;
+			}
+			l.settled = true;
+			settled.add(l);
+			BinaryMapDataObject road = l.segment.road;
+			int i = l.segment.segmentStart;
+			// 1. along the road
+			boolean oneway = router.isOneWay(road);
+			if (i + 1 < road.getPointsLength()) {
+				relax(ctx, labels, queue, road, i + 1, l.time + alongRoadTime(router, road, i, i + 1));
+			}
+			if (i > 0 && !oneway) {
+				relax(ctx, labels, queue, road, i - 1, l.time + alongRoadTime(router, road, i, i - 1));
+			}
+			// 2. turns to other roads
+			RouteSegment chain = ctx.routes.get(pointKey(road, i));
+			for (RouteSegment next = chain; next != null; next = next.next) {
+				// the same road is kept : closed ring connects its first and last points
+				if (next != l.segment && RoutingGraph.isTurnAllowed(road, next.road, chain)) {
+					double t = l.time + router.calculateTurnTime(l.segment, next, i);
+					update(labels, queue, next, t);
+				}
+			}
+		}
+		long searchTime = System.currentTimeMillis() - now;
+
+		List<Isochrone> result = new ArrayList<Isochrone>();
+		int sx = startPoint[0];
+		int sy = startPoint[1];
+		double lat = MapUtils.get31LatitudeY(sy);
+		double lon = MapUtils.get31LongitudeX(sx);
+		double metersPer31 = MapUtils.getDistance(lat, lon, lat, MapUtils.get31LongitudeX(sx + 1024)) / 1024;
+		int cell = Math.max(1, (int) (cellSize / metersPer31));
+		for (double t : times) {
+			TLongHashSet cells = rasterize(router, settled, t, cell);
+			cells.add(cellKey(sx / cell, sy / cell));
+			markReachable(cells, sx, sy, startRoad.getPoint31XTile(last), startRoad.getPoint31YTile(last),
+					partDistance(startRoad, last, startPoint) / speed, t, cell);
+			if (!startOneway) {
+				markReachable(cells, sx, sy, startRoad.getPoint31XTile(first), startRoad.getPoint31YTile(first),
+						partDistance(startRoad, first, startPoint) / speed, t, cell);
+			}
+			Isochrone iso = new Isochrone(t);
+			iso.reachedCells = cells.size();
+			traceContours(cells, cell, iso.rings);
+			result.add(iso);
+		}
+		log.info("Isochrones are calculated in " + (System.currentTimeMillis() - now) + " ms (search " + searchTime //$NON-NLS-1$ //$NON-NLS-2$
+				+ " ms, loading " + ctx.timeToLoad / 1000000 + " ms), loaded tiles " + ctx.loadedTiles.size() //$NON-NLS-1$ //$NON-NLS-2$
+				+ ", settled points " + settled.size()); //$NON-NLS-1$
+		return result;
+	}
+
+	private void addStart(RoutingContext ctx, BinaryMapDataObject road, int point, double time, Map<RouteSegment, Label> labels,
+			PriorityQueue<Label> queue) throws IOException {
+		RouteSegment s = findSegment(ctx, road, point);
+		if (s != null) {
+			update(labels, queue, s, time);
+		}
+	}
+
+	/**
+	 * @return projection of point on segment between points of road (x, y)
+	 */
+	private static int[] project(BinaryMapDataObject road, int from, int to, int x, int y) {
+		int ax = road.getPoint31XTile(from);
+		int ay = road.getPoint31YTile(from);
+		int bx = road.getPoint31XTile(to);
+		int by = road.getPoint31YTile(to);
+		double len2 = ((double) bx - ax) * (bx - ax) + ((double) by - ay) * (by - ay);
+		double t = len2 == 0 ? 0 : (((double) x - ax) * (bx - ax) + ((double) y - ay) * (by - ay)) / len2;
+		t = Math.max(0, Math.min(1, t));
+		return new int[] { (int) (ax + t * (bx - ax)), (int) (ay + t * (by - ay)) };
+	}
+
+	private static double partDistance(BinaryMapDataObject road, int point, int[] p) {
+		return BinaryRoutePlanner.squareRootDist(p[0], p[1], road.getPoint31XTile(point), road.getPoint31YTile(point));
+	}
+
+	private static double getSpeed(VehicleRouter router, BinaryMapDataObject road) {
+		double speed = router.defineSpeed(road);
+		return speed == 0 ? router.getMinDefaultSpeed() : speed;
+	}
+
+	private void relax(RoutingContext ctx, Map<RouteSegment, Label> labels, PriorityQueue<Label> queue, BinaryMapDataObject road,
+			int point, double time) throws IOException {
+		RouteSegment s = findSegment(ctx, road, point);
+		if (s != null) {
+			update(labels, queue, s, time);
+		}
+	}
+
+	private static void update(Map<RouteSegment, Label> labels, PriorityQueue<Label> queue, RouteSegment s, double time) {
+		Label old = labels.get(s);
+		if (old == null || (!old.settled && old.time > time)) {
+			Label l = new Label(s, time);
+			labels.put(s, l);
+			queue.add(l);
+		}
+	}
+
+	/**
+	 * Finds segment of road point (loads tile of the point if needed)
+	 */
+	private RouteSegment findSegment(RoutingContext ctx, BinaryMapDataObject road, int point) throws IOException {
+		int x = road.getPoint31XTile(point);
+		int y = road.getPoint31YTile(point);
+		int shift = 31 - ctx.getZoomToLoadTileWithRoads();
+		planner.loadRoutes(ctx, x >> shift, y >> shift);
+		RouteSegment s = ctx.routes.get(pointKey(road, point));
+		while (s != null && (s.road != road || s.segmentStart != point)) {
+			s = s.next;
+		}
+		return s;
+	}
+
+	private static long pointKey(BinaryMapDataObject road, int point) {
+		return (((long) road.getPoint31XTile(point)) << 31) + (long) road.getPoint31YTile(point);
+	}
+
+	private static double alongRoadTime(VehicleRouter router, BinaryMapDataObject road, int from, int to) {
+		double speed = getSpeed(router, road);
+		double d = BinaryRoutePlanner.squareRootDist(road.getPoint31XTile(from), road.getPoint31YTile(from), road.getPoint31XTile(to),
+				road.getPoint31YTile(to));
+		return d / speed + router.defineObstacle(road, to);
+	}
+
+	/**
+	 * Marks grid cells of road parts reachable within time
+	 */
+	private TLongHashSet rasterize(VehicleRouter router, List<Label> settled, double time, int cell) {
+		TLongHashSet cells = new TLongHashSet();
+		for (Label l : settled) {
+			if (l.time > time) {
+				continue;
+			}
+			BinaryMapDataObject road = l.segment.road;
+			int i = l.segment.segmentStart;
+			int x = road.getPoint31XTile(i);
+			int y = road.getPoint31YTile(i);
+			cells.add(cellKey(x / cell, y / cell));
+			if (i + 1 < road.getPointsLength()) {
+				markReachable(cells, router, road, i, i + 1, time - l.time, cell);
+			}
+			if (i > 0 && !router.isOneWay(road)) {
+				markReachable(cells, router, road, i, i - 1, time - l.time, cell);
+			}
+		}
+		return cells;
+	}
+
+	private static void markReachable(TLongHashSet cells, VehicleRouter router, BinaryMapDataObject road, int from, int to,
+			double timeLeft, int cell) {
+		markReachable(cells, road.getPoint31XTile(from), road.getPoint31YTile(from), road.getPoint31XTile(to),
+				road.getPoint31YTile(to), alongRoadTime(router, road, from, to), timeLeft, cell);
+	}
+
+	/**
+	 * Marks cells of the part of line (x1, y1) - (tx, ty) that is passed in time left
+	 */
+	private static void markReachable(TLongHashSet cells, int x1, int y1, int tx, int ty, double edge, double timeLeft, int cell) {
+		if (timeLeft < 0) {
+			return;
+		}
+		double part = edge <= timeLeft ? 1 : timeLeft / edge;
+		int x2 = (int) (x1 + part * (tx - x1));
+		int y2 = (int) (y1 + part * (ty - y1));
+		int steps = (int) (Math.max(Math.abs(x2 - x1), Math.abs(y2 - y1)) / (cell / 2 + 1)) + 1;
+		for (int k = 1; k <= steps; k++) {
+			int x = (int) (x1 + ((long) (x2 - x1)) * k / steps);
+			int y = (int) (y1 + ((long) (y2 - y1)) * k / steps);
+			cells.add(cellKey(x / cell, y / cell));
+		}
+	}
+
+	private static long cellKey(int cx, int cy) {
+		return (((long) cx) << 32) | cy;
+	}
+
+	/**
+	 * Traces boundaries of union of cells. Every cell side that borders empty cell is
+	 * a directed edge (cells are on the same side of all edges), edges are linked into rings.
+	 */
+	private static void traceContours(TLongHashSet cells, int cell, List<int[]> rings) {
+		TLongObjectHashMap<TLongArrayList> edges = new TLongObjectHashMap<TLongArrayList>();
+		for (long c : cells.toArray()) {
+			int cx = (int) (c >> 32);
+			int cy = (int) c;
+			if (!cells.contains(cellKey(cx, cy - 1))) {
+				addEdge(edges, cellKey(cx + 1, cy), cellKey(cx, cy));
+			}
+			if (!cells.contains(cellKey(cx - 1, cy))) {
+				addEdge(edges, cellKey(cx, cy), cellKey(cx, cy + 1));
+			}
+			if (!cells.contains(cellKey(cx, cy + 1))) {
+				addEdge(edges, cellKey(cx, cy + 1), cellKey(cx + 1, cy + 1));
+			}
+			if (!cells.contains(cellKey(cx + 1, cy))) {
+				addEdge(edges, cellKey(cx + 1, cy + 1), cellKey(cx + 1, cy));
+			}
+		}
+		long[] starts = edges.keys();
+		Arrays.sort(starts);
+		for (long start : starts) {
+			while (true) {
+				TLongArrayList out = edges.get(start);
+				if (out == null || out.isEmpty()) {
+					break;
+				}
+				TIntArrayList ring = new TIntArrayList();
+				long v = start;
+				int pdx = 0;
+				int pdy = 0;
+				do {
+					TLongArrayList o = edges.get(v);
+					long next = o.removeAt(o.size() - 1);
+					int dx = (int) (next >> 32) - (int) (v >> 32);
+					int dy = (int) next - (int) v;
+					// skip vertices in the middle of straight line
+					if (dx != pdx || dy != pdy) {
+						ring.add((int) (v >> 32) * cell);
+						ring.add((int) v * cell);
+					}
+					pdx = dx;
+					pdy = dy;
+					v = next;
+				} while (v != start);
+				rings.add(ring.toArray());
+			}
+		}
+	}
+
+	private static void addEdge(TLongObjectHashMap<TLongArrayList> edges, long from, long to) {
+		TLongArrayList l = edges.get(from);
+		if (l == null) {
+			l = new TLongArrayList(2);
+			edges.put(from, l);
+		}
+		l.add(to);
+	}
+
+	/**
+	 * Measures calculation time (with loading of tiles) against target of 1 second.
+	 * Arguments : obf file, lat, lon, [vehicle], [times in minutes...]
+	 */
+	public static void main(String[] args) throws IOException {
+		BinaryMapIndexReader reader = new BinaryMapIndexReader(new RandomAccessFile(args[0], "r")); //$NON-NLS-1$
+		double lat = Double.parseDouble(args[1]);
+		double lon = Double.parseDouble(args[2]);
+		String vehicle = args.length > 3 ? args[3] : RoutingConfiguration.CAR;
+		double[] times = new double[Math.max(1, args.length - 4)];
+		times[0] = 15 * 60;
+		for (int i = 4; i < args.length; i++) {
+			times[i - 4] = Double.parseDouble(args[i]) * 60;
+		}
+		IsochroneCalculator calculator = new IsochroneCalculator(new BinaryRoutePlanner(reader));
+		// the first round is with cold file cache and JIT
+		for (int round = 0; round < 5; round++) {
+			RoutingContext ctx = new RoutingContext();
+			ctx.setRouter(RoutingConfiguration.getDefault().getRouter(vehicle));
+			long now = System.currentTimeMillis();
+			List<Isochrone> res = calculator.calculate(ctx, lat, lon, times);
+			long time = System.currentTimeMillis() - now;
+			if (res == null) {
+				System.out.println("No roads near start point"); //$NON-NLS-1$
+				return;
+			}
+			StringBuilder b = new StringBuilder();
+			for (Isochrone iso : res) {
+				b.append(" ").append((int) iso.getTime() / 60).append(" min : ").append(iso.getReachedCells()).append(" cells"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			}
+			System.out.println("Round " + round + " : " + time + " ms (loading " + ctx.timeToLoad / 1000000 + " ms)" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+					+ (time > 1000 ? " SLOWER THAN 1 s" : "") + b); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+}
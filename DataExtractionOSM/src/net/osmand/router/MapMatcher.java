@@ -0,0 +1,641 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.osmand.GPXStreamUtilities;
+import net.osmand.GPXStreamUtilities.GPXStreamReader;
+import net.osmand.LogUtil;
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.osm.MapUtils;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Matches recorded tracks to roads (hidden Markov model solved by Viterbi algorithm).
+ * Candidates of every track point are projections to the nearest roads, emission probability depends on
+ * distance to the road, transition probability on difference between road distance (shortest path in
+ * loaded road graph) and straight distance between points.
+ * Points are read from source one by one and matched points are reported as soon as all possible paths
+ * have a common beginning, so whole track is never kept in memory.
+ * Roads are loaded by {@link BinaryRoutePlanner#loadRoutes(RoutingContext, int, int)}.
+ */
+public class MapMatcher {
+	private static final Log log = LogUtil.getLog(MapMatcher.class);
+
+	// max distance from point to road in meters
+	private static final double SEARCH_RADIUS = 50;
+	// standard deviation of gps error in meters
+	private static final double SIGMA = 10;
+	// scale of difference between road and straight distance in meters
+	private static final double BETA = 10;
+	private static final int MAX_CANDIDATES = 8;
+	// matched points are reported at least when path is not decided for so many points
+	private static final int MAX_LAG = 100;
+	// road graph is reloaded when too many tiles are loaded
+	private static final int MAX_LOADED_TILES = 64;
+	// zoom of grid used to find nearest segments
+	private static final int GRID_ZOOM = 16;
+
+	private final File[] files;
+	private final BinaryMapIndexReader[] readers;
+	private VehicleRouter router = RoutingConfiguration.getDefault().getRouter(RoutingConfiguration.CAR);
+
+	/**
+	 * Source of track points (the next point is read in latLon array)
+	 */
+	public interface TrackPointSource {
+		public boolean next(double[] latLon) throws IOException;
+	}
+
+	public interface MatchedPointListener {
+		/**
+		 * Points are reported in order
+		 * @param roadId - id of road or -1 if point is not matched (then original coordinates are reported)
+		 */
+		public void pointMatched(int index, int x31, int y31, long roadId);
+	}
+
+	/**
+	 * Matching result : matched road ids (without repeating) and corrected polyline
+	 */
+	public static class MatchedTrack implements MatchedPointListener {
+		private final TLongArrayList roadIds = new TLongArrayList();
+		private final TIntArrayList x31 = new TIntArrayList();
+		private final TIntArrayList y31 = new TIntArrayList();
+		private int matchedPoints = 0;
+
+		@Override
+		public void pointMatched(int index, int x, int y, long roadId) {
+			x31.add(x);
+			y31.add(y);
+			if (roadId != -1) {
+				matchedPoints++;
+				if (roadIds.isEmpty() || roadIds.get(roadIds.size() - 1) != roadId) {
+					roadIds.add(roadId);
+				}
+			}
+		}
+
+		public TLongArrayList getRoadIds() {
+			return roadIds;
+		}
+
+		public int getPointsSize() {
+			return x31.size();
+		}
+
+		public int getMatchedPoints() {
+			return matchedPoints;
+		}
+
+		public double getLatitude(int i) {
+			return MapUtils.get31LatitudeY(y31.get(i));
+		}
+
+		public double getLongitude(int i) {
+			return MapUtils.get31LongitudeX(x31.get(i));
+		}
+	}
+
+	private static class Candidate {
+		BinaryMapDataObject road;
+		// projection is between points segment and segment + 1
+		int segment;
+		int x;
+		int y;
+		double logProbability;
+		Candidate previous;
+		int pointIndex;
+	}
+
+	private static class GraphNode implements Comparable<GraphNode> {
+		final long key;
+		final double distance;
+
+		GraphNode(long key, double distance) {
+			this.key = key;
+			this.distance = distance;
+		}
+
+		@Override
+		public int compareTo(GraphNode o) {
+			return Double.compare(distance, o.distance);
+		}
+	}
+
+	private static class SegmentRef {
+		final BinaryMapDataObject road;
+		final int segment;
+
+		SegmentRef(BinaryMapDataObject road, int segment) {
+			this.road = road;
+			this.segment = segment;
+		}
+	}
+
+	public MapMatcher(File... files) throws IOException {
+		this.files = files;
+		this.readers = new BinaryMapIndexReader[files.length];
+		for (int i = 0; i < files.length; i++) {
+			readers[i] = new BinaryMapIndexReader(new RandomAccessFile(files[i], "r")); //$NON-NLS-1$
+		}
+	}
+
+	public void setRouter(VehicleRouter router) {
+		this.router = router;
+	}
+
+	public void close() throws IOException {
+		for (BinaryMapIndexReader r : readers) {
+			r.close();
+		}
+	}
+
+	/**
+	 * Matches tracks in parallel (every thread uses own file handles and loaded roads)
+	 */
+	public List<MatchedTrack> matchTracks(final List<TrackPointSource> tracks, int threads) throws IOException {
+		long time = System.currentTimeMillis();
+		final List<MatchedTrack> results = new ArrayList<MatchedTrack>(tracks.size());
+		for (int i = 0; i < tracks.size(); i++) {
+			results.add(new MatchedTrack());
+		}
+		final AtomicInteger nextTrack = new AtomicInteger();
+		final AtomicInteger points = new AtomicInteger();
+		threads = Math.max(1, Math.min(threads, tracks.size()));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int t = 0; t < threads; t++) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						Matcher m = new Matcher();
+						try {
+							int i;
+							while ((i = nextTrack.getAndIncrement()) < tracks.size()) {
+								points.addAndGet(m.match(tracks.get(i), results.get(i)));
+							}
+						} finally {
+							m.close();
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> f : futures) {
+				try {
+					f.get();
+				} catch (InterruptedException e) {
+					throw new IOException(e.getMessage());
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		long spent = Math.max(1, System.currentTimeMillis() - time);
+		log.info("Matched " + tracks.size() + " tracks (" + points.get() + " points) in " + spent + " ms, " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				+ (points.get() * 1000l / spent) + " points/s"); //$NON-NLS-1$
+		return results;
+	}
+
+	/**
+	 * Matches one track in the current thread
+	 * @return number of read points
+	 */
+	public int matchTrack(TrackPointSource track, MatchedPointListener listener) throws IOException {
+		Matcher m = new Matcher();
+		try {
+			return m.match(track, listener);
+		} finally {
+			m.close();
+		}
+	}
+
+	/**
+	 * Matching state of one thread
+	 */
+	private class Matcher {
+		private final BinaryMapIndexReader[] threadReaders = new BinaryMapIndexReader[files.length];
+		private BinaryRoutePlanner planner;
+		private RoutingContext ctx;
+		private final TLongObjectHashMap<List<SegmentRef>> grid = new TLongObjectHashMap<List<SegmentRef>>();
+		private final Set<BinaryMapDataObject> indexedRoads = new HashSet<BinaryMapDataObject>();
+
+		// track state
+		private List<Candidate> current = new ArrayList<Candidate>();
+		private MatchedPointListener listener;
+		private int reported;
+		private int lastX;
+		private int lastY;
+
+		Matcher() throws IOException {
+			for (int i = 0; i < files.length; i++) {
+				threadReaders[i] = new BinaryMapIndexReader(new RandomAccessFile(files[i], "r"), readers[i]); //$NON-NLS-1$
+			}
+			planner = new BinaryRoutePlanner(threadReaders);
+			resetContext();
+		}
+
+		void close() throws IOException {
+			for (BinaryMapIndexReader r : threadReaders) {
+				r.close();
+			}
+		}
+
+		private void resetContext() {
+			ctx = new RoutingContext();
+			ctx.setRouter(router);
+			grid.clear();
+			indexedRoads.clear();
+		}
+
+		int match(TrackPointSource track, MatchedPointListener listener) throws IOException {
+			this.listener = listener;
+			this.reported = 0;
+			this.current.clear();
+			double[] latLon = new double[2];
+			int index = 0;
+			while (track.next(latLon)) {
+				int x = MapUtils.get31TileNumberX(latLon[1]);
+				int y = MapUtils.get31TileNumberY(latLon[0]);
+				step(index++, x, y, latLon[0], latLon[1]);
+			}
+			finish(index);
+			return index;
+		}
+
+		private void step(int index, int x, int y, double lat, double lon) throws IOException {
+			if (ctx.loadedTiles.size() > MAX_LOADED_TILES) {
+				resetContext();
+			}
+			double metersPer31 = getMetersPer31(lat, lon);
+			List<Candidate> candidates = findCandidates(index, x, y, lat, lon, metersPer31);
+			if (candidates.isEmpty()) {
+				// point can't be matched : report decided path and the point itself
+				finish(index);
+				listener.pointMatched(index, x, y, -1);
+				reported = index + 1;
+				lastX = x;
+				lastY = y;
+				return;
+			}
+			if (!current.isEmpty()) {
+				double straight = Math.sqrt(sqr(x - lastX) + sqr(y - lastY)) * metersPer31;
+				double limit = 2 * straight + 2 * SEARCH_RADIUS + 50;
+				boolean reachable = false;
+				for (Candidate c : candidates) {
+					c.logProbability = Double.NEGATIVE_INFINITY;
+				}
+				for (Candidate p : current) {
+					double[] roadDist = roadDistances(p, candidates, limit, metersPer31);
+					for (int i = 0; i < candidates.size(); i++) {
+						if (roadDist[i] < 0) {
+							continue;
+						}
+						Candidate c = candidates.get(i);
+						double lp = p.logProbability - Math.abs(roadDist[i] - straight) / BETA;
+						if (lp > c.logProbability) {
+							c.logProbability = lp;
+							c.previous = p;
+							reachable = true;
+						}
+					}
+				}
+				if (!reachable) {
+					// path is broken (roads are not connected) : start new one
+					finish(index);
+					for (Candidate c : candidates) {
+						c.logProbability = 0;
+						c.previous = null;
+					}
+				} else {
+					// candidates that can't be reached from any previous candidate are not possible
+					Iterator<Candidate> it = candidates.iterator();
+					while (it.hasNext()) {
+						if (it.next().previous == null) {
+							it.remove();
+						}
+					}
+				}
+			}
+			for (Candidate c : candidates) {
+				double d = Math.sqrt(sqr(c.x - x) + sqr(c.y - y)) * metersPer31;
+				c.logProbability += -0.5 * sqr(d / SIGMA);
+			}
+			current = candidates;
+			lastX = x;
+			lastY = y;
+			reportDecided(index);
+		}
+
+		/**
+		 * Reports points which are common for all candidates paths
+		 */
+		private void reportDecided(int index) {
+			Candidate[] paths = current.toArray(new Candidate[current.size()]);
+			Candidate common = null;
+			search: while (paths[0] != null && paths[0].pointIndex >= reported) {
+				boolean same = true;
+				for (int i = 1; i < paths.length; i++) {
+					if (paths[i] != paths[0]) {
+						same = false;
+						break;
+					}
+				}
+				if (same) {
+					common = paths[0];
+					break;
+				}
+				for (int i = 0; i < paths.length; i++) {
+					paths[i] = paths[i].previous;
+					if (paths[i] == null) {
+						break search;
+					}
+				}
+			}
+			if (common != null) {
+				reportPath(common);
+			} else if (index - reported > MAX_LAG) {
+				// force decision : keep only the best candidate
+				Candidate best = getBest();
+				current = new ArrayList<Candidate>();
+				current.add(best);
+				reportPath(best);
+			}
+		}
+
+		private Candidate getBest() {
+			Candidate best = null;
+			for (Candidate c : current) {
+				if (best == null || c.logProbability > best.logProbability) {
+					best = c;
+				}
+			}
+			return best;
+		}
+
+		private void reportPath(Candidate last) {
+			List<Candidate> path = new ArrayList<Candidate>();
+			Candidate c = last;
+			while (c != null && c.pointIndex >= reported) {
+				path.add(c);
+				c = c.previous;
+			}
+			Collections.reverse(path);
+			for (Candidate p : path) {
+				listener.pointMatched(p.pointIndex, p.x, p.y, p.road.getId());
+			}
+			reported = last.pointIndex + 1;
+			// reported part is not needed anymore
+			last.previous = null;
+		}
+
+		private void finish(int index) {
+			if (!current.isEmpty()) {
+				reportPath(getBest());
+				current = new ArrayList<Candidate>();
+			}
+		}
+
+		private List<Candidate> findCandidates(int index, int x, int y, double lat, double lon, double metersPer31) throws IOException {
+			int radius = (int) (SEARCH_RADIUS / metersPer31) + 1;
+			int zoom = ctx.getZoomToLoadTileWithRoads();
+			for (int tx = (x - radius) >>> (31 - zoom); tx <= (x + radius) >>> (31 - zoom); tx++) {
+				for (int ty = (y - radius) >>> (31 - zoom); ty <= (y + radius) >>> (31 - zoom); ty++) {
+					if (!ctx.loadedTiles.contains((tx << zoom) + ty)) {
+						planner.loadRoutes(ctx, tx, ty);
+						indexRoads();
+					}
+				}
+			}
+			// the nearest segment for every road
+			TLongObjectHashMap<Candidate> byRoad = new TLongObjectHashMap<Candidate>();
+			TLongObjectHashMap<double[]> distances = new TLongObjectHashMap<double[]>();
+			int shift = 31 - GRID_ZOOM;
+			for (int gx = (x - radius) >>> shift; gx <= (x + radius) >>> shift; gx++) {
+				for (int gy = (y - radius) >>> shift; gy <= (y + radius) >>> shift; gy++) {
+					List<SegmentRef> refs = grid.get((((long) gx) << 32) | gy);
+					if (refs == null) {
+						continue;
+					}
+					for (SegmentRef r : refs) {
+						BinaryMapDataObject road = r.road;
+						int ax = road.getPoint31XTile(r.segment);
+						int ay = road.getPoint31YTile(r.segment);
+						int bx = road.getPoint31XTile(r.segment + 1);
+						int by = road.getPoint31YTile(r.segment + 1);
+						double len2 = sqr(bx - ax) + sqr(by - ay);
+						double t = len2 == 0 ? 0 : ((double) (x - ax) * (bx - ax) + (double) (y - ay) * (by - ay)) / len2;
+						t = Math.max(0, Math.min(1, t));
+						int px = (int) (ax + t * (bx - ax));
+						int py = (int) (ay + t * (by - ay));
+						double d = Math.sqrt(sqr(px - x) + sqr(py - y)) * metersPer31;
+						if (d > SEARCH_RADIUS) {
+							continue;
+						}
+						double[] prev = distances.get(road.getId());
+						if (prev == null || prev[0] > d) {
+							Candidate c = new Candidate();
+							c.road = road;
+							c.segment = r.segment;
+							c.x = px;
+							c.y = py;
+							c.pointIndex = index;
+							byRoad.put(road.getId(), c);
+							distances.put(road.getId(), new double[] { d });
+						}
+					}
+				}
+			}
+			List<Candidate> list = new ArrayList<Candidate>(byRoad.valueCollection());
+			if (list.size() > MAX_CANDIDATES) {
+				final int fx = x;
+				final int fy = y;
+				Collections.sort(list, new java.util.Comparator<Candidate>() {
+					@Override
+					public int compare(Candidate o1, Candidate o2) {
+						return Double.compare(sqr(o1.x - fx) + sqr(o1.y - fy), sqr(o2.x - fx) + sqr(o2.y - fy));
+					}
+				});
+				list = new ArrayList<Candidate>(list.subList(0, MAX_CANDIDATES));
+			}
+			return list;
+		}
+
+		private void indexRoads() {
+			int shift = 31 - GRID_ZOOM;
+			for (BinaryMapDataObject road : ctx.values()) {
+				if (road.getPointsLength() < 2 || !indexedRoads.add(road)) {
+					continue;
+				}
+				for (int j = 0; j < road.getPointsLength() - 1; j++) {
+					int x1 = road.getPoint31XTile(j) >>> shift;
+					int y1 = road.getPoint31YTile(j) >>> shift;
+					int x2 = road.getPoint31XTile(j + 1) >>> shift;
+					int y2 = road.getPoint31YTile(j + 1) >>> shift;
+					SegmentRef ref = new SegmentRef(road, j);
+					for (int gx = Math.min(x1, x2); gx <= Math.max(x1, x2); gx++) {
+						for (int gy = Math.min(y1, y2); gy <= Math.max(y1, y2); gy++) {
+							long key = (((long) gx) << 32) | gy;
+							List<SegmentRef> refs = grid.get(key);
+							if (refs == null) {
+								refs = new ArrayList<SegmentRef>(4);
+								grid.put(key, refs);
+							}
+							refs.add(ref);
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Shortest road distances (Dijkstra limited by distance) from candidate to candidates of the next point.
+		 * @return distance in meters or -1 if it is not reachable
+		 */
+		private double[] roadDistances(Candidate from, List<Candidate> to, double limit, double metersPer31) {
+			double[] result = new double[to.size()];
+			for (int i = 0; i < result.length; i++) {
+				Candidate c = to.get(i);
+				result[i] = -1;
+				if (c.road.getId() == from.road.getId() && c.segment == from.segment) {
+					result[i] = Math.sqrt(sqr(c.x - from.x) + sqr(c.y - from.y)) * metersPer31;
+				}
+			}
+			TLongObjectHashMap<GraphNode> best = new TLongObjectHashMap<GraphNode>();
+			TLongHashSet visited = new TLongHashSet();
+			PriorityQueue<GraphNode> queue = new PriorityQueue<GraphNode>();
+			for (int k = from.segment; k <= from.segment + 1; k++) {
+				push(queue, best, nodeKey(from.road, k), dist(from.road, k, from.x, from.y, metersPer31));
+			}
+			while (!queue.isEmpty()) {
+				GraphNode n = queue.poll();
+				if (n.distance > limit) {
+					break;
+				}
+				if (!visited.add(n.key)) {
+					continue;
+				}
+				int nx = (int) (n.key >>> 31);
+				int ny = (int) (n.key & ((1l << 31) - 1));
+				// node could be the end of segment of target candidate
+				for (int i = 0; i < result.length; i++) {
+					Candidate c = to.get(i);
+					for (int k = c.segment; k <= c.segment + 1; k++) {
+						if (c.road.getPoint31XTile(k) == nx && c.road.getPoint31YTile(k) == ny) {
+							double d = n.distance + Math.sqrt(sqr(c.x - nx) + sqr(c.y - ny)) * metersPer31;
+							if (result[i] < 0 || d < result[i]) {
+								result[i] = d;
+							}
+						}
+					}
+				}
+				RouteSegment s = ctx.routes.get(n.key);
+				while (s != null) {
+					BinaryMapDataObject road = s.road;
+					int k = s.segmentStart;
+					if (k > 0) {
+						push(queue, best, nodeKey(road, k - 1), n.distance + dist(road, k - 1, nx, ny, metersPer31));
+					}
+					if (k < road.getPointsLength() - 1) {
+						push(queue, best, nodeKey(road, k + 1), n.distance + dist(road, k + 1, nx, ny, metersPer31));
+					}
+					s = s.next;
+				}
+			}
+			return result;
+		}
+
+		private void push(PriorityQueue<GraphNode> queue, TLongObjectHashMap<GraphNode> best, long key, double distance) {
+			GraphNode b = best.get(key);
+			if (b == null || b.distance > distance) {
+				GraphNode n = new GraphNode(key, distance);
+				best.put(key, n);
+				queue.add(n);
+			}
+		}
+	}
+
+	private static long nodeKey(BinaryMapDataObject road, int k) {
+		// the same key as in RoutingContext.routes
+		return (((long) road.getPoint31XTile(k)) << 31) + (long) road.getPoint31YTile(k);
+	}
+
+	private static double dist(BinaryMapDataObject road, int k, int x, int y, double metersPer31) {
+		return Math.sqrt(sqr(road.getPoint31XTile(k) - x) + sqr(road.getPoint31YTile(k) - y)) * metersPer31;
+	}
+
+	private static double sqr(double d) {
+		return d * d;
+	}
+
+	private static double getMetersPer31(double lat, double lon) {
+		int x = MapUtils.get31TileNumberX(lon);
+		return MapUtils.getDistance(lat, lon, lat, MapUtils.get31LongitudeX(x + 1024)) / 1024;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage : MapMatcher file.obf track.gpx*"); //$NON-NLS-1$
+			return;
+		}
+		MapMatcher matcher = new MapMatcher(new File(args[0]));
+		List<TrackPointSource> tracks = new ArrayList<TrackPointSource>();
+		for (int i = 1; i < args.length; i++) {
+			final Reader in = new InputStreamReader(new FileInputStream(args[i]), "UTF-8"); //$NON-NLS-1$
+			final GPXStreamReader r = new GPXStreamReader(in);
+			r.setReadExtensions(false);
+			tracks.add(new TrackPointSource() {
+				@Override
+				public boolean next(double[] latLon) throws IOException {
+					while (r.nextPoint()) {
+						if (r.getPointType() != GPXStreamUtilities.WAY_POINT) {
+							latLon[0] = r.getLatitude();
+							latLon[1] = r.getLongitude();
+							return true;
+						}
+					}
+					in.close();
+					return false;
+				}
+			});
+		}
+		List<MatchedTrack> res = matcher.matchTracks(tracks, Runtime.getRuntime().availableProcessors());
+		for (int i = 0; i < res.size(); i++) {
+			System.out.println(args[i + 1] + " : " + res.get(i).getMatchedPoints() + " of " + res.get(i).getPointsSize() //$NON-NLS-1$ //$NON-NLS-2$
+					+ " points matched, roads " + res.get(i).getRoadIds().size()); //$NON-NLS-1$
+		}
+		matcher.close();
+	}
+}
@@ -0,0 +1,269 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.osmand.LogUtil;
+import net.osmand.osm.LatLon;
+import net.osmand.osm.MapUtils;
+import net.osmand.router.RoutingGraph.GraphPoint;
+import net.osmand.router.RoutingGraph.Search;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Calculates many-to-many travel time and distance matrix.
+ * All tiles covering the points (with margin) are loaded once into routing context,
+ * then {@link RoutingGraph} is built and one-to-many Dijkstra searches from every source
+ * are run in parallel on the same graph. Search from source stops when all targets are reached
+ * (targets in another component of graph are not waited for).
+ */
+public class RouteMatrixCalculator {
+	private static final Log log = LogUtil.getLog(RouteMatrixCalculator.class);
+
+	private final BinaryRoutePlanner planner;
+	// roads are loaded around points within margin
+	private double marginMeters = 5000;
+	// loading of greater area is refused (about 300x300 km for default routing zoom)
+	private int maxAreaTiles = 4096;
+	// search from source is stopped after that time
+	private double maxTime = Double.POSITIVE_INFINITY;
+
+	public static class RouteMatrix {
+		private final int sources;
+		private final int targets;
+		private final float[] times;
+		private final float[] distances;
+
+		RouteMatrix(int sources, int targets) {
+			this.sources = sources;
+			this.targets = targets;
+			this.times = new float[sources * targets];
+			this.distances = new float[sources * targets];
+			Arrays.fill(times, -1);
+			Arrays.fill(distances, -1);
+		}
+
+		public int getSourcesCount() {
+			return sources;
+		}
+
+		public int getTargetsCount() {
+			return targets;
+		}
+
+		/**
+		 * @return time in seconds or -1 if target is not reachable
+		 */
+		public float getTime(int source, int target) {
+			return times[source * targets + target];
+		}
+
+		/**
+		 * @return distance in meters of the fastest route or -1 if target is not reachable
+		 */
+		public float getDistance(int source, int target) {
+			return distances[source * targets + target];
+		}
+
+		/**
+		 * @return times row by row (sources x targets)
+		 */
+		public float[] getTimes() {
+			return times;
+		}
+
+		public float[] getDistances() {
+			return distances;
+		}
+	}
+
+	public RouteMatrixCalculator(BinaryRoutePlanner planner) {
+		this.planner = planner;
+	}
+
+	public void setMarginMeters(double marginMeters) {
+		this.marginMeters = marginMeters;
+	}
+
+	public void setMaxAreaTiles(int maxAreaTiles) {
+		this.maxAreaTiles = maxAreaTiles;
+	}
+
+	public void setMaxTime(double maxTime) {
+		this.maxTime = maxTime;
+	}
+
+	/**
+	 * Loads roads of area covering all points into context (already loaded tiles are not loaded again)
+	 * @throws IllegalArgumentException if area is greater than max area tiles
+	 */
+	public void loadArea(RoutingContext ctx, LatLon[]... points) throws IOException {
+		int left = Integer.MAX_VALUE;
+		int right = Integer.MIN_VALUE;
+		int top = Integer.MAX_VALUE;
+		int bottom = Integer.MIN_VALUE;
+		double lat = 0;
+		double lon = 0;
+		for (LatLon[] ps : points) {
+			for (LatLon l : ps) {
+				int x = MapUtils.get31TileNumberX(l.getLongitude());
+				int y = MapUtils.get31TileNumberY(l.getLatitude());
+				left = Math.min(left, x);
+				right = Math.max(right, x);
+				top = Math.min(top, y);
+				bottom = Math.max(bottom, y);
+				lat = l.getLatitude();
+				lon = l.getLongitude();
+			}
+		}
+		if (left > right) {
+			return;
+		}
+		int x = MapUtils.get31TileNumberX(lon);
+		double metersPer31 = MapUtils.getDistance(lat, lon, lat, MapUtils.get31LongitudeX(x + 1024)) / 1024;
+		int margin = (int) (marginMeters / metersPer31);
+		int shift = 31 - ctx.getZoomToLoadTileWithRoads();
+		int tx1 = Math.max(0, left - margin) >> shift;
+		int tx2 = (int) (Math.min(Integer.MAX_VALUE - 1, (long) right + margin) >> shift);
+		int ty1 = Math.max(0, top - margin) >> shift;
+		int ty2 = (int) (Math.min(Integer.MAX_VALUE - 1, (long) bottom + margin) >> shift);
+		long area = ((long) tx2 - tx1 + 1) * ((long) ty2 - ty1 + 1);
+		if (area > maxAreaTiles) {
+			throw new IllegalArgumentException("Area of points is too large : " + area + " tiles (max " + maxAreaTiles + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+		long now = System.currentTimeMillis();
+		int tiles = 0;
+		for (int tx = tx1; tx <= tx2; tx++) {
+			for (int ty = ty1; ty <= ty2; ty++) {
+				planner.loadRoutes(ctx, tx, ty);
+				tiles++;
+			}
+		}
+		log.info("Area of " + tiles + " tiles is loaded in " + (System.currentTimeMillis() - now) + " ms"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * @param ctx - context with router and loaded tiles (could be reused for next matrices)
+	 * @param threads - number of parallel searches
+	 */
+	public RouteMatrix calculate(RoutingContext ctx, LatLon[] sources, LatLon[] targets, int threads) throws IOException {
+		loadArea(ctx, sources, targets);
+		long now = System.currentTimeMillis();
+		final RoutingGraph graph = new RoutingGraph(ctx);
+		log.info("Graph of " + graph.getNodesCount() + " nodes, " + graph.getEdgesCount() + " edges is built in " //$NON-NLS-1$ //$NON-NLS-2$
+				+ (System.currentTimeMillis() - now) + " ms"); //$NON-NLS-1$
+		return calculate(graph, sources, targets, threads);
+	}
+
+	/**
+	 * Calculates matrix on already built graph
+	 */
+	public RouteMatrix calculate(final RoutingGraph graph, LatLon[] sources, LatLon[] targets, int threads) throws IOException {
+		long now = System.currentTimeMillis();
+		final RouteMatrix matrix = new RouteMatrix(sources.length, targets.length);
+		final GraphPoint[] sourcePoints = findPoints(graph, sources);
+		final GraphPoint[] targetPoints = findPoints(graph, targets);
+		final AtomicInteger nextSource = new AtomicInteger();
+		threads = Math.max(1, Math.min(threads, sources.length));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int t = 0; t < threads; t++) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						Search search = graph.new Search();
+						TIntArrayList stopNodes = new TIntArrayList();
+						int s;
+						while ((s = nextSource.getAndIncrement()) < sourcePoints.length) {
+							if (sourcePoints[s] != null) {
+								calculateRow(graph, search, matrix, s, sourcePoints[s], targetPoints, stopNodes);
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> f : futures) {
+				try {
+					f.get();
+				} catch (InterruptedException e) {
+					throw new IOException(e.getMessage());
+				} catch (ExecutionException e) {
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		log.info("Matrix " + sources.length + "x" + targets.length + " is calculated in " + (System.currentTimeMillis() - now) //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				+ " ms"); //$NON-NLS-1$
+		return matrix;
+	}
+
+	private void calculateRow(RoutingGraph graph, Search search, RouteMatrix matrix, int s, GraphPoint source,
+			GraphPoint[] targetPoints, TIntArrayList stopNodes) {
+		// wait only for ends which are used to reach targets of the same component
+		stopNodes.resetQuick();
+		int comp = graph.getComponent(source.node);
+		for (GraphPoint target : targetPoints) {
+			if (target != null && graph.getComponent(target.node) == comp) {
+				stopNodes.add(target.node);
+				if (!graph.isOneWay(target.node)) {
+					stopNodes.add(target.node + 1);
+				}
+			}
+		}
+		search.reset();
+		search.addStart(source, 0, 0);
+		search.run(stopNodes.toArray(), maxTime);
+		int row = s * matrix.targets;
+		for (int t = 0; t < targetPoints.length; t++) {
+			GraphPoint target = targetPoints[t];
+			if (target == null) {
+				continue;
+			}
+			double time = search.getTime(target);
+			double dist = search.getDistance(target);
+			if (target.node == source.node) {
+				// the same segment : direct way if direction is allowed
+				int sx = graph.getX(source.node);
+				int sy = graph.getY(source.node);
+				double ds = BinaryRoutePlanner.squareRootDist(sx, sy, source.x, source.y);
+				double dt = BinaryRoutePlanner.squareRootDist(sx, sy, target.x, target.y);
+				if (dt >= ds || !graph.isOneWay(source.node)) {
+					double d = Math.abs(dt - ds);
+					double direct = d / graph.getSpeed(source.node);
+					if (direct < time) {
+						time = direct;
+						dist = d;
+					}
+				}
+			}
+			if (time <= maxTime) {
+				matrix.times[row + t] = (float) time;
+				matrix.distances[row + t] = (float) dist;
+			}
+		}
+	}
+
+	private GraphPoint[] findPoints(RoutingGraph graph, LatLon[] points) {
+		GraphPoint[] res = new GraphPoint[points.length];
+		for (int i = 0; i < points.length; i++) {
+			res[i] = graph.findNearest(MapUtils.get31TileNumberX(points[i].getLongitude()),
+					MapUtils.get31TileNumberY(points[i].getLatitude()));
+		}
+		return res;
+	}
+}
@@ -0,0 +1,616 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import net.osmand.LogUtil;
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.osm.LatLon;
+import net.osmand.osm.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Post-processing of found route : route points, distances, turns and instructions.
+ * Segments are pushed in route order while {@link BinaryRoutePlanner} backtracks the search
+ * (see {@link RoutingContext#setResultPipeline(RouteResultPipeline)}) and are processed by chained stages
+ * (points -> turns -> instructions) on own thread, if pipeline is started.
+ * Every stage needs only one point of look ahead, so the result is ready as soon as the last segment is pushed.
+ * Pipeline doesn't depend on platform and could be used without search.
+ */
+public class RouteResultPipeline {
+	private static final Log log = LogUtil.getLog(RouteResultPipeline.class);
+
+	// the same as RoutingHelper.TurnType
+	public static final String C = "C"; //$NON-NLS-1$
+	public static final String TL = "TL"; //$NON-NLS-1$
+	public static final String TSLL = "TSLL"; //$NON-NLS-1$
+	public static final String TSHL = "TSHL"; //$NON-NLS-1$
+	public static final String TR = "TR"; //$NON-NLS-1$
+	public static final String TSLR = "TSLR"; //$NON-NLS-1$
+	public static final String TSHR = "TSHR"; //$NON-NLS-1$
+	public static final String TU = "TU"; //$NON-NLS-1$
+
+	// start point is added to route if it is far from the first point
+	private static final int MIN_DISTANCE_TO_ADD_START = 200;
+	// bearing before turn is measured from point that is not closer
+	private static final int BEARING_DISTANCE = 70;
+	// last 'go ahead' instruction is added only for long last part
+	private static final int MIN_DISTANCE_TO_ADD_LAST = 80;
+
+	private static final RouteSegmentResult END_OF_ROUTE = new RouteSegmentResult();
+
+	public static class RouteInstruction {
+		String turnType;
+		float turnAngle;
+		int routePointOffset;
+		int distance;
+		int expectedTime;
+
+		/**
+		 * @return one of turn types (C, TL, TSLL, ...)
+		 */
+		public String getTurnType() {
+			return turnType;
+		}
+
+		public float getTurnAngle() {
+			return turnAngle;
+		}
+
+		public int getRoutePointOffset() {
+			return routePointOffset;
+		}
+
+		/**
+		 * @return distance to the next instruction in meters
+		 */
+		public int getDistance() {
+			return distance;
+		}
+
+		/**
+		 * @return time to the next instruction in seconds
+		 */
+		public int getExpectedTime() {
+			return expectedTime;
+		}
+	}
+
+	// speed m/s
+	private final float speed;
+	private final int minDistanceForTurn;
+	private final LatLon start;
+
+	private BlockingQueue<RouteSegmentResult> queue;
+	private Thread worker;
+	private volatile Throwable error;
+	private boolean endPushed;
+	private boolean finished;
+
+	// 1. points stage
+	private final TIntArrayList points31 = new TIntArrayList();
+	private float[] distanceFromStart = new float[256];
+	private int size;
+
+	// 2. turns stage (index of point to process next)
+	private int turnPoint = 1;
+	private int prevBearingLocation = 0;
+	private int startTurnPoint = 0;
+	private float previousBearing = 0;
+	// whole meters as in former batch calculation (distance less than 1 m does not start turn)
+	private int distForTurn = 0;
+
+	// 3. instructions stage
+	private final List<RouteInstruction> instructions = new ArrayList<RouteInstruction>();
+	private RouteInstruction previousInstruction;
+	private int previousLocation = 0;
+
+	/**
+	 * @param speed - average speed (m/s) to calculate time of instructions
+	 * @param minDistanceForTurn - turns closer than that distance are merged
+	 * @param start - start point to add (if it is far from route) or null
+	 */
+	public RouteResultPipeline(float speed, int minDistanceForTurn, LatLon start) {
+		this.speed = speed;
+		this.minDistanceForTurn = minDistanceForTurn;
+		this.start = start;
+		previousInstruction = new RouteInstruction();
+		previousInstruction.turnType = C;
+		instructions.add(previousInstruction);
+	}
+
+	/**
+	 * Starts processing thread, otherwise segments are processed in the thread that pushes them
+	 */
+	public synchronized void start() {
+		if (worker != null) {
+			return;
+		}
+		queue = new LinkedBlockingQueue<RouteSegmentResult>();
+		worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					RouteSegmentResult s;
+					while ((s = queue.take()) != END_OF_ROUTE) {
+						processSegment(s);
+					}
+					processEnd();
+				} catch (InterruptedException e) {
+					error = e;
+				} catch (RuntimeException e) {
+					log.error("Route post-processing failed", e); //$NON-NLS-1$
+					error = e;
+				}
+			}
+		}, "Route result"); //$NON-NLS-1$
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Segments should be pushed in route order
+	 */
+	public void addSegment(RouteSegmentResult s) {
+		if (queue != null) {
+			queue.add(s);
+		} else {
+			processSegment(s);
+		}
+	}
+
+	/**
+	 * Called when all segments are pushed (or route is not found), next calls are ignored
+	 */
+	public synchronized void finish() {
+		if (endPushed) {
+			return;
+		}
+		endPushed = true;
+		if (queue != null) {
+			queue.add(END_OF_ROUTE);
+		} else {
+			processEnd();
+		}
+	}
+
+	/**
+	 * Waits till all segments are processed
+	 */
+	public void waitForResult() throws InterruptedException {
+		if (worker != null) {
+			worker.join();
+		}
+		if (error != null) {
+			throw new IllegalStateException(error);
+		}
+	}
+
+	public boolean isFinished() {
+		return finished;
+	}
+
+	public int getPointsSize() {
+		return size;
+	}
+
+	public double getLatitude(int ind) {
+		return MapUtils.get31LatitudeY(points31.get(2 * ind + 1));
+	}
+
+	public double getLongitude(int ind) {
+		return MapUtils.get31LongitudeX(points31.get(2 * ind));
+	}
+
+	/**
+	 * @return distance (meters) from start to point
+	 */
+	public float getDistanceFromStart(int ind) {
+		return distanceFromStart[ind];
+	}
+
+	/**
+	 * @return distance (meters) from point to the end of route
+	 */
+	public int getDistanceToEnd(int ind) {
+		return (int) (distanceFromStart[size - 1] - distanceFromStart[ind]);
+	}
+
+	public List<RouteInstruction> getInstructions() {
+		return instructions;
+	}
+
+	private void processSegment(RouteSegmentResult s) {
+		if (size == 0 && start != null) {
+			double d = MapUtils.getDistance(start, MapUtils.get31LatitudeY(s.object.getPoint31YTile(s.startPointIndex)),
+					MapUtils.get31LongitudeX(s.object.getPoint31XTile(s.startPointIndex)));
+			if (d > MIN_DISTANCE_TO_ADD_START) {
+				addPoint(MapUtils.get31TileNumberX(start.getLongitude()), MapUtils.get31TileNumberY(start.getLatitude()));
+			}
+		}
+		boolean plus = s.startPointIndex < s.endPointIndex;
+		int i = s.startPointIndex;
+		while (true) {
+			addPoint(s.object.getPoint31XTile(i), s.object.getPoint31YTile(i));
+			if (i == s.endPointIndex) {
+				break;
+			}
+			i = plus ? i + 1 : i - 1;
+		}
+	}
+
+	private void addPoint(int x31, int y31) {
+		float d = 0;
+		if (size > 0) {
+			// close 31 tile numbers could give the same coordinates
+			d = (float) MapUtils.getDistance(getLatitude(size - 1), getLongitude(size - 1), MapUtils.get31LatitudeY(y31),
+					MapUtils.get31LongitudeX(x31));
+			if (d == 0) {
+				// duplicate points are very bad for routing
+				return;
+			}
+		}
+		if (size == distanceFromStart.length) {
+			float[] n = new float[size * 2];
+			System.arraycopy(distanceFromStart, 0, n, 0, size);
+			distanceFromStart = n;
+		}
+		points31.add(x31);
+		points31.add(y31);
+		distanceFromStart[size] = size == 0 ? 0 : distanceFromStart[size - 1] + d;
+		size++;
+		// turn at point could be calculated when the next point is known
+		while (turnPoint < size - 1) {
+			processTurn(turnPoint++);
+		}
+	}
+
+	private float distance(int i, int j) {
+		return (float) MapUtils.getDistance(getLatitude(i), getLongitude(i), getLatitude(j), getLongitude(j));
+	}
+
+	private float bearing(int i, int j) {
+		double lat1 = Math.toRadians(getLatitude(i));
+		double lat2 = Math.toRadians(getLatitude(j));
+		double dLon = Math.toRadians(getLongitude(j) - getLongitude(i));
+		double y = Math.sin(dLon) * Math.cos(lat2);
+		double x = Math.cos(lat1) * Math.sin(lat2) - Math.sin(lat1) * Math.cos(lat2) * Math.cos(dLon);
+		return (float) Math.toDegrees(Math.atan2(y, x));
+	}
+
+	private void processTurn(int i) {
+		float bearing = bearing(i, i + 1);
+		// try to get close to current location if possible
+		while (prevBearingLocation < i - 1 && distance(prevBearingLocation + 1, i) > BEARING_DISTANCE) {
+			prevBearingLocation++;
+		}
+		if (distForTurn == 0) {
+			// measure only after turn
+			previousBearing = bearing(prevBearingLocation, i);
+			startTurnPoint = i;
+		}
+		float delta = previousBearing - bearing;
+		while (delta < 0) {
+			delta += 360;
+		}
+		while (delta > 360) {
+			delta -= 360;
+		}
+		distForTurn += distanceFromStart[i + 1] - distanceFromStart[i];
+		if (distForTurn < minDistanceForTurn) {
+			// accumulate distance of very smooth turn (u-turn instead of 2 left turns, small gap between roads)
+			return;
+		}
+		if (delta > 45 && delta < 315) {
+			String type;
+			if (delta < 60) {
+				type = TSLL;
+			} else if (delta < 120) {
+				type = TL;
+			} else if (delta < 150) {
+				type = TSHL;
+			} else if (delta < 210) {
+				type = TU;
+			} else if (delta < 240) {
+				type = TSHR;
+			} else if (delta < 300) {
+				type = TR;
+			} else {
+				type = TSLR;
+			}
+			addInstruction(type, 360 - delta, startTurnPoint, i);
+			prevBearingLocation = i;
+		}
+		distForTurn = 0;
+	}
+
+	private void addInstruction(String type, float angle, int offset, int currentPoint) {
+		closeInstruction(distanceFromStart[currentPoint] - distanceFromStart[previousLocation]);
+		previousInstruction = new RouteInstruction();
+		previousInstruction.turnType = type;
+		previousInstruction.turnAngle = angle;
+		previousInstruction.routePointOffset = offset;
+		instructions.add(previousInstruction);
+		previousLocation = offset;
+	}
+
+	private void closeInstruction(float distance) {
+		previousInstruction.distance = (int) distance;
+		previousInstruction.expectedTime = (int) (distance / speed);
+	}
+
+	private void processEnd() {
+		if (size > 0) {
+			closeInstruction(distanceFromStart[size - 1] - distanceFromStart[previousLocation]);
+			// add last direction go straight (to show arrow in screen after all turns)
+			if (previousInstruction.distance > MIN_DISTANCE_TO_ADD_LAST) {
+				RouteInstruction last = new RouteInstruction();
+				last.turnType = C;
+				last.routePointOffset = size - 1;
+				instructions.add(last);
+			}
+		}
+		finished = true;
+	}
+
+	/**
+	 * Checks that pipeline gives the same points, distances and instructions as the former batch
+	 * post-processing (all points are collected first, then distances and turns are calculated)
+	 * on random routes. The batch version below is a copy of that algorithm (with the same distance and bearing).
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		Random rnd = new Random(1);
+		int routes = 2000;
+		int mismatches = 0;
+		for (int r = 0; r < routes; r++) {
+			List<RouteSegmentResult> segments = randomRoute(rnd);
+			LatLon start = null;
+			if (rnd.nextBoolean()) {
+				// the same point as pipeline keeps (in 31 tile units)
+				start = new LatLon(MapUtils.get31LatitudeY(MapUtils.get31TileNumberY(55.75 + rnd.nextDouble() * 0.01)),
+						MapUtils.get31LongitudeX(MapUtils.get31TileNumberX(37.6 + rnd.nextDouble() * 0.01)));
+			}
+			float speed = 15.3f;
+			int minDistanceForTurn = rnd.nextBoolean() ? 35 : 5;
+
+			RouteResultPipeline p = new RouteResultPipeline(speed, minDistanceForTurn, start);
+			if (r % 2 == 0) {
+				p.start();
+			}
+			for (RouteSegmentResult s : segments) {
+				p.addSegment(s);
+			}
+			p.finish();
+			p.waitForResult();
+
+			List<LatLon> points = new ArrayList<LatLon>();
+			for (RouteSegmentResult s : segments) {
+				boolean plus = s.startPointIndex < s.endPointIndex;
+				for (int i = s.startPointIndex;; i = plus ? i + 1 : i - 1) {
+					points.add(new LatLon(MapUtils.get31LatitudeY(s.object.getPoint31YTile(i)), MapUtils.get31LongitudeX(s.object
+							.getPoint31XTile(i))));
+					if (i == s.endPointIndex) {
+						break;
+					}
+				}
+			}
+			BatchResult b = calculateBatch(points, speed, minDistanceForTurn, start);
+
+			String diff = compare(p, b, speed);
+			if (diff != null) {
+				mismatches++;
+				if (mismatches <= 10) {
+					System.out.println("Route " + r + " : " + diff); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+			}
+		}
+		System.out.println("Routes " + routes + ", mismatches " + mismatches); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private static class TestRoad extends BinaryMapDataObject {
+		TestRoad(int[] coordinates) {
+			this.coordinates = coordinates;
+		}
+	}
+
+	private static List<RouteSegmentResult> randomRoute(Random rnd) {
+		List<RouteSegmentResult> segments = new ArrayList<RouteSegmentResult>();
+		int x = MapUtils.get31TileNumberX(37.6);
+		int y = MapUtils.get31TileNumberY(55.75);
+		double direction = rnd.nextDouble() * 2 * Math.PI;
+		int count = 1 + rnd.nextInt(8);
+		for (int k = 0; k < count; k++) {
+			int points = 2 + rnd.nextInt(15);
+			int[] c = new int[points * 2];
+			for (int i = 0; i < points; i++) {
+				if (i > 0) {
+					direction += (rnd.nextDouble() - 0.5) * (rnd.nextInt(4) == 0 ? 1 : 0.2);
+					// meters (31 tile unit is about 1 cm at that latitude)
+					double step = rnd.nextInt(5) == 0 ? rnd.nextInt(10) : 5 + rnd.nextInt(150);
+					x += (int) (Math.cos(direction) * step / 0.01);
+					y += (int) (Math.sin(direction) * step / 0.01);
+				}
+				c[2 * i] = x;
+				c[2 * i + 1] = y;
+			}
+			RouteSegmentResult s = new RouteSegmentResult();
+			if (rnd.nextBoolean()) {
+				// road goes in opposite direction
+				int[] rc = new int[c.length];
+				for (int i = 0; i < points; i++) {
+					rc[2 * i] = c[2 * (points - 1 - i)];
+					rc[2 * i + 1] = c[2 * (points - 1 - i) + 1];
+				}
+				s.object = new TestRoad(rc);
+				s.startPointIndex = points - 1;
+				s.endPointIndex = 0;
+			} else {
+				s.object = new TestRoad(c);
+				s.startPointIndex = 0;
+				s.endPointIndex = points - 1;
+			}
+			segments.add(s);
+			// sharp turn between roads
+			direction += (rnd.nextDouble() - 0.5) * Math.PI * 2;
+		}
+		return segments;
+	}
+
+	private static class BatchResult {
+		List<LatLon> points;
+		int[] listDistance;
+		List<RouteInstruction> instructions = new ArrayList<RouteInstruction>();
+	}
+
+	private static float distance(LatLon l1, LatLon l2) {
+		return (float) MapUtils.getDistance(l1, l2);
+	}
+
+	private static float bearing(LatLon l1, LatLon l2) {
+		double lat1 = Math.toRadians(l1.getLatitude());
+		double lat2 = Math.toRadians(l2.getLatitude());
+		double dLon = Math.toRadians(l2.getLongitude() - l1.getLongitude());
+		double y = Math.sin(dLon) * Math.cos(lat2);
+		double x = Math.cos(lat1) * Math.sin(lat2) - Math.sin(lat1) * Math.cos(lat2) * Math.cos(dLon);
+		return (float) Math.toDegrees(Math.atan2(y, x));
+	}
+
+	/**
+	 * Former RouteProvider.prepareResult and addMissingTurnsToRoute
+	 */
+	private static BatchResult calculateBatch(List<LatLon> locations, float speed, int minDistanceForTurn, LatLon start) {
+		BatchResult res = new BatchResult();
+		res.points = locations;
+		if (start != null && distance(locations.get(0), start) > MIN_DISTANCE_TO_ADD_START) {
+			locations.add(0, start);
+		}
+		for (int i = 0; i < locations.size() - 1;) {
+			if (distance(locations.get(i), locations.get(i + 1)) == 0) {
+				locations.remove(i);
+			} else {
+				i++;
+			}
+		}
+		int[] listDistance = new int[locations.size()];
+		for (int i = locations.size() - 1; i > 0; i--) {
+			listDistance[i - 1] = (int) distance(locations.get(i - 1), locations.get(i));
+			listDistance[i - 1] += listDistance[i];
+		}
+		res.listDistance = listDistance;
+
+		int previousLocation = 0;
+		int prevBearingLocation = 0;
+		RouteInstruction previousInfo = new RouteInstruction();
+		previousInfo.turnType = C;
+		res.instructions.add(previousInfo);
+		int distForTurn = 0;
+		float previousBearing = 0;
+		int startTurnPoint = 0;
+		for (int i = 1; i < locations.size() - 1; i++) {
+			LatLon next = locations.get(i + 1);
+			LatLon current = locations.get(i);
+			float bearing = bearing(current, next);
+			while (prevBearingLocation < i - 1) {
+				if (distance(locations.get(prevBearingLocation + 1), current) > BEARING_DISTANCE) {
+					prevBearingLocation++;
+				} else {
+					break;
+				}
+			}
+			if (distForTurn == 0) {
+				previousBearing = bearing(locations.get(prevBearingLocation), current);
+				startTurnPoint = i;
+			}
+			float delta = previousBearing - bearing;
+			while (delta < 0) {
+				delta += 360;
+			}
+			while (delta > 360) {
+				delta -= 360;
+			}
+			distForTurn += distance(locations.get(i), locations.get(i + 1));
+			if (distForTurn < minDistanceForTurn) {
+				continue;
+			}
+			if (delta > 45 && delta < 315) {
+				String type;
+				if (delta < 60) {
+					type = TSLL;
+				} else if (delta < 120) {
+					type = TL;
+				} else if (delta < 150) {
+					type = TSHL;
+				} else if (delta < 210) {
+					type = TU;
+				} else if (delta < 240) {
+					type = TSHR;
+				} else if (delta < 300) {
+					type = TR;
+				} else {
+					type = TSLR;
+				}
+				previousInfo.distance = listDistance[previousLocation] - listDistance[i];
+				previousInfo.expectedTime = (int) (previousInfo.distance / speed);
+				previousInfo = new RouteInstruction();
+				previousInfo.turnType = type;
+				previousInfo.turnAngle = 360 - delta;
+				previousInfo.routePointOffset = startTurnPoint;
+				res.instructions.add(previousInfo);
+				previousLocation = startTurnPoint;
+				prevBearingLocation = i;
+			}
+			distForTurn = 0;
+		}
+		previousInfo.distance = listDistance[previousLocation];
+		previousInfo.expectedTime = (int) (previousInfo.distance / speed);
+		if (previousInfo.distance > MIN_DISTANCE_TO_ADD_LAST) {
+			RouteInstruction info = new RouteInstruction();
+			info.turnType = C;
+			info.routePointOffset = locations.size() - 1;
+			res.instructions.add(info);
+		}
+		return res;
+	}
+
+	/**
+	 * @return description of difference or null if results are equal (distances of batch are sums of rounded
+	 *         distances, so they could differ by number of points)
+	 */
+	private static String compare(RouteResultPipeline p, BatchResult b, float speed) {
+		if (p.getPointsSize() != b.points.size()) {
+			return "points " + p.getPointsSize() + " != " + b.points.size(); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		int n = b.points.size();
+		for (int i = 0; i < n; i++) {
+			LatLon l = b.points.get(i);
+			if (Math.abs(p.getLatitude(i) - l.getLatitude()) > 1e-6 || Math.abs(p.getLongitude(i) - l.getLongitude()) > 1e-6) {
+				return "point " + i; //$NON-NLS-1$
+			}
+			if (Math.abs(p.getDistanceToEnd(i) - b.listDistance[i]) > n) {
+				return "distance to end at " + i + " : " + p.getDistanceToEnd(i) + " != " + b.listDistance[i]; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			}
+		}
+		List<RouteInstruction> pi = p.getInstructions();
+		if (pi.size() != b.instructions.size()) {
+			return "instructions " + pi.size() + " != " + b.instructions.size(); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		for (int i = 0; i < pi.size(); i++) {
+			RouteInstruction r1 = pi.get(i);
+			RouteInstruction r2 = b.instructions.get(i);
+			if (!r1.turnType.equals(r2.turnType) || r1.routePointOffset != r2.routePointOffset || r1.turnAngle != r2.turnAngle) {
+				return "instruction " + i + " : " + r1.turnType + " " + r1.routePointOffset + " != " + r2.turnType + " " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+						+ r2.routePointOffset;
+			}
+			if (Math.abs(r1.distance - r2.distance) > n || Math.abs(r1.expectedTime - r2.expectedTime) > n / speed + 1) {
+				return "instruction " + i + " distance " + r1.distance + " != " + r2.distance; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,149 @@
+package net.osmand.router;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import net.osmand.router.RoutingProfile.RoadRule;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Routing profiles read from xml (like rendering rules), default profiles are in routing.xml.
+ * New vehicle (truck, wheelchair...) is added as new profile in xml without code.
+ */
+public class RoutingConfiguration {
+
+	public static final String CAR = "car"; //$NON-NLS-1$
+	public static final String BICYCLE = "bicycle"; //$NON-NLS-1$
+	public static final String PEDESTRIAN = "pedestrian"; //$NON-NLS-1$
+
+	private static final float KMH_TO_MS = 1 / 3.6f;
+
+	private static RoutingConfiguration defaultConfiguration;
+
+	private final Map<String, RoutingProfile> profiles = new LinkedHashMap<String, RoutingProfile>();
+
+	/**
+	 * @return profiles of routing.xml (loaded once and shared)
+	 */
+	public static synchronized RoutingConfiguration getDefault() {
+		if (defaultConfiguration == null) {
+			InputStream is = RoutingConfiguration.class.getResourceAsStream("routing.xml"); //$NON-NLS-1$
+			try {
+				try {
+					defaultConfiguration = parseFromInputStream(is);
+				} finally {
+					is.close();
+				}
+			} catch (SAXException e) {
+				throw new IllegalStateException(e);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return defaultConfiguration;
+	}
+
+	public static RoutingConfiguration parseFromInputStream(InputStream is) throws SAXException, IOException {
+		RoutingConfiguration config = new RoutingConfiguration();
+		try {
+			final SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+			saxParser.parse(is, config.new RoutingProfilesHandler(saxParser));
+		} catch (ParserConfigurationException e) {
+			throw new SAXException(e);
+		}
+		return config;
+	}
+
+	public Collection<String> getProfileNames() {
+		return profiles.keySet();
+	}
+
+	public RoutingProfile getProfile(String name) {
+		return profiles.get(name);
+	}
+
+	/**
+	 * @return new router of profile or null if profile is not defined
+	 */
+	public VehicleRouter getRouter(String name) {
+		RoutingProfile profile = profiles.get(name);
+		return profile == null ? null : new GeneralRouter(profile);
+	}
+
+	private class RoutingProfilesHandler extends DefaultHandler {
+		private final SAXParser parser;
+		private RoutingProfile profile;
+
+		public RoutingProfilesHandler(SAXParser parser) {
+			this.parser = parser;
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String name, Attributes attributes) throws SAXException {
+			name = parser.isNamespaceAware() ? localName : name;
+			if ("profile".equals(name)) { //$NON-NLS-1$
+				profile = new RoutingProfile(attributes.getValue("name")); //$NON-NLS-1$
+				profile.defaultSpeed = parseFloat(attributes, "defaultSpeed", 3.6f) * KMH_TO_MS; //$NON-NLS-1$
+				profile.defaultPriority = parseFloat(attributes, "defaultPriority", 1); //$NON-NLS-1$
+				profile.minDefaultSpeed = parseFloat(attributes, "minDefaultSpeed", 3.6f) * KMH_TO_MS; //$NON-NLS-1$
+				profile.maxDefaultSpeed = parseFloat(attributes, "maxDefaultSpeed", 3.6f) * KMH_TO_MS; //$NON-NLS-1$
+				profile.useMaxspeed = Boolean.parseBoolean(attributes.getValue("useMaxspeed")); //$NON-NLS-1$
+				profile.oneway = !"false".equals(attributes.getValue("oneway")); //$NON-NLS-1$ //$NON-NLS-2$
+				profile.minPriority = parseFloat(attributes, "minPriority", 0); //$NON-NLS-1$
+				profile.maxPriority = parseFloat(attributes, "maxPriority", Float.MAX_VALUE); //$NON-NLS-1$
+				profile.turnTime = parseFloat(attributes, "turnTime", 0); //$NON-NLS-1$
+				profile.sharpTurnTime = parseFloat(attributes, "sharpTurnTime", 0); //$NON-NLS-1$
+				profile.freeTurnOnlyAtRoadStart = Boolean.parseBoolean(attributes.getValue("freeTurnOnlyAtRoadStart")); //$NON-NLS-1$
+				String levels = attributes.getValue("priorityLevels"); //$NON-NLS-1$
+				if (levels != null) {
+					String[] s = levels.split(","); //$NON-NLS-1$
+					profile.priorityLevels = new float[s.length];
+					for (int i = 0; i < s.length; i++) {
+						profile.priorityLevels[i] = Float.parseFloat(s[i].trim());
+					}
+				}
+				profiles.put(profile.getName(), profile);
+			} else if ("road".equals(name) || "point".equals(name)) { //$NON-NLS-1$ //$NON-NLS-2$
+				if (profile == null) {
+					throw new SAXException("Rule is defined outside of profile"); //$NON-NLS-1$
+				}
+				RoadRule rule = new RoadRule();
+				rule.speed = parseFloat(attributes, "speed", 0) * KMH_TO_MS; //$NON-NLS-1$
+				rule.priority = parseFloat(attributes, "priority", 0); //$NON-NLS-1$
+				rule.obstacleTime = parseFloat(attributes, "obstacleTime", 0); //$NON-NLS-1$
+				RoutingProfile.addRule("road".equals(name) ? profile.roadRules : profile.pointRules, //$NON-NLS-1$
+						attributes.getValue("tag"), attributes.getValue("value"), rule); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String name) throws SAXException {
+			name = parser.isNamespaceAware() ? localName : name;
+			if ("profile".equals(name)) { //$NON-NLS-1$
+				profile = null;
+			}
+		}
+
+		private float parseFloat(Attributes attributes, String name, float defValue) throws SAXException {
+			String v = attributes.getValue(name);
+			if (v == null) {
+				return defValue;
+			}
+			try {
+				return Float.parseFloat(v);
+			} catch (NumberFormatException e) {
+				throw new SAXException("Attribute " + name + " is not a number : " + v); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+	}
+}
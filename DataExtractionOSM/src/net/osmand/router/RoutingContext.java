@@ -2,6 +2,7 @@ package net.osmand.router;
 
 import gnu.trove.map.TLongObjectMap;
 import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.procedure.TObjectProcedure;
 import gnu.trove.set.TIntSet;
 import gnu.trove.set.hash.TIntHashSet;
 
@@ -23,16 +24,25 @@ public class RoutingContext {
 	private boolean useStrategyOfIncreasingRoadPriorities = true;
 	// null - 2 ways, true - direct way, false - reverse way
 	private Boolean planRoadDirection = null;
-	private VehicleRouter router = new CarRouter();
+	private VehicleRouter router = RoutingConfiguration.getDefault().getRouter(RoutingConfiguration.CAR);
 	private boolean useDynamicRoadPrioritising = true;
 	// not used right now
 	private boolean usingShortestWay = false;
+	// keep backward search tree to reroute to the same target
+	private boolean incrementalRerouting = false;
 
 	
 	// 2. Routing memory cache
 	TLongObjectMap<BinaryMapDataObject> idObjects = new TLongObjectHashMap<BinaryMapDataObject>();
 	TLongObjectMap<RouteSegment> routes = new TLongObjectHashMap<RouteSegment>();
 	TIntSet loadedTiles = new TIntHashSet();
+	
+	// backward search tree of the last route (copies of segments, they are not changed by next searches)
+	// and key of target segment it leads to  
+	TLongObjectHashMap<RouteSegment> targetTree = null;
+	long targetKey = -1;
+	// segments visited by search that built the tree (rerouting that visits more falls back to full search)
+	int targetTreeVisitedSegments = 0;
 
 	// 3. debug information (package accessor)
 	long timeToLoad = 0;
@@ -40,6 +50,8 @@ public class RoutingContext {
 	int visitedSegments = 0;
 	// callback of processing segments
 	RouteSegmentVisitor visitor = null;
+	// receives segments of found route in route order
+	RouteResultPipeline resultPipeline = null;
 	
 	
 	public RouteSegmentVisitor getVisitor() {
@@ -53,6 +65,55 @@ public class RoutingContext {
 	public void setVisitor(RouteSegmentVisitor visitor) {
 		this.visitor = visitor;
 	}
+	
+	public RouteResultPipeline getResultPipeline() {
+		return resultPipeline;
+	}
+	
+	public void setResultPipeline(RouteResultPipeline resultPipeline) {
+		this.resultPipeline = resultPipeline;
+	}
+
+	public boolean isIncrementalRerouting() {
+		return incrementalRerouting;
+	}
+	
+	/**
+	 * Rerouting keeps loaded roads and backward search tree to the target,
+	 * so the next search to the same target is only a forward search till that tree (or the last route) is reached 
+	 */
+	public void setIncrementalRerouting(boolean incrementalRerouting) {
+		this.incrementalRerouting = incrementalRerouting;
+		if (!incrementalRerouting) {
+			clearTargetTree();
+		}
+	}
+	
+	public void clearTargetTree() {
+		targetTree = null;
+		targetKey = -1;
+		targetTreeVisitedSegments = 0;
+	}
+	
+	/**
+	 * Clears search information stored in loaded segments by previous search  
+	 */
+	void resetSearchState() {
+		routes.forEachValue(new TObjectProcedure<RouteSegment>() {
+			@Override
+			public boolean execute(RouteSegment s) {
+				for (; s != null; s = s.next) {
+					s.parentRoute = null;
+					s.parentSegmentEnd = 0;
+					s.segmentEnd = s.segmentStart;
+					s.distanceFromStart = 0;
+					s.distanceToEnd = 0;
+					s.timeFromStart = 0;
+				}
+				return true;
+			}
+		});
+	}
 
 	public boolean isUseDynamicRoadPrioritising() {
 		return useDynamicRoadPrioritising;
@@ -0,0 +1,636 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.osm.MapRenderingTypes;
+import net.osmand.router.BinaryRoutePlanner.RouteSegment;
+
+/**
+ * Immutable compact graph of roads loaded into routing context.
+ * Node is a point of road, edges go along the road (respecting one way) and to other roads
+ * at intersections (respecting turn restrictions). Edge time is calculated with vehicle router
+ * (speed, obstacles and turn time) in the same way as in BinaryRoutePlanner.
+ * Graph could be searched from different threads at the same time (every thread uses own {@link Search}),
+ * router is used only while graph is built.
+ */
+public class RoutingGraph {
+
+	// zoom of grid to find nearest segment
+	private static final int GRID_ZOOM = 15;
+	private static final int MAX_GRID_RADIUS = 4;
+
+	private final BinaryMapDataObject[] roads;
+	// sorted ids of roads (the same order as roads)
+	private final long[] roadIds;
+	private final int[] roadFirstNode;
+	// speed and one way of roads are defined by router only while graph is built (router is not thread safe)
+	private final float[] roadSpeed;
+	private final boolean[] roadOneWay;
+	private final int[] nodeRoad;
+	private final int[] edgeStart;
+	private final int[] edgeTarget;
+	private final float[] edgeTime;
+	private final float[] edgeDistance;
+	// incoming edges (index of edge and its source node) for reverse search
+	private volatile int[] reverseEdgeStart;
+	private int[] reverseEdges;
+	private int[] reverseEdgeSource;
+	// connected component of node (edge directions are ignored)
+	private final int[] component;
+	// segment start nodes by grid cell
+	private final TLongObjectHashMap<TIntArrayList> grid = new TLongObjectHashMap<TIntArrayList>();
+	private final VehicleRouter router;
+
+	/**
+	 * Point on the road (projection)
+	 */
+	public static class GraphPoint {
+		// segment is between node and node + 1
+		final int node;
+		final int x;
+		final int y;
+
+		GraphPoint(int node, int x, int y) {
+			this.node = node;
+			this.x = x;
+			this.y = y;
+		}
+
+		public int getNode() {
+			return node;
+		}
+
+		public int getX() {
+			return x;
+		}
+
+		public int getY() {
+			return y;
+		}
+	}
+
+	public RoutingGraph(RoutingContext ctx) {
+		this.router = ctx.getRouter();
+		BinaryMapDataObject[] rs = ctx.values().toArray(new BinaryMapDataObject[ctx.idObjects.size()]);
+		Arrays.sort(rs, new Comparator<BinaryMapDataObject>() {
+			@Override
+			public int compare(BinaryMapDataObject o1, BinaryMapDataObject o2) {
+				return o1.getId() < o2.getId() ? -1 : (o1.getId() == o2.getId() ? 0 : 1);
+			}
+		});
+		roads = rs;
+		roadIds = new long[rs.length];
+		roadFirstNode = new int[rs.length + 1];
+		roadSpeed = new float[rs.length];
+		roadOneWay = new boolean[rs.length];
+		int nodes = 0;
+		for (int i = 0; i < rs.length; i++) {
+			roadIds[i] = rs[i].getId();
+			roadFirstNode[i] = nodes;
+			nodes += rs[i].getPointsLength();
+		}
+		roadFirstNode[rs.length] = nodes;
+		nodeRoad = new int[nodes];
+		edgeStart = new int[nodes + 1];
+		TIntArrayList targets = new TIntArrayList(nodes * 3);
+		FloatList times = new FloatList(nodes * 3);
+		FloatList distances = new FloatList(nodes * 3);
+
+		int gridShift = 31 - GRID_ZOOM;
+		for (int r = 0; r < rs.length; r++) {
+			BinaryMapDataObject road = rs[r];
+			boolean oneway = router.isOneWay(road);
+			double speed = router.defineSpeed(road);
+			if (speed == 0) {
+				speed = router.getMinDefaultSpeed();
+			}
+			roadSpeed[r] = (float) speed;
+			roadOneWay[r] = oneway;
+			int len = road.getPointsLength();
+			for (int i = 0; i < len; i++) {
+				int node = roadFirstNode[r] + i;
+				nodeRoad[node] = r;
+				edgeStart[node] = targets.size();
+				int x = road.getPoint31XTile(i);
+				int y = road.getPoint31YTile(i);
+				// 1. along the road
+				if (i + 1 < len) {
+					double d = BinaryRoutePlanner.squareRootDist(x, y, road.getPoint31XTile(i + 1), road.getPoint31YTile(i + 1));
+					targets.add(node + 1);
+					times.add((float) (d / speed + router.defineObstacle(road, i + 1)));
+					distances.add((float) d);
+					indexSegment(gridShift, node, x, y, road.getPoint31XTile(i + 1), road.getPoint31YTile(i + 1));
+				}
+				if (i > 0 && !oneway) {
+					double d = BinaryRoutePlanner.squareRootDist(x, y, road.getPoint31XTile(i - 1), road.getPoint31YTile(i - 1));
+					targets.add(node - 1);
+					times.add((float) (d / speed + router.defineObstacle(road, i - 1)));
+					distances.add((float) d);
+				}
+				// 2. turns to other roads
+				RouteSegment chain = ctx.routes.get((((long) x) << 31) + (long) y);
+				RouteSegment self = chain;
+				while (self != null && (self.road != road || self.segmentStart != i)) {
+					self = self.next;
+				}
+				if (self == null) {
+					continue;
+				}
+				for (RouteSegment next = chain; next != null; next = next.next) {
+					// the same road is kept : closed ring connects its first and last points
+					if (next == self) {
+						continue;
+					}
+					int nr = Arrays.binarySearch(roadIds, next.road.getId());
+					// skip roads replaced by more complete version of the same road
+					if (nr < 0 || roads[nr] != next.road) {
+						continue;
+					}
+					int target = roadFirstNode[nr] + next.segmentStart;
+					if (!isTurnAllowed(road, next.road, chain)) {
+						continue;
+					}
+					targets.add(target);
+					times.add((float) router.calculateTurnTime(self, next, i));
+					distances.add(0);
+				}
+			}
+		}
+		edgeStart[nodes] = targets.size();
+		edgeTarget = targets.toArray();
+		edgeTime = times.toArray();
+		edgeDistance = distances.toArray();
+		component = buildComponents();
+	}
+
+	private int[] buildComponents() {
+		int[] c = new int[getNodesCount()];
+		for (int i = 0; i < c.length; i++) {
+			c[i] = i;
+		}
+		for (int node = 0; node < c.length; node++) {
+			for (int e = edgeStart[node]; e < edgeStart[node + 1]; e++) {
+				int a = findRoot(c, node);
+				int b = findRoot(c, edgeTarget[e]);
+				if (a != b) {
+					c[Math.max(a, b)] = Math.min(a, b);
+				}
+			}
+		}
+		for (int i = 0; i < c.length; i++) {
+			c[i] = findRoot(c, i);
+		}
+		return c;
+	}
+
+	private static int findRoot(int[] c, int node) {
+		while (c[node] != node) {
+			c[node] = c[c[node]];
+			node = c[node];
+		}
+		return node;
+	}
+
+	private void indexSegment(int shift, int node, int x1, int y1, int x2, int y2) {
+		for (int gx = Math.min(x1, x2) >>> shift; gx <= Math.max(x1, x2) >>> shift; gx++) {
+			for (int gy = Math.min(y1, y2) >>> shift; gy <= Math.max(y1, y2) >>> shift; gy++) {
+				long key = (((long) gx) << 32) | gy;
+				TIntArrayList l = grid.get(key);
+				if (l == null) {
+					l = new TIntArrayList(8);
+					grid.put(key, l);
+				}
+				l.add(node);
+			}
+		}
+	}
+
+	static boolean isTurnAllowed(BinaryMapDataObject from, BinaryMapDataObject to, RouteSegment chain) {
+		for (int i = 0; i < from.getRestrictionCount(); i++) {
+			if (from.getRestriction(i) == to.getId()) {
+				int type = from.getRestrictionType(i);
+				return type != MapRenderingTypes.RESTRICTION_NO_LEFT_TURN && type != MapRenderingTypes.RESTRICTION_NO_RIGHT_TURN
+						&& type != MapRenderingTypes.RESTRICTION_NO_STRAIGHT_ON && type != MapRenderingTypes.RESTRICTION_NO_U_TURN;
+			}
+		}
+		// exclusive restriction to another road at this intersection
+		for (int i = 0; i < from.getRestrictionCount(); i++) {
+			int type = from.getRestrictionType(i);
+			if (type == MapRenderingTypes.RESTRICTION_ONLY_LEFT_TURN || type == MapRenderingTypes.RESTRICTION_ONLY_RIGHT_TURN
+					|| type == MapRenderingTypes.RESTRICTION_ONLY_STRAIGHT_ON) {
+				for (RouteSegment s = chain; s != null; s = s.next) {
+					if (s.road.getId() == from.getRestriction(i)) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	public VehicleRouter getRouter() {
+		return router;
+	}
+
+	public int getNodesCount() {
+		return nodeRoad.length;
+	}
+
+	public int getEdgesCount() {
+		return edgeTarget.length;
+	}
+
+	/**
+	 * @return node or -1 if road is not in graph
+	 */
+	public int getNode(BinaryMapDataObject road, int point) {
+		int r = Arrays.binarySearch(roadIds, road.getId());
+		if (r < 0 || point >= roads[r].getPointsLength()) {
+			return -1;
+		}
+		return roadFirstNode[r] + point;
+	}
+
+	public BinaryMapDataObject getRoad(int node) {
+		return roads[nodeRoad[node]];
+	}
+
+	public int getPointIndex(int node) {
+		return node - roadFirstNode[nodeRoad[node]];
+	}
+
+	public int getX(int node) {
+		return getRoad(node).getPoint31XTile(getPointIndex(node));
+	}
+
+	public int getY(int node) {
+		return getRoad(node).getPoint31YTile(getPointIndex(node));
+	}
+
+	public double getSpeed(int node) {
+		return roadSpeed[nodeRoad[node]];
+	}
+
+	/**
+	 * Nodes of different components are not connected at all, so search from one of them
+	 * never reaches another (nodes of the same component could be unreachable because of one way roads)
+	 */
+	public int getComponent(int node) {
+		return component[node];
+	}
+
+	public boolean isOneWay(int node) {
+		return roadOneWay[nodeRoad[node]];
+	}
+
+	/**
+	 * Finds the nearest road segment (projection of the point)
+	 * @return null if there are no roads near
+	 */
+	public GraphPoint findNearest(int x, int y) {
+		int shift = 31 - GRID_ZOOM;
+		int cx = x >>> shift;
+		int cy = y >>> shift;
+		GraphPoint best = null;
+		double bestDist = 0;
+		for (int radius = 0; radius <= MAX_GRID_RADIUS && best == null; radius++) {
+			// ring of cells (segments could be found in several cells)
+			for (int gx = cx - radius; gx <= cx + radius; gx++) {
+				for (int gy = cy - radius; gy <= cy + radius; gy++) {
+					if (Math.max(Math.abs(gx - cx), Math.abs(gy - cy)) != radius) {
+						continue;
+					}
+					TIntArrayList l = grid.get((((long) gx) << 32) | gy);
+					if (l == null) {
+						continue;
+					}
+					for (int k = 0; k < l.size(); k++) {
+						int node = l.get(k);
+						int ax = getX(node);
+						int ay = getY(node);
+						int bx = getX(node + 1);
+						int by = getY(node + 1);
+						double len2 = ((double) bx - ax) * (bx - ax) + ((double) by - ay) * (by - ay);
+						double t = len2 == 0 ? 0 : (((double) x - ax) * (bx - ax) + ((double) y - ay) * (by - ay)) / len2;
+						t = Math.max(0, Math.min(1, t));
+						int px = (int) (ax + t * (bx - ax));
+						int py = (int) (ay + t * (by - ay));
+						double d = BinaryRoutePlanner.squareRootDist(px, py, x, y);
+						if (best == null || d < bestDist) {
+							best = new GraphPoint(node, px, py);
+							bestDist = d;
+						}
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Dijkstra search on graph (all arrays are reused between searches).
+	 * Reverse search goes against edge directions (calculates time to reach the start from other nodes).
+	 */
+	public class Search {
+		private final boolean reverse;
+		private final double[] time = new double[getNodesCount()];
+		private final float[] distance = new float[getNodesCount()];
+		private final int[] parent = new int[getNodesCount()];
+		// node is reached in the current search if stamp equals to search stamp
+		private final int[] stamp = new int[getNodesCount()];
+		private final boolean[] settled = new boolean[getNodesCount()];
+		private final int[] stopStamp = new int[getNodesCount()];
+		private final TIntArrayList touched = new TIntArrayList();
+		private int currentStamp = 1;
+		private long[] heap = new long[64];
+		private int heapSize = 0;
+
+		public Search() {
+			this(false);
+		}
+
+		public Search(boolean reverse) {
+			this.reverse = reverse;
+			if (reverse) {
+				buildReverseEdges();
+			}
+		}
+
+		public boolean isReverse() {
+			return reverse;
+		}
+
+		public void reset() {
+			for (int i = 0; i < touched.size(); i++) {
+				settled[touched.get(i)] = false;
+			}
+			touched.resetQuick();
+			currentStamp++;
+			heapSize = 0;
+		}
+
+		public void addStart(int node, double t, double d) {
+			update(node, t, d, -1);
+		}
+
+		/**
+		 * Adds start at point of road : both ends of segment (only allowed direction for one way road).
+		 * For reverse search it is the end point of route.
+		 */
+		public void addStart(GraphPoint p, double t, double d) {
+			double speed = getSpeed(p.node);
+			double d1 = BinaryRoutePlanner.squareRootDist(p.x, p.y, getX(p.node), getY(p.node));
+			double d2 = BinaryRoutePlanner.squareRootDist(p.x, p.y, getX(p.node + 1), getY(p.node + 1));
+			boolean oneway = isOneWay(p.node);
+			if (!reverse || !oneway) {
+				update(p.node + 1, t + d2 / speed, d + d2, -1);
+			}
+			if (reverse || !oneway) {
+				update(p.node, t + d1 / speed, d + d1, -1);
+			}
+		}
+
+		private void update(int node, double t, double d, int from) {
+			if (stamp[node] != currentStamp) {
+				stamp[node] = currentStamp;
+				touched.add(node);
+			} else if (time[node] <= t) {
+				return;
+			}
+			time[node] = t;
+			distance[node] = (float) d;
+			parent[node] = from;
+			push(node, t);
+		}
+
+		/**
+		 * Runs search till all stop nodes are settled or time limit is reached.
+		 * Search could be continued by the next call (for example with greater time limit).
+		 * @param stopNodes - could be null (then whole area within time limit is searched)
+		 * @param maxTime - limit in seconds
+		 */
+		public void run(int[] stopNodes, double maxTime) {
+			int toSettle = 0;
+			if (stopNodes != null) {
+				for (int n : stopNodes) {
+					if (n >= 0 && stopStamp[n] != currentStamp && !(isReached(n) && settled[n])) {
+						stopStamp[n] = currentStamp;
+						toSettle++;
+					}
+				}
+				if (toSettle == 0) {
+					return;
+				}
+			}
+			while (heapSize > 0) {
+				int node = (int) (heap[0] & 0xffffffffl);
+				if (settled[node]) {
+					pop();
+					continue;
+				}
+				double t = time[node];
+				if (t > maxTime) {
+					break;
+				}
+				pop();
+				settled[node] = true;
+				if (reverse) {
+					for (int k = reverseEdgeStart[node]; k < reverseEdgeStart[node + 1]; k++) {
+						int e = reverseEdges[k];
+						int source = reverseEdgeSource[k];
+						if (!settled[source]) {
+							update(source, t + edgeTime[e], distance[node] + edgeDistance[e], node);
+						}
+					}
+				} else {
+					for (int e = edgeStart[node]; e < edgeStart[node + 1]; e++) {
+						int target = edgeTarget[e];
+						if (!settled[target]) {
+							update(target, t + edgeTime[e], distance[node] + edgeDistance[e], node);
+						}
+					}
+				}
+				if (stopNodes != null && stopStamp[node] == currentStamp) {
+					toSettle--;
+					if (toSettle == 0) {
+						break;
+					}
+				}
+			}
+		}
+
+		public boolean isReached(int node) {
+			return node >= 0 && stamp[node] == currentStamp;
+		}
+
+		public boolean isSettled(int node) {
+			return isReached(node) && settled[node];
+		}
+
+		/**
+		 * Nodes reached by the current search
+		 */
+		public TIntArrayList getReachedNodes() {
+			return touched;
+		}
+
+		/**
+		 * @return time in seconds or positive infinity if node is not reached
+		 */
+		public double getTime(int node) {
+			return isReached(node) ? time[node] : Double.POSITIVE_INFINITY;
+		}
+
+		public double getDistance(int node) {
+			return isReached(node) ? distance[node] : Double.POSITIVE_INFINITY;
+		}
+
+		/**
+		 * @return previous node of the best path (next node for reverse search) or -1 for start
+		 */
+		public int getParent(int node) {
+			return parent[node];
+		}
+
+		/**
+		 * Time to reach point of road (for reverse search time from point of road)
+		 */
+		public double getTime(GraphPoint p) {
+			return getTimeOrDistance(p, true);
+		}
+
+		/**
+		 * Distance of the fastest path to point of road
+		 */
+		public double getDistance(GraphPoint p) {
+			return getTimeOrDistance(p, false);
+		}
+
+		private double getTimeOrDistance(GraphPoint p, boolean returnTime) {
+			double speed = getSpeed(p.node);
+			double d1 = BinaryRoutePlanner.squareRootDist(p.x, p.y, getX(p.node), getY(p.node));
+			double d2 = BinaryRoutePlanner.squareRootDist(p.x, p.y, getX(p.node + 1), getY(p.node + 1));
+			boolean oneway = isOneWay(p.node);
+			double bestTime = Double.POSITIVE_INFINITY;
+			double bestDist = Double.POSITIVE_INFINITY;
+			// forward search comes to point from node (or node + 1), reverse goes from point to node + 1 (or node)
+			if (!reverse || !oneway) {
+				double t = getTime(p.node) + d1 / speed;
+				if (t < bestTime) {
+					bestTime = t;
+					bestDist = getDistance(p.node) + d1;
+				}
+			}
+			if (reverse || !oneway) {
+				double t = getTime(p.node + 1) + d2 / speed;
+				if (t < bestTime) {
+					bestTime = t;
+					bestDist = getDistance(p.node + 1) + d2;
+				}
+			}
+			return returnTime ? bestTime : bestDist;
+		}
+
+		// heap of (float time bits, node) : bits of positive floats are ordered as floats
+		private void push(int node, double t) {
+			if (heapSize == heap.length) {
+				long[] n = new long[heap.length * 2];
+				System.arraycopy(heap, 0, n, 0, heapSize);
+				heap = n;
+			}
+			long key = (((long) Float.floatToIntBits((float) Math.max(0, t))) << 32) | node;
+			int i = heapSize++;
+			while (i > 0) {
+				int p = (i - 1) >> 1;
+				if (heap[p] <= key) {
+					break;
+				}
+				heap[i] = heap[p];
+				i = p;
+			}
+			heap[i] = key;
+		}
+
+		private long pop() {
+			long top = heap[0];
+			long last = heap[--heapSize];
+			int i = 0;
+			while (true) {
+				int c = 2 * i + 1;
+				if (c >= heapSize) {
+					break;
+				}
+				if (c + 1 < heapSize && heap[c + 1] < heap[c]) {
+					c++;
+				}
+				if (heap[c] >= last) {
+					break;
+				}
+				heap[i] = heap[c];
+				i = c;
+			}
+			heap[i] = last;
+			return top;
+		}
+	}
+
+	/**
+	 * Incoming edges (built on first reverse search)
+	 */
+	private synchronized void buildReverseEdges() {
+		if (reverseEdgeStart != null) {
+			return;
+		}
+		int nodes = getNodesCount();
+		int[] start = new int[nodes + 1];
+		for (int e = 0; e < edgeTarget.length; e++) {
+			start[edgeTarget[e] + 1]++;
+		}
+		for (int i = 0; i < nodes; i++) {
+			start[i + 1] += start[i];
+		}
+		int[] fill = new int[nodes];
+		int[] edges = new int[edgeTarget.length];
+		int[] sources = new int[edgeTarget.length];
+		for (int n = 0; n < nodes; n++) {
+			for (int e = edgeStart[n]; e < edgeStart[n + 1]; e++) {
+				int t = edgeTarget[e];
+				int k = start[t] + fill[t]++;
+				edges[k] = e;
+				sources[k] = n;
+			}
+		}
+		reverseEdges = edges;
+		reverseEdgeSource = sources;
+		reverseEdgeStart = start;
+	}
+
+	private static class FloatList {
+		private float[] values;
+		private int size = 0;
+
+		FloatList(int capacity) {
+			values = new float[Math.max(16, capacity)];
+		}
+
+		void add(float v) {
+			if (size == values.length) {
+				float[] n = new float[size * 2];
+				System.arraycopy(values, 0, n, 0, size);
+				values = n;
+			}
+			values[size++] = v;
+		}
+
+		float[] toArray() {
+			float[] r = new float[size];
+			System.arraycopy(values, 0, r, 0, size);
+			return r;
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package net.osmand.router;
+
+import gnu.trove.iterator.TIntObjectIterator;
+import gnu.trove.map.TIntObjectMap;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+import net.osmand.binary.BinaryMapIndexReader.TagValuePair;
+
+/**
+ * Vehicle routing profile defined in xml (see {@link RoutingConfiguration}).
+ * Profile is immutable after loading and is shared between threads, rules of tag/value
+ * are compiled for every map index into arrays indexed by key of encoding rule ({@link MapIndex#getRuleKey(int)}).
+ */
+public class RoutingProfile {
+
+	static final byte ACCEPT_LINE = 1;
+	static final byte ACCEPT_POINT = 2;
+
+	static class RoadRule {
+		// m/s or 0 if default
+		float speed;
+		// 0 if default
+		float priority;
+		// seconds
+		float obstacleTime;
+	}
+
+	/**
+	 * Rules of profile for one map index
+	 */
+	static class CompiledRules {
+		final byte[] accept;
+		final float[] speed;
+		final float[] priority;
+		final float[] obstacleTime;
+
+		CompiledRules(int size) {
+			accept = new byte[size];
+			speed = new float[size];
+			priority = new float[size];
+			obstacleTime = new float[size];
+		}
+	}
+
+	final String name;
+	// road speeds in m/s
+	float defaultSpeed = 1;
+	float defaultPriority = 1;
+	float minDefaultSpeed = 1;
+	float maxDefaultSpeed = 1;
+	boolean useMaxspeed = false;
+	boolean oneway = true;
+	float minPriority = 0;
+	float maxPriority = Float.MAX_VALUE;
+	// ordered by decrease, empty if priority is not increased
+	float[] priorityLevels = new float[0];
+	float turnTime = 0;
+	float sharpTurnTime = 0;
+	// turn is free only to the first point of next road (not to the last)
+	boolean freeTurnOnlyAtRoadStart = false;
+
+	// tag -> value (null for any value) -> rule
+	final Map<String, Map<String, RoadRule>> roadRules = new LinkedHashMap<String, Map<String, RoadRule>>();
+	final Map<String, Map<String, RoadRule>> pointRules = new LinkedHashMap<String, Map<String, RoadRule>>();
+
+	private final Map<MapIndex, CompiledRules> compiledRules = Collections.synchronizedMap(new WeakHashMap<MapIndex, CompiledRules>());
+
+	RoutingProfile(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	RoadRule getRoadRule(TagValuePair pair) {
+		return getRule(roadRules, pair);
+	}
+
+	RoadRule getPointRule(TagValuePair pair) {
+		return getRule(pointRules, pair);
+	}
+
+	private static RoadRule getRule(Map<String, Map<String, RoadRule>> rules, TagValuePair pair) {
+		Map<String, RoadRule> values = rules.get(pair.tag);
+		if (values == null) {
+			return null;
+		}
+		RoadRule r = values.get(pair.value);
+		if (r == null) {
+			r = values.get(null);
+		}
+		return r;
+	}
+
+	static void addRule(Map<String, Map<String, RoadRule>> rules, String tag, String value, RoadRule rule) {
+		Map<String, RoadRule> values = rules.get(tag);
+		if (values == null) {
+			values = new LinkedHashMap<String, RoadRule>();
+			rules.put(tag, values);
+		}
+		values.put(value, rule);
+	}
+
+	/**
+	 * @return rules compiled for map index (compiled at first request)
+	 */
+	CompiledRules getCompiledRules(MapIndex index) {
+		CompiledRules rules = compiledRules.get(index);
+		if (rules == null) {
+			rules = compile(index);
+			compiledRules.put(index, rules);
+		}
+		return rules;
+	}
+
+	private CompiledRules compile(MapIndex index) {
+		TIntObjectMap<TagValuePair> decodingRules = index.getDecodingRules();
+		int size = 0;
+		for (int key : decodingRules.keys()) {
+			size = Math.max(size, key + 1);
+		}
+		CompiledRules c = new CompiledRules(size);
+		for (int i = 0; i < size; i++) {
+			c.speed[i] = defaultSpeed;
+			c.priority[i] = defaultPriority;
+		}
+		TIntObjectIterator<TagValuePair> it = decodingRules.iterator();
+		while (it.hasNext()) {
+			it.advance();
+			int key = it.key();
+			RoadRule road = getRoadRule(it.value());
+			if (road != null) {
+				c.accept[key] |= ACCEPT_LINE;
+				if (road.speed > 0) {
+					c.speed[key] = road.speed;
+				}
+				if (road.priority > 0) {
+					c.priority[key] = road.priority;
+				}
+			}
+			RoadRule point = getPointRule(it.value());
+			if (point != null) {
+				c.accept[key] |= ACCEPT_POINT;
+				c.obstacleTime[key] = point.obstacleTime;
+			}
+		}
+		return c;
+	}
+}
@@ -0,0 +1,239 @@
+package net.osmand.router;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import net.osmand.binary.BinaryMapDataObject;
+
+/**
+ * Observed speeds of roads by time buckets (for example every hour of week) read from memory mapped file.
+ * Roads are grouped by tile of their first point, ids of tile are read when road of that tile is requested at first time,
+ * speeds are read directly from mapped file, so lookup doesn't allocate objects.
+ * <p>
+ * File format (big endian) :
+ * header (magic, version, tile zoom, bucket minutes, buckets count, tiles count),
+ * tiles sorted by key (tile key, offset of tile data, roads count),
+ * tile data (sorted road ids as long, then speeds in km/h as unsigned byte for every road and bucket, 0 - not known).
+ */
+public class SpeedProfile {
+	private static final int MAGIC = 0x4f535350; // OSSP
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+	private static final int TILE_INDEX_SIZE = 12;
+	private static final int SECONDS_IN_WEEK = 7 * 24 * 60 * 60;
+	private static final float KMH_TO_MS = 1 / 3.6f;
+
+	private static class Tile {
+		long[] ids;
+		int speedsOffset;
+	}
+	private static final Tile EMPTY_TILE = new Tile();
+	static {
+		EMPTY_TILE.ids = new long[0];
+	}
+
+	private final RandomAccessFile raf;
+	private final MappedByteBuffer buffer;
+	private final int zoom;
+	private final int bucketSeconds;
+	private final int buckets;
+	private final int tilesCount;
+	private final TIntObjectHashMap<Tile> tiles = new TIntObjectHashMap<Tile>();
+
+	public SpeedProfile(File file) throws IOException {
+		raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+		buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			raf.close();
+			throw new IOException("Unsupported speed profile " + file.getName()); //$NON-NLS-1$
+		}
+		zoom = buffer.getInt(8);
+		bucketSeconds = buffer.getInt(12) * 60;
+		buckets = buffer.getInt(16);
+		tilesCount = buffer.getInt(20);
+	}
+
+	public int getBucketsCount() {
+		return buckets;
+	}
+
+	public int getBucketMinutes() {
+		return bucketSeconds / 60;
+	}
+
+	/**
+	 * @param secondOfWeek - time (seconds after monday 00:00), it could be greater than week
+	 * @return observed speed m/s or 0 if it is not known
+	 */
+	public float getSpeed(BinaryMapDataObject road, double secondOfWeek) {
+		Tile tile = getTile(road.getPoint31XTile(0), road.getPoint31YTile(0));
+		int ind = Arrays.binarySearch(tile.ids, road.getId());
+		if (ind < 0) {
+			return 0;
+		}
+		int bucket = (int) (secondOfWeek / bucketSeconds) % buckets;
+		int kmh = buffer.get(tile.speedsOffset + ind * buckets + bucket) & 0xff;
+		return kmh * KMH_TO_MS;
+	}
+
+	private synchronized Tile getTile(int x31, int y31) {
+		int tileKey = getTileKey(zoom, x31, y31);
+		Tile tile = tiles.get(tileKey);
+		if (tile == null) {
+			tile = readTile(tileKey);
+			tiles.put(tileKey, tile);
+		}
+		return tile;
+	}
+
+	private Tile readTile(int tileKey) {
+		// binary search in index of tiles
+		int l = 0;
+		int r = tilesCount - 1;
+		while (l <= r) {
+			int m = (l + r) >>> 1;
+			int pos = HEADER_SIZE + m * TILE_INDEX_SIZE;
+			int key = buffer.getInt(pos);
+			if (key < tileKey) {
+				l = m + 1;
+			} else if (key > tileKey) {
+				r = m - 1;
+			} else {
+				int offset = buffer.getInt(pos + 4);
+				int count = buffer.getInt(pos + 8);
+				Tile tile = new Tile();
+				tile.ids = new long[count];
+				for (int i = 0; i < count; i++) {
+					tile.ids[i] = buffer.getLong(offset + i * 8);
+				}
+				tile.speedsOffset = offset + count * 8;
+				return tile;
+			}
+		}
+		return EMPTY_TILE;
+	}
+
+	public void close() throws IOException {
+		synchronized (this) {
+			tiles.clear();
+		}
+		raf.close();
+	}
+
+	private static int getTileKey(int zoom, int x31, int y31) {
+		return ((x31 >>> (31 - zoom)) << zoom) | (y31 >>> (31 - zoom));
+	}
+
+	/**
+	 * @return seconds after monday 00:00 (local time) for time in ms
+	 */
+	public static int getSecondOfWeek(long time) {
+		Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(time);
+		int day = (c.get(Calendar.DAY_OF_WEEK) + 5) % 7;
+		return (day * 24 + c.get(Calendar.HOUR_OF_DAY)) * 3600 + c.get(Calendar.MINUTE) * 60 + c.get(Calendar.SECOND);
+	}
+
+	public static class RoadSpeeds {
+		final long roadId;
+		final int x31;
+		final int y31;
+		final byte[] speeds;
+
+		/**
+		 * @param x31 - first point of road
+		 * @param y31 - first point of road
+		 * @param speedsKmh - speed for every bucket (0 - not known)
+		 */
+		public RoadSpeeds(long roadId, int x31, int y31, int[] speedsKmh) {
+			this.roadId = roadId;
+			this.x31 = x31;
+			this.y31 = y31;
+			this.speeds = new byte[speedsKmh.length];
+			for (int i = 0; i < speedsKmh.length; i++) {
+				speeds[i] = (byte) Math.max(0, Math.min(255, speedsKmh[i]));
+			}
+		}
+	}
+
+	/**
+	 * Writes speed profile (for example prepared from historic travel times)
+	 * @param zoom - zoom of tiles to group roads (not greater than 15)
+	 * @param bucketMinutes - duration of one bucket (buckets are repeated after buckets * bucketMinutes)
+	 */
+	public static void write(File file, int zoom, int bucketMinutes, int buckets, List<RoadSpeeds> roads) throws IOException {
+		if (zoom > 15 || bucketMinutes * buckets > SECONDS_IN_WEEK / 60) {
+			throw new IllegalArgumentException();
+		}
+		final int z = zoom;
+		List<RoadSpeeds> sorted = new ArrayList<RoadSpeeds>(roads);
+		Collections.sort(sorted, new Comparator<RoadSpeeds>() {
+			@Override
+			public int compare(RoadSpeeds o1, RoadSpeeds o2) {
+				int t1 = getTileKey(z, o1.x31, o1.y31);
+				int t2 = getTileKey(z, o2.x31, o2.y31);
+				if (t1 != t2) {
+					return t1 < t2 ? -1 : 1;
+				}
+				return o1.roadId < o2.roadId ? -1 : (o1.roadId == o2.roadId ? 0 : 1);
+			}
+		});
+		// tiles index
+		List<int[]> index = new ArrayList<int[]>();
+		for (RoadSpeeds s : sorted) {
+			if (s.speeds.length != buckets) {
+				throw new IllegalArgumentException("Road " + s.roadId + " has " + s.speeds.length + " buckets"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			int key = getTileKey(zoom, s.x31, s.y31);
+			if (index.isEmpty() || index.get(index.size() - 1)[0] != key) {
+				index.add(new int[] { key, 0, 0 });
+			}
+			index.get(index.size() - 1)[2]++;
+		}
+		int offset = HEADER_SIZE + index.size() * TILE_INDEX_SIZE;
+		for (int[] t : index) {
+			t[1] = offset;
+			offset += t[2] * (8 + buckets);
+		}
+
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(zoom);
+			out.writeInt(bucketMinutes);
+			out.writeInt(buckets);
+			out.writeInt(index.size());
+			for (int[] t : index) {
+				out.writeInt(t[0]);
+				out.writeInt(t[1]);
+				out.writeInt(t[2]);
+			}
+			int start = 0;
+			for (int[] t : index) {
+				for (int i = start; i < start + t[2]; i++) {
+					out.writeLong(sorted.get(i).roadId);
+				}
+				for (int i = start; i < start + t[2]; i++) {
+					out.write(sorted.get(i).speeds);
+				}
+				start += t[2];
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,374 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import net.osmand.LogUtil;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.data.TransportRoute;
+import net.osmand.data.TransportStop;
+import net.osmand.osm.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Compact index of public transport network for {@link TransportRoutePlanner}.
+ * Every direction of transport route is a pattern (sequence of stops with ride time from the first stop),
+ * stops of different routes with the same id are merged. All references are kept in primitive arrays :
+ * stop -> patterns passing through the stop, pattern -> stops, stop -> stops reachable by walk.
+ * Files don't contain timetables, so ride time is estimated by distance and speed of route type
+ * and waiting for vehicle is half of usual interval between vehicles of that type.
+ */
+public class TransportNetwork {
+	private static final Log log = LogUtil.getLog(TransportNetwork.class);
+
+	// meters per second
+	private double walkSpeed = 1.3;
+	// maximum walk between stops to transfer
+	private double maxTransferWalk = 400;
+
+	private int stopsCount;
+	private TransportStop[] stops;
+	private int[] stopX;
+	private int[] stopY;
+
+	private int patternsCount;
+	private TransportRoute[] patternRoute;
+	private boolean[] patternForward;
+	private int[] patternWait;
+	// pattern -> stops
+	private int[] patternStart;
+	private int[] patternStops;
+	private int[] patternRideTime;
+
+	// stop -> (pattern, position in pattern)
+	private int[] stopPatternStart;
+	private int[] stopPatterns;
+	private int[] stopPatternPosition;
+
+	// stop -> (stop, walk time)
+	private int[] transferStart;
+	private int[] transferStops;
+	private int[] transferTimes;
+
+	// stops by cells (built once with network)
+	private StopsGrid grid;
+
+	/**
+	 * Loads all routes passing through area into network
+	 */
+	public static TransportNetwork load(BinaryMapIndexReader reader, int left31x, int top31y, int right31x, int bottom31y)
+			throws IOException {
+		long now = System.currentTimeMillis();
+		List<TransportStop> stops = reader.searchTransportIndex(BinaryMapIndexReader.buildSearchTransportRequest(left31x, right31x,
+				top31y, bottom31y, -1, null));
+		TIntHashSet refs = new TIntHashSet();
+		for (TransportStop s : stops) {
+			if (s.getReferencesToRoutes() != null) {
+				refs.addAll(s.getReferencesToRoutes());
+			}
+		}
+		TIntObjectHashMap<TransportRoute> routes = reader.getTransportRoutes(refs.toArray());
+		TransportNetwork network = new TransportNetwork();
+		network.build(routes.valueCollection());
+		log.info("Transport network of " + network.getStopsCount() + " stops, " + network.getPatternsCount() //$NON-NLS-1$ //$NON-NLS-2$
+				+ " patterns is loaded in " + (System.currentTimeMillis() - now) + " ms"); //$NON-NLS-1$ //$NON-NLS-2$
+		return network;
+	}
+
+	public void setWalkSpeed(double walkSpeed) {
+		this.walkSpeed = walkSpeed;
+	}
+
+	public double getWalkSpeed() {
+		return walkSpeed;
+	}
+
+	public void setMaxTransferWalk(double maxTransferWalk) {
+		this.maxTransferWalk = maxTransferWalk;
+	}
+
+	/**
+	 * Builds index (settings should be set before)
+	 */
+	public void build(Collection<TransportRoute> routes) {
+		TLongObjectHashMap<Integer> stopIndexes = new TLongObjectHashMap<Integer>();
+		List<TransportStop> stopsList = new ArrayList<TransportStop>();
+		List<TransportRoute> patternsList = new ArrayList<TransportRoute>();
+		TIntArrayList forward = new TIntArrayList();
+		TIntArrayList pStart = new TIntArrayList();
+		TIntArrayList pStops = new TIntArrayList();
+		TIntArrayList pTimes = new TIntArrayList();
+		for (TransportRoute r : routes) {
+			for (int dir = 0; dir < 2; dir++) {
+				List<TransportStop> rs = dir == 0 ? r.getForwardStops() : r.getBackwardStops();
+				if (rs.size() < 2) {
+					continue;
+				}
+				double speed = getSpeed(r.getType());
+				patternsList.add(r);
+				forward.add(dir == 0 ? 1 : 0);
+				pStart.add(pStops.size());
+				double time = 0;
+				TransportStop prev = null;
+				for (TransportStop s : rs) {
+					Integer ind = stopIndexes.get(s.getId());
+					if (ind == null) {
+						ind = stopsList.size();
+						stopIndexes.put(s.getId(), ind);
+						stopsList.add(s);
+					}
+					if (prev != null) {
+						time += MapUtils.getDistance(prev.getLocation(), s.getLocation()) / speed + getStopTime(r.getType());
+					}
+					pStops.add(ind);
+					pTimes.add((int) time);
+					prev = s;
+				}
+			}
+		}
+		pStart.add(pStops.size());
+		stopsCount = stopsList.size();
+		stops = stopsList.toArray(new TransportStop[stopsCount]);
+		stopX = new int[stopsCount];
+		stopY = new int[stopsCount];
+		for (int i = 0; i < stopsCount; i++) {
+			stopX[i] = MapUtils.get31TileNumberX(stops[i].getLocation().getLongitude());
+			stopY[i] = MapUtils.get31TileNumberY(stops[i].getLocation().getLatitude());
+		}
+		patternsCount = patternsList.size();
+		patternRoute = patternsList.toArray(new TransportRoute[patternsCount]);
+		patternForward = new boolean[patternsCount];
+		patternWait = new int[patternsCount];
+		for (int p = 0; p < patternsCount; p++) {
+			patternForward[p] = forward.get(p) == 1;
+			patternWait[p] = getWaitTime(patternRoute[p].getType());
+		}
+		patternStart = pStart.toArray();
+		patternStops = pStops.toArray();
+		patternRideTime = pTimes.toArray();
+		buildStopPatterns();
+		grid = new StopsGrid();
+		buildTransfers();
+	}
+
+	private void buildStopPatterns() {
+		stopPatternStart = new int[stopsCount + 1];
+		for (int i = 0; i < patternStops.length; i++) {
+			stopPatternStart[patternStops[i] + 1]++;
+		}
+		for (int i = 0; i < stopsCount; i++) {
+			stopPatternStart[i + 1] += stopPatternStart[i];
+		}
+		stopPatterns = new int[patternStops.length];
+		stopPatternPosition = new int[patternStops.length];
+		int[] fill = new int[stopsCount];
+		for (int p = 0; p < patternsCount; p++) {
+			for (int i = patternStart[p]; i < patternStart[p + 1]; i++) {
+				int s = patternStops[i];
+				int ind = stopPatternStart[s] + fill[s]++;
+				stopPatterns[ind] = p;
+				stopPatternPosition[ind] = i - patternStart[p];
+			}
+		}
+	}
+
+	private void buildTransfers() {
+		TIntArrayList start = new TIntArrayList();
+		TIntArrayList tStops = new TIntArrayList();
+		TIntArrayList tTimes = new TIntArrayList();
+		TIntArrayList near = new TIntArrayList();
+		for (int s = 0; s < stopsCount; s++) {
+			start.add(tStops.size());
+			near.resetQuick();
+			grid.findStops(stopX[s], stopY[s], maxTransferWalk, near);
+			for (int i = 0; i < near.size(); i++) {
+				int t = near.get(i);
+				if (t != s) {
+					tStops.add(t);
+					tTimes.add(getWalkTime(stopX[s], stopY[s], stopX[t], stopY[t]));
+				}
+			}
+		}
+		start.add(tStops.size());
+		transferStart = start.toArray();
+		transferStops = tStops.toArray();
+		transferTimes = tTimes.toArray();
+	}
+
+	/**
+	 * Grid of stops to find stops within walking distance
+	 */
+	class StopsGrid {
+		private final TLongObjectHashMap<TIntArrayList> cells = new TLongObjectHashMap<TIntArrayList>();
+		private final int cellShift = 31 - 16;
+
+		StopsGrid() {
+			for (int s = 0; s < stopsCount; s++) {
+				long key = (((long) (stopX[s] >> cellShift)) << 32) + (stopY[s] >> cellShift);
+				TIntArrayList l = cells.get(key);
+				if (l == null) {
+					l = new TIntArrayList(4);
+					cells.put(key, l);
+				}
+				l.add(s);
+			}
+		}
+
+		void findStops(int x, int y, double radius, TIntArrayList result) {
+			double metersPer31 = MapUtils.getDistance(MapUtils.get31LatitudeY(y), MapUtils.get31LongitudeX(x),
+					MapUtils.get31LatitudeY(y), MapUtils.get31LongitudeX(x + 1024)) / 1024;
+			int r31 = (int) (radius / metersPer31);
+			for (int cx = Math.max(0, x - r31) >> cellShift; cx <= (Math.min(Integer.MAX_VALUE - 1, (long) x + r31) >> cellShift); cx++) {
+				for (int cy = Math.max(0, y - r31) >> cellShift; cy <= (Math.min(Integer.MAX_VALUE - 1, (long) y + r31) >> cellShift); cy++) {
+					TIntArrayList l = cells.get((((long) cx) << 32) + cy);
+					if (l == null) {
+						continue;
+					}
+					for (int i = 0; i < l.size(); i++) {
+						int s = l.get(i);
+						if (getWalkDistance(x, y, stopX[s], stopY[s]) <= radius) {
+							result.add(s);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return stops within walking distance
+	 */
+	public TIntArrayList findStops(int x31, int y31, double radius) {
+		TIntArrayList res = new TIntArrayList();
+		grid.findStops(x31, y31, radius, res);
+		return res;
+	}
+
+	public double getWalkDistance(int x1, int y1, int x2, int y2) {
+		return MapUtils.getDistance(MapUtils.get31LatitudeY(y1), MapUtils.get31LongitudeX(x1), MapUtils.get31LatitudeY(y2),
+				MapUtils.get31LongitudeX(x2));
+	}
+
+	public int getWalkTime(int x1, int y1, int x2, int y2) {
+		return (int) (getWalkDistance(x1, y1, x2, y2) / walkSpeed);
+	}
+
+	/**
+	 * @return average speed in meters per second
+	 */
+	protected double getSpeed(String type) {
+		if ("subway".equals(type) || "train".equals(type)) { //$NON-NLS-1$ //$NON-NLS-2$
+			return 11;
+		} else if ("tram".equals(type) || "ferry".equals(type)) { //$NON-NLS-1$ //$NON-NLS-2$
+			return 5.5;
+		}
+		// bus, trolleybus, share_taxi
+		return 6;
+	}
+
+	/**
+	 * @return time in seconds spent at every stop
+	 */
+	protected int getStopTime(String type) {
+		if ("train".equals(type)) { //$NON-NLS-1$
+			return 60;
+		}
+		return 20;
+	}
+
+	/**
+	 * @return average time in seconds to wait for vehicle
+	 */
+	protected int getWaitTime(String type) {
+		if ("subway".equals(type)) { //$NON-NLS-1$
+			return 150;
+		} else if ("train".equals(type) || "ferry".equals(type)) { //$NON-NLS-1$ //$NON-NLS-2$
+			return 900;
+		}
+		return 300;
+	}
+
+	public int getStopsCount() {
+		return stopsCount;
+	}
+
+	public TransportStop getStop(int stop) {
+		return stops[stop];
+	}
+
+	public int getStopX(int stop) {
+		return stopX[stop];
+	}
+
+	public int getStopY(int stop) {
+		return stopY[stop];
+	}
+
+	public int getPatternsCount() {
+		return patternsCount;
+	}
+
+	public TransportRoute getPatternRoute(int pattern) {
+		return patternRoute[pattern];
+	}
+
+	public boolean isPatternForward(int pattern) {
+		return patternForward[pattern];
+	}
+
+	int getPatternWait(int pattern) {
+		return patternWait[pattern];
+	}
+
+	int getPatternSize(int pattern) {
+		return patternStart[pattern + 1] - patternStart[pattern];
+	}
+
+	int getPatternStop(int pattern, int position) {
+		return patternStops[patternStart[pattern] + position];
+	}
+
+	int getPatternRideTime(int pattern, int position) {
+		return patternRideTime[patternStart[pattern] + position];
+	}
+
+	int getStopPatternsStart(int stop) {
+		return stopPatternStart[stop];
+	}
+
+	int getStopPatternsEnd(int stop) {
+		return stopPatternStart[stop + 1];
+	}
+
+	int getStopPattern(int ind) {
+		return stopPatterns[ind];
+	}
+
+	int getStopPatternPosition(int ind) {
+		return stopPatternPosition[ind];
+	}
+
+	int getTransfersStart(int stop) {
+		return transferStart[stop];
+	}
+
+	int getTransfersEnd(int stop) {
+		return transferStart[stop + 1];
+	}
+
+	int getTransferStop(int ind) {
+		return transferStops[ind];
+	}
+
+	int getTransferTime(int ind) {
+		return transferTimes[ind];
+	}
+}
@@ -0,0 +1,352 @@
+package net.osmand.router;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.osmand.LogUtil;
+import net.osmand.data.TransportRoute;
+import net.osmand.data.TransportStop;
+import net.osmand.osm.LatLon;
+import net.osmand.osm.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Public transport journey planner (round based RAPTOR search on {@link TransportNetwork}).
+ * Round k finds the earliest arrival to every stop using k rides : every pattern passing through stops
+ * improved in previous round is scanned once from the first such stop, then transfers by walk are relaxed.
+ * Labels of all rounds are kept in primitive arrays which are reused by next searches.
+ * Result is the set of journeys where every next journey has more rides but arrives earlier.
+ */
+public class TransportRoutePlanner {
+	private static final Log log = LogUtil.getLog(TransportRoutePlanner.class);
+
+	private static final int INFINITY = Integer.MAX_VALUE;
+	private static final int ACCESS = -2;
+	private static final int TRANSFER = -1;
+
+	private final TransportNetwork network;
+	private int maxRides = 5;
+	// maximum walk from start to the first stop and from the last stop to end
+	private double maxWalk = 800;
+
+	// labels of rounds
+	private int[][] arrival;
+	// pattern of ride to stop (or TRANSFER, ACCESS)
+	private int[][] parentPattern;
+	// board position of ride or stop from where transfer was started
+	private int[][] parentValue;
+	private int[] best;
+	private boolean[] marked;
+	private boolean[] markedNext;
+	private int[] patternBoardPosition;
+
+	public static class JourneyLeg {
+		private final TransportRoute route;
+		private final boolean forward;
+		private final TransportStop from;
+		private final TransportStop to;
+		private final int stops;
+		private final int startTime;
+		private final int endTime;
+
+		JourneyLeg(TransportRoute route, boolean forward, TransportStop from, TransportStop to, int stops, int startTime, int endTime) {
+			this.route = route;
+			this.forward = forward;
+			this.from = from;
+			this.to = to;
+			this.stops = stops;
+			this.startTime = startTime;
+			this.endTime = endTime;
+		}
+
+		/**
+		 * @return route or null if it is walk
+		 */
+		public TransportRoute getRoute() {
+			return route;
+		}
+
+		public boolean isWalk() {
+			return route == null;
+		}
+
+		public boolean isForward() {
+			return forward;
+		}
+
+		/**
+		 * @return stop or null if walk is started from start point
+		 */
+		public TransportStop getFrom() {
+			return from;
+		}
+
+		/**
+		 * @return stop or null if walk is ended at end point
+		 */
+		public TransportStop getTo() {
+			return to;
+		}
+
+		/**
+		 * @return number of stops passed by ride
+		 */
+		public int getStops() {
+			return stops;
+		}
+
+		/**
+		 * @return seconds since departure from start (waiting for vehicle is included into ride)
+		 */
+		public int getStartTime() {
+			return startTime;
+		}
+
+		public int getEndTime() {
+			return endTime;
+		}
+	}
+
+	public static class TransportJourney {
+		private final List<JourneyLeg> legs;
+		private final int time;
+		private final int rides;
+
+		TransportJourney(List<JourneyLeg> legs, int time, int rides) {
+			this.legs = legs;
+			this.time = time;
+			this.rides = rides;
+		}
+
+		public List<JourneyLeg> getLegs() {
+			return legs;
+		}
+
+		/**
+		 * @return total time in seconds
+		 */
+		public int getTime() {
+			return time;
+		}
+
+		public int getRides() {
+			return rides;
+		}
+	}
+
+	public TransportRoutePlanner(TransportNetwork network) {
+		this.network = network;
+	}
+
+	public void setMaxRides(int maxRides) {
+		this.maxRides = maxRides;
+		arrival = null;
+	}
+
+	public void setMaxWalk(double maxWalk) {
+		this.maxWalk = maxWalk;
+	}
+
+	private void init() {
+		int n = network.getStopsCount();
+		if (arrival == null) {
+			arrival = new int[maxRides + 1][n];
+			parentPattern = new int[maxRides + 1][n];
+			parentValue = new int[maxRides + 1][n];
+			best = new int[n];
+			marked = new boolean[n];
+			markedNext = new boolean[n];
+			patternBoardPosition = new int[network.getPatternsCount()];
+			Arrays.fill(patternBoardPosition, -1);
+		}
+		Arrays.fill(arrival[0], INFINITY);
+		Arrays.fill(best, INFINITY);
+		Arrays.fill(marked, false);
+	}
+
+	/**
+	 * @return journeys ordered by number of rides (empty if end could not be reached)
+	 */
+	public synchronized List<TransportJourney> search(LatLon start, LatLon end) {
+		long now = System.currentTimeMillis();
+		init();
+		int sx = MapUtils.get31TileNumberX(start.getLongitude());
+		int sy = MapUtils.get31TileNumberY(start.getLatitude());
+		int ex = MapUtils.get31TileNumberX(end.getLongitude());
+		int ey = MapUtils.get31TileNumberY(end.getLatitude());
+		List<TransportJourney> result = new ArrayList<TransportJourney>();
+
+		// round 0 : walk to stops
+		TIntArrayList access = network.findStops(sx, sy, maxWalk);
+		for (int i = 0; i < access.size(); i++) {
+			int s = access.get(i);
+			arrival[0][s] = best[s] = network.getWalkTime(sx, sy, network.getStopX(s), network.getStopY(s));
+			parentPattern[0][s] = ACCESS;
+			marked[s] = true;
+		}
+		TIntArrayList egress = network.findStops(ex, ey, maxWalk);
+		int[] egressTime = new int[egress.size()];
+		for (int i = 0; i < egress.size(); i++) {
+			int s = egress.get(i);
+			egressTime[i] = network.getWalkTime(network.getStopX(s), network.getStopY(s), ex, ey);
+		}
+		int bestTarget = INFINITY;
+		if (network.getWalkDistance(sx, sy, ex, ey) <= 2 * maxWalk) {
+			bestTarget = network.getWalkTime(sx, sy, ex, ey);
+			List<JourneyLeg> legs = new ArrayList<JourneyLeg>();
+			legs.add(new JourneyLeg(null, true, null, null, 0, 0, bestTarget));
+			result.add(new TransportJourney(legs, bestTarget, 0));
+		}
+
+		TIntArrayList patterns = new TIntArrayList();
+		for (int k = 1; k <= maxRides; k++) {
+			int[] prev = arrival[k - 1];
+			int[] cur = arrival[k];
+			System.arraycopy(prev, 0, cur, 0, cur.length);
+			// collect patterns with the first marked stop
+			patterns.resetQuick();
+			for (int s = 0; s < marked.length; s++) {
+				if (!marked[s]) {
+					continue;
+				}
+				marked[s] = false;
+				for (int i = network.getStopPatternsStart(s); i < network.getStopPatternsEnd(s); i++) {
+					int p = network.getStopPattern(i);
+					int pos = network.getStopPatternPosition(i);
+					if (patternBoardPosition[p] == -1) {
+						patterns.add(p);
+						patternBoardPosition[p] = pos;
+					} else if (pos < patternBoardPosition[p]) {
+						patternBoardPosition[p] = pos;
+					}
+				}
+			}
+			if (patterns.isEmpty()) {
+				break;
+			}
+			boolean improved = false;
+			for (int j = 0; j < patterns.size(); j++) {
+				int p = patterns.get(j);
+				improved |= scanPattern(k, p, patternBoardPosition[p], bestTarget);
+				patternBoardPosition[p] = -1;
+			}
+			if (!improved) {
+				break;
+			}
+			relaxTransfers(k, bestTarget);
+			// check end
+			int bestStop = -1;
+			for (int i = 0; i < egress.size(); i++) {
+				int s = egress.get(i);
+				if (cur[s] != INFINITY && cur[s] + egressTime[i] < bestTarget) {
+					bestTarget = cur[s] + egressTime[i];
+					bestStop = i;
+				}
+			}
+			if (bestStop != -1) {
+				result.add(buildJourney(k, egress.get(bestStop), egressTime[bestStop]));
+			}
+		}
+		log.info("Transport journeys " + result.size() + " are found in " + (System.currentTimeMillis() - now) + " ms"); //$NON-NLS-1$ //$NON-NLS-2$
+		return result;
+	}
+
+	private boolean scanPattern(int k, int p, int fromPosition, int bestTarget) {
+		int[] prev = arrival[k - 1];
+		int[] cur = arrival[k];
+		int wait = network.getPatternWait(p);
+		int size = network.getPatternSize(p);
+		boolean improved = false;
+		int boardPosition = -1;
+		// time of departure from the first stop of pattern for boarded vehicle
+		int boardBase = INFINITY;
+		for (int i = fromPosition; i < size; i++) {
+			int s = network.getPatternStop(p, i);
+			int ride = network.getPatternRideTime(p, i);
+			if (boardPosition != -1) {
+				int t = boardBase + ride;
+				if (t < best[s] && t < bestTarget) {
+					cur[s] = best[s] = t;
+					parentPattern[k][s] = p;
+					parentValue[k][s] = boardPosition;
+					markedNext[s] = true;
+					improved = true;
+				}
+			}
+			if (prev[s] != INFINITY && prev[s] + wait - ride < boardBase) {
+				boardBase = prev[s] + wait - ride;
+				boardPosition = i;
+			}
+		}
+		return improved;
+	}
+
+	private void relaxTransfers(int k, int bestTarget) {
+		int[] cur = arrival[k];
+		for (int s = 0; s < markedNext.length; s++) {
+			if (!markedNext[s]) {
+				continue;
+			}
+			marked[s] = true;
+			// only stops reached by ride
+			if (parentPattern[k][s] < 0 || cur[s] != best[s]) {
+				continue;
+			}
+			for (int i = network.getTransfersStart(s); i < network.getTransfersEnd(s); i++) {
+				int t = network.getTransferStop(i);
+				int time = cur[s] + network.getTransferTime(i);
+				if (time < best[t] && time < bestTarget) {
+					cur[t] = best[t] = time;
+					parentPattern[k][t] = TRANSFER;
+					parentValue[k][t] = s;
+					marked[t] = true;
+				}
+			}
+		}
+		Arrays.fill(markedNext, false);
+	}
+
+	private TransportJourney buildJourney(int k, int stop, int egressTime) {
+		List<JourneyLeg> legs = new ArrayList<JourneyLeg>();
+		int time = arrival[k][stop] + egressTime;
+		legs.add(new JourneyLeg(null, true, network.getStop(stop), null, 0, arrival[k][stop], time));
+		int s = stop;
+		int rides = 0;
+		while (true) {
+			while (k > 0 && arrival[k - 1][s] == arrival[k][s]) {
+				k--;
+			}
+			int p = parentPattern[k][s];
+			if (p == ACCESS) {
+				legs.add(new JourneyLeg(null, true, null, network.getStop(s), 0, 0, arrival[k][s]));
+				break;
+			} else if (p == TRANSFER) {
+				int from = parentValue[k][s];
+				legs.add(new JourneyLeg(null, true, network.getStop(from), network.getStop(s), 0, arrival[k][from], arrival[k][s]));
+				s = from;
+			} else {
+				int boardPosition = parentValue[k][s];
+				int board = network.getPatternStop(p, boardPosition);
+				int alightPosition = boardPosition + 1;
+				while (network.getPatternStop(p, alightPosition) != s) {
+					alightPosition++;
+				}
+				// stops of route itself (stops of network are merged from all routes)
+				TransportRoute route = network.getPatternRoute(p);
+				List<TransportStop> routeStops = network.isPatternForward(p) ? route.getForwardStops() : route.getBackwardStops();
+				legs.add(new JourneyLeg(route, network.isPatternForward(p), routeStops.get(boardPosition), routeStops
+						.get(alightPosition), alightPosition - boardPosition, arrival[k - 1][board], arrival[k][s]));
+				rides++;
+				s = board;
+				k--;
+			}
+		}
+		Collections.reverse(legs);
+		return new TransportJourney(legs, time, rides);
+	}
+}
@@ -1,11 +1,16 @@
 package net.osmand.router;
 
 import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
 import net.osmand.binary.BinaryMapIndexReader.TagValuePair;
 import net.osmand.osm.MapRenderingTypes;
 import net.osmand.router.BinaryRoutePlanner.RouteSegment;
 
 public abstract class VehicleRouter {
+	
+	// observed speeds (could be null) and time of departure
+	private SpeedProfile speedProfile;
+	private int departureSecondOfWeek;
 
 	/**
 	 * Accepts line to use it for routing
@@ -23,6 +28,23 @@ public abstract class VehicleRouter {
 	 */
 	public abstract boolean acceptPoint(TagValuePair pair);
 
+	/**
+	 * Accepts object type of map index (line or point) to use it for routing
+	 * @param wholeType - type with type of object (see {@link MapIndex#decodeType(int)})
+	 */
+	public boolean acceptType(MapIndex index, int wholeType) {
+		TagValuePair pair = index.decodeType(wholeType);
+		if (pair != null) {
+			int t = wholeType & 3;
+			if (t == MapRenderingTypes.POINT_TYPE) {
+				return acceptPoint(pair);
+			} else if (t == MapRenderingTypes.POLYLINE_TYPE) {
+				return acceptLine(pair);
+			}
+		}
+		return false;
+	}
+
 	
 	public boolean isOneWay(BinaryMapDataObject road) {
 		int attributes = road.getHighwayAttributes();
@@ -61,6 +83,44 @@ public abstract class VehicleRouter {
 	 * return speed in m/s for vehicle
 	 */
 	public abstract double defineSpeed(BinaryMapDataObject road);
+	
+	/**
+	 * Part of {@link #defineSpeed(BinaryMapDataObject)} that is not real speed (speed multiplied by priority is returned)
+	 */
+	public double defineSpeedPriority(BinaryMapDataObject road) {
+		return 1;
+	}
+	
+	/**
+	 * Time dependent speed : observed speed of speed profile (if it is set and known for that road) 
+	 * or speed of {@link #defineSpeed(BinaryMapDataObject)}.
+	 * Observed speed is multiplied by {@link #defineSpeedPriority(BinaryMapDataObject)} as tag speed and
+	 * is not greater than {@link #getMaxDefaultSpeed()} to keep A* estimation.
+	 * @param time - real seconds after departure (not weighted by priority)
+	 * @return speed in m/s
+	 */
+	public double defineSpeed(BinaryMapDataObject road, double time) {
+		if (speedProfile != null) {
+			float speed = speedProfile.getSpeed(road, departureSecondOfWeek + time);
+			if (speed > 0) {
+				return Math.min(speed * defineSpeedPriority(road), getMaxDefaultSpeed());
+			}
+		}
+		return defineSpeed(road);
+	}
+	
+	/**
+	 * @param profile - observed speeds or null
+	 * @param departureTime - time of departure in ms
+	 */
+	public void setSpeedProfile(SpeedProfile profile, long departureTime) {
+		this.speedProfile = profile;
+		this.departureSecondOfWeek = SpeedProfile.getSecondOfWeek(departureTime);
+	}
+	
+	public SpeedProfile getSpeedProfile() {
+		return speedProfile;
+	}
 
 	/**
 	 * Used for A* routing to calculate g(x)
@@ -0,0 +1,277 @@
+package net.osmand.router;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.osmand.LogUtil;
+import net.osmand.osm.LatLon;
+import net.osmand.router.RouteMatrixCalculator.RouteMatrix;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Orders intermediate points of trip to minimize total time.
+ * Travel time matrix between all points is calculated once (see {@link RouteMatrixCalculator}) and
+ * cached, so trip could be reordered again after adding or removing points without new searches
+ * for already known points. Exact dynamic programming is used for small number of points,
+ * otherwise nearest neighbour order improved by moving points and reversing parts of trip.
+ */
+public class ViaPointOptimizer {
+	private static final Log log = LogUtil.getLog(ViaPointOptimizer.class);
+
+	private static final int MAX_POINTS_TO_SOLVE_EXACTLY = 12;
+	// time for unreachable point
+	private static final double UNREACHABLE = 1e9;
+
+	private final RoutingGraph graph;
+	private final RouteMatrixCalculator matrixCalculator;
+	private int threads = 1;
+
+	// cached matrix
+	private final List<LatLon> points = new ArrayList<LatLon>();
+	private double[][] times = new double[0][0];
+
+	public static class TripOrder {
+		private final int[] order;
+		private final double time;
+
+		TripOrder(int[] order, double time) {
+			this.order = order;
+			this.time = time;
+		}
+
+		/**
+		 * @return indexes of intermediate points in visiting order
+		 */
+		public int[] getOrder() {
+			return order;
+		}
+
+		/**
+		 * @return total time in seconds (unreachable legs are counted as very long)
+		 */
+		public double getTime() {
+			return time;
+		}
+	}
+
+	public ViaPointOptimizer(RoutingGraph graph, RouteMatrixCalculator matrixCalculator) {
+		this.graph = graph;
+		this.matrixCalculator = matrixCalculator;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * @param end - could be null then trip ends at the last intermediate point
+	 */
+	public TripOrder optimize(LatLon start, List<LatLon> vias, LatLon end) throws IOException {
+		long now = System.currentTimeMillis();
+		int n = vias.size();
+		// indexes of points in cached matrix
+		int[] ind = new int[n + 2];
+		ind[0] = pointIndex(start);
+		for (int i = 0; i < n; i++) {
+			ind[i + 1] = pointIndex(vias.get(i));
+		}
+		ind[n + 1] = end == null ? -1 : pointIndex(end);
+		updateMatrix();
+		// cost matrix of trip : 0 - start, 1..n - vias, n + 1 - end
+		double[][] cost = new double[n + 2][n + 2];
+		for (int i = 0; i < n + 2; i++) {
+			for (int j = 0; j < n + 2; j++) {
+				if (ind[i] == -1 || ind[j] == -1) {
+					cost[i][j] = 0;
+				} else {
+					cost[i][j] = times[ind[i]][ind[j]];
+				}
+			}
+		}
+		int[] order = n <= MAX_POINTS_TO_SOLVE_EXACTLY ? solveExactly(cost, n) : solveHeuristically(cost, n);
+		double time = tripTime(cost, order);
+		log.info("Order of " + n + " points is optimized in " + (System.currentTimeMillis() - now) + " ms"); //$NON-NLS-1$ //$NON-NLS-2$
+		return new TripOrder(order, time);
+	}
+
+	private int pointIndex(LatLon l) {
+		int i = points.indexOf(l);
+		if (i == -1) {
+			points.add(l);
+			i = points.size() - 1;
+		}
+		return i;
+	}
+
+	/**
+	 * Calculates rows and columns of new points
+	 */
+	private void updateMatrix() throws IOException {
+		int old = times.length;
+		int size = points.size();
+		if (old == size) {
+			return;
+		}
+		double[][] nt = new double[size][size];
+		for (int i = 0; i < old; i++) {
+			System.arraycopy(times[i], 0, nt[i], 0, old);
+		}
+		LatLon[] all = points.toArray(new LatLon[size]);
+		LatLon[] added = points.subList(old, size).toArray(new LatLon[size - old]);
+		// new points to all points and old points to new points
+		RouteMatrix from = matrixCalculator.calculate(graph, added, all, threads);
+		for (int i = 0; i < added.length; i++) {
+			for (int j = 0; j < size; j++) {
+				nt[old + i][j] = toCost(from.getTime(i, j));
+			}
+		}
+		if (old > 0) {
+			LatLon[] oldPoints = points.subList(0, old).toArray(new LatLon[old]);
+			RouteMatrix to = matrixCalculator.calculate(graph, oldPoints, added, threads);
+			for (int i = 0; i < old; i++) {
+				for (int j = 0; j < added.length; j++) {
+					nt[i][old + j] = toCost(to.getTime(i, j));
+				}
+			}
+		}
+		times = nt;
+	}
+
+	private static double toCost(float time) {
+		return time < 0 ? UNREACHABLE : time;
+	}
+
+	private static double tripTime(double[][] cost, int[] order) {
+		int prev = 0;
+		double t = 0;
+		for (int i = 0; i < order.length; i++) {
+			t += cost[prev][order[i] + 1];
+			prev = order[i] + 1;
+		}
+		return t + cost[prev][cost.length - 1];
+	}
+
+	/**
+	 * Held-Karp dynamic programming (best time to visit subset of points ending at point)
+	 */
+	private static int[] solveExactly(double[][] cost, int n) {
+		if (n == 0) {
+			return new int[0];
+		}
+		int full = 1 << n;
+		double[][] best = new double[full][n];
+		int[][] prev = new int[full][n];
+		for (int mask = 1; mask < full; mask++) {
+			for (int last = 0; last < n; last++) {
+				if ((mask & (1 << last)) == 0) {
+					continue;
+				}
+				int before = mask ^ (1 << last);
+				if (before == 0) {
+					best[mask][last] = cost[0][last + 1];
+					prev[mask][last] = -1;
+					continue;
+				}
+				best[mask][last] = Double.POSITIVE_INFINITY;
+				for (int p = 0; p < n; p++) {
+					if ((before & (1 << p)) != 0) {
+						double t = best[before][p] + cost[p + 1][last + 1];
+						if (t < best[mask][last]) {
+							best[mask][last] = t;
+							prev[mask][last] = p;
+						}
+					}
+				}
+			}
+		}
+		int last = 0;
+		double bestTime = Double.POSITIVE_INFINITY;
+		for (int l = 0; l < n; l++) {
+			double t = best[full - 1][l] + cost[l + 1][n + 1];
+			if (t < bestTime) {
+				bestTime = t;
+				last = l;
+			}
+		}
+		int[] order = new int[n];
+		int mask = full - 1;
+		for (int i = n - 1; i >= 0; i--) {
+			order[i] = last;
+			int p = prev[mask][last];
+			mask ^= 1 << last;
+			last = p;
+		}
+		return order;
+	}
+
+	private static int[] solveHeuristically(double[][] cost, int n) {
+		// nearest neighbour
+		int[] order = new int[n];
+		boolean[] used = new boolean[n];
+		int current = 0;
+		for (int i = 0; i < n; i++) {
+			int bestNext = -1;
+			for (int j = 0; j < n; j++) {
+				if (!used[j] && (bestNext == -1 || cost[current][j + 1] < cost[current][bestNext + 1])) {
+					bestNext = j;
+				}
+			}
+			used[bestNext] = true;
+			order[i] = bestNext;
+			current = bestNext + 1;
+		}
+		// local improvements (matrix could be asymmetric so every change is evaluated by the whole trip time)
+		double time = tripTime(cost, order);
+		boolean improved = true;
+		int[] candidate = new int[n];
+		while (improved) {
+			improved = false;
+			// reverse part of trip
+			for (int i = 0; i < n - 1; i++) {
+				for (int j = i + 1; j < n; j++) {
+					System.arraycopy(order, 0, candidate, 0, n);
+					for (int k = 0; k <= j - i; k++) {
+						candidate[i + k] = order[j - k];
+					}
+					double t = tripTime(cost, candidate);
+					if (t < time - 1e-6) {
+						time = t;
+						System.arraycopy(candidate, 0, order, 0, n);
+						improved = true;
+					}
+				}
+			}
+			// move one point to another position
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					if (i == j) {
+						continue;
+					}
+					int p = order[i];
+					int c = 0;
+					for (int k = 0; k < n; k++) {
+						if (k == i) {
+							continue;
+						}
+						if (c == j) {
+							candidate[c++] = p;
+						}
+						candidate[c++] = order[k];
+					}
+					if (c < n) {
+						candidate[c] = p;
+					}
+					double t = tripTime(cost, candidate);
+					if (t < time - 1e-6) {
+						time = t;
+						System.arraycopy(candidate, 0, order, 0, n);
+						improved = true;
+					}
+				}
+			}
+		}
+		return order;
+	}
+}
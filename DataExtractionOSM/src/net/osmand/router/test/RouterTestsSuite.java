@@ -11,12 +11,11 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
 import net.osmand.binary.BinaryMapIndexReader;
-import net.osmand.router.BicycleRouter;
 import net.osmand.router.BinaryRoutePlanner;
-import net.osmand.router.CarRouter;
-import net.osmand.router.PedestrianRouter;
 import net.osmand.router.RouteSegmentResult;
+import net.osmand.router.RoutingConfiguration;
 import net.osmand.router.RoutingContext;
+import net.osmand.router.VehicleRouter;
 import net.osmand.router.BinaryRoutePlanner.RouteSegment;
 
 import org.w3c.dom.Document;
@@ -88,13 +87,12 @@ public class RouterTestsSuite {
 			return;
 		}
 		
-		if("bicycle".equals(vehicle)){
-			ctx.setRouter(new BicycleRouter());
-		} else if("pedestrian".equals(vehicle)){
-			ctx.setRouter(new PedestrianRouter());
-		} else {
-			ctx.setRouter(new CarRouter());
+		// any profile of routing.xml could be tested
+		VehicleRouter router = RoutingConfiguration.getDefault().getRouter(vehicle);
+		if (router == null) {
+			router = RoutingConfiguration.getDefault().getRouter(RoutingConfiguration.CAR);
 		}
+		ctx.setRouter(router);
 		double startLat = Double.parseDouble(testCase.getAttribute("start_lat"));
 		double startLon = Double.parseDouble(testCase.getAttribute("start_lon"));
 		RouteSegment startSegment = planner.findRouteSegment(startLat, startLon, ctx);
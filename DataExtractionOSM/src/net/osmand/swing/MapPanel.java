@@ -485,7 +485,8 @@ public class MapPanel extends JPanel implements IMapDownloaderCallback {
 			yStartingImage = -(int) ((yTileUp - Math.floor(yTileUp)) * tileSize);
 
 			if(loadNecessaryImages){
-				downloader.refuseAllPreviousRequests();
+				// stale requests out of the view are cancelled and the rest are reordered
+				downloader.setCurrentView(zoom, getXTile(), getYTile(), getCenterPointX() / tileSize, getCenterPointY() / tileSize);
 			}
 			int tileXCount = ((int) xTileRight - (int) xTileLeft + 1);
 			int tileYCount = ((int) yTileDown - (int) yTileUp + 1);
@@ -7,7 +7,6 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
-import net.osmand.Algoritms;
 import net.osmand.LogUtil;
 import net.osmand.ResultMatcher;
 import net.osmand.binary.BinaryMapIndexReader;
@@ -15,7 +14,7 @@ import net.osmand.binary.BinaryMapIndexReader.SearchPoiTypeFilter;
 import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
 import net.osmand.data.Amenity;
 import net.osmand.data.AmenityType;
-import net.osmand.osm.LatLon;
+import net.osmand.data.MapObjectTileCache;
 import net.osmand.osm.MapUtils;
 
 import org.apache.commons.logging.Log;
@@ -23,6 +22,8 @@ import org.apache.commons.logging.Log;
 public class AmenityIndexRepositoryBinary implements AmenityIndexRepository {
 
 	private final static Log log = LogUtil.getLog(AmenityIndexRepositoryBinary.class);
+	// search by name reads the nearest boxes first and stops after that number of found amenities
+	private final static int NAME_SEARCH_LIMIT = 200;
 	private final BinaryMapIndexReader index;
 
 	public AmenityIndexRepositoryBinary(BinaryMapIndexReader index) {
@@ -68,7 +69,7 @@ public class AmenityIndexRepositoryBinary implements AmenityIndexRepository {
 	public List<Amenity> searchAmenitiesByName(int x, int y, String query, ResultMatcher<Amenity> resulMatcher) {
 		long now = System.currentTimeMillis();
 		List<Amenity> amenities = Collections.emptyList();
-		SearchRequest<Amenity> req = BinaryMapIndexReader.buildSearchPoiRequest(x, y, query, resulMatcher);
+		SearchRequest<Amenity> req = BinaryMapIndexReader.buildSearchPoiRequest(x, y, query, NAME_SEARCH_LIMIT, resulMatcher);
 		try {
 			amenities = index.searchPoiByName(req);
 			if (log.isDebugEnabled()) {
@@ -112,65 +113,109 @@ public class AmenityIndexRepositoryBinary implements AmenityIndexRepository {
 
 
 
-	// Work with cache (for map copied from AmenityIndexRepositoryOdb)
-	private String cFilterId;
-	protected List<Amenity> cachedObjects = new ArrayList<Amenity>(); 
-	protected double cTopLatitude;
-	protected double cBottomLatitude;
-	protected double cLeftLongitude;
-	protected double cRightLongitude;
-	protected int cZoom;
+	// Work with cache : amenities are cached by tiles of the requested zoom (and filter), 
+	// so only tiles that are not loaded yet are searched when map is moved.
+	// Tiles loaded ahead of the current location (see DataPrefetcher) are put to the same cache.
+	// Tiles of the current request are never evicted, so budget could be exceeded by a dense area.
+	protected static final long QUERY_CACHE_BUDGET = 1024 * 1024;
+	protected MapObjectTileCache<Amenity> tileCache = new MapObjectTileCache<Amenity>(QUERY_CACHE_BUDGET, DataPrefetcher.AMENITY_SIZE);
 	
 	@Override
-	public synchronized boolean checkCachedAmenities(double topLatitude, double leftLongitude, double bottomLatitude, double rightLongitude, 
+	public boolean checkCachedAmenities(double topLatitude, double leftLongitude, double bottomLatitude, double rightLongitude, 
 			int zoom, String filterId, List<Amenity> toFill, boolean fillFound){
-		boolean inside = cTopLatitude >= topLatitude && cLeftLongitude <= leftLongitude && cRightLongitude >= rightLongitude
-				&& cBottomLatitude <= bottomLatitude && zoom == cZoom;
-		boolean noNeedToSearch = inside &&  Algoritms.objectEquals(filterId, cFilterId);
-		if((inside || fillFound) && toFill != null && Algoritms.objectEquals(filterId, cFilterId)){
-			for(Amenity a : cachedObjects){
-				LatLon location = a.getLocation();
-				if (location.getLatitude() <= topLatitude && location.getLongitude() >= leftLongitude && location.getLongitude() <= rightLongitude
-						&& location.getLatitude() >= bottomLatitude) {
-					toFill.add(a);
-				}
-			}
+		List<Amenity> found = toFill == null ? null : new ArrayList<Amenity>();
+		boolean covered = tileCache.fill(topLatitude, leftLongitude, bottomLatitude, rightLongitude, zoom, filterId, found);
+		if (found != null && (covered || fillFound)) {
+			toFill.addAll(found);
 		}
-		return noNeedToSearch;
+		return covered;
+	}
+	
+	public void setPrefetchBudget(long budget) {
+		tileCache.setBudget(QUERY_CACHE_BUDGET + budget);
+	}
+	
+	/**
+	 * Loads amenities of the tile to the cache if it is not loaded yet
+	 */
+	public void prefetchAmenities(int zoom, int tileX, int tileY, PoiFilter filter, ResultMatcher<Amenity> matcher) {
+		String filterId = filter == null ? null : filter.getFilterId();
+		if (tileCache.containsTile(zoom, tileX, tileY, filterId)) {
+			return;
+		}
+		loadTiles(zoom, tileX, tileY, tileX, tileY, filter, filterId, matcher, 0);
 	}
 	
 	@Override
 	public void clearCache() {
-		cachedObjects.clear();
-		cTopLatitude = 0;
-		cBottomLatitude = 0;
-		cRightLongitude = 0;
-		cLeftLongitude = 0;
-		cZoom = 0;
-		cFilterId = null;
+		tileCache.clear();
 	}
 
 	@Override
 	public void evaluateCachedAmenities(double topLatitude, double leftLongitude, double bottomLatitude, double rightLongitude, int zoom,
 			PoiFilter filter, ResultMatcher<Amenity> matcher) {
-		cTopLatitude = topLatitude ;
-		cBottomLatitude = bottomLatitude ;
-		cLeftLongitude = leftLongitude ;
-		cRightLongitude = rightLongitude ;
-		cFilterId = filter == null ? null : filter.getFilterId();
-		cZoom = zoom;
-		// first of all put all entities in temp list in order to not freeze other read threads
+		String filterId = filter == null ? null : filter.getFilterId();
+		int left = (int) MapUtils.getTileNumberX(zoom, leftLongitude);
+		int right = (int) MapUtils.getTileNumberX(zoom, rightLongitude);
+		int top = (int) MapUtils.getTileNumberY(zoom, topLatitude);
+		int bottom = (int) MapUtils.getTileNumberY(zoom, bottomLatitude);
+		// adjacent tiles that are not cached are merged into rectangles : run of tiles in row
+		// is merged with the same runs of the next rows, every rectangle is one search
+		// tiles of request (cached and loaded) are kept in cache
+		int keep = tileCache.touchTiles(zoom, left, top, right, bottom, filterId);
+		int width = right - left + 1;
+		boolean[] done = new boolean[width * (bottom - top + 1)];
+		for (int y = top; y <= bottom; y++) {
+			for (int x = left; x <= right; x++) {
+				if (done[(y - top) * width + x - left] || tileCache.containsTile(zoom, x, y, filterId)) {
+					continue;
+				}
+				int x2 = x;
+				while (x2 < right && !done[(y - top) * width + x2 + 1 - left] && !tileCache.containsTile(zoom, x2 + 1, y, filterId)) {
+					x2++;
+				}
+				int y2 = y;
+				while (y2 < bottom && isRunMissing(zoom, x, x2, y2 + 1, filterId, done, left, top, width)) {
+					y2++;
+				}
+				for (int i = y; i <= y2; i++) {
+					for (int j = x; j <= x2; j++) {
+						done[(i - top) * width + j - left] = true;
+					}
+				}
+				if (matcher != null && matcher.isCancelled()) {
+					return;
+				}
+				keep += loadTiles(zoom, x, y, x2, y2, filter, filterId, matcher, keep);
+				x = x2;
+			}
+		}
+	}
+
+	private boolean isRunMissing(int zoom, int x1, int x2, int y, String filterId, boolean[] done, int left, int top, int width) {
+		for (int x = x1; x <= x2; x++) {
+			if (done[(y - top) * width + x - left] || tileCache.containsTile(zoom, x, y, filterId)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return number of loaded tiles
+	 */
+	private int loadTiles(int zoom, int left, int top, int right, int bottom, PoiFilter filter, String filterId,
+			ResultMatcher<Amenity> matcher, int keepRecent) {
+		int sleft = left << (31 - zoom);
+		int sright = ((right + 1) << (31 - zoom)) - 1;
+		int stop = top << (31 - zoom);
+		int sbottom = ((bottom + 1) << (31 - zoom)) - 1;
 		ArrayList<Amenity> tempList = new ArrayList<Amenity>();
-		int sleft = MapUtils.get31TileNumberX(cLeftLongitude);
-		int sright = MapUtils.get31TileNumberX(cRightLongitude);
-		int sbottom = MapUtils.get31TileNumberY(cBottomLatitude);
-		int stop = MapUtils.get31TileNumberY(cTopLatitude);
 		searchAmenities(stop, sleft, sbottom, sright, zoom, filter, tempList, matcher);
-		synchronized (this) {
-			cachedObjects.clear();
-			cachedObjects.addAll(tempList);
+		if (matcher == null || !matcher.isCancelled()) {
+			return tileCache.putTiles(zoom, left, top, right, bottom, filterId, tempList, keepRecent);
 		}
-
+		return 0;
 	}
 
 	
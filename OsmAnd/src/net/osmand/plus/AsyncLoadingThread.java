@@ -24,6 +24,8 @@ import android.os.HandlerThread;
 public class AsyncLoadingThread extends Thread {
 	
 	public static final int LIMIT_TRANSPORT = 200;
+	// time (ms) that could be spent by prefetching during one iteration
+	private static final int PREFETCH_TIME_SLICE = 100;
 	
 	private static final Log log = LogUtil.getLog(AsyncLoadingThread.class); 
 	
@@ -33,6 +35,7 @@ public class AsyncLoadingThread extends Thread {
 	Stack<Object> requests = new Stack<Object>();
 	AmenityLoadRequest poiLoadRequest = null;
 	TransportLoadRequest transportLoadRequest = null;
+	DataPrefetcher.PrefetchRequest prefetchRequest = null;
 	
 	
 	private final ResourceManager resourceManger;
@@ -54,6 +57,20 @@ public class AsyncLoadingThread extends Thread {
 		asyncLoadingTransport = new Handler(h.getLooper());
 	}
 
+	public void postAmenitiesTask(Runnable r) {
+		if (asyncLoadingPoi == null) {
+			startPoiLoadingThread();
+		}
+		asyncLoadingPoi.post(r);
+	}
+	
+	public void postTransportTask(Runnable r) {
+		if (asyncLoadingTransport == null) {
+			startTransportLoadingThread();
+		}
+		asyncLoadingTransport.post(r);
+	}
+
 	private int calculateProgressStatus() {
 		int progress = 0;
 		if (resourceManger.getMapTileDownloader() != null && resourceManger.getMapTileDownloader().isSomethingBeingDownloaded()) {
@@ -122,6 +139,16 @@ public class AsyncLoadingThread extends Thread {
 						}
 					}
 				}
+				// prefetch data ahead only when there is nothing to load for the current view
+				DataPrefetcher.PrefetchRequest prefetch = prefetchRequest;
+				if (!mapLoaded && prefetch != null && !prefetch.isFinished()) {
+					long start = System.currentTimeMillis();
+					while (requests.isEmpty() && System.currentTimeMillis() - start < PREFETCH_TIME_SLICE) {
+						if (!prefetch.prefetchNextTile(this)) {
+							break;
+						}
+					}
+				}
 				if (tileLoaded || amenityLoaded || transportLoaded || mapLoaded) {
 					// use downloader callback
 					for (IMapDownloaderCallback c : resourceManger.getMapTileDownloader().getDownloaderCallbacks()) {
@@ -161,6 +188,10 @@ public class AsyncLoadingThread extends Thread {
 		requests.push(req);
 	}
 	
+	public void requestToPrefetch(DataPrefetcher.PrefetchRequest req) {
+		prefetchRequest = req;
+	}
+	
 	public boolean isFileCurrentlyDownloaded(File fileToSave) {
 		return resourceManger.getMapTileDownloader().isFileCurrentlyDownloaded(fileToSave);
 	}
@@ -0,0 +1,365 @@
+package net.osmand.plus;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.osmand.LogUtil;
+import net.osmand.ResultMatcher;
+import net.osmand.data.Amenity;
+import net.osmand.data.TransportStop;
+import net.osmand.osm.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+import android.location.Location;
+
+/**
+ * Prefetcher loads map data, POI and transport stops ahead of the current location
+ * (along the calculated route or along the movement direction) with low priority,
+ * so when map is moved there the data is already read from disk.
+ * Prefetched POI and transport stops are kept in repositories caches limited by memory.
+ */
+public class DataPrefetcher {
+
+	private static final Log log = LogUtil.getLog(DataPrefetcher.class);
+
+	// approximate memory consumed by cached objects
+	public static final int AMENITY_SIZE = 400;
+	public static final int TRANSPORT_STOP_SIZE = 300;
+
+	public static final int MIN_DISTANCE_AHEAD = 2000;
+	public static final int MAX_DISTANCE_AHEAD = 15000;
+	public static final int SECONDS_AHEAD = 300;
+	// speed from which direction of movement is taken into account (m/s)
+	private static final float MIN_SPEED = 1.5f;
+	// layers that were used during that time are prefetched
+	private static final long LAYER_ACTIVE_TIMEOUT = 60000;
+	// remember already prefetched tiles to not prefetch them twice
+	private static final int REMEMBER_TILES = 256;
+	private static final double EARTH_RADIUS = 6378137;
+
+	private final ResourceManager resourceManager;
+	private long memoryBudget;
+
+	private PrefetchRequest currentRequest = null;
+	private Set<Long> prefetchedTiles = new LinkedHashSet<Long>();
+	private int prefetchedZoom = -1;
+
+	private PoiFilter poiFilter = null;
+	private long poiFilterUsedTime = 0;
+	private long transportUsedTime = 0;
+
+	public DataPrefetcher(ResourceManager resourceManager) {
+		this.resourceManager = resourceManager;
+		this.memoryBudget = Runtime.getRuntime().maxMemory() / 16;
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	public synchronized void poiLayerUsed(PoiFilter filter) {
+		this.poiFilter = filter;
+		this.poiFilterUsedTime = System.currentTimeMillis();
+	}
+
+	public synchronized void transportLayerUsed() {
+		this.transportUsedTime = System.currentTimeMillis();
+	}
+
+	public synchronized void cancel() {
+		if (currentRequest != null) {
+			currentRequest.cancelled = true;
+			currentRequest = null;
+		}
+	}
+
+	public synchronized void clear() {
+		cancel();
+		prefetchedTiles.clear();
+	}
+
+	/**
+	 * Schedules prefetching of the data ahead of location.
+	 * @param route - calculated route (could be null then direction of movement is used)
+	 * @param routeIndex - index of next route point
+	 * @param zoom - current map zoom
+	 */
+	public synchronized void updateLocation(Location location, List<Location> route, int routeIndex, int zoom) {
+		if (location == null) {
+			return;
+		}
+		float speed = location.hasSpeed() ? location.getSpeed() : 0;
+		int distance = (int) Math.max(MIN_DISTANCE_AHEAD, Math.min(MAX_DISTANCE_AHEAD, speed * SECONDS_AHEAD));
+		List<Long> tiles;
+		if (route != null && routeIndex >= 0 && routeIndex < route.size()) {
+			tiles = calculateTilesAlongRoute(location, route, routeIndex, distance, zoom);
+		} else if (location.hasBearing() && speed > MIN_SPEED) {
+			tiles = calculateTilesAlongBearing(location, distance, zoom);
+		} else {
+			return;
+		}
+		if (zoom != prefetchedZoom) {
+			prefetchedTiles.clear();
+			prefetchedZoom = zoom;
+		}
+		List<Long> toPrefetch = new ArrayList<Long>();
+		for (Long l : tiles) {
+			if (!prefetchedTiles.contains(l)) {
+				toPrefetch.add(l);
+			}
+		}
+		if (toPrefetch.isEmpty()) {
+			return;
+		}
+		if (currentRequest != null && !currentRequest.cancelled && currentRequest.zoom == zoom
+				&& currentRequest.containsAll(toPrefetch)) {
+			// still loading the same area
+			return;
+		}
+		cancel();
+		long now = System.currentTimeMillis();
+		PoiFilter filter = now - poiFilterUsedTime < LAYER_ACTIVE_TIMEOUT ? poiFilter : null;
+		boolean transport = now - transportUsedTime < LAYER_ACTIVE_TIMEOUT;
+		if (log.isDebugEnabled()) {
+			log.debug("Prefetch " + toPrefetch.size() + " tiles ahead on zoom " + zoom); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		currentRequest = new PrefetchRequest(toPrefetch, zoom, filter, filter != null, transport);
+		resourceManager.asyncLoadingThread.requestToPrefetch(currentRequest);
+	}
+
+	protected synchronized void tilePrefetched(PrefetchRequest req, long tile) {
+		if (req.zoom != prefetchedZoom) {
+			return;
+		}
+		prefetchedTiles.add(tile);
+		if (prefetchedTiles.size() > REMEMBER_TILES) {
+			Long first = prefetchedTiles.iterator().next();
+			prefetchedTiles.remove(first);
+		}
+	}
+
+	private List<Long> calculateTilesAlongRoute(Location location, List<Location> route, int routeIndex, int distance, int zoom) {
+		LinkedHashSet<Long> tiles = new LinkedHashSet<Long>();
+		double step = getSampleStep(location.getLatitude(), zoom);
+		double prevLat = location.getLatitude();
+		double prevLon = location.getLongitude();
+		double passed = 0;
+		for (int i = routeIndex; i < route.size() && passed < distance; i++) {
+			Location next = route.get(i);
+			double d = MapUtils.getDistance(prevLat, prevLon, next.getLatitude(), next.getLongitude());
+			addSegmentTiles(tiles, prevLat, prevLon, next.getLatitude(), next.getLongitude(), d, step, zoom);
+			passed += d;
+			prevLat = next.getLatitude();
+			prevLon = next.getLongitude();
+		}
+		return new ArrayList<Long>(tiles);
+	}
+
+	private List<Long> calculateTilesAlongBearing(Location location, int distance, int zoom) {
+		LinkedHashSet<Long> tiles = new LinkedHashSet<Long>();
+		double step = getSampleStep(location.getLatitude(), zoom);
+		double lat = location.getLatitude();
+		double lon = location.getLongitude();
+		double bearing = Math.toRadians(location.getBearing());
+		// equirectangular approximation is precise enough for several kilometers
+		double dLat = Math.toDegrees(distance * Math.cos(bearing) / EARTH_RADIUS);
+		double dLon = Math.toDegrees(distance * Math.sin(bearing) / (EARTH_RADIUS * Math.cos(Math.toRadians(lat))));
+		addSegmentTiles(tiles, lat, lon, lat + dLat, lon + dLon, distance, step, zoom);
+		return new ArrayList<Long>(tiles);
+	}
+
+	private double getSampleStep(double lat, int zoom) {
+		// half of the tile size in meters
+		return 2 * Math.PI * EARTH_RADIUS / (1 << zoom) * Math.cos(Math.toRadians(lat)) / 2;
+	}
+
+	private void addSegmentTiles(Set<Long> tiles, double lat1, double lon1, double lat2, double lon2, double dist, double step, int zoom) {
+		int samples = Math.max(1, (int) Math.ceil(dist / step));
+		for (int k = 0; k <= samples; k++) {
+			double lat = lat1 + (lat2 - lat1) * k / samples;
+			double lon = lon1 + (lon2 - lon1) * k / samples;
+			int tx = (int) MapUtils.getTileNumberX(zoom, lon);
+			int ty = (int) MapUtils.getTileNumberY(zoom, lat);
+			// screen covers several tiles around the location
+			for (int dx = -1; dx <= 1; dx++) {
+				for (int dy = -1; dy <= 1; dy++) {
+					tiles.add(tileKey(tx + dx, ty + dy));
+				}
+			}
+		}
+	}
+
+	private static long tileKey(int x, int y) {
+		return (((long) x) << 32) | (y & 0xffffffffL);
+	}
+
+	/**
+	 * Request is executed in loading thread : map data is prefetched in the loading thread itself,
+	 * POI and transport stops are loaded in their own threads one tile at a time.
+	 */
+	public class PrefetchRequest {
+		private final List<Long> tiles;
+		private final int zoom;
+		private final PoiFilter filter;
+		private final boolean amenities;
+		private final boolean transport;
+		private int index = 0;
+		private volatile boolean cancelled = false;
+		private volatile boolean amenitiesRunning = false;
+		private volatile boolean transportRunning = false;
+		// loads of the current tile that are not completed (tile is prefetched when all are completed)
+		private int pendingLoads = 0;
+		private boolean failedLoad = false;
+
+		private final ResultMatcher<Amenity> amenityMatcher = new ResultMatcher<Amenity>() {
+			@Override
+			public boolean publish(Amenity object) {
+				return true;
+			}
+			@Override
+			public boolean isCancelled() {
+				return cancelled;
+			}
+		};
+
+		private final ResultMatcher<TransportStop> transportMatcher = new ResultMatcher<TransportStop>() {
+			@Override
+			public boolean publish(TransportStop object) {
+				return true;
+			}
+			@Override
+			public boolean isCancelled() {
+				return cancelled;
+			}
+		};
+
+		PrefetchRequest(List<Long> tiles, int zoom, PoiFilter filter, boolean amenities, boolean transport) {
+			this.tiles = tiles;
+			this.zoom = zoom;
+			this.filter = filter;
+			this.amenities = amenities;
+			this.transport = transport;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		public boolean isFinished() {
+			return cancelled || index >= tiles.size();
+		}
+
+		boolean containsAll(List<Long> t) {
+			return tiles.subList(index, tiles.size()).containsAll(t);
+		}
+
+		private synchronized void startLoad() {
+			pendingLoads++;
+		}
+
+		private void finishLoad(long tile, boolean success) {
+			boolean completed;
+			synchronized (this) {
+				failedLoad |= !success;
+				completed = --pendingLoads == 0 && !failedLoad && !cancelled;
+			}
+			if (completed) {
+				tilePrefetched(this, tile);
+			}
+		}
+
+		/**
+		 * Prefetches next tile if previous POI and transport loading is finished.
+		 * Should be called from the map loading thread.
+		 * @return false if nothing was done (previous tile is still loading)
+		 */
+		public boolean prefetchNextTile(AsyncLoadingThread thread) {
+			if (isFinished() || amenitiesRunning || transportRunning) {
+				return false;
+			}
+			final long tile = tiles.get(index++);
+			final int tx = (int) (tile >> 32);
+			final int ty = (int) tile;
+			final int tileZoom = zoom;
+			double top = MapUtils.getLatitudeFromTile(zoom, ty);
+			double left = MapUtils.getLongitudeFromTile(zoom, tx);
+			double bottom = MapUtils.getLatitudeFromTile(zoom, ty + 1);
+			double right = MapUtils.getLongitudeFromTile(zoom, tx + 1);
+			synchronized (this) {
+				failedLoad = false;
+			}
+			// map data is loaded here, it is one of loads of tile
+			startLoad();
+			resourceManager.getRenderer().prefetchMapData(zoom, tx, ty);
+			if (amenities) {
+				final List<AmenityIndexRepositoryBinary> repos = new ArrayList<AmenityIndexRepositoryBinary>();
+				for (AmenityIndexRepository r : resourceManager.amenityRepositories) {
+					if (r instanceof AmenityIndexRepositoryBinary && r.checkContains(top, left, bottom, right)) {
+						repos.add((AmenityIndexRepositoryBinary) r);
+					}
+				}
+				if (!repos.isEmpty()) {
+					final long budget = memoryBudget / 2 / resourceManager.amenityRepositories.size();
+					amenitiesRunning = true;
+					startLoad();
+					thread.postAmenitiesTask(new Runnable() {
+						@Override
+						public void run() {
+							boolean success = false;
+							try {
+								for (AmenityIndexRepositoryBinary r : repos) {
+									r.setPrefetchBudget(budget);
+									r.prefetchAmenities(tileZoom, tx, ty, filter, amenityMatcher);
+								}
+								success = true;
+							} finally {
+								// the next tile is started only after that
+								finishLoad(tile, success);
+								amenitiesRunning = false;
+							}
+						}
+					});
+				}
+			}
+			if (transport) {
+				final List<TransportIndexRepositoryBinary> repos = new ArrayList<TransportIndexRepositoryBinary>();
+				for (TransportIndexRepository r : resourceManager.transportRepositories) {
+					if (r instanceof TransportIndexRepositoryBinary && r.checkContains(top, left, bottom, right)) {
+						repos.add((TransportIndexRepositoryBinary) r);
+					}
+				}
+				if (!repos.isEmpty()) {
+					final long budget = memoryBudget / 2 / resourceManager.transportRepositories.size();
+					transportRunning = true;
+					startLoad();
+					thread.postTransportTask(new Runnable() {
+						@Override
+						public void run() {
+							boolean success = false;
+							try {
+								for (TransportIndexRepositoryBinary r : repos) {
+									r.setPrefetchBudget(budget);
+									r.prefetchTransportStops(tileZoom, tx, ty, AsyncLoadingThread.LIMIT_TRANSPORT, transportMatcher);
+								}
+								success = true;
+							} finally {
+								// the next tile is started only after that
+								finishLoad(tile, success);
+								transportRunning = false;
+							}
+						}
+					});
+				}
+			}
+			finishLoad(tile, true);
+			return true;
+		}
+	}
+}
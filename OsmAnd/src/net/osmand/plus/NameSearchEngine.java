@@ -0,0 +1,344 @@
+package net.osmand.plus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import net.osmand.LogUtil;
+import net.osmand.ResultMatcher;
+import net.osmand.binary.NameKeyIndex;
+import net.osmand.data.Amenity;
+import net.osmand.data.City;
+import net.osmand.data.MapObject;
+import net.osmand.data.PostCode;
+import net.osmand.data.Street;
+import net.osmand.data.TransportStop;
+import net.osmand.osm.LatLon;
+import net.osmand.osm.MapUtils;
+
+import org.apache.commons.logging.Log;
+
+/**
+ * Searches objects by name : poi and cities/villages/postcodes in all loaded indexes, streets only of cities
+ * that are already loaded (streets are not indexed by name) and transport stops only around the search location
+ * (stops are not indexed by name, search area grows until matching stops are found, see NEARBY_STOPS_RADIUS).
+ * Every repository is searched in a separate task, tasks of different files read in parallel
+ * (readers of the same file share it, see SharedObfFile, and address repository reads under its lock).
+ * Results are merged to top-k list ordered by score that combines text matching and distance to the search location.
+ * Name matching is based on normalized name keys (see {@link NameKeyIndex}) so collator is not used.
+ */
+public class NameSearchEngine {
+	private static final Log log = LogUtil.getLog(NameSearchEngine.class);
+
+	public enum ResultType {
+		POI, CITY, POSTCODE, STREET, TRANSPORT_STOP
+	}
+
+	// transport stops do not have name index so only stops around location are filtered by name,
+	// next radius is used only if nothing is found
+	private static final double[] NEARBY_STOPS_RADIUS = { 5000, 20000, 60000 };
+	private static final int NEARBY_STOPS_LIMIT = 3000;
+	// distance at which distance part of score is halved
+	private static final double DISTANCE_SCALE = 5000;
+	private static final double TEXT_WEIGHT = 0.6;
+	private static final double DISTANCE_WEIGHT = 0.4;
+
+	private static ExecutorService executor;
+
+	private final ResourceManager resourceManager;
+
+	public static class SearchResult {
+		private final MapObject object;
+		private final ResultType type;
+		private final double distance;
+		private final double score;
+
+		public SearchResult(MapObject object, ResultType type, double distance, double score) {
+			this.object = object;
+			this.type = type;
+			this.distance = distance;
+			this.score = score;
+		}
+
+		public MapObject getObject() {
+			return object;
+		}
+
+		public ResultType getType() {
+			return type;
+		}
+
+		public double getDistance() {
+			return distance;
+		}
+
+		public double getScore() {
+			return score;
+		}
+	}
+
+	private static final Comparator<SearchResult> SCORE_COMPARATOR = new Comparator<SearchResult>() {
+		@Override
+		public int compare(SearchResult o1, SearchResult o2) {
+			return Double.compare(o1.score, o2.score);
+		}
+	};
+
+	public NameSearchEngine(ResourceManager resourceManager) {
+		this.resourceManager = resourceManager;
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+			executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Search by name"); //$NON-NLS-1$
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Text part of score : 1 - name equals to query, otherwise it depends on where query matches and
+	 * how much of name is covered by query. Returns 0 if name doesn't match.
+	 */
+	public static double getTextScore(String name, String normalizedQuery) {
+		if (name == null || name.length() == 0 || normalizedQuery.length() == 0) {
+			return 0;
+		}
+		String n = NameKeyIndex.normalize(name);
+		if (n.equals(normalizedQuery)) {
+			return 1;
+		}
+		double coverage = ((double) normalizedQuery.length()) / n.length();
+		if (n.startsWith(normalizedQuery)) {
+			return 0.6 + 0.3 * coverage;
+		}
+		for (int i = 1; i <= n.length() - normalizedQuery.length(); i++) {
+			if (!Character.isLetterOrDigit(n.charAt(i - 1)) && Character.isLetterOrDigit(n.charAt(i))
+					&& n.startsWith(normalizedQuery, i)) {
+				return 0.3 + 0.3 * coverage;
+			}
+		}
+		return 0;
+	}
+
+	public static double getScore(double textScore, double distance) {
+		return TEXT_WEIGHT * textScore + DISTANCE_WEIGHT * DISTANCE_SCALE / (DISTANCE_SCALE + distance);
+	}
+
+	/**
+	 * Searches objects of all types
+	 */
+	public List<SearchResult> search(String query, double lat, double lon, int limit, final ResultMatcher<SearchResult> matcher) {
+		return search(query, lat, lon, limit, EnumSet.allOf(ResultType.class), matcher);
+	}
+
+	/**
+	 * @param limit - maximum number of results (top by score)
+	 * @param types - types of objects to search
+	 * @param matcher - could be used to cancel search (results are published after merging)
+	 * @return results ordered by score (best first)
+	 */
+	public List<SearchResult> search(String query, double lat, double lon, int limit, EnumSet<ResultType> types,
+			final ResultMatcher<SearchResult> matcher) {
+		long time = System.currentTimeMillis();
+		final String normalizedQuery = NameKeyIndex.normalize(query.trim());
+		if (normalizedQuery.length() == 0 || limit <= 0) {
+			return Collections.emptyList();
+		}
+		List<Callable<List<SearchResult>>> tasks = new ArrayList<Callable<List<SearchResult>>>();
+		if (types.contains(ResultType.POI)) {
+			addPoiTasks(tasks, query.trim(), normalizedQuery, lat, lon, matcher);
+		}
+		if (types.contains(ResultType.CITY) || types.contains(ResultType.POSTCODE)) {
+			addAddressTasks(tasks, query.trim(), normalizedQuery, lat, lon, types, matcher);
+		}
+		if (types.contains(ResultType.STREET)) {
+			addLoadedStreetsTasks(tasks, normalizedQuery, lat, lon, matcher);
+		}
+		if (types.contains(ResultType.TRANSPORT_STOP)) {
+			addNearbyStopsTasks(tasks, normalizedQuery, lat, lon, matcher);
+		}
+		List<Future<List<SearchResult>>> futures = new ArrayList<Future<List<SearchResult>>>();
+		for (Callable<List<SearchResult>> c : tasks) {
+			futures.add(getExecutor().submit(c));
+		}
+		// min heap keeps top-k results
+		PriorityQueue<SearchResult> top = new PriorityQueue<SearchResult>(limit + 1, SCORE_COMPARATOR);
+		for (Future<List<SearchResult>> f : futures) {
+			try {
+				for (SearchResult r : f.get()) {
+					if (top.size() < limit) {
+						top.add(r);
+					} else if (top.peek().score < r.score) {
+						top.poll();
+						top.add(r);
+					}
+				}
+			} catch (InterruptedException e) {
+				log.error("Search by name interrupted", e); //$NON-NLS-1$
+			} catch (ExecutionException e) {
+				log.error("Search by name failed", e); //$NON-NLS-1$
+			}
+		}
+		List<SearchResult> results = new ArrayList<SearchResult>(top);
+		Collections.sort(results, Collections.reverseOrder(SCORE_COMPARATOR));
+		if (matcher != null) {
+			List<SearchResult> published = new ArrayList<SearchResult>(results.size());
+			for (SearchResult r : results) {
+				if (matcher.isCancelled()) {
+					break;
+				}
+				if (matcher.publish(r)) {
+					published.add(r);
+				}
+			}
+			results = published;
+		}
+		log.info("Search by name '" + query + "' in " + tasks.size() + " indexes is done in " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				+ (System.currentTimeMillis() - time) + " ms. Found " + results.size()); //$NON-NLS-1$
+		return results;
+	}
+
+	private void addPoiTasks(List<Callable<List<SearchResult>>> tasks, final String query, final String normalizedQuery,
+			final double lat, final double lon, final ResultMatcher<SearchResult> matcher) {
+		for (AmenityIndexRepository r : resourceManager.getAmenityRepositories()) {
+			if (r instanceof AmenityIndexRepositoryBinary) {
+				final AmenityIndexRepositoryBinary repo = (AmenityIndexRepositoryBinary) r;
+				tasks.add(new Callable<List<SearchResult>>() {
+					@Override
+					public List<SearchResult> call() throws Exception {
+						List<SearchResult> list = new ArrayList<SearchResult>();
+						List<Amenity> amenities = repo.searchAmenitiesByName(MapUtils.get31TileNumberX(lon),
+								MapUtils.get31TileNumberY(lat), query, new CancelMatcher<Amenity>(matcher));
+						for (Amenity a : amenities) {
+							addResult(list, a, ResultType.POI, normalizedQuery, lat, lon);
+						}
+						return list;
+					}
+				});
+			}
+		}
+	}
+
+	private void addAddressTasks(List<Callable<List<SearchResult>>> tasks, final String query, final String normalizedQuery,
+			final double lat, final double lon, final EnumSet<ResultType> types, final ResultMatcher<SearchResult> matcher) {
+		for (final RegionAddressRepository repo : resourceManager.getAddressRepositories()) {
+			tasks.add(new Callable<List<SearchResult>>() {
+				@Override
+				public List<SearchResult> call() throws Exception {
+					List<SearchResult> list = new ArrayList<SearchResult>();
+					List<MapObject> objects = repo.fillWithSuggestedCities(query, new CancelMatcher<MapObject>(matcher), new LatLon(lat, lon));
+					for (MapObject o : objects) {
+						if (o instanceof City && types.contains(ResultType.CITY)) {
+							addResult(list, o, ResultType.CITY, normalizedQuery, lat, lon);
+						} else if (o instanceof PostCode && types.contains(ResultType.POSTCODE)) {
+							addResult(list, o, ResultType.POSTCODE, normalizedQuery, lat, lon);
+						}
+					}
+					return list;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Streets of cities that are already loaded (no disk reads), name is matched by the same normalized keys
+	 */
+	private void addLoadedStreetsTasks(List<Callable<List<SearchResult>>> tasks, final String normalizedQuery,
+			final double lat, final double lon, final ResultMatcher<SearchResult> matcher) {
+		for (final RegionAddressRepository repo : resourceManager.getAddressRepositories()) {
+			tasks.add(new Callable<List<SearchResult>>() {
+				@Override
+				public List<SearchResult> call() throws Exception {
+					List<SearchResult> list = new ArrayList<SearchResult>();
+					for (Street s : repo.getLoadedStreets()) {
+						if (matcher != null && matcher.isCancelled()) {
+							break;
+						}
+						addResult(list, s, ResultType.STREET, normalizedQuery, lat, lon);
+					}
+					return list;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Stops are not indexed by name, so stops within radius around location are read and filtered by name
+	 * (radius grows while nothing is found)
+	 */
+	private void addNearbyStopsTasks(List<Callable<List<SearchResult>>> tasks, final String normalizedQuery,
+			final double lat, final double lon, final ResultMatcher<SearchResult> matcher) {
+		final double latPerMeter = 1 / MapUtils.getDistance(lat, lon, lat - 1, lon);
+		final double lonPerMeter = 1 / MapUtils.getDistance(lat, lon, lat, lon - 1);
+		for (TransportIndexRepository r : resourceManager.searchTransportRepositories(lat, lon)) {
+			if (r instanceof TransportIndexRepositoryBinary) {
+				final TransportIndexRepositoryBinary repo = (TransportIndexRepositoryBinary) r;
+				tasks.add(new Callable<List<SearchResult>>() {
+					@Override
+					public List<SearchResult> call() throws Exception {
+						List<SearchResult> list = new ArrayList<SearchResult>();
+						for (double radius : NEARBY_STOPS_RADIUS) {
+							if (!list.isEmpty() || (matcher != null && matcher.isCancelled())) {
+								break;
+							}
+							double dlat = radius * latPerMeter;
+							double dlon = radius * lonPerMeter;
+							List<TransportStop> stops = repo.searchTransportStops(lat + dlat, lon - dlon, lat - dlat, lon + dlon,
+									NEARBY_STOPS_LIMIT, new ArrayList<TransportStop>(), null);
+							for (TransportStop s : stops) {
+								addResult(list, s, ResultType.TRANSPORT_STOP, normalizedQuery, lat, lon);
+							}
+						}
+						return list;
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Accepts all objects (they are filtered by score) and is cancelled together with search matcher
+	 */
+	private static class CancelMatcher<T> implements ResultMatcher<T> {
+		private final ResultMatcher<SearchResult> matcher;
+
+		public CancelMatcher(ResultMatcher<SearchResult> matcher) {
+			this.matcher = matcher;
+		}
+
+		@Override
+		public boolean publish(T object) {
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return matcher != null && matcher.isCancelled();
+		}
+	}
+
+	private static void addResult(List<SearchResult> list, MapObject o, ResultType type, String normalizedQuery, double lat, double lon) {
+		double text = Math.max(getTextScore(o.getName(), normalizedQuery), getTextScore(o.getEnName(), normalizedQuery));
+		if (text > 0 && o.getLocation() != null) {
+			double dist = MapUtils.getDistance(o.getLocation(), lat, lon);
+			list.add(new SearchResult(o, type, dist, getScore(text, dist)));
+		}
+	}
+}
@@ -41,6 +41,11 @@ public interface RegionAddressRepository {
 	
 	public List<MapObject> getLoadedCities();
 	
+	/**
+	 * @return streets of loaded cities (streets are not read from file)
+	 */
+	public List<Street> getLoadedStreets();
+	
 	public PostCode getPostcode(String name);
 	
 	public City getCityById(Long id);
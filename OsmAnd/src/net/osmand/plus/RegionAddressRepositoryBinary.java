@@ -16,6 +16,7 @@ import net.osmand.CollatorStringMatcher.StringMatcherMode;
 import net.osmand.LogUtil;
 import net.osmand.ResultMatcher;
 import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.NameKeyIndex;
 import net.osmand.data.Building;
 import net.osmand.data.City;
 import net.osmand.data.MapObject;
@@ -87,6 +88,15 @@ public class RegionAddressRepositoryBinary implements RegionAddressRepository {
 		return new ArrayList<MapObject>(cities.values());
 	}
 	
+	@Override
+	public synchronized List<Street> getLoadedStreets(){
+		List<Street> streets = new ArrayList<Street>();
+		for (City c : cities.values()) {
+			streets.addAll(c.getStreets());
+		}
+		return streets;
+	}
+	
 	@Override
 	public synchronized void preloadStreets(MapObject o, ResultMatcher<Street> resultMatcher) {
 		assert o instanceof PostCode || o instanceof City;
@@ -176,9 +186,10 @@ public class RegionAddressRepositoryBinary implements RegionAddressRepository {
 
 			}
 			name = name.toLowerCase();
+			NameKeyIndex.WordStartMatcher nameMatcher = new NameKeyIndex.WordStartMatcher(name);
 			for (City c : cities.values()) {
-				String cName = c.getName(useEnglishNames); // lower case not needed, collator ensures that
-				if (CollatorStringMatcher.cmatches(collator, cName, name, StringMatcherMode.CHECK_STARTS_FROM_SPACE)) {
+				String cName = c.getName(useEnglishNames); // lower case not needed, matcher normalizes names
+				if (nameMatcher.matches(cName)) {
 					if (resultMatcher.publish(c)) {
 						citiesToFill.add(c);
 					}
@@ -190,8 +201,8 @@ public class RegionAddressRepositoryBinary implements RegionAddressRepository {
 
 			int initialsize = citiesToFill.size();
 			if (name.length() >= 3) {
-				for (City c : file.getVillages(region, BinaryMapIndexReader.buildAddressRequest(resultMatcher),
-						new CollatorStringMatcher(collator, name,StringMatcherMode.CHECK_STARTS_FROM_SPACE), useEnglishNames)) {
+				for (City c : file.searchVillagesByName(region, BinaryMapIndexReader.buildAddressRequest(resultMatcher), name,
+						useEnglishNames)) {
 					citiesToFill.add(c);
 					if (resultMatcher.isCancelled()) {
 						return citiesToFill;
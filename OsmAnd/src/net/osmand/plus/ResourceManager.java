@@ -2,10 +2,10 @@ package net.osmand.plus;
 
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
 import java.text.Collator;
 import java.text.MessageFormat;
 import java.util.ArrayList;
@@ -16,6 +16,14 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import net.osmand.Algoritms;
 import net.osmand.IProgress;
@@ -23,11 +31,13 @@ import net.osmand.LogUtil;
 import net.osmand.ResultMatcher;
 import net.osmand.Version;
 import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.ObfSectionsCache;
 import net.osmand.data.Amenity;
 import net.osmand.data.AmenityType;
 import net.osmand.data.IndexConstants;
 import net.osmand.data.MapTileDownloader;
 import net.osmand.data.MapTileDownloader.DownloadRequest;
+import net.osmand.data.TileImageCache;
 import net.osmand.data.TransportStop;
 import net.osmand.map.ITileSource;
 import net.osmand.osm.LatLon;
@@ -73,6 +83,9 @@ public class ResourceManager {
 	
 	private static final Log log = LogUtil.getLog(ResourceManager.class);
 	private static final String MINE_POI_DB = APP_DIR + "mine"+ IndexConstants.POI_INDEX_EXT;
+	private static final String SECTIONS_CACHE_FILE = ".sections.cache"; //$NON-NLS-1$
+	// opens map files and loads assets in parallel
+	private static ExecutorService indexingExecutor;
 	
 	
 	protected static ResourceManager manager = null;
@@ -80,9 +93,16 @@ public class ResourceManager {
 	// it is not good investigated but no more than 64 (satellite images)
 	// Only 8 MB (from 16 Mb whole mem) available for images : image 64K * 128 = 8 MB (8 bit), 64 - 16 bit, 32 - 32 bit
 	// at least 3*9?
-	protected int maxImgCacheSize = 28;
+	protected long maxImgCacheBytes = 28 * 256 * 256 * 2;
+	// compressed tiles are ~10-20 times smaller than decoded
+	protected long maxCompressedImgCacheBytes = 2 * 1024 * 1024;
 	
-	protected Map<String, Bitmap> cacheOfImages = new LinkedHashMap<String, Bitmap>();
+	protected TileImageCache<Bitmap> cacheOfImages = new TileImageCache<Bitmap>(maxImgCacheBytes, maxCompressedImgCacheBytes) {
+		@Override
+		protected int getImageSize(Bitmap image) {
+			return image.getRowBytes() * image.getHeight();
+		}
+	};
 	protected Map<String, Boolean> imagesOnFS = new LinkedHashMap<String, Boolean>() ;
 	
 	protected File dirWithTiles ;
@@ -109,6 +129,10 @@ public class ResourceManager {
 	
 	public final AsyncLoadingThread asyncLoadingThread = new AsyncLoadingThread(this);
 	
+	protected final NameSearchEngine nameSearchEngine = new NameSearchEngine(this);
+	
+	protected final DataPrefetcher prefetcher = new DataPrefetcher(this);
+	
 	protected boolean internetIsNotAccessible = false;
 	
 	protected AmenityIndexRepositoryOdb updatablePoiDb = null;
@@ -128,7 +152,15 @@ public class ResourceManager {
 		// at least 3*9?
 		float tiles = (dm.widthPixels / 256 + 2) * (dm.heightPixels / 256 + 2) * 3;
 		log.info("Tiles to load in memory : " + tiles);
-		maxImgCacheSize = (int) (tiles) ; 
+		// take 32 bit images into account but not more than quarter of heap
+		long maxMemory = Runtime.getRuntime().maxMemory();
+		maxImgCacheBytes = Math.min((long) tiles * 256 * 256 * 4, maxMemory / 4);
+		maxCompressedImgCacheBytes = Math.min(maxCompressedImgCacheBytes, maxMemory / 16);
+		cacheOfImages.setBudget(maxImgCacheBytes, maxCompressedImgCacheBytes);
+	}
+	
+	public TileImageCache<Bitmap> getTileImageCache() {
+		return cacheOfImages;
 	}
 	
 	public MapTileDownloader getMapTileDownloader() {
@@ -179,7 +211,7 @@ public class ResourceManager {
 	
 	
 	public Bitmap getTileImageFromCache(String file){
-		return cacheOfImages.get(file);
+		return cacheOfImages.getImage(file);
 	}
 	
 	
@@ -292,7 +324,8 @@ public class ResourceManager {
 			imagesOnFS.put(tileId, null);
 		}
 		
-		if (loadFromFs && cacheOfImages.get(tileId) == null && map != null) {
+		Bitmap cached = cacheOfImages.getImage(tileId);
+		if (loadFromFs && cached == null && map != null) {
 			boolean locked = map instanceof SQLiteTileSource && ((SQLiteTileSource) map).isLocked();
 			if(!loadFromInternetIfNeeded && !locked && !tileExistOnFileSystem(tileId, map, x, y, zoom)){
 				return null;
@@ -314,7 +347,7 @@ public class ResourceManager {
 				asyncLoadingThread.requestToLoadImage(req);
 			}
 		}
-		return cacheOfImages.get(tileId);
+		return cached;
 	}
 	
 	
@@ -323,60 +356,98 @@ public class ResourceManager {
 		if(req.tileId == null || req.dirWithTiles == null){
 			return null;
 		}
-		Bitmap cacheBmp = cacheOfImages.get(req.tileId);
+		Bitmap cacheBmp = cacheOfImages.getImage(req.tileId);
 		if (cacheBmp != null) {
 			return cacheBmp;
 		}
-		if (cacheOfImages.size() > maxImgCacheSize) {
-			clearTiles();
-		}
+		Bitmap bmp = null;
 		if (req.dirWithTiles.canRead() && !asyncLoadingThread.isFileCurrentlyDownloaded(req.fileToSave)) {
 			long time = System.currentTimeMillis();
 			if (log.isDebugEnabled()) {
 				log.debug("Start loaded file : " + req.tileId + " " + Thread.currentThread().getName()); //$NON-NLS-1$ //$NON-NLS-2$
 			}
-			Bitmap bmp = null;
-			if (req.tileSource instanceof SQLiteTileSource) {
-				bmp = ((SQLiteTileSource) req.tileSource).getImage(req.xTile, req.yTile, req.zoom);
-			} else {
-				File en = new File(req.dirWithTiles, req.tileId);
-				if (en.exists()) {
-					try {
-						bmp = BitmapFactory.decodeFile(en.getAbsolutePath());
-					} catch (OutOfMemoryError e) {
-						log.error("Out of memory error", e); //$NON-NLS-1$
-						clearTiles();
-					}
+			byte[] data = cacheOfImages.getCompressed(req.tileId);
+			if (data == null) {
+				data = readTileBytes(req);
+				cacheOfImages.putCompressed(req.tileId, data);
+			}
+			if (data != null) {
+				try {
+					bmp = BitmapFactory.decodeByteArray(data, 0, data.length);
+				} catch (OutOfMemoryError e) {
+					log.error("Out of memory error", e); //$NON-NLS-1$
+					clearTiles();
 				}
 			}
 
 			if (bmp != null) {
-				cacheOfImages.put(req.tileId, bmp);
+				cacheOfImages.putImage(req.tileId, bmp);
 				if (log.isDebugEnabled()) {
-					log.debug("Loaded file : " + req.tileId + " " + -(time - System.currentTimeMillis()) + " ms " + cacheOfImages.size()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					log.debug("Loaded file : " + req.tileId + " " + -(time - System.currentTimeMillis()) + " ms " + cacheOfImages.getImagesCount()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 				}
-			}
-
-			if (cacheOfImages.get(req.tileId) == null && req.url != null) {
+			} else if (req.url != null) {
 				asyncLoadingThread.requestToDownload(req);
 			}
 
 		}
-		return cacheOfImages.get(req.tileId);
+		return bmp;
+	}
+	
+	private byte[] readTileBytes(TileLoadDownloadRequest req) {
+		if (req.tileSource instanceof SQLiteTileSource) {
+			return ((SQLiteTileSource) req.tileSource).getImageBytes(req.xTile, req.yTile, req.zoom);
+		}
+		File en = new File(req.dirWithTiles, req.tileId);
+		if (!en.exists()) {
+			return null;
+		}
+		FileInputStream is = null;
+		try {
+			is = new FileInputStream(en);
+			byte[] data = new byte[(int) en.length()];
+			int read = 0;
+			while (read < data.length) {
+				int r = is.read(data, read, data.length - read);
+				if (r < 0) {
+					return null;
+				}
+				read += r;
+			}
+			return data;
+		} catch (IOException e) {
+			log.warn("File " + en.getName() + " couldn't be read", e); //$NON-NLS-1$ //$NON-NLS-2$
+			return null;
+		} finally {
+			Algoritms.closeStream(is);
+		}
 	}
 	
     ////////////////////////////////////////////// Working with indexes ////////////////////////////////////////////////
 
-	public List<String> reloadIndexes(IProgress progress){
+	public List<String> reloadIndexes(final IProgress progress){
 		close();
 		List<String> warnings = new ArrayList<String>();
-		// check we have some assets to copy to sdcard
-		warnings.addAll(checkAssets(progress));
-		initRenderers(progress);
+		// assets and renderers don't depend on indexes so they are loaded at the same time
+		Future<List<String>> assets = getIndexingExecutor().submit(new Callable<List<String>>() {
+			@Override
+			public List<String> call() {
+				// check we have some assets to copy to sdcard
+				List<String> w = checkAssets(IProgress.EMPTY_PROGRESS);
+				initRenderers(IProgress.EMPTY_PROGRESS);
+				return w;
+			}
+		});
 		// do it lazy
 		// indexingImageTiles(progress);
 		warnings.addAll(indexingMaps(progress));
 		warnings.addAll(indexingPoi(progress));
+		try {
+			warnings.addAll(0, assets.get());
+		} catch (InterruptedException e) {
+			log.error("Loading assets interrupted", e); //$NON-NLS-1$
+		} catch (ExecutionException e) {
+			log.error("Loading assets failed", e); //$NON-NLS-1$
+		}
 		return warnings;
 	}
 	
@@ -446,69 +517,164 @@ public class ResourceManager {
 		}
 	}
 
+	private static synchronized ExecutorService getIndexingExecutor() {
+		if (indexingExecutor == null) {
+			int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+			indexingExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Loading indexes"); //$NON-NLS-1$
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return indexingExecutor;
+	}
+
+	/**
+	 * Repositories of one opened file (created by loading thread, registered by calling thread)
+	 */
+	private static class MapIndexingResult {
+		File file;
+		BinaryMapIndexReader index;
+		List<RegionAddressRepository> addressRepositories = new ArrayList<RegionAddressRepository>();
+		TransportIndexRepository transportRepository;
+		BinaryMapIndexReader routingReader;
+		AmenityIndexRepository amenityRepository;
+		List<String> warnings = new ArrayList<String>();
+	}
+
 	public List<String> indexingMaps(final IProgress progress) {
 		File file = context.getSettings().extendOsmandPath(MAPS_PATH);
 		file.mkdirs();
 		List<String> warnings = new ArrayList<String>();
 		renderer.clearAllResources();
+		// sections of unchanged files are not read again
+		final ObfSectionsCache sectionsCache = new ObfSectionsCache(new File(file, SECTIONS_CACHE_FILE));
+		sectionsCache.load();
 		if (file.exists() && file.canRead()) {
+			List<File> mapFiles = new ArrayList<File>();
 			for (File f : file.listFiles()) {
 				if (f.getName().endsWith(IndexConstants.BINARY_MAP_INDEX_EXT)) {
-					progress.startTask(context.getString(R.string.indexing_map) + " " + f.getName(), -1); //$NON-NLS-1$
-					try {
-						BinaryMapIndexReader index = renderer.initializeNewResource(progress, f);
-						if (index == null) {
-							warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
-						} else {
-							indexFileNames.put(f.getName(), MessageFormat.format("{0,date,dd.MM.yyyy}", new Date(f.lastModified()))); //$NON-NLS-1$
-							for(String rName : index.getRegionNames()) {
-								// skip duplicate names (don't make collision between getName() and name in the map)
-								// it can be dangerous to use one file to different indexes if it is multithreaded
-								RegionAddressRepositoryBinary rarb = new RegionAddressRepositoryBinary(index, rName);
-								addressMap.put(rName, rarb);
-							}
-							if (index.hasTransportData()) {
-								try {
-									RandomAccessFile raf = new RandomAccessFile(f, "r"); //$NON-NLS-1$
-									transportRepositories.add(new TransportIndexRepositoryBinary(new BinaryMapIndexReader(raf, index)));
-								} catch (IOException e) {
-									log.error("Exception reading " + f.getAbsolutePath(), e); //$NON-NLS-1$
-									warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
-								}
-							}
-							if(index.containsMapData()){
-								try {
-									RandomAccessFile raf = new RandomAccessFile(f, "r"); //$NON-NLS-1$
-									routingMapFiles.put(f.getAbsolutePath(), new BinaryMapIndexReader(raf, index));
-								} catch (IOException e) {
-									log.error("Exception reading " + f.getAbsolutePath(), e); //$NON-NLS-1$
-									warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
-								}
-							}
-							if(index.containsPoiData()) {
-								try {
-									RandomAccessFile raf = new RandomAccessFile(f, "r"); //$NON-NLS-1$
-									amenityRepositories.add(new AmenityIndexRepositoryBinary(new BinaryMapIndexReader(raf, index)));
-								} catch (IOException e) {
-									log.error("Exception reading " + f.getAbsolutePath(), e); //$NON-NLS-1$
-									warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
-								}
-							}
-						}
-					} catch (SQLiteException e) {
-						log.error("Exception reading " + f.getAbsolutePath(), e); //$NON-NLS-1$
-						warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
-					} catch (OutOfMemoryError oome) {
-						log.error("Exception reading " + f.getAbsolutePath(), oome); //$NON-NLS-1$
-						warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_big_for_memory), f.getName()));
-					}
+					mapFiles.add(f);
 				} else if(f.getName().endsWith(".map.odb")){ //$NON-NLS-1$
 					warnings.add(MessageFormat.format(context.getString(R.string.old_map_index_is_not_supported), f.getName())); //$NON-NLS-1$
 				}
 			}
+			// files of current map location are opened first (so map could be drawn before all files are loaded)
+			LatLon l = context.getSettings().getLastKnownMapLocation();
+			final int x31 = MapUtils.get31TileNumberX(l.getLongitude());
+			final int y31 = MapUtils.get31TileNumberY(l.getLatitude());
+			List<File> sorted = new ArrayList<File>(mapFiles.size());
+			for (File f : mapFiles) {
+				if (sectionsCache.covers(f, x31, y31)) {
+					sorted.add(f);
+				}
+			}
+			for (File f : mapFiles) {
+				if (!sorted.contains(f)) {
+					sorted.add(f);
+				}
+			}
+			progress.startTask(context.getString(R.string.indexing_map), sorted.size());
+			CompletionService<MapIndexingResult> completionService = new ExecutorCompletionService<MapIndexingResult>(
+					getIndexingExecutor());
+			for (final File f : sorted) {
+				completionService.submit(new Callable<MapIndexingResult>() {
+					@Override
+					public MapIndexingResult call() {
+						return indexingMap(f, sectionsCache);
+					}
+				});
+			}
+			for (int i = 0; i < sorted.size(); i++) {
+				try {
+					registerMapIndex(completionService.take().get(), warnings);
+				} catch (InterruptedException e) {
+					log.error("Loading indexes interrupted", e); //$NON-NLS-1$
+				} catch (ExecutionException e) {
+					log.error("Loading index failed", e); //$NON-NLS-1$
+				}
+				progress.progress(1);
+			}
+			sectionsCache.removeMissingFiles();
+			sectionsCache.save();
 		}
 		return warnings;
 	}
+
+	/**
+	 * Opens file and creates its repositories (called by loading threads, file is drawn as soon as it is opened)
+	 */
+	private MapIndexingResult indexingMap(File f, ObfSectionsCache sectionsCache) {
+		MapIndexingResult r = new MapIndexingResult();
+		r.file = f;
+		try {
+			BinaryMapIndexReader index = renderer.initializeNewResource(IProgress.EMPTY_PROGRESS, f, sectionsCache);
+			if (index == null) {
+				r.warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
+				return r;
+			}
+			r.index = index;
+			for (String rName : index.getRegionNames()) {
+				// skip duplicate names (don't make collision between getName() and name in the map)
+				// it can be dangerous to use one file to different indexes if it is multithreaded
+				r.addressRepositories.add(new RegionAddressRepositoryBinary(index, rName));
+			}
+			if (index.hasTransportData()) {
+				try {
+					r.transportRepository = new TransportIndexRepositoryBinary(index.getSharedFile().open());
+				} catch (IOException e) {
+					log.error("Exception reading " + f.getAbsolutePath(), e); //$NON-NLS-1$
+					r.warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
+				}
+			}
+			if (index.containsMapData()) {
+				try {
+					r.routingReader = index.getSharedFile().open();
+				} catch (IOException e) {
+					log.error("Exception reading " + f.getAbsolutePath(), e); //$NON-NLS-1$
+					r.warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
+				}
+			}
+			if (index.containsPoiData()) {
+				try {
+					r.amenityRepository = new AmenityIndexRepositoryBinary(index.getSharedFile().open());
+				} catch (IOException e) {
+					log.error("Exception reading " + f.getAbsolutePath(), e); //$NON-NLS-1$
+					r.warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
+				}
+			}
+		} catch (SQLiteException e) {
+			log.error("Exception reading " + f.getAbsolutePath(), e); //$NON-NLS-1$
+			r.warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_not_supported), f.getName())); //$NON-NLS-1$
+		} catch (OutOfMemoryError oome) {
+			log.error("Exception reading " + f.getAbsolutePath(), oome); //$NON-NLS-1$
+			r.warnings.add(MessageFormat.format(context.getString(R.string.version_index_is_big_for_memory), f.getName()));
+		}
+		return r;
+	}
+
+	private void registerMapIndex(MapIndexingResult r, List<String> warnings) {
+		warnings.addAll(r.warnings);
+		if (r.index == null) {
+			return;
+		}
+		indexFileNames.put(r.file.getName(), MessageFormat.format("{0,date,dd.MM.yyyy}", new Date(r.file.lastModified()))); //$NON-NLS-1$
+		for (RegionAddressRepository a : r.addressRepositories) {
+			addressMap.put(a.getName(), a);
+		}
+		if (r.transportRepository != null) {
+			transportRepositories.add(r.transportRepository);
+		}
+		if (r.routingReader != null) {
+			routingMapFiles.put(r.file.getAbsolutePath(), r.routingReader);
+		}
+		if (r.amenityRepository != null) {
+			amenityRepositories.add(r.amenityRepository);
+		}
+	}
 	
 	// POI INDEX //
 	private List<String> indexingPoi(final IProgress progress) {
@@ -603,32 +769,12 @@ public class ResourceManager {
 		return false;
 	}
 	
-	public List<Amenity> searchAmenitiesByName(String searchQuery,
-			double topLatitude, double leftLongitude, double bottomLatitude, double rightLongitude, 
-			double lat, double lon, ResultMatcher<Amenity> matcher) {
-		List<Amenity> amenities = new ArrayList<Amenity>();
-		List<AmenityIndexRepositoryBinary> list = new ArrayList<AmenityIndexRepositoryBinary>();
-		for (AmenityIndexRepository index : amenityRepositories) {
-			if (index instanceof AmenityIndexRepositoryBinary) {
-				if (index.checkContains(topLatitude, leftLongitude, bottomLatitude, rightLongitude)) {
-					if(index.checkContains(lat, lon)){
-						list.add(0, (AmenityIndexRepositoryBinary) index);
-					} else {
-						list.add((AmenityIndexRepositoryBinary) index);
-					}
-					
-				}
-			}
-		}
-		for (AmenityIndexRepositoryBinary index : list) {
-			if (matcher != null && matcher.isCancelled()) {
-				break;
-			}
-			List<Amenity> result = index.searchAmenitiesByName(MapUtils.get31TileNumberX(lon), MapUtils.get31TileNumberY(lat), searchQuery, matcher);
-			amenities.addAll(result);
-		}
-
-		return amenities;
+	public List<AmenityIndexRepository> getAmenityRepositories() {
+		return amenityRepositories;
+	}
+	
+	public NameSearchEngine getNameSearchEngine() {
+		return nameSearchEngine;
 	}
 	
 	public Map<AmenityType, List<String>> searchAmenityCategoriesByName(String searchQuery, double lat, double lon) {
@@ -653,6 +799,7 @@ public class ResourceManager {
 				}
 			}
 		} else {
+			prefetcher.poiLayerUsed(filter);
 			String filterId = filter == null ? null : filter.getFilterId();
 			List<AmenityIndexRepository> repos = new ArrayList<AmenityIndexRepository>();
 			for (AmenityIndexRepository index : amenityRepositories) {
@@ -694,6 +841,7 @@ public class ResourceManager {
 	
 	
 	public void searchTransportAsync(double topLatitude, double leftLongitude, double bottomLatitude, double rightLongitude, int zoom, List<TransportStop> toFill){
+		prefetcher.transportLayerUsed();
 		List<TransportIndexRepository> repos = new ArrayList<TransportIndexRepository>();
 		for (TransportIndexRepository index : transportRepositories) {
 			if (index.checkContains(topLatitude, leftLongitude, bottomLatitude, rightLongitude)) {
@@ -728,6 +876,10 @@ public class ResourceManager {
 		return renderer;
 	}
 	
+	public DataPrefetcher getDataPrefetcher() {
+		return prefetcher;
+	}
+	
 	////////////////////////////////////////////// Closing methods ////////////////////////////////////////////////
 	
 	public void closeAmenities(){
@@ -781,7 +933,7 @@ public class ResourceManager {
 			try {
 				BinaryMapIndexReader ind = routingMapFiles.remove(m);
 				if(ind != null){
-					ind.getRaf().close();
+					ind.close();
 				}
 			} catch(IOException e){
 				log.error("Error closing resource " + m, e);
@@ -812,8 +964,10 @@ public class ResourceManager {
 	
 	/// On low memory method ///
 	public void onLowMemory() {
-		log.info("On low memory : cleaning tiles - size = " + cacheOfImages.size()); //$NON-NLS-1$
-		clearTiles();
+		log.info("On low memory : cleaning tiles - size = " + cacheOfImages.getImagesCount()); //$NON-NLS-1$
+		// keep only tiles that are currently shown
+		cacheOfImages.trim(0);
+		prefetcher.clear();
 		for(AmenityIndexRepository r : amenityRepositories){
 			r.clearCache();
 		}
@@ -827,11 +981,8 @@ public class ResourceManager {
 	
 	
 	protected synchronized void clearTiles() {
-		log.info("Cleaning tiles - size = " + cacheOfImages.size()); //$NON-NLS-1$
-		ArrayList<String> list = new ArrayList<String>(cacheOfImages.keySet());
-		// remove first images (as we think they are older)
-		for (int i = 0; i < list.size() / 2; i++) {
-			cacheOfImages.remove(list.get(i));
-		}
+		log.info("Cleaning tiles - size = " + cacheOfImages.getImagesCount()); //$NON-NLS-1$
+		// remove least recently used half of the images
+		cacheOfImages.trim(50);
 	}
 }
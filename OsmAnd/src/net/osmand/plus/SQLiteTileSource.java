@@ -192,6 +192,17 @@ public class SQLiteTileSource implements ITileSource {
 	}
 
 	public Bitmap getImage(int x, int y, int zoom) {
+		byte[] blob = getImageBytes(x, y, zoom);
+		if(blob != null){
+			return BitmapFactory.decodeByteArray(blob, 0, blob.length);
+		}
+		return null;
+	}
+	
+	/**
+	 * @return compressed (not decoded) image
+	 */
+	public byte[] getImageBytes(int x, int y, int zoom) {
 		SQLiteDatabase db = getDatabase();
 		if(db == null){
 			return null;
@@ -202,10 +213,7 @@ public class SQLiteTileSource implements ITileSource {
 			blob = cursor.getBlob(0);
 		}
 		cursor.close();
-		if(blob != null){
-			return BitmapFactory.decodeByteArray(blob, 0, blob.length);
-		}
-		return null;
+		return blob;
 	}
 	
 	public ITileSource getBase() {
@@ -1,6 +1,7 @@
 package net.osmand.plus;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -8,7 +9,8 @@ import java.util.List;
 import net.osmand.ResultMatcher;
 import net.osmand.data.Amenity;
 import net.osmand.data.AmenityType;
-import net.osmand.osm.MapUtils;
+import net.osmand.plus.NameSearchEngine.ResultType;
+import net.osmand.plus.NameSearchEngine.SearchResult;
 
 public class SearchByNameFilter extends PoiFilter {
 
@@ -16,6 +18,8 @@ public class SearchByNameFilter extends PoiFilter {
 	
 	List<Amenity> searchedAmenities = new ArrayList<Amenity>();
 	
+	private static final int LIMIT = 200;
+	
 	private String query = ""; //$NON-NLS-1$
 	
 	public SearchByNameFilter(OsmandApplication application) {
@@ -23,9 +27,9 @@ public class SearchByNameFilter extends PoiFilter {
 		this.distanceToSearchValues = new double[] {100, 1000, 5000};
 	}
 	
+	// amenities are ordered by score of name search (it includes distance)
 	@Override
 	public List<Amenity> searchAgain(double lat, double lon) {
-		MapUtils.sortListOfMapObject(searchedAmenities, lat, lon);
 		return searchedAmenities;
 	}
 	
@@ -39,12 +43,24 @@ public class SearchByNameFilter extends PoiFilter {
 	
 	@Override
 	protected List<Amenity> searchAmenities(double lat, double lon, double topLatitude,
-			double bottomLatitude, double leftLongitude, double rightLongitude, ResultMatcher<Amenity> matcher) {
-		searchedAmenities.clear();
-		searchedAmenities = application.getResourceManager().searchAmenitiesByName(query, 
-				topLatitude, leftLongitude, bottomLatitude, rightLongitude, lat, lon, matcher);
-		
-		MapUtils.sortListOfMapObject(searchedAmenities, lat, lon);
+			double bottomLatitude, double leftLongitude, double rightLongitude, final ResultMatcher<Amenity> matcher) {
+		List<SearchResult> results = application.getResourceManager().getNameSearchEngine().search(query, lat, lon, LIMIT,
+				EnumSet.of(ResultType.POI), new ResultMatcher<SearchResult>() {
+					@Override
+					public boolean publish(SearchResult object) {
+						return matcher == null || matcher.publish((Amenity) object.getObject());
+					}
+
+					@Override
+					public boolean isCancelled() {
+						return matcher != null && matcher.isCancelled();
+					}
+				});
+		List<Amenity> amenities = new ArrayList<Amenity>(results.size());
+		for (SearchResult r : results) {
+			amenities.add((Amenity) r.getObject());
+		}
+		searchedAmenities = amenities;
 		return searchedAmenities;
 	}
 	
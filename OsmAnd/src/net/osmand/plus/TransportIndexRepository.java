@@ -33,6 +33,12 @@ public interface TransportIndexRepository {
 	
 	
 	public List<RouteInfoLocation> searchTransportRouteStops(double latitude, double longitude, LatLon locationToGo, int zoom);
+	
+	/**
+	 * Finds journeys with transfers between locations
+	 * @return journeys ordered by total time (the fastest first), every journey is the list of rides
+	 */
+	public List<List<RouteInfoLocation>> searchTransportJourneys(LatLon start, LatLon end);
 		
 	public void close();
 	
@@ -13,16 +13,28 @@ import net.osmand.LogUtil;
 import net.osmand.ResultMatcher;
 import net.osmand.binary.BinaryMapIndexReader;
 import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
+import net.osmand.data.MapObjectTileCache;
 import net.osmand.data.TransportRoute;
 import net.osmand.data.TransportStop;
 import net.osmand.osm.LatLon;
 import net.osmand.osm.MapUtils;
+import net.osmand.router.TransportNetwork;
+import net.osmand.router.TransportRoutePlanner;
+import net.osmand.router.TransportRoutePlanner.JourneyLeg;
+import net.osmand.router.TransportRoutePlanner.TransportJourney;
 
 import org.apache.commons.logging.Log;
 
 public class TransportIndexRepositoryBinary implements TransportIndexRepository {
 	private static final Log log = LogUtil.getLog(TransportIndexRepositoryBinary.class);
+	// network is loaded around journey points
+	private static final int NETWORK_MARGIN_31 = 1 << 19;
 	private final BinaryMapIndexReader file;
+	private TransportRoutePlanner planner;
+	private int nLeft;
+	private int nTop;
+	private int nRight;
+	private int nBottom;
 	
 	protected List<TransportStop> cachedObjects = new ArrayList<TransportStop>(); 
 	protected double cTopLatitude;
@@ -30,6 +42,8 @@ public class TransportIndexRepositoryBinary implements TransportIndexRepository
 	protected double cLeftLongitude;
 	protected double cRightLongitude;
 	private int cZoom;
+	// tiles loaded ahead of the current location (see DataPrefetcher)
+	protected MapObjectTileCache<TransportStop> prefetchedTiles = new MapObjectTileCache<TransportStop>(0, DataPrefetcher.TRANSPORT_STOP_SIZE);
 
 	public TransportIndexRepositoryBinary(BinaryMapIndexReader file) {
 		this.file = file;
@@ -54,6 +68,10 @@ public class TransportIndexRepositoryBinary implements TransportIndexRepository
 		boolean inside = cTopLatitude >= topLatitude && cLeftLongitude <= leftLongitude && cRightLongitude >= rightLongitude
 				&& cBottomLatitude <= bottomLatitude && cZoom == zoom;
 		boolean noNeedToSearch = inside;
+		if (!inside && prefetchedTiles.fill(topLatitude, leftLongitude, bottomLatitude, rightLongitude, zoom, null, null)) {
+			prefetchedTiles.fill(topLatitude, leftLongitude, bottomLatitude, rightLongitude, zoom, null, toFill);
+			return true;
+		}
 		if((inside || fillFound) && toFill != null){
 			for(TransportStop a : cachedObjects){
 				LatLon location = a.getLocation();
@@ -115,6 +133,25 @@ public class TransportIndexRepositoryBinary implements TransportIndexRepository
 		return res;
 	}
 
+	public void setPrefetchBudget(long budget) {
+		prefetchedTiles.setBudget(budget);
+	}
+	
+	/**
+	 * Loads transport stops of the tile to the cache of prefetched tiles
+	 */
+	public void prefetchTransportStops(int zoom, int tileX, int tileY, int limit, ResultMatcher<TransportStop> matcher) {
+		if (prefetchedTiles.containsTile(zoom, tileX, tileY, null)) {
+			return;
+		}
+		ArrayList<TransportStop> tempList = new ArrayList<TransportStop>();
+		searchTransportStops(MapUtils.getLatitudeFromTile(zoom, tileY), MapUtils.getLongitudeFromTile(zoom, tileX),
+				MapUtils.getLatitudeFromTile(zoom, tileY + 1), MapUtils.getLongitudeFromTile(zoom, tileX + 1), limit, tempList, matcher);
+		if (matcher == null || !matcher.isCancelled()) {
+			prefetchedTiles.putTile(zoom, tileX, tileY, null, tempList);
+		}
+	}
+
 	@Override
 	public void evaluateCachedTransportStops(double topLatitude, double leftLongitude, double bottomLatitude, double rightLongitude,
 			int zoom, int limit, ResultMatcher<TransportStop> matcher) {
@@ -226,6 +263,57 @@ public class TransportIndexRepositoryBinary implements TransportIndexRepository
 	}
 
 
+	@Override
+	public synchronized List<List<RouteInfoLocation>> searchTransportJourneys(LatLon start, LatLon end) {
+		List<List<RouteInfoLocation>> res = new ArrayList<List<RouteInfoLocation>>();
+		int sx = MapUtils.get31TileNumberX(start.getLongitude());
+		int sy = MapUtils.get31TileNumberY(start.getLatitude());
+		int ex = MapUtils.get31TileNumberX(end.getLongitude());
+		int ey = MapUtils.get31TileNumberY(end.getLatitude());
+		try {
+			if (planner == null || Math.min(sx, ex) < nLeft || Math.max(sx, ex) > nRight || Math.min(sy, ey) < nTop
+					|| Math.max(sy, ey) > nBottom) {
+				// network is reused while points are inside loaded area
+				nLeft = Math.max(0, Math.min(sx, ex) - NETWORK_MARGIN_31);
+				nRight = (int) Math.min(Integer.MAX_VALUE, (long) Math.max(sx, ex) + NETWORK_MARGIN_31);
+				nTop = Math.max(0, Math.min(sy, ey) - NETWORK_MARGIN_31);
+				nBottom = (int) Math.min(Integer.MAX_VALUE, (long) Math.max(sy, ey) + NETWORK_MARGIN_31);
+				planner = new TransportRoutePlanner(TransportNetwork.load(file, nLeft, nTop, nRight, nBottom));
+			}
+		} catch (IOException e) {
+			log.error("Disk error", e); //$NON-NLS-1$
+			planner = null;
+			return res;
+		}
+		// planner orders journeys by number of rides (journey with more rides is faster)
+		List<TransportJourney> journeys = new ArrayList<TransportJourney>(planner.search(start, end));
+		Collections.sort(journeys, new Comparator<TransportJourney>() {
+			@Override
+			public int compare(TransportJourney o1, TransportJourney o2) {
+				return o1.getTime() < o2.getTime() ? -1 : (o1.getTime() == o2.getTime() ? 0 : 1);
+			}
+		});
+		for (TransportJourney j : journeys) {
+			List<RouteInfoLocation> rides = new ArrayList<RouteInfoLocation>();
+			for (JourneyLeg l : j.getLegs()) {
+				if (!l.isWalk()) {
+					RouteInfoLocation r = new RouteInfoLocation();
+					r.setRoute(l.getRoute());
+					r.setDirection(l.isForward());
+					r.setStart(l.getFrom());
+					r.setStop(l.getTo());
+					r.setStopNumbers(l.getStops());
+					r.setDistToLocation((int) MapUtils.getDistance(end, l.getTo().getLocation()));
+					rides.add(r);
+				}
+			}
+			if (!rides.isEmpty()) {
+				res.add(rides);
+			}
+		}
+		return res;
+	}
+
 	@Override
 	public boolean acceptTransportStop(TransportStop stop) {
 		return file.transportStopBelongsTo(stop);
@@ -735,6 +735,10 @@ public class MapActivity extends Activity implements IMapLocationListener, Senso
 					mapView.setRotate(-location.getBearing());
 				}
 				mapView.setLatLon(location.getLatitude(), location.getLongitude());
+				// route nodes are used only when route is not based on gpx (index is given for route nodes)
+				boolean useRoute = routingHelper.isRouteCalculated() && routingHelper.getCurrentGPXRoute() == null;
+				getMyApplication().getResourceManager().getDataPrefetcher().updateLocation(location,
+						useRoute ? routingHelper.getCurrentRoute() : null, routingHelper.getCurrentRouteIndex(), mapView.getZoom());
 			} else {
 				if(!mapLayers.getMapInfoLayer().getBackToLocation().isEnabled()){
 					mapLayers.getMapInfoLayer().getBackToLocation().setEnabled(true);
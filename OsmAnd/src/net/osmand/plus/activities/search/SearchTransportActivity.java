@@ -58,6 +58,8 @@ public class SearchTransportActivity extends ListActivity implements SearchActiv
 	private int zoom = initialZoom;
 	private ProgressBar progress;
 	private Thread thread;
+	// journey with transfers is searched once for new start and destination
+	private boolean searchJourney = false;
 	
 
 	private LatLon lastKnownMapLocation;
@@ -147,6 +149,7 @@ public class SearchTransportActivity extends ListActivity implements SearchActiv
 			destinationLocation = pointToNavigate;
 			selectedDestinationLocation = destinationLocation;
 			lastKnownMapLocation = startPoint;
+			searchJourney = true;
 			searchTransport();			
 		}
 	}
@@ -175,6 +178,9 @@ public class SearchTransportActivity extends ListActivity implements SearchActiv
 		if (!routeCalculated && getLocationToStart() != null) {
 			final LatLon locationToStart = getLocationToStart();
 			final LatLon locationToGo = getLocationToGo();
+			// route is not edited yet (only the place for search)
+			final boolean journey = searchJourney && locationToGo != null && intermediateListAdapater.getCount() == 1;
+			searchJourney = false;
 			List<TransportIndexRepository> rs = ((OsmandApplication)getApplication()).getResourceManager().searchTransportRepositories(locationToStart.getLatitude(), 
 					locationToStart.getLongitude());
 			if(!rs.isEmpty()){
@@ -191,6 +197,14 @@ public class SearchTransportActivity extends ListActivity implements SearchActiv
 								} catch (InterruptedException e) {
 								}
 							}
+							if (journey) {
+								List<List<RouteInfoLocation>> journeys = repo.searchTransportJourneys(locationToStart, locationToGo);
+								if (!journeys.isEmpty()) {
+									// the fastest journey
+									updateUIJourney(journeys.get(0));
+									return;
+								}
+							}
 							List<RouteInfoLocation> res = repo.searchTransportRouteStops(locationToStart.getLatitude(), locationToStart
 									.getLongitude(), locationToGo, zoom);
 							updateUIList(res);
@@ -217,6 +231,20 @@ public class SearchTransportActivity extends ListActivity implements SearchActiv
 				progress.setVisibility(View.INVISIBLE);
 			}});
 	}
+	protected void updateUIJourney(final List<RouteInfoLocation> rides){
+		runOnUiThread(new Runnable(){
+			@Override
+			public void run() {
+				intermediateListAdapater.clear();
+				for (RouteInfoLocation r : rides) {
+					intermediateListAdapater.add(r);
+				}
+				stopsAdapter.clear();
+				updateSearchMoreButton();
+				progress.setVisibility(View.INVISIBLE);
+			}});
+	}
+	
 	private void updateSearchMoreButton() {
 		if (!isRouteCalculated()) {
 			searchTransportLevel.setEnabled(isSearchFurtherAvailable());
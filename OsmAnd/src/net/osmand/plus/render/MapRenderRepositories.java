@@ -8,7 +8,6 @@ import gnu.trove.set.hash.TLongHashSet;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -28,6 +27,8 @@ import net.osmand.binary.BinaryMapDataObject;
 import net.osmand.binary.BinaryMapIndexReader;
 import net.osmand.binary.BinaryMapIndexReader.SearchRequest;
 import net.osmand.binary.BinaryMapIndexReader.TagValuePair;
+import net.osmand.binary.ObfSectionsCache;
+import net.osmand.binary.SharedObfFile;
 import net.osmand.data.IndexConstants;
 import net.osmand.data.MapTileDownloader.IMapDownloaderCallback;
 import net.osmand.osm.MapRenderingTypes;
@@ -61,7 +62,9 @@ public class MapRenderRepositories {
 	private final static Log log = LogUtil.getLog(MapRenderRepositories.class);
 	private final Context context;
 	private Handler handler;
-	private Map<String, BinaryMapIndexReader> files = new LinkedHashMap<String, BinaryMapIndexReader>();
+	// copy on write : files are registered from loading threads while map is rendered
+	private volatile Map<String, BinaryMapIndexReader> files = new LinkedHashMap<String, BinaryMapIndexReader>();
+	private final Object filesLock = new Object();
 	private Set<String> nativeFiles = new HashSet<String>();
 	private OsmandRenderer renderer;
 
@@ -103,35 +106,40 @@ public class MapRenderRepositories {
 		return context;
 	}
 
-	public BinaryMapIndexReader initializeNewResource(final IProgress progress, File file) {
+	/**
+	 * @param sectionsCache - cache of sections of files or null
+	 */
+	public BinaryMapIndexReader initializeNewResource(final IProgress progress, File file, ObfSectionsCache sectionsCache) {
 		long start = System.currentTimeMillis();
 		if (files.containsKey(file.getAbsolutePath())) {
 			closeConnection(files.get(file.getAbsolutePath()), file.getAbsolutePath());
 			
 		}
-		RandomAccessFile raf = null;
+		SharedObfFile sharedFile = null;
 		BinaryMapIndexReader reader = null;
 		try {
-			raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
-			reader = new BinaryMapIndexReader(raf);
+			// other repositories open readers of the same shared file
+			sharedFile = new SharedObfFile(file, sectionsCache);
+			reader = sharedFile.open();
 			if (reader.getVersion() != IndexConstants.BINARY_MAP_VERSION) {
+				sharedFile.close();
 				return null;
 			}
-			files.put(file.getAbsolutePath(), reader);
+			putFile(file.getAbsolutePath(), reader);
 
 		} catch (IOException e) {
 			log.error("No connection or unsupported version", e); //$NON-NLS-1$
-			if (raf != null) {
+			if (sharedFile != null) {
 				try {
-					raf.close();
+					sharedFile.close();
 				} catch (IOException e1) {
 				}
 			}
 			return null;
 		} catch (OutOfMemoryError oome) {
-			if (raf != null) {
+			if (sharedFile != null) {
 				try {
-					raf.close();
+					sharedFile.close();
 				} catch (IOException e1) {
 				}
 			}
@@ -151,8 +159,23 @@ public class MapRenderRepositories {
 		return prevBmpLocation;
 	}
 
+	/**
+	 * @param reader - null to remove file
+	 */
+	private void putFile(String file, BinaryMapIndexReader reader) {
+		synchronized (filesLock) {
+			Map<String, BinaryMapIndexReader> newFiles = new LinkedHashMap<String, BinaryMapIndexReader>(files);
+			if (reader == null) {
+				newFiles.remove(file);
+			} else {
+				newFiles.put(file, reader);
+			}
+			files = newFiles;
+		}
+	}
+
 	protected void closeConnection(BinaryMapIndexReader c, String file) {
-		files.remove(file);
+		putFile(file, null);
 		nativeFiles.remove(file);
 		try {
 			c.close();
@@ -229,6 +252,36 @@ public class MapRenderRepositories {
 		return false;
 	}
 
+	/**
+	 * Reads map data of the tile without creating objects. It initializes lazy loaded map trees 
+	 * and warms up file cache so following rendering of that area doesn't wait for disk.
+	 * Should be called from the same thread as loadMap.
+	 */
+	public void prefetchMapData(int zoom, int tileX, int tileY) {
+		int leftX = tileX << (31 - zoom);
+		int rightX = ((tileX + 1) << (31 - zoom)) - 1;
+		int topY = tileY << (31 - zoom);
+		int bottomY = ((tileY + 1) << (31 - zoom)) - 1;
+		BinaryMapIndexReader.SearchFilter rejectAll = new BinaryMapIndexReader.SearchFilter() {
+			@Override
+			public boolean accept(TIntArrayList types, BinaryMapIndexReader.MapIndex index) {
+				return false;
+			}
+		};
+		for (Map.Entry<String, BinaryMapIndexReader> entry : files.entrySet()) {
+			String mapName = entry.getKey();
+			BinaryMapIndexReader reader = entry.getValue();
+			if (!reader.containsMapData(leftX, topY, rightX, bottomY, zoom)) {
+				continue;
+			}
+			try {
+				reader.searchMapIndex(BinaryMapIndexReader.buildSearchRequest(leftX, rightX, topY, bottomY, zoom, rejectAll));
+			} catch (IOException e) {
+				log.error("Prefetch map data " + mapName, e); //$NON-NLS-1$
+			}
+		}
+	}
+
 	public boolean basemapExists() {
 		for (String f : files.keySet()) {
 			if (f.toLowerCase().contains(BASEMAP_NAME)) {
@@ -257,11 +310,12 @@ public class MapRenderRepositories {
 			}
 		}
 		NativeSearchResult resultHandler = null;
-		for (String mapName : files.keySet()) {
+		for (Map.Entry<String, BinaryMapIndexReader> entry : files.entrySet()) {
+			String mapName = entry.getKey();
 			if (basemapSearch && !mapName.toLowerCase().contains(BASEMAP_NAME)) {
 				continue;
 			}
-			BinaryMapIndexReader reader = files.get(mapName);
+			BinaryMapIndexReader reader = entry.getValue();
 			if(!reader.containsMapData(leftX, topY, rightX, bottomY, zoom)) {
 				continue;
 			}
@@ -356,12 +410,13 @@ public class MapRenderRepositories {
 				}
 			}
 
-			for (String mapName : files.keySet()) {
+			for (Map.Entry<String, BinaryMapIndexReader> entry : files.entrySet()) {
+				String mapName = entry.getKey();
 				if (basemapSearch && !mapName.toLowerCase().contains(BASEMAP_NAME)) {
 					continue;
 				}
 				
-				BinaryMapIndexReader c = files.get(mapName);
+				BinaryMapIndexReader c = entry.getValue();
 				searchRequest = BinaryMapIndexReader.buildSearchRequest(leftX, rightX, topY, bottomY, zoom, searchFilter);
 				List<BinaryMapDataObject> res = c.searchMapIndex(searchRequest);
 				for (BinaryMapDataObject r : res) {
@@ -5,9 +5,16 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import net.osmand.Algoritms;
 import net.osmand.LogUtil;
@@ -26,6 +33,7 @@ import org.apache.commons.logging.Log;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
 import android.graphics.BitmapShader;
 import android.graphics.Canvas;
 import android.graphics.ColorFilter;
@@ -54,6 +62,11 @@ public class OsmandRenderer {
 	private Paint paintIcon;
 
 	public static final int TILE_SIZE = 256; 
+	
+	// rendering in horizontal bands (in parallel) is used only for big number of objects
+	private static final int PARALLEL_RENDERING_MIN_OBJECTS = 300;
+	private static final int MAX_RENDERING_BANDS = 4;
+	private static ExecutorService bandsExecutor = null;
 
 	private Map<String, PathEffect> dashEffect = new LinkedHashMap<String, PathEffect>();
 	private Map<String, Shader> shaders = new LinkedHashMap<String, Shader>();
@@ -63,12 +76,20 @@ public class OsmandRenderer {
 	private DisplayMetrics dm;
 
 	private TextRenderer textRenderer;
+	
+	// one way arrows (own for every band renderer as other paints)
+	private final Paint[] oneWay = createOneWayPaints();
+	
+	// renderers (with own paints, paths and caches) used to draw other bands in parallel
+	private OsmandRenderer[] bandRenderers = null;
 
 
 	private static class IconDrawInfo {
 		float x = 0;
 		float y = 0;
 		String resId;
+		// sequence number of object in rendering order
+		int seq = 0;
 	}
 	
 	static enum ShadowRenderingMode {
@@ -88,7 +109,8 @@ public class OsmandRenderer {
 
 	/*package*/ static class RenderingContext {
 		// FIELDS OF THAT CLASS ARE USED IN C++
-		public boolean interrupted = false;
+		// set by other threads (drawing thread or other band)
+		public volatile boolean interrupted = false;
 		public boolean nightMode = false;
 		public boolean highResMode = false;
 		public float mapTextSize = 1;
@@ -136,6 +158,33 @@ public class OsmandRenderer {
 		
 		boolean ended = false;
 		
+		// sequence number of currently drawn object (used to merge text & icons of bands)
+		int objectSeq = 0;
+		// text and icons of object are collected by one band only
+		boolean skipTextAndIcons = false;
+		
+		RenderingContext createBandContext() {
+			RenderingContext rc = new RenderingContext(ctx);
+			rc.nightMode = nightMode;
+			rc.highResMode = highResMode;
+			rc.mapTextSize = mapTextSize;
+			rc.density = density;
+			rc.leftX = leftX;
+			rc.topY = topY;
+			rc.width = width;
+			rc.height = height;
+			rc.zoom = zoom;
+			rc.rotate = rotate;
+			rc.tileDivisor = tileDivisor;
+			rc.cosRotateTileSize = cosRotateTileSize;
+			rc.sinRotateTileSize = sinRotateTileSize;
+			rc.shadowRenderingMode = shadowRenderingMode;
+			rc.shadowRenderingColor = shadowRenderingColor;
+			rc.shadowLevelMin = shadowLevelMin;
+			rc.shadowLevelMax = shadowLevelMax;
+			return rc;
+		}
+		
 		float getDensityValue(float val) {
 			if (highResMode && density > 1) {
 				return val * density * mapTextSize;
@@ -258,54 +307,17 @@ public class OsmandRenderer {
 			// put in order map
 			TIntObjectHashMap<TIntArrayList> orderMap = sortObjectsByProperOrder(rc, objects, render);
 
-			int objCount = 0;
-
 			int[] keys = orderMap.keys();
 			Arrays.sort(keys);
 
-			boolean shadowDrawn = false;
-
-			for (int k = 0; k < keys.length; k++) {
-				if (!shadowDrawn && keys[k] >= rc.shadowLevelMin && keys[k] <= rc.shadowLevelMax && rc.shadowRenderingMode > 1) {
-					for (int ki = k; ki < keys.length; ki++) {
-						if (keys[ki] > rc.shadowLevelMax || rc.interrupted) {
-							break;
-						}
-						TIntArrayList list = orderMap.get(keys[ki]);
-						for (int j = 0; j < list.size(); j++) {
-							int i = list.get(j);
-							int ind = i >> 8;
-							int l = i & 0xff;
-							BinaryMapDataObject obj = objects.get(ind);
-
-							// show text only for main type
-							drawObj(obj, render, cv, rc, l, l == 0, true);
-							objCount++;
-						}
-					}
-					shadowDrawn = true;
-				}
-				if (rc.interrupted) {
-					return;
-				}
-
-				TIntArrayList list = orderMap.get(keys[k]);
-				for (int j = 0; j < list.size(); j++) {
-					int i = list.get(j);
-					int ind = i >> 8;
-					int l = i & 0xff;
-					BinaryMapDataObject obj = objects.get(ind);
-
-					// show text only for main type
-					drawObj(obj, render, cv, rc, l, l == 0, false);
-					objCount++;
-				}
-				rc.lastRenderedKey = keys[k];
-				if (objCount > 25) {
-					notifyListeners(notifyList);
-					objCount = 0;
-				}
-
+			int bands = getRenderingBands(objects.size());
+			if (bands > 1) {
+				drawObjectsInBands(rc, objects, orderMap, keys, cv, render, bands);
+			} else {
+				drawObjects(rc, rc, objects, orderMap, keys, cv, render, notifyList, 0, 1);
+			}
+			if (rc.interrupted) {
+				return;
 			}
 
 			long beforeIconTextTime = System.currentTimeMillis() - now;
@@ -326,6 +338,196 @@ public class OsmandRenderer {
 		return;
 	}
 
+	/**
+	 * Draws objects in proper order (text and icons are collected only for objects of the band : seq % bands == band)
+	 */
+	private void drawObjects(RenderingContext rc, RenderingContext mainRc, List<BinaryMapDataObject> objects,
+			TIntObjectHashMap<TIntArrayList> orderMap, int[] keys, Canvas cv, RenderingRuleSearchRequest render,
+			List<IMapDownloaderCallback> notifyList, int band, int bands) {
+		int objCount = 0;
+		int seq = 0;
+		boolean shadowDrawn = false;
+
+		for (int k = 0; k < keys.length; k++) {
+			if (!shadowDrawn && keys[k] >= rc.shadowLevelMin && keys[k] <= rc.shadowLevelMax && rc.shadowRenderingMode > 1) {
+				for (int ki = k; ki < keys.length; ki++) {
+					if (keys[ki] > rc.shadowLevelMax || mainRc.interrupted) {
+						break;
+					}
+					TIntArrayList list = orderMap.get(keys[ki]);
+					for (int j = 0; j < list.size(); j++) {
+						int i = list.get(j);
+						int ind = i >> 8;
+						int l = i & 0xff;
+						BinaryMapDataObject obj = objects.get(ind);
+
+						// show text only for main type
+						drawObj(obj, render, cv, rc, l, l == 0, true);
+						objCount++;
+					}
+				}
+				shadowDrawn = true;
+			}
+			if (mainRc.interrupted) {
+				return;
+			}
+
+			TIntArrayList list = orderMap.get(keys[k]);
+			for (int j = 0; j < list.size(); j++) {
+				int i = list.get(j);
+				int ind = i >> 8;
+				int l = i & 0xff;
+				BinaryMapDataObject obj = objects.get(ind);
+
+				rc.objectSeq = seq;
+				rc.skipTextAndIcons = seq % bands != band;
+				seq++;
+				// show text only for main type
+				drawObj(obj, render, cv, rc, l, l == 0, false);
+				objCount++;
+			}
+			rc.lastRenderedKey = keys[k];
+			if (objCount > 25 && notifyList != null) {
+				notifyListeners(notifyList);
+				objCount = 0;
+			}
+		}
+		rc.skipTextAndIcons = false;
+	}
+
+	private static int getRenderingBands(int objects) {
+		if (objects < PARALLEL_RENDERING_MIN_OBJECTS) {
+			return 1;
+		}
+		int cpu = NativeOsmandLibrary.isSupported() ? NativeOsmandLibrary.getCpuCount() : Runtime.getRuntime().availableProcessors();
+		return Math.max(1, Math.min(cpu, MAX_RENDERING_BANDS));
+	}
+
+	private static synchronized ExecutorService getBandsExecutor() {
+		if (bandsExecutor == null) {
+			bandsExecutor = Executors.newFixedThreadPool(MAX_RENDERING_BANDS - 1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Rendering band"); //$NON-NLS-1$
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return bandsExecutor;
+	}
+
+	/**
+	 * Waits till all bands are drawn (interruption of waiting thread interrupts rendering of bands)
+	 */
+	private static void waitForBands(RenderingContext rc, List<Future<?>> futures) {
+		boolean interrupted = false;
+		for (Future<?> f : futures) {
+			while (true) {
+				try {
+					f.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+					rc.interrupted = true;
+				} catch (ExecutionException e) {
+					log.error(e.getMessage(), e.getCause());
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Splits bitmap into horizontal bands, draws each band in parallel (with own renderer, canvas and rendering request)
+	 * and composites them into the canvas. Text and icons are collected by bands (each object by one band)
+	 * and merged in rendering order so they are placed globally.
+	 */
+	private void drawObjectsInBands(final RenderingContext rc, final List<BinaryMapDataObject> objects,
+			final TIntObjectHashMap<TIntArrayList> orderMap, final int[] keys, Canvas cv, RenderingRuleSearchRequest render,
+			final int bands) {
+		final int bandHeight = (rc.height + bands - 1) / bands;
+		if (bandRenderers == null || bandRenderers.length < bands) {
+			OsmandRenderer[] renderers = new OsmandRenderer[bands];
+			renderers[0] = this;
+			for (int i = 1; i < bands; i++) {
+				renderers[i] = bandRenderers != null && i < bandRenderers.length ? bandRenderers[i] : new OsmandRenderer(context);
+			}
+			bandRenderers = renderers;
+		}
+		// bitmaps are not kept between renderings (they are big and native memory is limited)
+		Bitmap[] bitmaps = new Bitmap[bands];
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		boolean bandsFinished = false;
+		final RenderingContext[] contexts = new RenderingContext[bands];
+		try {
+			Runnable[] tasks = new Runnable[bands];
+			for (int i = 0; i < bands; i++) {
+				final int band = i;
+				final OsmandRenderer r = bandRenderers[i];
+				final RenderingContext brc = rc.createBandContext();
+				final RenderingRuleSearchRequest req = i == 0 ? render : new RenderingRuleSearchRequest(render);
+				bitmaps[i] = Bitmap.createBitmap(rc.width, bandHeight, Config.ARGB_8888);
+				final Canvas bcv = new Canvas(bitmaps[i]);
+				bcv.translate(0, -band * bandHeight);
+				contexts[i] = brc;
+				tasks[i] = new Runnable() {
+					@Override
+					public void run() {
+						r.drawObjects(brc, rc, objects, orderMap, keys, bcv, req, null, band, bands);
+					}
+				};
+			}
+			for (int i = 1; i < bands; i++) {
+				futures.add(getBandsExecutor().submit(tasks[i]));
+			}
+			tasks[0].run();
+			waitForBands(rc, futures);
+			bandsFinished = true;
+			if (rc.interrupted) {
+				return;
+			}
+			rc.lastRenderedKey = Integer.MAX_VALUE;
+			for (int i = 0; i < bands; i++) {
+				cv.drawBitmap(bitmaps[i], 0, i * bandHeight, null);
+				rc.textToDraw.addAll(contexts[i].textToDraw);
+				rc.iconsToDraw.addAll(contexts[i].iconsToDraw);
+				rc.lastRenderedKey = Math.min(rc.lastRenderedKey, contexts[i].lastRenderedKey);
+			}
+		} finally {
+			if (!bandsFinished) {
+				// main band failed : other bands should not draw into recycled bitmaps
+				rc.interrupted = true;
+				waitForBands(rc, futures);
+			}
+			for (Bitmap b : bitmaps) {
+				if (b != null) {
+					b.recycle();
+				}
+			}
+		}
+		// all bands process all objects (only drawing is clipped)
+		rc.allObjects = contexts[0].allObjects;
+		rc.visible = contexts[0].visible;
+		rc.pointCount = contexts[0].pointCount;
+		rc.pointInsideCount = contexts[0].pointInsideCount;
+		Collections.sort(rc.textToDraw, new Comparator<TextDrawInfo>() {
+			@Override
+			public int compare(TextDrawInfo object1, TextDrawInfo object2) {
+				return object1.seq - object2.seq;
+			}
+		});
+		Collections.sort(rc.iconsToDraw, new Comparator<IconDrawInfo>() {
+			@Override
+			public int compare(IconDrawInfo object1, IconDrawInfo object2) {
+				return object1.seq - object2.seq;
+			}
+		});
+	}
+
 	private void notifyListenersWithDelay(final RenderingContext rc, final List<IMapDownloaderCallback> notifyList, final Handler h) {
 		h.postDelayed(new Runnable() {
 			@Override
@@ -502,6 +704,7 @@ public class OsmandRenderer {
 
 	public void clearCachedResources(){
 		shaders.clear();
+		bandRenderers = null;
 	}
 	
 	private void drawMultiPolygon(BinaryMapDataObject obj, RenderingRuleSearchRequest render, Canvas canvas, RenderingContext rc) {
@@ -697,11 +900,12 @@ public class OsmandRenderer {
 			ps.y /= len;
 		}
 
-		if(resId != null){
+		if(resId != null && !rc.skipTextAndIcons){
 			IconDrawInfo ico = new IconDrawInfo();
 			ico.x = ps.x;
 			ico.y = ps.y;
 			ico.resId = resId;
+			ico.seq = rc.objectSeq;
 			rc.iconsToDraw.add(ico);
 		}
 		if (name != null && name.trim().length() > 0) {
@@ -799,7 +1003,7 @@ public class OsmandRenderer {
 			}
 			
 			if(oneway && !drawOnlyShadow){
-				Paint[] paints = getOneWayPaints();
+				Paint[] paints = oneWay;
 				for (int i = 0; i < paints.length; i++) {
 					canvas.drawPath(path, paints[i]);
 				}
@@ -811,7 +1015,6 @@ public class OsmandRenderer {
 	}
 
 		
-	private static Paint[] oneWay = null;
 	private static Paint oneWayPaint(){
 		Paint oneWay = new Paint();
 		oneWay.setStyle(Style.STROKE);
@@ -820,30 +1023,27 @@ public class OsmandRenderer {
 		return oneWay; 
 	}
 	
-	public static Paint[] getOneWayPaints(){
-		if(oneWay == null){
-			PathEffect arrowDashEffect1 = new DashPathEffect(new float[] { 0, 12, 10, 152 }, 0);
-			PathEffect arrowDashEffect2 = new DashPathEffect(new float[] { 0, 12, 9, 153 }, 1);
-			PathEffect arrowDashEffect3 = new DashPathEffect(new float[] { 0, 18, 2, 154 }, 1);
-			PathEffect arrowDashEffect4 = new DashPathEffect(new float[] { 0, 18, 1, 155 }, 1);
-			oneWay = new Paint[4];
-			oneWay[0] = oneWayPaint();
-			oneWay[0].setStrokeWidth(1);
-			oneWay[0].setPathEffect(arrowDashEffect1);
-			
-			oneWay[1] = oneWayPaint();
-			oneWay[1].setStrokeWidth(2);
-			oneWay[1].setPathEffect(arrowDashEffect2);
+	private static Paint[] createOneWayPaints(){
+		PathEffect arrowDashEffect1 = new DashPathEffect(new float[] { 0, 12, 10, 152 }, 0);
+		PathEffect arrowDashEffect2 = new DashPathEffect(new float[] { 0, 12, 9, 153 }, 1);
+		PathEffect arrowDashEffect3 = new DashPathEffect(new float[] { 0, 18, 2, 154 }, 1);
+		PathEffect arrowDashEffect4 = new DashPathEffect(new float[] { 0, 18, 1, 155 }, 1);
+		Paint[] oneWay = new Paint[4];
+		oneWay[0] = oneWayPaint();
+		oneWay[0].setStrokeWidth(1);
+		oneWay[0].setPathEffect(arrowDashEffect1);
+		
+		oneWay[1] = oneWayPaint();
+		oneWay[1].setStrokeWidth(2);
+		oneWay[1].setPathEffect(arrowDashEffect2);
 
-			oneWay[2] = oneWayPaint();
-			oneWay[2].setStrokeWidth(3);
-			oneWay[2].setPathEffect(arrowDashEffect3);
-			
-			oneWay[3] = oneWayPaint();			
-			oneWay[3].setStrokeWidth(4);
-			oneWay[3].setPathEffect(arrowDashEffect4);
-			
-		}
+		oneWay[2] = oneWayPaint();
+		oneWay[2].setStrokeWidth(3);
+		oneWay[2].setPathEffect(arrowDashEffect3);
+		
+		oneWay[3] = oneWayPaint();			
+		oneWay[3].setStrokeWidth(4);
+		oneWay[3].setPathEffect(arrowDashEffect4);
 		return oneWay;
 	}
 }
@@ -56,7 +56,7 @@ public class RenderingIcons {
 		}
 	}
 	
-	public static Bitmap getIcon(Context ctx, String s){
+	public static synchronized Bitmap getIcon(Context ctx, String s){
 		if(!iconsBmp.containsKey(s)){
 			Integer resId = icons.get(s);
 			if(resId != null){
@@ -1,13 +1,13 @@
 package net.osmand.plus.render;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.List;
 
 import net.osmand.binary.BinaryMapIndexReader.TagValuePair;
 import net.osmand.osm.MapRenderingTypes;
 import net.osmand.plus.render.OsmandRenderer.RenderingContext;
+import net.osmand.render.LabelCollisionIndex;
+import net.osmand.render.LabelCollisionIndex.Label;
 import net.osmand.render.RenderingRuleSearchRequest;
 import net.osmand.render.RenderingRulesStorage;
 import net.sf.junidecode.Junidecode;
@@ -40,6 +40,9 @@ public class TextRenderer {
 
 		String text = null;
 		Path drawOnPath = null;
+		// points of path in drawing direction (used to calculate intersections)
+		float[] pathX = null;
+		float[] pathY = null;
 		RectF bounds = null;
 		float vOffset = 0;
 		float centerX = 0;
@@ -53,6 +56,8 @@ public class TextRenderer {
 		boolean bold = false;
 		String shieldRes = null;
 		int textOrder = 100;
+		// sequence number of object in rendering order
+		int seq = 0;
 
 		public void fillProperties(RenderingRuleSearchRequest render, float centerX, float centerY) {
 			this.centerX = centerX;
@@ -97,40 +102,6 @@ public class TextRenderer {
 		return a * a;
 	}
 
-	boolean intersects(RectF tRect, float tRot, RectF sRect, float sRot) {
-		if (Math.abs(tRot) < Math.PI / 15 && Math.abs(sRot) < Math.PI / 15) {
-			return RectF.intersects(tRect, sRect);
-		}
-		float dist = FloatMath.sqrt(sqr(tRect.centerX() - sRect.centerX()) + sqr(tRect.centerY() - sRect.centerY()));
-		if (dist < 3) {
-			return true;
-		}
-
-		// difference close to 90/270 degrees
-		if (Math.abs(Math.cos(tRot - sRot)) < 0.3) {
-			// rotate one rectangle to 90 degrees
-			tRot += Math.PI / 2;
-			float l = tRect.centerX() - tRect.height() / 2;
-			float t = tRect.centerY() - tRect.width() / 2;
-			tRect = new RectF(l, t, l + tRect.height(), t + tRect.width());
-		}
-
-		// determine difference close to 180/0 degrees
-		if (Math.abs(FloatMath.sin(tRot - sRot)) < 0.3) {
-			// rotate t box
-			// (calculate offset for t center suppose we rotate around s center)
-			float diff = (float) (-Math.atan2(tRect.centerX() - sRect.centerX(), tRect.centerY() - sRect.centerY()) + Math.PI / 2);
-			diff -= sRot;
-			float left = sRect.centerX() + dist * FloatMath.cos(diff) - tRect.width() / 2;
-			float top = sRect.centerY() - dist * FloatMath.sin(diff) - tRect.height() / 2;
-			RectF nRect = new RectF(left, top, left + tRect.width(), top + tRect.height());
-			return RectF.intersects(nRect, sRect);
-		}
-
-		// TODO other cases not covered
-		return RectF.intersects(tRect, sRect);
-	}
-
 	void drawTestBox(Canvas cv, RectF r, float rot, String text) {
 		cv.save();
 		cv.translate(r.centerX(), r.centerY());
@@ -145,33 +116,22 @@ public class TextRenderer {
 		cv.restore();
 	}
 
-	List<TextDrawInfo> tempSearch = new ArrayList<TextDrawInfo>();
-
-	private boolean findTextIntersection(Canvas cv, RenderingContext rc, QuadTree<TextDrawInfo> boundIntersections, TextDrawInfo text) {
+	private boolean findTextIntersection(Canvas cv, RenderingContext rc, LabelCollisionIndex boundIntersections, TextDrawInfo text) {
 		// for test purposes
 //		drawTestBox(cv, text.bounds, text.pathRotate, text.text);
-		boundIntersections.queryInBox(text.bounds, tempSearch);
-		for (int i = 0; i < tempSearch.size(); i++) {
-			TextDrawInfo t = tempSearch.get(i);
-			if (intersects(text.bounds, text.pathRotate, t.bounds, t.pathRotate)) {
-				return true;
-			}
+		Label label = new Label(text.text, text.textOrder);
+		if (text.drawOnPath != null && text.pathX != null) {
+			// cover text by box per path segment
+			label.addPathBoxes(text.pathX, text.pathY, text.pathX.length, text.bounds.width(), text.bounds.height() / 2,
+					text.bounds.height() / 2);
+		} else {
+			// text (shield) is drawn horizontally
+			label.addBox(text.bounds.centerX(), text.bounds.centerY(), text.bounds.width() / 2, text.bounds.height() / 2, 0);
 		}
 		if (text.minDistance > 0) {
-			RectF boundsSearch = new RectF(text.bounds);
-			boundsSearch.inset(-rc.getDensityValue(Math.max(5.0f, text.minDistance)), -rc.getDensityValue(15));
-			boundIntersections.queryInBox(boundsSearch, tempSearch);
-			// drawTestBox(cv, &boundsSearch, text.pathRotate, paintIcon, text.text, NULL/*paintText*/);
-			for (int i = 0; i < tempSearch.size(); i++) {
-				TextDrawInfo t = tempSearch.get(i);
-				if (t.minDistance > 0 && t.text.equals(text.text) &&
-						intersects(boundsSearch, text.pathRotate, t.bounds, t.pathRotate)) {
-					return true;
-				}
-			}
+			label.setMinDistance(rc.getDensityValue(Math.max(5.0f, text.minDistance)), rc.getDensityValue(15));
 		}
-		boundIntersections.insert(text, text.bounds);
-		return false;
+		return !boundIntersections.tryPlace(label);
 	}
 
 	private void drawTextOnCanvas(Canvas cv, String text, float centerX, float centerY, Paint paint, float textShadow) {
@@ -199,9 +159,8 @@ public class TextRenderer {
 				return object1.textOrder - object2.textOrder;
 			}
 		});
-		RectF r = new RectF(0, 0, rc.width, rc.height);
-		r.inset(-100, -100);
-		QuadTree<TextDrawInfo> nonIntersectedBounds = new QuadTree<TextDrawInfo>(r, 4, 0.6f);
+		LabelCollisionIndex nonIntersectedBounds = new LabelCollisionIndex(-100, -100, rc.width + 100, rc.height + 100,
+				rc.getDensityValue(64));
 
 		for (int i = 0; i < size; i++) {
 			TextDrawInfo text = rc.textToDraw.get(i);
@@ -303,6 +262,7 @@ public class TextRenderer {
 		if(render.search(RenderingRulesStorage.TEXT_RULES)){
 			if(render.getIntPropertyValue(render.ALL.R_TEXT_SIZE) > 0){
 				TextDrawInfo text = new TextDrawInfo(name);
+				text.seq = rc.objectSeq;
 				text.fillProperties(render, xMid, yMid);
 				paintText.setTextSize(text.textSize);
 				Rect bs = new Rect();
@@ -331,6 +291,9 @@ public class TextRenderer {
 	
 	public void renderText(String name, RenderingRuleSearchRequest render, RenderingContext rc, TagValuePair pair,
 			float xMid, float yMid, Path path, PointF[] points) {
+		if (rc.skipTextAndIcons) {
+			return;
+		}
 		String ref = null;
 		if(name.charAt(0) == MapRenderingTypes.REF_CHAR){
 			ref = name.substring(1);
@@ -487,6 +450,13 @@ public class TextRenderer {
 			}
 			p.drawOnPath = path;
 		}
+		p.pathX = new float[endInd - startInd];
+		p.pathY = new float[endInd - startInd];
+		for (int i = startInd; i < endInd; i++) {
+			int k = inverse ? endInd - 1 - i : i - startInd;
+			p.pathX[k] = points[i].x;
+			p.pathY[k] = points[i].y;
+		}
 		return true;
 	}
 
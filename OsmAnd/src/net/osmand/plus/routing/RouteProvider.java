@@ -7,6 +7,7 @@ import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
@@ -27,18 +28,16 @@ import net.osmand.LogUtil;
 import net.osmand.OsmAndFormatter;
 import net.osmand.binary.BinaryMapIndexReader;
 import net.osmand.osm.LatLon;
-import net.osmand.osm.MapUtils;
 import net.osmand.plus.OsmandApplication;
 import net.osmand.plus.R;
 import net.osmand.plus.activities.ApplicationMode;
 import net.osmand.plus.routing.RoutingHelper.RouteDirectionInfo;
 import net.osmand.plus.routing.RoutingHelper.TurnType;
-import net.osmand.router.BicycleRouter;
 import net.osmand.router.BinaryRoutePlanner;
 import net.osmand.router.BinaryRoutePlanner.RouteSegment;
-import net.osmand.router.CarRouter;
-import net.osmand.router.PedestrianRouter;
-import net.osmand.router.RouteSegmentResult;
+import net.osmand.router.RouteResultPipeline;
+import net.osmand.router.RouteResultPipeline.RouteInstruction;
+import net.osmand.router.RoutingConfiguration;
 import net.osmand.router.RoutingContext;
 
 import org.w3c.dom.Document;
@@ -66,6 +65,13 @@ public class RouteProvider {
 		}
 	}
 	
+	// the last offline routing is kept to reroute incrementally to the same target
+	private RoutingContext lastRoutingContext;
+	private BinaryMapIndexReader[] lastRoutingFiles;
+	private ApplicationMode lastRoutingMode;
+	private boolean lastRoutingFast;
+	private LatLon lastRoutingEnd;
+	
 	public RouteProvider(){
 	}
 	
@@ -158,6 +164,16 @@ public class RouteProvider {
 			}
 		}
 		
+		/**
+		 * Result already prepared by {@link RouteResultPipeline} 
+		 */
+		RouteCalculationResult(List<Location> list, List<RouteDirectionInfo> directions, int[] listDistance) {
+			this.directions = directions;
+			this.errorMessage = null;
+			this.locations = list;
+			this.listDistance = listDistance;
+		}
+		
 		public List<Location> getLocations() {
 			return locations;
 		}
@@ -269,8 +285,8 @@ public class RouteProvider {
 					res = findORSRoute(start, end, mode, fast);
 					addMissingTurnsToRoute(res, start, end, mode, ctx);
 				} else if (type == RouteService.OSMAND) {
+					// turns are calculated by route result pipeline
 					res = findVectorMapsRoute(start, end, mode, fast, (OsmandApplication)ctx.getApplicationContext());
-					addMissingTurnsToRoute(res, start, end, mode, ctx);
 				} else {
 					res = findCloudMadeRoute(start, end, mode, ctx, fast);
 					// for test purpose
@@ -353,20 +369,34 @@ public class RouteProvider {
 		return ctx.getString(resId);
 	}
 	
+	/**
+	 * @return speed m/s to calculate time of directions
+	 */
+	private static float getAverageSpeed(ApplicationMode mode) {
+		if (mode == ApplicationMode.CAR) {
+			return 15.3f;
+		} else if (mode == ApplicationMode.BICYCLE) {
+			return 5.5f;
+		}
+		return 1.5f;
+	}
+	
+	private static int getMinDistanceForTurn(ApplicationMode mode) {
+		if (mode == ApplicationMode.CAR) {
+			return 35;
+		} else if (mode == ApplicationMode.BICYCLE) {
+			return 12;
+		}
+		return 5;
+	}
+	
 	protected void addMissingTurnsToRoute(RouteCalculationResult res, Location start, LatLon end, ApplicationMode mode, Context ctx){
 		if(!res.isCalculated()){
 			return;
 		}
 		// speed m/s
-		float speed = 1.5f;
-		int minDistanceForTurn = 5;
-		if(mode == ApplicationMode.CAR){
-			speed = 15.3f;
-			minDistanceForTurn = 35;
-		} else if(mode == ApplicationMode.BICYCLE){
-			speed = 5.5f;
-			minDistanceForTurn = 12;
-		}
+		float speed = getAverageSpeed(mode);
+		int minDistanceForTurn = getMinDistanceForTurn(mode);
 		
 		
 
@@ -608,55 +638,131 @@ public class RouteProvider {
 	protected RouteCalculationResult findVectorMapsRoute(Location start, LatLon end, ApplicationMode mode, boolean fast, OsmandApplication app) throws IOException {
 		BinaryMapIndexReader[] files = app.getResourceManager().getRoutingMapFiles();
 		BinaryRoutePlanner router = new BinaryRoutePlanner(files);
+		RoutingContext ctx = getRoutingContext(files, end, mode, fast);
+		RouteSegment st= router.findRouteSegment(start.getLatitude(), start.getLongitude(), ctx);
+		if (st == null) {
+			return new RouteCalculationResult("Start point is far from allowed road.");
+		}
+		RouteSegment en = router.findRouteSegment(end.getLatitude(), end.getLongitude(), ctx);
+		if (en == null) {
+			return new RouteCalculationResult("End point is far from allowed road.");
+		}
+		// points, distances and turns are calculated while search route is backtracked
+		RouteResultPipeline pipeline = new RouteResultPipeline(getAverageSpeed(mode), getMinDistanceForTurn(mode), 
+				new LatLon(start.getLatitude(), start.getLongitude()));
+		ctx.setResultPipeline(pipeline);
+		pipeline.start();
+		try {
+			router.searchRoute(ctx, st, en);
+			pipeline.waitForResult();
+			return createVectorMapsResult(pipeline, app);
+		} catch (OutOfMemoryError e) {
+			lastRoutingContext = null;
+			return new RouteCalculationResult("Not enough process memory");
+		} catch (InterruptedException e) {
+			return new RouteCalculationResult(e.getMessage());
+		} finally {
+			pipeline.finish();
+		}
+	}
+	
+	/**
+	 * @return routing context of the last route if it is the same target (loaded roads and backward search tree are reused)
+	 */
+	private synchronized RoutingContext getRoutingContext(BinaryMapIndexReader[] files, LatLon end, ApplicationMode mode, boolean fast) {
+		if (lastRoutingContext != null && Arrays.equals(files, lastRoutingFiles) && mode == lastRoutingMode && fast == lastRoutingFast
+				&& end.equals(lastRoutingEnd)) {
+			return lastRoutingContext;
+		}
 		RoutingContext ctx = new RoutingContext();
 		ctx.setUsingShortestWay(!fast);
 		if(mode == ApplicationMode.BICYCLE){
-			ctx.setRouter(new BicycleRouter());
+			ctx.setRouter(RoutingConfiguration.getDefault().getRouter(RoutingConfiguration.BICYCLE));
 			ctx.setUseStrategyOfIncreasingRoadPriorities(false);
 			ctx.setUseDynamicRoadPrioritising(true);
 		} else if(mode == ApplicationMode.PEDESTRIAN){
-			ctx.setRouter(new PedestrianRouter());
+			ctx.setRouter(RoutingConfiguration.getDefault().getRouter(RoutingConfiguration.PEDESTRIAN));
 			ctx.setUseStrategyOfIncreasingRoadPriorities(false);
 			ctx.setUseDynamicRoadPrioritising(false);
 			ctx.setHeuristicCoefficient(2);
 		} else {
-			ctx.setRouter(new CarRouter());
+			ctx.setRouter(RoutingConfiguration.getDefault().getRouter(RoutingConfiguration.CAR));
 			ctx.setUseStrategyOfIncreasingRoadPriorities(true);
 			ctx.setUseDynamicRoadPrioritising(true);
 		}
-		RouteSegment st= router.findRouteSegment(start.getLatitude(), start.getLongitude(), ctx);
-		if (st == null) {
-			return new RouteCalculationResult("Start point is far from allowed road.");
-		}
-		RouteSegment en = router.findRouteSegment(end.getLatitude(), end.getLongitude(), ctx);
-		if (en == null) {
-			return new RouteCalculationResult("End point is far from allowed road.");
-		}
-		List<Location> res = new ArrayList<Location>();
-		try {
-			List<RouteSegmentResult> result = router.searchRoute(ctx, st, en);
-			for (RouteSegmentResult s : result) {
-				boolean plus = s.startPointIndex < s.endPointIndex;
-				int i = s.startPointIndex;
-				while (true) {
-					Location n = new Location(""); //$NON-NLS-1$
-					n.setLatitude(MapUtils.get31LatitudeY(s.object.getPoint31YTile(i)));
-					n.setLongitude(MapUtils.get31LongitudeX(s.object.getPoint31XTile(i)));
-					res.add(n);
-					if (i == s.endPointIndex) {
-						break;
-					}
-					if (plus) {
-						i++;
-					} else {
-						i--;
-					}
-				}
+		ctx.setIncrementalRerouting(true);
+		lastRoutingContext = ctx;
+		lastRoutingFiles = files;
+		lastRoutingMode = mode;
+		lastRoutingFast = fast;
+		lastRoutingEnd = end;
+		return ctx;
+	}
+	
+	public synchronized void clearLastRoutingContext() {
+		lastRoutingContext = null;
+		lastRoutingFiles = null;
+		lastRoutingEnd = null;
+	}
+	
+	private RouteCalculationResult createVectorMapsResult(RouteResultPipeline pipeline, Context ctx) {
+		int size = pipeline.getPointsSize();
+		if (size == 0) {
+			return new RouteCalculationResult(null);
+		}
+		List<Location> res = new ArrayList<Location>(size);
+		int[] listDistance = new int[size];
+		for (int i = 0; i < size; i++) {
+			Location n = new Location(""); //$NON-NLS-1$
+			n.setLatitude(pipeline.getLatitude(i));
+			n.setLongitude(pipeline.getLongitude(i));
+			res.add(n);
+			listDistance[i] = pipeline.getDistanceToEnd(i);
+		}
+		List<RouteInstruction> instructions = pipeline.getInstructions();
+		List<RouteDirectionInfo> directions = new ArrayList<RouteDirectionInfo>(instructions.size());
+		int afterLeftTime = 0;
+		for (int i = instructions.size() - 1; i >= 0; i--) {
+			RouteInstruction instr = instructions.get(i);
+			RouteDirectionInfo info = new RouteDirectionInfo();
+			info.turnType = TurnType.valueOf(instr.getTurnType());
+			info.turnType.setTurnAngle(instr.getTurnAngle());
+			info.routePointOffset = instr.getRoutePointOffset();
+			info.distance = instr.getDistance();
+			info.expectedTime = instr.getExpectedTime();
+			info.afterLeftTime = afterLeftTime;
+			afterLeftTime += info.expectedTime;
+			if (i == 0) {
+				info.descriptionRoute = getString(ctx, R.string.route_head);
+			} else {
+				info.descriptionRoute = getTurnDescription(ctx, instr.getTurnType());
 			}
-			return new RouteCalculationResult(res, null, start, end, null);
-		} catch (OutOfMemoryError e) {
-			return new RouteCalculationResult("Not enough process memory");
+			if (i == 0 || i < instructions.size() - 1 || info.distance > 0) {
+				info.descriptionRoute += " " + OsmAndFormatter.getFormattedDistance(info.distance, ctx); //$NON-NLS-1$
+			}
+			directions.add(info);
 		}
+		Collections.reverse(directions);
+		return new RouteCalculationResult(res, directions, listDistance);
+	}
+	
+	private String getTurnDescription(Context ctx, String turnType) {
+		if (TurnType.TSLL.equals(turnType)) {
+			return getString(ctx, R.string.route_tsll);
+		} else if (TurnType.TL.equals(turnType)) {
+			return getString(ctx, R.string.route_tl);
+		} else if (TurnType.TSHL.equals(turnType)) {
+			return getString(ctx, R.string.route_tshl);
+		} else if (TurnType.TU.equals(turnType)) {
+			return getString(ctx, R.string.route_tu);
+		} else if (TurnType.TSHR.equals(turnType)) {
+			return getString(ctx, R.string.route_tshr);
+		} else if (TurnType.TR.equals(turnType)) {
+			return getString(ctx, R.string.route_tr);
+		} else if (TurnType.TSLR.equals(turnType)) {
+			return getString(ctx, R.string.route_tslr);
+		}
+		return ""; //$NON-NLS-1$
 	}
 	
 	
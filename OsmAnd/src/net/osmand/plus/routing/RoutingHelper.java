@@ -139,6 +139,8 @@ public class RoutingHelper {
 			// clear last fixed location
 			this.lastFixedLocation = null;
 			this.isFollowingMode = false;
+			// loaded roads are not needed anymore
+			provider.clearLastRoutingContext();
 		}
 	}
 	
@@ -152,6 +154,13 @@ public class RoutingHelper {
 				.unmodifiableList(currentGPXRoute.points);
 	}
 	
+	/**
+	 * @return index of the next point in the list of calculated route nodes
+	 */
+	public synchronized int getCurrentRouteIndex() {
+		return currentRoute;
+	}
+	
 	public void setAppMode(ApplicationMode mode){
 		this.mode = mode;
 		voiceRouter.updateAppMode();
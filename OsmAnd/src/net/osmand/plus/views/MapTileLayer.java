@@ -1,5 +1,8 @@
 package net.osmand.plus.views;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import net.osmand.access.AccessibleToast;
 import net.osmand.map.ITileSource;
 import net.osmand.map.TileSourceManager;
@@ -30,6 +33,7 @@ public class MapTileLayer extends BaseMapLayer {
 	protected RectF latlonRect = new RectF();
 	protected RectF bitmapToDraw = new RectF();
 	protected Rect bitmapToZoom = new Rect();
+	protected List<String> pinnedTiles = new ArrayList<String>();
 	
 
 	protected OsmandMapTileView view;
@@ -149,6 +153,7 @@ public class MapTileLayer extends BaseMapLayer {
 		int maxLevel = Math.min(view.getSettings().MAX_LEVEL_TO_DOWNLOAD_TILE.get(), map.getMaximumZoomSupported());
 		int tileSize = map.getTileSize();
 		boolean oneTileShown = false;
+		pinnedTiles.clear();
 
 		for (int i = 0; i < width; i++) {
 			for (int j = 0; j < height; j++) {
@@ -157,6 +162,7 @@ public class MapTileLayer extends BaseMapLayer {
 				float x1 = (left + i - tileX) * ftileSize + w;
 				float y1 = (top + j - tileY) * ftileSize + h;
 				String ordImgTile = mgr.calculateTileId(map, leftPlusI, topPlusJ, nzoom);
+				pinnedTiles.add(ordImgTile);
 				// asking tile image async
 				boolean imgExist = mgr.tileExistOnFileSystem(ordImgTile, map, leftPlusI, topPlusJ, nzoom);
 				Bitmap bmp = null;
@@ -190,6 +196,7 @@ public class MapTileLayer extends BaseMapLayer {
 					}
 
 					if (bmp != null) {
+						pinnedTiles.add(div == 2 ? imgTile2 : imgTile4);
 						int xZoom = ((left + i) % div) * tileSize / div;
 						int yZoom = ((top + j) % div) * tileSize / div;
 						bitmapToZoom.set(xZoom, yZoom, xZoom + tileSize / div, yZoom + tileSize / div);
@@ -205,6 +212,8 @@ public class MapTileLayer extends BaseMapLayer {
 				}
 			}
 		}
+		// visible tiles should not be evicted while they are shown
+		mgr.getTileImageCache().setPinned(this, pinnedTiles);
 		
 		if(mainMap && !oneTileShown && !useInternet && warningToSwitchMapShown < 3){
 			if(resourceManager.getRenderer().containsLatLonMapData(view.getLatitude(), view.getLongitude(), nzoom)){
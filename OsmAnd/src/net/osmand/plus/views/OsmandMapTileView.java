@@ -12,6 +12,7 @@ import net.osmand.data.MapTileDownloader.DownloadRequest;
 import net.osmand.data.MapTileDownloader.IMapDownloaderCallback;
 import net.osmand.map.IMapLocationListener;
 import net.osmand.osm.LatLon;
+import net.osmand.osm.MapProjection;
 import net.osmand.osm.MapUtils;
 import net.osmand.plus.OsmandApplication;
 import net.osmand.plus.OsmandSettings;
@@ -76,6 +77,7 @@ public class OsmandMapTileView extends SurfaceView implements IMapDownloaderCall
 	
 	private float rotateSin = 0;
 	private float rotateCos = 1;
+	private MapProjection projection = new MapProjection(0, 0, 0, 0, 0, 0, 256);
 
 	private int mapPosition;
 
@@ -437,11 +439,6 @@ public class OsmandMapTileView extends SurfaceView implements IMapDownloaderCall
 		// long time = System.currentTimeMillis();
 
 		boolean useInternet = getSettings().USE_INTERNET_TO_DOWNLOAD_TILES.get();
-		if (useInternet) {
-			if(application != null) {
-				application.getResourceManager().getMapTileDownloader().refuseAllPreviousRequests();
-			}
-		}
 		
 
 		SurfaceHolder holder = getHolder();
@@ -463,6 +460,11 @@ public class OsmandMapTileView extends SurfaceView implements IMapDownloaderCall
 				try {
 					boundsRect.set(0, 0, getWidth(), getHeight());
 					calculateTileRectangle(boundsRect, w, h, tileX, tileY, tilesRect);
+					if (useInternet && application != null) {
+						// reorder queued tiles by distance to the new center and cancel tiles out of the view
+						application.getResourceManager().getMapTileDownloader().setCurrentView(nzoom, tileX, tileY,
+								(tilesRect.right - tilesRect.left) / 2, (tilesRect.bottom - tilesRect.top) / 2);
+					}
 					latlonRect.top = (float) MapUtils.getLatitudeFromTile(nzoom, tilesRect.top);
 					latlonRect.left = (float) MapUtils.getLongitudeFromTile(nzoom, tilesRect.left);
 					latlonRect.bottom = (float) MapUtils.getLatitudeFromTile(nzoom, tilesRect.bottom);
@@ -601,34 +603,44 @@ public class OsmandMapTileView extends SurfaceView implements IMapDownloaderCall
 	 * These methods do not consider rotating
 	 */
 	public int getMapXForPoint(double longitude) {
-		double tileX = MapUtils.getTileNumberX(getZoom(), longitude);
+		double tileX = MapProjection.getTileNumberX(getZoom(), longitude);
 		return (int) ((tileX - getXTile()) * getTileSize() + getCenterPointX());
 	}
 
 	public int getMapYForPoint(double latitude) {
-		double tileY = MapUtils.getTileNumberY(getZoom(), latitude);
+		double tileY = MapProjection.getTileNumberY(getZoom(), latitude);
 		return (int) ((tileY - getYTile()) * getTileSize() + getCenterPointY());
 	}
 
 	public int getRotatedMapXForPoint(double latitude, double longitude) {
 		int cx = getCenterPointX();
-		double xTile = MapUtils.getTileNumberX(getZoom(), longitude);
-		double yTile = MapUtils.getTileNumberY(getZoom(), latitude);
+		double xTile = MapProjection.getTileNumberX(getZoom(), longitude);
+		double yTile = MapProjection.getTileNumberY(getZoom(), latitude);
 		return (int) (calcDiffPixelX((float) (xTile - getXTile()), (float) (yTile - getYTile())) + cx);
 	}
 
 	public int getRotatedMapYForPoint(double latitude, double longitude) {
 		int cy = getCenterPointY();
-		double xTile = MapUtils.getTileNumberX(getZoom(), longitude);
-		double yTile = MapUtils.getTileNumberY(getZoom(), latitude);
+		double xTile = MapProjection.getTileNumberX(getZoom(), longitude);
+		double yTile = MapProjection.getTileNumberY(getZoom(), latitude);
 		return (int) (calcDiffPixelY((float) (xTile - getXTile()), (float) (yTile - getYTile())) + cy);
 	}
 
+	/**
+	 * @param rotated - projection to pixels of rotated map (as {@link #getRotatedMapXForPoint(double, double)})
+	 * or not rotated (as {@link #getMapXForPoint(double)})
+	 * @return projection of current view to convert many points at once (the same object is returned by next call)
+	 */
+	public MapProjection getProjection(boolean rotated) {
+		projection.set(getZoom(), getXTile(), getYTile(), getCenterPointX(), getCenterPointY(), rotated ? getRotate() : 0, getTileSize());
+		return projection;
+	}
+
 	public boolean isPointOnTheRotatedMap(double latitude, double longitude) {
 		int cx = getCenterPointX();
 		int cy = getCenterPointY();
-		double xTile = MapUtils.getTileNumberX(getZoom(), longitude);
-		double yTile = MapUtils.getTileNumberY(getZoom(), latitude);
+		double xTile = MapProjection.getTileNumberX(getZoom(), longitude);
+		double yTile = MapProjection.getTileNumberY(getZoom(), latitude);
 		int newX = (int) (calcDiffPixelX((float) (xTile - getXTile()), (float) (yTile - getYTile())) + cx);
 		int newY = (int) (calcDiffPixelY((float) (xTile - getXTile()), (float) (yTile - getYTile())) + cy);
 		if (newX >= 0 && newX <= getWidth() && newY >= 0 && newY <= getHeight()) {
@@ -27,6 +27,11 @@ public class RouteLayer extends OsmandMapLayer {
 	private Rect boundsRect;
 	private RectF tileRect;
 	private List<Location> points = new ArrayList<Location>();
+	// projected points
+	private double[] lats = new double[0];
+	private double[] lons = new double[0];
+	private float[] xs = new float[0];
+	private float[] ys = new float[0];
 	private Paint paint;
 
 	private Path path;
@@ -88,18 +93,23 @@ public class RouteLayer extends OsmandMapLayer {
 				Log.e(LogUtil.TAG, "Calculate route layer " + (System.currentTimeMillis() - time)); //$NON-NLS-1$
 			}
 			
-			if (points.size() > 0) {
-				int px = view.getMapXForPoint(points.get(0).getLongitude());
-				int py = view.getMapYForPoint(points.get(0).getLatitude());
-				path.moveTo(px, py);
-				for (int i = 1; i < points.size(); i++) {
+			int size = points.size();
+			if (size > 0) {
+				if (lats.length < size) {
+					lats = new double[size * 2];
+					lons = new double[size * 2];
+					xs = new float[size * 2];
+					ys = new float[size * 2];
+				}
+				for (int i = 0; i < size; i++) {
 					Location o = points.get(i);
-					int x = view.getMapXForPoint(o.getLongitude());
-					int y = view.getMapYForPoint(o.getLatitude());
-//					if (i == 1) {
-//						pathBearing = (float) (Math.atan2(y - py, x - px) / Math.PI * 180);
-//					}
-					path.lineTo(x, y);
+					lats[i] = o.getLatitude();
+					lons[i] = o.getLongitude();
+				}
+				view.getProjection(false).getPixels(lats, lons, xs, ys, size);
+				path.moveTo((int) xs[0], (int) ys[0]);
+				for (int i = 1; i < size; i++) {
+					path.lineTo((int) xs[i], (int) ys[i]);
 				}
 				canvas.drawPath(path, paint);
 			}